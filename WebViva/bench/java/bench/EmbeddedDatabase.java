@@ -0,0 +1,126 @@
+package bench;
+
+import ch.vorburger.mariaDB4j.DB;
+import ch.vorburger.mariaDB4j.DBConfigurationBuilder;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import util.HibernateUtil;
+import util.MigrationRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * An embedded MariaDB for the benchmarks and the load test, built from
+ * dynex_database.sql.
+ *
+ * The schema script runs up to its reference queries (those have ?
+ * placeholders), then the migrations, so the benchmarks see the same tables
+ * and indexes as a real install. The sample data is padded with generated
+ * products (with S/M/L stock) and orders to sizes where index choices
+ * matter. "ant bench" and "ant load-test" rewrite hibernate.cfg.xml to point
+ * at this server (port bench.db.port, default 3407).
+ */
+final class EmbeddedDatabase {
+
+    private static final int BATCH = 1000;
+
+    private EmbeddedDatabase() {}
+
+    static DB start(int products, int orders) throws Exception {
+        DBConfigurationBuilder config = DBConfigurationBuilder.newBuilder();
+        config.setPort(Integer.getInteger("bench.db.port", 3407));
+        DB db = DB.newEmbeddedDB(config.build());
+        db.start();
+        db.run(schemaScript(), "root", null, null);
+        MigrationRunner.migrate();
+        seed(products, orders);
+        return db;
+    }
+
+    // dynex_database.sql without the "USEFUL QUERIES" reference section at the end
+    private static String schemaScript() throws IOException {
+        InputStream in = EmbeddedDatabase.class.getClassLoader().getResourceAsStream("dynex_database.sql");
+        if (in == null) {
+            throw new IOException("dynex_database.sql is not on the benchmark classpath");
+        }
+        StringBuilder script = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.startsWith("-- USEFUL QUERIES")) {
+                script.append(line).append('\n');
+            }
+        }
+        return script.toString();
+    }
+
+    private static void seed(final int products, final int orders) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    connection.setAutoCommit(false);
+                    long now = System.currentTimeMillis();
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO products (name, description, price, sku, stock_quantity, category_id, "
+                            + "is_active, created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                        for (int i = 0; i < products; i++) {
+                            Timestamp created = new Timestamp(now - i * 60000L);
+                            insert.setString(1, "Bench Product " + i);
+                            insert.setString(2, "Generated for benchmarks");
+                            insert.setBigDecimal(3, new BigDecimal(10 + i % 90));
+                            insert.setString(4, "BENCH-" + i);
+                            insert.setInt(5, i % 50);
+                            insert.setLong(6, 1 + i % 5);
+                            insert.setBoolean(7, i % 10 != 0);
+                            insert.setTimestamp(8, created);
+                            insert.setTimestamp(9, created);
+                            insert.addBatch();
+                            if ((i + 1) % BATCH == 0) insert.executeBatch();
+                        }
+                        insert.executeBatch();
+                    }
+                    try (PreparedStatement sizes = connection.prepareStatement(
+                            "INSERT INTO product_sizes (product_id, size, stock_quantity) "
+                            + "SELECT p.id, s.size, 100 FROM products p "
+                            + "CROSS JOIN (SELECT 'S' AS size UNION ALL SELECT 'M' UNION ALL SELECT 'L') s "
+                            + "WHERE p.sku LIKE 'BENCH-%'")) {
+                        sizes.executeUpdate();
+                    }
+                    try (PreparedStatement insert = connection.prepareStatement(
+                            "INSERT INTO orders (user_id, order_number, status, total_amount, payment_status, "
+                            + "created_at, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                        for (int i = 0; i < orders; i++) {
+                            Timestamp created = new Timestamp(now - i * 300000L);
+                            insert.setLong(1, 1 + i % 2);
+                            insert.setString(2, "BENCH-" + i);
+                            insert.setString(3, i % 7 == 0 ? "PENDING" : "DELIVERED");
+                            insert.setBigDecimal(4, new BigDecimal(20 + i % 200));
+                            insert.setString(5, "PAID");
+                            insert.setTimestamp(6, created);
+                            insert.setTimestamp(7, created);
+                            insert.addBatch();
+                            if ((i + 1) % BATCH == 0) insert.executeBatch();
+                        }
+                        insert.executeBatch();
+                    }
+                    connection.commit();
+                    try (PreparedStatement analyze = connection.prepareStatement("ANALYZE TABLE products, product_sizes, orders")) {
+                        analyze.execute();
+                    }
+                }
+            });
+        } finally {
+            session.close();
+        }
+    }
+}
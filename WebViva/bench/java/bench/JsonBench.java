@@ -0,0 +1,148 @@
+package bench;
+
+import controller.ProductServlet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * escapeJson and extractJsonValue as used by the servlets, against
+ * single-pass replacements.
+ *
+ * The "current" methods call ProductServlet's private helpers; the
+ * "candidate" methods are the proposed replacements, kept here until one is
+ * adopted. The candidate escape also handles backslashes and control
+ * characters, which the current one passes through unescaped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBench {
+
+    private static final MethodHandle ESCAPE_JSON = PrivateMethods.find(ProductServlet.class, "escapeJson", String.class);
+    private static final MethodHandle EXTRACT_JSON_VALUE =
+        PrivateMethods.find(ProductServlet.class, "extractJsonValue", String.class, String.class);
+
+    // A product name as stored, one with quotes, and a long description
+    @Param({"Classic Cotton Tee", "The \"Weekend\" Hoodie - limited", "long"})
+    public String text;
+
+    private ProductServlet servlet;
+    private String value;
+    private String body;
+
+    @Setup
+    public void setup() {
+        servlet = new ProductServlet();
+        if ("long".equals(text)) {
+            StringBuilder description = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                description.append("Soft, breathable cotton with a relaxed fit.\nMachine wash cold. ");
+            }
+            value = description.toString();
+        } else {
+            value = text;
+        }
+        body = "{\"name\":\"Classic Cotton Tee\",\"description\":\"Soft cotton\",\"price\": 29.99,"
+            + "\"categoryId\":3,\"color\":\"Black\",\"material\":\"Cotton\",\"brand\":\"DYNEX\","
+            + "\"stockQuantity\": 120,\"isActive\":true}";
+    }
+
+    @Benchmark
+    public String escapeCurrent() throws Throwable {
+        return (String) ESCAPE_JSON.invokeExact(servlet, value);
+    }
+
+    @Benchmark
+    public String escapeCandidate() {
+        return escape(value);
+    }
+
+    @Benchmark
+    public Object extractCurrent() throws Throwable {
+        String stock = (String) EXTRACT_JSON_VALUE.invokeExact(servlet, body, "stockQuantity");
+        String active = (String) EXTRACT_JSON_VALUE.invokeExact(servlet, body, "isActive");
+        return stock + active;
+    }
+
+    @Benchmark
+    public Object extractCandidate() {
+        String stock = extract(body, "stockQuantity");
+        String active = extract(body, "isActive");
+        return stock + active;
+    }
+
+    // One pass; returns the input itself when nothing needs escaping
+    static String escape(String str) {
+        if (str == null) return "";
+        int length = str.length();
+        int i = 0;
+        while (i < length) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) break;
+            i++;
+        }
+        if (i == length) return str;
+
+        StringBuilder escaped = new StringBuilder(length + 16).append(str, 0, i);
+        for (; i < length; i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"': escaped.append("\\\""); break;
+                case '\\': escaped.append("\\\\"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                case '\t': escaped.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        escaped.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    // Same contract as the servlet helper, without building the search key string
+    static String extract(String json, String key) {
+        int length = json.length();
+        int from = 0;
+        while (true) {
+            int quote = json.indexOf('"', from);
+            if (quote < 0 || quote + key.length() + 2 >= length) return null;
+            int end = quote + 1 + key.length();
+            if (json.regionMatches(quote + 1, key, 0, key.length()) && json.charAt(end) == '"' && json.charAt(end + 1) == ':') {
+                int start = end + 2;
+                while (start < length && Character.isWhitespace(json.charAt(start))) start++;
+                if (start >= length) return null;
+                if (json.charAt(start) == '"') {
+                    int close = json.indexOf('"', start + 1);
+                    return close < 0 ? null : json.substring(start + 1, close);
+                }
+                int stop = start;
+                while (stop < length) {
+                    char c = json.charAt(stop);
+                    if (c == ',' || c == '}' || c == ']') break;
+                    stop++;
+                }
+                return json.substring(start, stop).trim();
+            }
+            from = quote + 1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency samples and error counts per endpoint for the load test.
+ *
+ * Samples are kept exactly (a local run records at most a few million), so
+ * the percentiles in the report are exact rather than bucketed.
+ */
+final class LatencyRecorder {
+
+    static final class Stats {
+        private long[] samples = new long[1024];
+        private int count;
+        private int errors;
+
+        synchronized void record(long latencyNanos, boolean ok) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = latencyNanos;
+            if (!ok) errors++;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(samples, count);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        synchronized int errors() {
+            return errors;
+        }
+    }
+
+    private final Map<String, Stats> byEndpoint = new TreeMap<String, Stats>();
+    private volatile boolean recording;
+
+    void start() {
+        recording = true;
+    }
+
+    void record(String endpoint, long latencyNanos, boolean ok) {
+        if (!recording) return;
+        stats(endpoint).record(latencyNanos, ok);
+    }
+
+    synchronized Map<String, Stats> snapshot() {
+        return new TreeMap<String, Stats>(byEndpoint);
+    }
+
+    private synchronized Stats stats(String endpoint) {
+        Stats stats = byEndpoint.get(endpoint);
+        if (stats == null) {
+            stats = new Stats();
+            byEndpoint.put(endpoint, stats);
+        }
+        return stats;
+    }
+
+    // Nearest-rank percentile of sorted samples, in milliseconds
+    static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1e6;
+    }
+}
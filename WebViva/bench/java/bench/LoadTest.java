@@ -0,0 +1,427 @@
+package bench;
+
+import ch.vorburger.mariaDB4j.DB;
+import org.apache.catalina.startup.Tomcat;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import util.HibernateUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Storefront load generator with a production-like traffic mix.
+ *
+ * By default it starts the real application in an embedded Tomcat on an
+ * embedded MariaDB (see EmbeddedDatabase), signs up and logs in a pool of
+ * virtual users, and then sends requests as an open model: arrivals follow a
+ * Poisson process at -Dload.rate per second whatever the response times, so
+ * a slow server builds up concurrency like it would in production instead of
+ * quietly slowing the generator down. Latency is measured from the intended
+ * arrival time. Checkouts are paid through PaymentGatewayStub, which posts
+ * signed callbacks to /VerifyPayments like PayHere.
+ *
+ * Settings (system properties):
+ *   load.baseUrl      test a running server instead (e.g. http://host:8080/WebViva)
+ *   load.rate         arrivals per second (50)
+ *   load.warmup       seconds before recording starts (15)
+ *   load.duration     recorded seconds (60)
+ *   load.users        virtual users (50)
+ *   load.mix          weights, default browse:45,product:30,categories:10,wishlist:10,order:5
+ *   load.maxInFlight  concurrent requests before arrivals are dropped (500)
+ *   load.paymentSuccess  share of payments that succeed (0.95)
+ *   load.report       JSON report file
+ *
+ * In embedded mode the rate limits are raised out of the way unless
+ * -Dload.rateLimits=true; a server under test needs the same
+ * -Ddynex.ratelimit.* settings or most of the traffic will get 429.
+ */
+public final class LoadTest {
+
+    private static final String DEFAULT_MIX = "browse:45,product:30,categories:10,wishlist:10,order:5";
+    private static final int MAX_SELLABLE = 200;
+    private static final String PASSWORD = "loadtest123";
+    private static final String PAYHERE_SANDBOX_SECRET = "MTA3NTMwODIzNDYyNjIyMjI0MjIxMzc5NjUyOTI5NTkyODAwMA==";
+    private static final Pattern ID = Pattern.compile("\"id\":\\s*(\\d+)");
+    private static final Pattern SIZE_STOCK = Pattern.compile("\"size\":\"([^\"]+)\",\"stockQuantity\":(\\d+)");
+
+    private enum Scenario { BROWSE, PRODUCT, CATEGORIES, WISHLIST, ORDER }
+
+    /**
+     * A product that can be ordered: id, price and its in-stock sizes.
+     */
+    private static final class Sellable {
+        final long id;
+        final String price;
+        final List<String> sizes;
+
+        Sellable(long id, String price, List<String> sizes) {
+            this.id = id;
+            this.price = price;
+            this.sizes = sizes;
+        }
+    }
+
+    private static final class VirtualUser {
+        final long id;
+        final StorefrontClient client;
+        final Set<Long> wishlisted = Collections.synchronizedSet(new HashSet<Long>());
+
+        VirtualUser(long id, StorefrontClient client) {
+            this.id = id;
+            this.client = client;
+        }
+    }
+
+    private final String baseUrl;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final PaymentGatewayStub payments;
+    private final AtomicLong dropped = new AtomicLong();
+    private final List<VirtualUser> users = new ArrayList<VirtualUser>();
+    private final List<Long> productIds = new ArrayList<Long>();
+    private final List<Long> categoryIds = new ArrayList<Long>();
+    private final List<Sellable> sellable = new ArrayList<Sellable>();
+
+    private LoadTest(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.payments = new PaymentGatewayStub(baseUrl, PAYHERE_SANDBOX_SECRET,
+            Double.parseDouble(System.getProperty("load.paymentSuccess", "0.95")), 200, 3000, recorder);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = System.getProperty("load.baseUrl");
+        DB db = null;
+        Tomcat tomcat = null;
+        if (baseUrl == null) {
+            db = EmbeddedDatabase.start(Integer.getInteger("load.products", 2000), Integer.getInteger("load.orders", 10000));
+            prepareEmbeddedData();
+            tomcat = startTomcat();
+            baseUrl = "http://localhost:" + tomcat.getConnector().getLocalPort();
+        }
+        try {
+            new LoadTest(baseUrl).run();
+        } finally {
+            if (tomcat != null) {
+                tomcat.stop();
+                tomcat.destroy();
+            }
+            if (db != null) {
+                db.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        Map<Scenario, Integer> mix = parseMix(System.getProperty("load.mix", DEFAULT_MIX));
+        double rate = Double.parseDouble(System.getProperty("load.rate", "50"));
+        int warmup = Integer.getInteger("load.warmup", 15);
+        int duration = Integer.getInteger("load.duration", 60);
+
+        System.out.println("LoadTest: target " + baseUrl);
+        loadCatalog();
+        createUsers(Integer.getInteger("load.users", 50));
+        System.out.println("LoadTest: " + users.size() + " users, " + productIds.size() + " products ("
+            + sellable.size() + " orderable), " + rate + " arrivals/s, mix " + mix);
+
+        int maxInFlight = Integer.getInteger("load.maxInFlight", 500);
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(0, maxInFlight, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>());
+
+        long start = System.nanoTime();
+        long recordFrom = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = recordFrom + TimeUnit.SECONDS.toNanos(duration);
+        long next = start;
+        boolean recording = false;
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!recording && next >= recordFrom) {
+                recorder.start();
+                recording = true;
+                System.out.println("LoadTest: warmup done, recording for " + duration + "s");
+            }
+            final long intended = next;
+            final Scenario scenario = pick(mix);
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(scenario, intended);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                if (recording) dropped.incrementAndGet();
+            }
+            // Exponential gaps make a Poisson arrival process
+            next += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / rate * 1e9);
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(60, TimeUnit.SECONDS);
+        payments.shutdown();
+        report(rate, warmup, duration, mix);
+    }
+
+    private void execute(Scenario scenario, long intended) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        VirtualUser user = users.get(random.nextInt(users.size()));
+        String endpoint;
+        boolean ok;
+        try {
+            switch (scenario) {
+                case BROWSE: {
+                    endpoint = "GET /products";
+                    String query = !categoryIds.isEmpty() && random.nextInt(3) == 0
+                        ? "?categoryId=" + categoryIds.get(random.nextInt(categoryIds.size())) : "";
+                    ok = user.client.get("/products" + query).ok();
+                    break;
+                }
+                case PRODUCT:
+                    endpoint = "GET /products/{id}";
+                    ok = user.client.get("/products/" + productIds.get(random.nextInt(productIds.size()))).ok();
+                    break;
+                case CATEGORIES:
+                    endpoint = "GET /categories";
+                    ok = user.client.get("/categories").ok();
+                    break;
+                case WISHLIST: {
+                    long productId = productIds.get(random.nextInt(productIds.size()));
+                    if (user.wishlisted.remove(productId)) {
+                        endpoint = "DELETE /wishlist";
+                        ok = user.client.delete("/wishlist?productId=" + productId).ok();
+                    } else {
+                        endpoint = "POST /wishlist";
+                        StorefrontClient.Response response = user.client.post("/wishlist?productId=" + productId, "");
+                        // 409 means it was already there, which is fine for a toggle
+                        ok = response.ok() || response.status == 409;
+                        if (ok) user.wishlisted.add(productId);
+                    }
+                    break;
+                }
+                case ORDER:
+                default: {
+                    endpoint = "POST /orders";
+                    StorefrontClient.Response response = user.client.post("/orders", orderForm(user));
+                    ok = response.ok() && response.body.contains("\"success\": true");
+                    if (ok) payments.orderCreated(response.body);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            endpoint = scenarioEndpoint(scenario);
+            ok = false;
+        }
+        recorder.record(endpoint, System.nanoTime() - intended, ok);
+    }
+
+    private String orderForm(VirtualUser user) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder items = new StringBuilder("[");
+        BigDecimal total = BigDecimal.ZERO;
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count && !sellable.isEmpty(); i++) {
+            Sellable product = sellable.get(random.nextInt(sellable.size()));
+            String size = product.sizes.get(random.nextInt(product.sizes.size()));
+            int quantity = 1 + random.nextInt(2);
+            if (i > 0) items.append(",");
+            items.append("{\"productId\":").append(product.id)
+                .append(",\"productName\":\"Load test item\",\"color\":\"Black\",\"size\":\"").append(size)
+                .append("\",\"quantity\":").append(quantity).append(",\"price\":").append(product.price).append("}");
+            total = total.add(new BigDecimal(product.price).multiply(new BigDecimal(quantity)));
+        }
+        items.append("]");
+        return StorefrontClient.form(
+            "userId", String.valueOf(user.id),
+            "totalAmount", total.toPlainString(),
+            "shippingAddress", "1 Load Test Road, Colombo",
+            "paymentMethod", "PAYHERE",
+            "items", items.toString());
+    }
+
+    private void loadCatalog() throws IOException {
+        StorefrontClient client = new StorefrontClient(baseUrl);
+        String categories = client.get("/categories").body;
+        Matcher categoryMatcher = ID.matcher(categories);
+        while (categoryMatcher.find()) {
+            categoryIds.add(Long.valueOf(categoryMatcher.group(1)));
+        }
+        Matcher productMatcher = ID.matcher(client.get("/products").body);
+        Set<Long> seen = new HashSet<Long>();
+        while (productMatcher.find()) {
+            if (seen.add(Long.valueOf(productMatcher.group(1)))) {
+                productIds.add(Long.valueOf(productMatcher.group(1)));
+            }
+        }
+        if (productIds.isEmpty()) {
+            throw new IllegalStateException("GET /products returned no products");
+        }
+        // Sizes and prices come from the detail pages of a sample of the catalog
+        List<Long> sample = new ArrayList<Long>(productIds);
+        Collections.shuffle(sample);
+        for (Long productId : sample.subList(0, Math.min(MAX_SELLABLE, sample.size()))) {
+            String detail = client.get("/products/" + productId).body;
+            List<String> sizes = new ArrayList<String>();
+            Matcher sizeMatcher = SIZE_STOCK.matcher(detail);
+            while (sizeMatcher.find()) {
+                if (Integer.parseInt(sizeMatcher.group(2)) > 0) sizes.add(sizeMatcher.group(1));
+            }
+            String price = StorefrontClient.jsonValue(detail, "price");
+            if (!sizes.isEmpty() && price != null) {
+                sellable.add(new Sellable(productId, price, sizes));
+            }
+        }
+    }
+
+    private void createUsers(int count) throws IOException {
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < count; i++) {
+            String email = "load" + i + "-" + run + "@example.com";
+            StorefrontClient client = new StorefrontClient(baseUrl);
+            StorefrontClient.Response signup = client.post("/signup", StorefrontClient.form(
+                "firstName", "Load", "lastName", "User" + i, "username", email, "email", email, "password", PASSWORD));
+            StorefrontClient.Response login = client.post("/login", StorefrontClient.form("email", email, "password", PASSWORD));
+            String id = StorefrontClient.jsonValue(login.body, "id");
+            if (!signup.ok() || !login.ok() || id == null) {
+                throw new IllegalStateException("Could not create load test user " + email + ": " + signup.body + " " + login.body);
+            }
+            users.add(new VirtualUser(Long.parseLong(id), client));
+        }
+    }
+
+    private void report(double rate, int warmup, int duration, Map<Scenario, Integer> mix) throws IOException {
+        Map<String, LatencyRecorder.Stats> stats = recorder.snapshot();
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"target\":\"").append(baseUrl).append("\",\"arrivalsPerSecond\":").append(rate)
+            .append(",\"warmupSeconds\":").append(warmup).append(",\"durationSeconds\":").append(duration)
+            .append(",\"users\":").append(users.size()).append(",\"mix\":\"").append(mix).append("\"")
+            .append(",\"dropped\":").append(dropped.get()).append(",\"endpoints\":{");
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-22s %8s %7s %8s %9s %9s %9s %9s %9s",
+            "endpoint", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        boolean first = true;
+        for (Map.Entry<String, LatencyRecorder.Stats> entry : stats.entrySet()) {
+            long[] sorted = entry.getValue().sorted();
+            int errors = entry.getValue().errors();
+            double throughput = sorted.length / (double) duration;
+            double p50 = LatencyRecorder.percentileMs(sorted, 50);
+            double p90 = LatencyRecorder.percentileMs(sorted, 90);
+            double p99 = LatencyRecorder.percentileMs(sorted, 99);
+            double p999 = LatencyRecorder.percentileMs(sorted, 99.9);
+            double max = LatencyRecorder.percentileMs(sorted, 100);
+            System.out.println(String.format(Locale.ROOT, "%-22s %8d %7d %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f",
+                entry.getKey(), sorted.length, errors, throughput, p50, p90, p99, p999, max));
+
+            if (!first) json.append(",");
+            first = false;
+            json.append(String.format(Locale.ROOT,
+                "\"%s\":{\"count\":%d,\"errors\":%d,\"perSecond\":%.2f,\"p50Ms\":%.2f,\"p90Ms\":%.2f,"
+                + "\"p99Ms\":%.2f,\"p999Ms\":%.2f,\"maxMs\":%.2f}",
+                entry.getKey(), sorted.length, errors, throughput, p50, p90, p99, p999, max));
+        }
+        json.append("}}");
+        if (dropped.get() > 0) {
+            System.out.println("LoadTest: " + dropped.get() + " arrivals dropped at load.maxInFlight - the numbers above understate latency");
+        }
+
+        String reportFile = System.getProperty("load.report");
+        if (reportFile != null) {
+            File file = new File(reportFile);
+            if (file.getParentFile() != null) file.getParentFile().mkdirs();
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                out.println(json);
+            }
+            System.out.println("LoadTest: report written to " + file);
+        }
+    }
+
+    private static Scenario pick(Map<Scenario, Integer> mix) {
+        int total = 0;
+        for (int weight : mix.values()) total += weight;
+        int roll = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<Scenario, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) return entry.getKey();
+        }
+        return Scenario.BROWSE;
+    }
+
+    private static Map<Scenario, Integer> parseMix(String value) {
+        Map<Scenario, Integer> mix = new LinkedHashMap<Scenario, Integer>();
+        for (String part : value.split(",")) {
+            String[] nameAndWeight = part.trim().split(":");
+            int weight = Integer.parseInt(nameAndWeight[1].trim());
+            if (weight > 0) {
+                mix.put(Scenario.valueOf(nameAndWeight[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("load.mix has no positive weights: " + value);
+        }
+        return mix;
+    }
+
+    private static String scenarioEndpoint(Scenario scenario) {
+        switch (scenario) {
+            case BROWSE: return "GET /products";
+            case PRODUCT: return "GET /products/{id}";
+            case CATEGORIES: return "GET /categories";
+            case WISHLIST: return "POST /wishlist";
+            default: return "POST /orders";
+        }
+    }
+
+    // Plenty of stock, so checkouts measure the write path rather than sell out
+    private static void prepareEmbeddedData() {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Transaction transaction = session.beginTransaction();
+            session.createSQLQuery("UPDATE product_sizes SET stock_quantity = 1000000").executeUpdate();
+            transaction.commit();
+        } finally {
+            session.close();
+        }
+        HibernateUtil.getSessionFactory().close();
+    }
+
+    private static Tomcat startTomcat() throws Exception {
+        if (!Boolean.getBoolean("load.rateLimits")) {
+            for (String endpointClass : new String[] { "auth", "search", "write", "read" }) {
+                System.setProperty("dynex.ratelimit." + endpointClass, "100000000/10000000");
+            }
+        }
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("loadtest-tomcat").toString());
+        tomcat.setPort(Integer.getInteger("load.port", 0));
+        tomcat.getConnector();
+        tomcat.addWebapp("", new File(System.getProperty("load.webDir", "build/bench/web")).getAbsolutePath());
+        tomcat.start();
+        return tomcat;
+    }
+}
@@ -0,0 +1,146 @@
+package bench;
+
+import controller.OrderServlet;
+import model.OrderItem;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the checkout "items" JSON: OrderServlet.parseAndInsertOrderItems
+ * against a single-pass parser.
+ *
+ * Only parsing is measured. The session handed in is a stub whose save()
+ * does nothing, so database time (covered by QueryBench) stays out of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderItemsBench {
+
+    private static final MethodHandle PARSE_AND_INSERT = PrivateMethods.find(OrderServlet.class,
+        "parseAndInsertOrderItems", String.class, Long.class, Session.class);
+
+    // Cart sizes: typical, and a large wholesale-style order
+    @Param({"3", "50"})
+    public int items;
+
+    private OrderServlet servlet;
+    private Session session;
+    private String itemsJson;
+
+    @Setup
+    public void setup() {
+        servlet = new OrderServlet();
+        session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] { Session.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) json.append(", ");
+            json.append("{\"productId\":").append(1 + i).append(",\"productName\":\"Classic Cotton Tee ").append(i)
+                .append("\",\"color\":\"Black\",\"size\":\"L\",\"quantity\":").append(1 + i % 3)
+                .append(",\"price\":29.99}");
+        }
+        itemsJson = json.append("]").toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public List<OrderItem> parseCurrent() throws Throwable {
+        return (List<OrderItem>) PARSE_AND_INSERT.invokeExact(servlet, itemsJson, (Long) 1L, session);
+    }
+
+    @Benchmark
+    public List<OrderItem> parseCandidate() {
+        return parse(itemsJson, 1L);
+    }
+
+    // Walks the string once, reading "key": value pairs inside each {...}
+    static List<OrderItem> parse(String json, Long orderId) {
+        List<OrderItem> parsed = new ArrayList<OrderItem>();
+        int length = json.length();
+        int i = json.indexOf('{');
+        while (i >= 0 && i < length) {
+            Long productId = null;
+            String productName = "";
+            Integer quantity = 1;
+            BigDecimal price = BigDecimal.ZERO;
+            String color = "Default";
+            String size = "M";
+
+            i++;
+            while (i < length && json.charAt(i) != '}') {
+                int keyStart = json.indexOf('"', i);
+                if (keyStart < 0) return parsed;
+                int keyEnd = json.indexOf('"', keyStart + 1);
+                int colon = json.indexOf(':', keyEnd);
+                if (keyEnd < 0 || colon < 0) return parsed;
+                String key = json.substring(keyStart + 1, keyEnd);
+
+                int valueStart = colon + 1;
+                while (valueStart < length && json.charAt(valueStart) == ' ') valueStart++;
+                int valueEnd;
+                String value;
+                if (valueStart < length && json.charAt(valueStart) == '"') {
+                    valueEnd = json.indexOf('"', valueStart + 1);
+                    if (valueEnd < 0) return parsed;
+                    value = json.substring(valueStart + 1, valueEnd);
+                    valueEnd++;
+                } else {
+                    valueEnd = valueStart;
+                    while (valueEnd < length && json.charAt(valueEnd) != ',' && json.charAt(valueEnd) != '}') valueEnd++;
+                    value = json.substring(valueStart, valueEnd).trim();
+                }
+
+                try {
+                    switch (key) {
+                        case "productId": productId = Long.valueOf(value); break;
+                        case "productName": productName = value; break;
+                        case "quantity": quantity = Integer.valueOf(value); break;
+                        case "price": price = new BigDecimal(value); break;
+                        case "color": color = value.isEmpty() ? "Default" : value; break;
+                        case "size": size = value.isEmpty() ? "M" : value; break;
+                        default: break;
+                    }
+                } catch (NumberFormatException e) {
+                    // Malformed numbers keep the field default
+                }
+
+                i = valueEnd;
+                while (i < length && (json.charAt(i) == ',' || json.charAt(i) == ' ')) i++;
+            }
+
+            if (productId != null && !productName.isEmpty()) {
+                parsed.add(new OrderItem(orderId, productId, productName, color, size, quantity, price));
+            }
+            i = json.indexOf('{', i);
+        }
+        return parsed;
+    }
+}
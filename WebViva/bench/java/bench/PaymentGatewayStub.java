@@ -0,0 +1,106 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for PayHere during the load test.
+ *
+ * For every order the storefront creates, it "takes the payment" and after a
+ * short random delay posts the server-to-server notification to
+ * /VerifyPayments, signed the way PayHere signs it, so the callback path
+ * (signature check, row lock, status update, rollups) is loaded in proportion
+ * to checkouts. Most payments succeed; the rest are reported as failed.
+ */
+final class PaymentGatewayStub {
+    private static final int PAYHERE_SUCCESS = 2;
+    private static final int PAYHERE_FAILED = -2;
+
+    private final StorefrontClient client;
+    private final String merchantSecret;
+    private final double successRate;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final LatencyRecorder recorder;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService senders = Executors.newFixedThreadPool(16);
+
+    PaymentGatewayStub(String baseUrl, String merchantSecret, double successRate,
+                       long minDelayMs, long maxDelayMs, LatencyRecorder recorder) {
+        this.client = new StorefrontClient(baseUrl);
+        this.merchantSecret = merchantSecret;
+        this.successRate = successRate;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Called with the body of a successful POST /orders (it carries the payhere block).
+     */
+    void orderCreated(String orderResponse) {
+        final String merchantId = StorefrontClient.jsonValue(orderResponse, "merchant_id");
+        final String orderId = StorefrontClient.jsonValue(orderResponse, "order_id");
+        final String amount = StorefrontClient.jsonValue(orderResponse, "amount");
+        final String currency = StorefrontClient.jsonValue(orderResponse, "currency");
+        if (merchantId == null || orderId == null || amount == null || currency == null) {
+            return;
+        }
+        long delay = minDelayMs + ThreadLocalRandom.current().nextLong(Math.max(1, maxDelayMs - minDelayMs));
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                senders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyPayment(merchantId, orderId, amount, currency);
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() throws InterruptedException {
+        timer.shutdown();
+        timer.awaitTermination(maxDelayMs + 1000, TimeUnit.MILLISECONDS);
+        senders.shutdown();
+        senders.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private void notifyPayment(String merchantId, String orderId, String amount, String currency) {
+        int statusCode = ThreadLocalRandom.current().nextDouble() < successRate ? PAYHERE_SUCCESS : PAYHERE_FAILED;
+        String signature = md5(merchantId + orderId + amount + currency + md5(merchantSecret));
+        long started = System.nanoTime();
+        boolean ok = false;
+        try {
+            ok = client.post("/VerifyPayments", StorefrontClient.form(
+                "merchant_id", merchantId,
+                "order_id", orderId,
+                "payhere_amount", amount,
+                "payhere_currency", currency,
+                "status_code", String.valueOf(statusCode),
+                "md5sig", signature)).ok();
+        } catch (Exception e) {
+            ok = false;
+        }
+        recorder.record("POST /VerifyPayments", System.nanoTime() - started, ok);
+    }
+
+    private static String md5(String input) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(input.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString().toUpperCase();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+
+/**
+ * Handles to the private helpers the benchmarks measure.
+ *
+ * The benchmarks call the servlet code as it is in the tree, not a copy, so
+ * results from different commits compare the code that actually shipped.
+ * A static final MethodHandle is inlined by the JIT like a direct call.
+ */
+final class PrivateMethods {
+
+    private PrivateMethods() {}
+
+    static MethodHandle find(Class<?> owner, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = owner.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(owner.getSimpleName() + "." + name + " not found - update the benchmark", e);
+        }
+    }
+}
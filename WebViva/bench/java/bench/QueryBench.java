@@ -0,0 +1,124 @@
+package bench;
+
+import ch.vorburger.mariaDB4j.DB;
+import model.Order;
+import model.Product;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.HibernateUtil;
+import util.IndexAdvisor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database time of the backend's hot queries on an embedded MariaDB.
+ *
+ * "hotQuery" runs each IndexAdvisor query shape as plain SQL, so an index
+ * change shows up directly. The entity benchmarks go through Hibernate the
+ * way the servlets do and include hydration of the mapped objects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBench {
+
+    /**
+     * The embedded database, started once per fork.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param("20000")
+        public int products;
+
+        @Param("50000")
+        public int orders;
+
+        private DB db;
+
+        @Setup
+        public void setup() throws Exception {
+            db = EmbeddedDatabase.start(products, orders);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            HibernateUtil.getSessionFactory().close();
+            db.stop();
+        }
+    }
+
+    /**
+     * One IndexAdvisor query shape, by name.
+     */
+    @State(Scope.Benchmark)
+    public static class HotQuery {
+        @Param({"product list", "product list by category", "user order history", "admin order list",
+            "order items for orders", "product reviews page"})
+        public String query;
+
+        private String sql;
+
+        @Setup
+        public void setup() {
+            for (IndexAdvisor.HotQuery hotQuery : IndexAdvisor.getQueries()) {
+                if (hotQuery.getName().equals(query)) {
+                    sql = hotQuery.getSql();
+                }
+            }
+            if (sql == null) {
+                throw new IllegalStateException("No IndexAdvisor query named " + query);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<?> hotQuery(Database database, HotQuery hotQuery) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.createSQLQuery(hotQuery.sql).list();
+        } finally {
+            session.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public List<Product> productListEntities(Database database) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.createQuery("FROM Product p WHERE p.isActive = true ORDER BY p.createdAt DESC")
+                .setMaxResults(20)
+                .list();
+        } finally {
+            session.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Benchmark
+    public List<Order> orderHistoryEntities(Database database) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.createQuery("FROM Order o WHERE o.userId = :userId ORDER BY o.createdAt DESC")
+                .setParameter("userId", 2L)
+                .setMaxResults(21)
+                .list();
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import util.SnowflakeId;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Multi-threaded uniqueness check for SnowflakeId.
+ *
+ * Threads draw ids from one generator as fast as they can; the run fails if
+ * any id repeats or if a thread ever sees its ids go backwards. Also prints
+ * the throughput. Run after "ant bench" has compiled the bench classes:
+ *
+ *   java -cp build/bench/classes:build/web/WEB-INF/classes bench.SnowflakeIdStress [threads] [idsPerThread]
+ */
+public final class SnowflakeIdStress {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        final int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final SnowflakeId generator = new SnowflakeId(1);
+        final long[][] ids = new long[threads][perThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        final String[] failure = new String[1];
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long[] mine = ids[t];
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long previous = Long.MIN_VALUE;
+                    for (int i = 0; i < perThread; i++) {
+                        long id = generator.next();
+                        if (id <= previous) {
+                            failure[0] = "ids went backwards: " + previous + " then " + id;
+                        }
+                        mine[i] = previous = id;
+                    }
+                }
+            });
+            workers[t].start();
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - started;
+
+        long[] all = new long[threads * perThread];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(ids[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        int duplicates = 0;
+        for (int i = 1; i < all.length; i++) {
+            if (all[i] == all[i - 1]) duplicates++;
+        }
+
+        System.out.printf("%d threads x %d ids: %d duplicates, %.1f million ids/s%n",
+            threads, perThread, duplicates, all.length / (elapsed / 1e9) / 1e6);
+        System.out.println("sample order number: " + SnowflakeId.orderNumber());
+        if (duplicates > 0 || failure[0] != null) {
+            System.out.println("FAILED" + (failure[0] != null ? ": " + failure[0] : ""));
+            System.exit(1);
+        }
+    }
+}
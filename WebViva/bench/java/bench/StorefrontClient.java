@@ -0,0 +1,134 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal HTTP client for the load test: one instance per virtual user,
+ * holding that user's session cookie.
+ */
+final class StorefrontClient {
+
+    static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        boolean ok() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    private static final int TIMEOUT_MS = 30000;
+
+    private final String baseUrl;
+    private volatile String sessionCookie;
+
+    StorefrontClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    Response get(String path) throws IOException {
+        return send("GET", path, null);
+    }
+
+    Response post(String path, String form) throws IOException {
+        return send("POST", path, form);
+    }
+
+    Response delete(String path) throws IOException {
+        return send("DELETE", path, null);
+    }
+
+    private Response send(String method, String path, String form) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setInstanceFollowRedirects(false);
+        String cookie = sessionCookie;
+        if (cookie != null) {
+            connection.setRequestProperty("Cookie", cookie);
+        }
+        if (form != null) {
+            byte[] body = form.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        rememberSession(connection.getHeaderFields());
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        String body = "";
+        if (in != null) {
+            // Reading to the end lets HttpURLConnection reuse the keep-alive connection
+            try (InputStream stream = in) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = stream.read(chunk)) != -1) {
+                    buffer.write(chunk, 0, read);
+                }
+                body = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+        return new Response(status, body);
+    }
+
+    private void rememberSession(Map<String, List<String>> headers) {
+        List<String> cookies = headers.get("Set-Cookie");
+        if (cookies == null) return;
+        for (String cookie : cookies) {
+            if (cookie.startsWith("JSESSIONID=")) {
+                int end = cookie.indexOf(';');
+                sessionCookie = end > 0 ? cookie.substring(0, end) : cookie;
+            }
+        }
+    }
+
+    static String form(String... namesAndValues) {
+        StringBuilder form = new StringBuilder();
+        try {
+            for (int i = 0; i < namesAndValues.length; i += 2) {
+                if (i > 0) form.append('&');
+                form.append(namesAndValues[i]).append('=').append(URLEncoder.encode(namesAndValues[i + 1], "UTF-8"));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return form.toString();
+    }
+
+    // Value of "key": "..." or "key": 123 in a flat JSON response
+    static String jsonValue(String json, String key) {
+        String search = "\"" + key + "\":";
+        int at = json.indexOf(search);
+        if (at < 0) return null;
+        int start = at + search.length();
+        while (start < json.length() && json.charAt(start) == ' ') start++;
+        if (start >= json.length()) return null;
+        if (json.charAt(start) == '"') {
+            int end = json.indexOf('"', start + 1);
+            return end < 0 ? null : json.substring(start + 1, end);
+        }
+        int end = start;
+        while (end < json.length() && ",}] ".indexOf(json.charAt(end)) < 0) end++;
+        return json.substring(start, end);
+    }
+}
@@ -0,0 +1,386 @@
+package controller;
+
+import service.ProductViews;
+import service.SalesRollups;
+import util.HibernateUtil;
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AdminAnalyticsServlet - sales analytics for the admin dashboard.
+ *
+ * GET  /admin/analytics?from=yyyy-MM-dd&to=yyyy-MM-dd&top=10
+ *      Totals, per-day series, per-category and top-product sales for the range,
+ *      read from the sales_daily* rollup tables (cost grows with days, not orders).
+ *      top is capped at 100; a non-numeric or non-positive top is a 400.
+ * POST /admin/analytics/backfill?from=yyyy-MM-dd&to=yyyy-MM-dd
+ *      Rebuild the rollups for a range from the orders table in the background.
+ * GET  /admin/analytics/backfill
+ *      Status of the last backfill.
+ * GET  /admin/analytics/views
+ *      Counters of the product view pipeline, including views it dropped.
+ *
+ * Every path requires an ADMIN session.
+ */
+@WebServlet({"/admin/analytics", "/admin/analytics/*"})
+public class AdminAnalyticsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_RANGE_DAYS = 30;
+    private static final int DEFAULT_TOP_PRODUCTS = 10;
+    private static final int MAX_TOP_PRODUCTS = 100;
+
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean backfillRunning = new AtomicBoolean(false);
+    private volatile String lastBackfillStatus = "never run";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+
+        PrintWriter out = response.getWriter();
+
+        try {
+            HttpSession httpSession = request.getSession(false);
+            if (httpSession == null || !"ADMIN".equals(httpSession.getAttribute("userRole"))) {
+                response.setStatus(403);
+                out.print("{\"success\":false,\"error\":\"Admin access required\"}");
+                return;
+            }
+
+            if ("/backfill".equals(request.getPathInfo())) {
+                out.print("{\"success\":true,\"data\":{");
+                out.print("\"running\":" + backfillRunning.get() + ",");
+                out.print("\"lastStatus\":\"" + escapeJson(lastBackfillStatus) + "\"");
+                out.print("}}");
+                return;
+            }
+            if ("/views".equals(request.getPathInfo())) {
+                ProductViews.Stats stats = ProductViews.getInstance().stats();
+                out.print("{\"success\":true,\"data\":{");
+                out.print("\"recorded\":" + stats.getRecorded() + ",");
+                out.print("\"written\":" + stats.getWritten() + ",");
+                out.print("\"droppedQueueFull\":" + stats.getDroppedQueueFull() + ",");
+                out.print("\"droppedBacklog\":" + stats.getDroppedBacklog() + ",");
+                out.print("\"queued\":" + stats.getQueued() + ",");
+                out.print("\"queueCapacity\":" + stats.getQueueCapacity() + ",");
+                out.print("\"pendingProductMinutes\":" + stats.getPendingProductMinutes() + ",");
+                out.print("\"flushes\":" + stats.getFlushes() + ",");
+                out.print("\"failedFlushes\":" + stats.getFailedFlushes() + ",");
+                out.print("\"lastFlushAt\":" + stats.getLastFlushAt() + ",");
+                out.print("\"lastFlushMs\":" + stats.getLastFlushMs() + ",");
+                out.print("\"lastError\":" + (stats.getLastError() == null
+                    ? "null" : "\"" + escapeJson(stats.getLastError()) + "\""));
+                out.print("}}");
+                return;
+            }
+
+            Date to = parseDate(request.getParameter("to"), today());
+            Date from = parseDate(request.getParameter("from"), addDays(to, -(DEFAULT_RANGE_DAYS - 1)));
+            String topStr = request.getParameter("top");
+            int top = topStr != null && !topStr.isEmpty() ? Integer.parseInt(topStr.trim()) : DEFAULT_TOP_PRODUCTS;
+            if (top < 1) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"error\":\"'top' must be at least 1\"}");
+                return;
+            }
+            top = Math.min(top, MAX_TOP_PRODUCTS);
+
+            if (from.after(to)) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"error\":\"'from' must not be after 'to'\"}");
+                return;
+            }
+
+            out.print(buildAnalyticsJson(from, to, top));
+
+        } catch (ParseException | NumberFormatException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"error\":\"Invalid parameter: " + escapeJson(e.getMessage()) + "\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"error\":\"Failed to load analytics: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+
+        PrintWriter out = response.getWriter();
+
+        try {
+            if (!"/backfill".equals(request.getPathInfo())) {
+                response.setStatus(404);
+                out.print("{\"success\":false,\"error\":\"Unknown analytics action\"}");
+                return;
+            }
+
+            HttpSession httpSession = request.getSession(false);
+            if (httpSession == null || !"ADMIN".equals(httpSession.getAttribute("userRole"))) {
+                response.setStatus(403);
+                out.print("{\"success\":false,\"error\":\"Admin access required\"}");
+                return;
+            }
+
+            final Date to = parseDate(request.getParameter("to"), today());
+            String fromStr = request.getParameter("from");
+            final Date from = fromStr != null && !fromStr.isEmpty() ? parseDate(fromStr, null) : firstOrderDate(to);
+
+            if (!backfillRunning.compareAndSet(false, true)) {
+                response.setStatus(409);
+                out.print("{\"success\":false,\"error\":\"A backfill is already running\"}");
+                return;
+            }
+
+            final SimpleDateFormat format = dateFormat();
+            final String range = format.format(from) + " .. " + format.format(to);
+            lastBackfillStatus = "running " + range;
+            backfillExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int days = SalesRollups.backfill(from, to);
+                        lastBackfillStatus = "completed " + range + " (" + days + " days)";
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        lastBackfillStatus = "failed " + range + ": " + e.getMessage();
+                    } finally {
+                        backfillRunning.set(false);
+                    }
+                }
+            });
+
+            response.setStatus(202);
+            out.print("{\"success\":true,\"data\":{\"message\":\"Backfill started\",\"range\":\"" + range + "\"}}");
+
+        } catch (ParseException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"error\":\"Invalid date: " + escapeJson(e.getMessage()) + "\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"error\":\"Failed to start backfill: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    @Override
+    public void destroy() {
+        backfillExecutor.shutdownNow();
+        super.destroy();
+    }
+
+    private String buildAnalyticsJson(Date from, Date to, int top) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            SimpleDateFormat format = dateFormat();
+            StringBuilder json = new StringBuilder();
+            json.append("{\"success\":true,\"data\":{");
+            json.append("\"from\":\"").append(format.format(from)).append("\",");
+            json.append("\"to\":\"").append(format.format(to)).append("\",");
+
+            // Per-day series; totals are summed from the same rows
+            Query dailyQuery = session.createSQLQuery(
+                "SELECT sales_date, order_count, units_sold, revenue FROM sales_daily " +
+                "WHERE sales_date BETWEEN ? AND ? ORDER BY sales_date");
+            dailyQuery.setDate(0, from);
+            dailyQuery.setDate(1, to);
+            @SuppressWarnings("unchecked")
+            List<Object[]> dailyRows = dailyQuery.list();
+
+            long totalOrders = 0;
+            long totalUnits = 0;
+            BigDecimal totalRevenue = BigDecimal.ZERO;
+            StringBuilder daily = new StringBuilder("[");
+            for (int i = 0; i < dailyRows.size(); i++) {
+                Object[] row = dailyRows.get(i);
+                long orders = ((Number) row[1]).longValue();
+                long units = ((Number) row[2]).longValue();
+                BigDecimal revenue = toBigDecimal(row[3]);
+                totalOrders += orders;
+                totalUnits += units;
+                totalRevenue = totalRevenue.add(revenue);
+
+                if (i > 0) daily.append(",");
+                daily.append("{\"date\":\"").append(format.format((Date) row[0])).append("\",");
+                daily.append("\"orders\":").append(orders).append(",");
+                daily.append("\"unitsSold\":").append(units).append(",");
+                daily.append("\"revenue\":").append(revenue).append("}");
+            }
+            daily.append("]");
+
+            // Order counts by current status
+            Query statusQuery = session.createSQLQuery(
+                "SELECT status, SUM(order_count) FROM sales_daily_status " +
+                "WHERE sales_date BETWEEN ? AND ? GROUP BY status");
+            statusQuery.setDate(0, from);
+            statusQuery.setDate(1, to);
+            @SuppressWarnings("unchecked")
+            List<Object[]> statusRows = statusQuery.list();
+
+            long pendingOrders = 0;
+            StringBuilder byStatus = new StringBuilder("{");
+            for (int i = 0; i < statusRows.size(); i++) {
+                Object[] row = statusRows.get(i);
+                long count = row[1] != null ? ((Number) row[1]).longValue() : 0;
+                if ("PENDING".equals(row[0])) {
+                    pendingOrders = count;
+                }
+                if (i > 0) byStatus.append(",");
+                byStatus.append("\"").append(escapeJson(String.valueOf(row[0]))).append("\":").append(count);
+            }
+            byStatus.append("}");
+
+            json.append("\"totals\":{");
+            json.append("\"orders\":").append(totalOrders).append(",");
+            json.append("\"unitsSold\":").append(totalUnits).append(",");
+            json.append("\"revenue\":").append(totalRevenue).append(",");
+            json.append("\"pendingOrders\":").append(pendingOrders);
+            json.append("},");
+            json.append("\"byStatus\":").append(byStatus).append(",");
+            json.append("\"daily\":").append(daily).append(",");
+
+            // Sales per category
+            Query categoryQuery = session.createSQLQuery(
+                "SELECT r.category_id, c.name, SUM(r.units_sold), SUM(r.revenue) " +
+                "FROM sales_daily_category r LEFT JOIN categories c ON c.id = r.category_id " +
+                "WHERE r.sales_date BETWEEN ? AND ? " +
+                "GROUP BY r.category_id, c.name ORDER BY SUM(r.revenue) DESC");
+            categoryQuery.setDate(0, from);
+            categoryQuery.setDate(1, to);
+            @SuppressWarnings("unchecked")
+            List<Object[]> categoryRows = categoryQuery.list();
+
+            json.append("\"categories\":[");
+            for (int i = 0; i < categoryRows.size(); i++) {
+                Object[] row = categoryRows.get(i);
+                if (i > 0) json.append(",");
+                json.append("{\"categoryId\":").append(((Number) row[0]).longValue()).append(",");
+                json.append("\"name\":\"").append(escapeJson(row[1] != null ? row[1].toString() : "Uncategorized")).append("\",");
+                json.append("\"unitsSold\":").append(row[2] != null ? ((Number) row[2]).longValue() : 0).append(",");
+                json.append("\"revenue\":").append(toBigDecimal(row[3])).append("}");
+            }
+            json.append("],");
+
+            // Best selling products by revenue
+            Query productQuery = session.createSQLQuery(
+                "SELECT r.product_id, p.name, SUM(r.units_sold), SUM(r.revenue) " +
+                "FROM sales_daily_product r LEFT JOIN products p ON p.id = r.product_id " +
+                "WHERE r.sales_date BETWEEN ? AND ? " +
+                "GROUP BY r.product_id, p.name ORDER BY SUM(r.revenue) DESC");
+            productQuery.setDate(0, from);
+            productQuery.setDate(1, to);
+            productQuery.setMaxResults(top);
+            @SuppressWarnings("unchecked")
+            List<Object[]> productRows = productQuery.list();
+
+            json.append("\"topProducts\":[");
+            for (int i = 0; i < productRows.size(); i++) {
+                Object[] row = productRows.get(i);
+                if (i > 0) json.append(",");
+                json.append("{\"productId\":").append(((Number) row[0]).longValue()).append(",");
+                json.append("\"name\":\"").append(escapeJson(row[1] != null ? row[1].toString() : "")).append("\",");
+                json.append("\"unitsSold\":").append(row[2] != null ? ((Number) row[2]).longValue() : 0).append(",");
+                json.append("\"revenue\":").append(toBigDecimal(row[3])).append("}");
+            }
+            json.append("]");
+
+            json.append("}}");
+            return json.toString();
+        } finally {
+            session.close();
+        }
+    }
+
+    private Date firstOrderDate(Date fallback) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Object first = session.createSQLQuery("SELECT MIN(created_at) FROM orders").uniqueResult();
+            return first instanceof Date ? (Date) first : fallback;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value == null) return BigDecimal.ZERO;
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        return new BigDecimal(value.toString());
+    }
+
+    private static SimpleDateFormat dateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setLenient(false);
+        return format;
+    }
+
+    private static Date parseDate(String value, Date defaultValue) throws ParseException {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return dateFormat().parse(value);
+    }
+
+    private static Date today() {
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTime();
+    }
+
+    private static Date addDays(Date date, int days) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.add(Calendar.DAY_OF_MONTH, days);
+        return cal.getTime();
+    }
+
+    private String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
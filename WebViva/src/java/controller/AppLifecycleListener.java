@@ -0,0 +1,81 @@
+package controller;
+
+import service.AlsoBought;
+import service.OrderEvents;
+import service.ProductViews;
+import service.SimilarProducts;
+import service.TrendingProducts;
+import util.AsyncRequests;
+import util.IndexAdvisor;
+import util.MigrationRunner;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * AppLifecycleListener - startup tasks for the web application.
+ *
+ * Applies pending schema migrations before any request is served; a failed
+ * migration fails the deployment. -Ddynex.migrations=false skips them (for
+ * nodes that should never change the schema).
+ *
+ * Then starts the OrderEvents relay, which hands order lifecycle events from
+ * the outbox table to their subscribers (AlsoBought, which builds its
+ * co-purchase matrix in the background, and TrendingProducts, which loads
+ * the last week of sales), loads the precomputed SimilarProducts lists,
+ * starts the ProductViews flusher and runs IndexAdvisor in the background.
+ * The advisor by default only runs against a local MySQL; start the server
+ * with -Ddynex.indexAdvisor=true to force it, or =false to turn it off.
+ */
+@WebListener
+public class AppLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        if (!"false".equalsIgnoreCase(System.getProperty("dynex.migrations"))) {
+            try {
+                MigrationRunner.migrate();
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new IllegalStateException("Schema migration failed: " + e.getMessage(), e);
+            }
+        }
+
+        // Subscribers first: the bus takes none once started
+        AlsoBought.getInstance().start();
+        TrendingProducts.getInstance().start();
+        OrderEvents.start();
+        SimilarProducts.getInstance().start();
+        ProductViews.getInstance().start();
+
+        final String setting = System.getProperty("dynex.indexAdvisor", "auto");
+        if ("false".equalsIgnoreCase(setting)) {
+            return;
+        }
+
+        // Off the startup thread so a slow EXPLAIN never delays deployment
+        Thread advisor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if ("true".equalsIgnoreCase(setting) || IndexAdvisor.isLocalDatabase()) {
+                        IndexAdvisor.run();
+                    }
+                } catch (Exception e) {
+                    System.out.println("IndexAdvisor failed: " + e.getMessage());
+                }
+            }
+        }, "index-advisor");
+        advisor.setDaemon(true);
+        advisor.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        AsyncRequests.shutdown();
+        OrderEvents.shutdown();
+        // Writes the views still held in memory
+        ProductViews.getInstance().shutdown();
+    }
+}
@@ -1,6 +1,7 @@
 package controller;
 
 import model.User;
+import service.AccountNames;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -9,13 +10,69 @@ import javax.servlet.http.HttpServletResponse;
 import util.HibernateUtil;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Date;
 
-@WebServlet("/signup")
+@WebServlet(urlPatterns = {"/signup", "/signup/availability"})
 public class AuthSignupServlet extends HttpServlet {
 
+    /**
+     * GET /signup/availability?username=...&email=... - live check for the
+     * signup form. Either parameter may be omitted.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+
+        if (!"/signup/availability".equals(request.getServletPath())) {
+            response.setStatus(405);
+            out.print("{\"success\":false,\"error\":\"Method not allowed\"}");
+            return;
+        }
+
+        String username = request.getParameter("username");
+        String email = request.getParameter("email");
+        boolean hasUsername = username != null && !username.trim().isEmpty();
+        boolean hasEmail = email != null && !email.trim().isEmpty();
+        if (!hasUsername && !hasEmail) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"error\":\"username or email is required\"}");
+            return;
+        }
+
+        try {
+            AccountNames names = AccountNames.getInstance();
+            StringBuilder json = new StringBuilder("{\"success\":true,\"data\":{");
+            if (hasUsername) {
+                username = username.trim();
+                boolean valid = username.length() >= 3;
+                json.append("\"username\":{\"value\":\"").append(escapeJson(username)).append("\",")
+                    .append("\"valid\":").append(valid).append(",")
+                    .append("\"available\":").append(valid && !names.isUsernameTaken(username)).append("}");
+            }
+            if (hasEmail) {
+                email = email.trim();
+                boolean valid = email.matches("^[^\\s@]+@[^\\s@]+\\.[^\\s@]+$");
+                if (hasUsername) json.append(",");
+                json.append("\"email\":{\"value\":\"").append(escapeJson(email)).append("\",")
+                    .append("\"valid\":").append(valid).append(",")
+                    .append("\"available\":").append(valid && !names.isEmailTaken(email)).append("}");
+            }
+            json.append("}}");
+            out.print(json);
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"error\":\"Could not check availability\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
@@ -96,30 +153,9 @@ public class AuthSignupServlet extends HttpServlet {
             Transaction tx = null;
             try {
                 tx = session.beginTransaction();
-                
-                // Check if username already exists
-                Long usernameCount = (Long) session.createQuery("SELECT COUNT(*) FROM User WHERE username = :username")
-                        .setParameter("username", username)
-                        .uniqueResult();
-                
-                if (usernameCount > 0) {
-                    response.setStatus(400);
-                    out.print("{\"success\":false,\"error\":\"Username is already taken\"}");
-                    return;
-                }
-                
-                // Check if email already exists
-                Long emailCount = (Long) session.createQuery("SELECT COUNT(*) FROM User WHERE email = :email")
-                        .setParameter("email", email)
-                        .uniqueResult();
-                
-                if (emailCount > 0) {
-                    response.setStatus(400);
-                    out.print("{\"success\":false,\"error\":\"An account with this email already exists\"}");
-                    return;
-                }
 
-                // Create new user
+                // Create new user. No existence queries first: the unique keys on
+                // username and email decide, in the insert itself, without a race
                 User user = new User();
                 user.setFirstName(firstName);
                 user.setLastName(lastName);
@@ -138,6 +174,7 @@ public class AuthSignupServlet extends HttpServlet {
 
                 session.save(user);
                 tx.commit();
+                AccountNames.getInstance().taken(username, email);
                 
                 // Return success response
                 out.print("{");
@@ -153,8 +190,12 @@ public class AuthSignupServlet extends HttpServlet {
                 out.print("}");
                 out.print("}");
                 
+            } catch (ConstraintViolationException e) {
+                if (tx != null && tx.isActive()) tx.rollback();
+                response.setStatus(409);
+                out.print("{\"success\":false,\"error\":\"" + duplicateMessage(e) + "\"}");
             } catch (Exception e) {
-                if (tx != null) tx.rollback();
+                if (tx != null && tx.isActive()) tx.rollback();
                 e.printStackTrace();
                 response.setStatus(500);
                 out.print("{\"success\":false,\"error\":\"Failed to create account. Please try again.\"}");
@@ -170,6 +211,24 @@ public class AuthSignupServlet extends HttpServlet {
         }
     }
     
+    // MySQL reports "Duplicate entry '...' for key 'username'" (or 'users.email')
+    private String duplicateMessage(ConstraintViolationException e) {
+        String key = e.getConstraintName();
+        if (key == null && e.getSQLException() != null) {
+            String message = e.getSQLException().getMessage();
+            int at = message != null ? message.lastIndexOf(" key ") : -1;
+            key = at >= 0 ? message.substring(at) : null;
+        }
+        key = key != null ? key.toLowerCase() : "";
+        if (key.contains("email")) {
+            return "An account with this email already exists";
+        }
+        if (key.contains("username")) {
+            return "Username is already taken";
+        }
+        return "An account with these details already exists";
+    }
+
     private String escapeJson(String str) {
         if (str == null) return "";
         return str.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
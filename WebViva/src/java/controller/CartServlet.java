@@ -0,0 +1,276 @@
+package controller;
+
+import service.Cart;
+import service.CartService;
+import service.ProductPriceCache;
+import service.SizeInventory;
+import util.JsonParser;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CartServlet - the logged-in user's server-side cart.
+ *
+ * GET    /cart              current cart with server-computed prices and totals
+ * POST   /cart              {"productId":1,"quantity":1,"color":"Black","size":"M"} adds units
+ * PUT    /cart/{itemKey}    {"quantity":3} sets a line's quantity (0 removes it)
+ * DELETE /cart/{itemKey}    removes a line; DELETE /cart empties the cart
+ *
+ * itemKey is "productId-color-size", as returned in each line. Every call
+ * answers with the whole cart so the client never computes prices itself.
+ */
+@WebServlet({"/cart", "/cart/*"})
+public class CartServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+        Long userId = requireUser(request, response, out);
+        if (userId == null) return;
+
+        try {
+            out.print(renderCart(CartService.getInstance().getCart(userId)));
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to load cart: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+        Long userId = requireUser(request, response, out);
+        if (userId == null) return;
+
+        try {
+            Map<String, Object> json = JsonParser.parseObject(readBody(request));
+            if (json.get("productId") == null) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"productId is required\"}");
+                return;
+            }
+            Long productId = new BigDecimal(json.get("productId").toString()).longValueExact();
+            int quantity = json.get("quantity") != null ? new BigDecimal(json.get("quantity").toString()).intValueExact() : 1;
+            String color = json.get("color") != null ? json.get("color").toString() : "";
+            String size = json.get("size") != null ? json.get("size").toString() : "";
+
+            Cart cart = CartService.getInstance().addItem(userId, productId, color, size, quantity);
+            out.print(renderCart(cart));
+
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"message\":\"" + escapeJson(e.getMessage()) + "\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to add item to cart: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+        Long userId = requireUser(request, response, out);
+        if (userId == null) return;
+
+        try {
+            String key = itemKey(request);
+            if (key == null) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"Item key is required\"}");
+                return;
+            }
+            Map<String, Object> json = JsonParser.parseObject(readBody(request));
+            if (json.get("quantity") == null) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"quantity is required\"}");
+                return;
+            }
+            int quantity = new BigDecimal(json.get("quantity").toString()).intValueExact();
+
+            if (!CartService.getInstance().updateItem(userId, key, quantity)) {
+                response.setStatus(404);
+                out.print("{\"success\":false,\"message\":\"Item not in cart\"}");
+                return;
+            }
+            out.print(renderCart(CartService.getInstance().getCart(userId)));
+
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"message\":\"" + escapeJson(e.getMessage()) + "\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to update cart item: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+        Long userId = requireUser(request, response, out);
+        if (userId == null) return;
+
+        try {
+            String key = itemKey(request);
+            if (key == null) {
+                CartService.getInstance().clear(userId);
+            } else if (!CartService.getInstance().removeItem(userId, key)) {
+                response.setStatus(404);
+                out.print("{\"success\":false,\"message\":\"Item not in cart\"}");
+                return;
+            }
+            out.print(renderCart(CartService.getInstance().getCart(userId)));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to remove item from cart: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    @Override
+    public void destroy() {
+        // Write any cart edits still waiting for the background writer
+        CartService.getInstance().shutdown();
+        super.destroy();
+    }
+
+    // Prices every line from the product cache; unavailable lines are listed but not totalled
+    private String renderCart(Cart cart) {
+        List<Cart.Line> lines = cart.getLines();
+        List<Long> productIds = new ArrayList<>();
+        for (Cart.Line line : lines) {
+            productIds.add(line.getProductId());
+        }
+        Map<Long, ProductPriceCache.Price> prices = ProductPriceCache.getInstance().getAll(productIds);
+        // Load size stock for every line at once rather than per line
+        SizeInventory.getInstance().getAll(productIds);
+
+        BigDecimal subtotal = BigDecimal.ZERO;
+        int itemCount = 0;
+        StringBuilder json = new StringBuilder();
+        json.append("{\"success\":true,\"data\":{\"items\":[");
+        for (int i = 0; i < lines.size(); i++) {
+            Cart.Line line = lines.get(i);
+            ProductPriceCache.Price price = prices.get(line.getProductId());
+            boolean available = price != null && price.isActive() && line.getQuantity() <= price.available(line.getSize());
+            BigDecimal unitPrice = price != null ? price.unitPrice(line.getSize()) : line.getPriceAtTime();
+            BigDecimal lineTotal = unitPrice.multiply(BigDecimal.valueOf(line.getQuantity()));
+            if (available) {
+                subtotal = subtotal.add(lineTotal);
+                itemCount += line.getQuantity();
+            }
+
+            if (i > 0) json.append(",");
+            json.append("{");
+            json.append("\"itemKey\":\"").append(escapeJson(line.getKey())).append("\",");
+            json.append("\"productId\":").append(line.getProductId()).append(",");
+            json.append("\"name\":\"").append(escapeJson(price != null ? price.getName() : "")).append("\",");
+            json.append("\"image\":\"").append(escapeJson(price != null ? price.getImageUrl() : "")).append("\",");
+            json.append("\"color\":\"").append(escapeJson(line.getColor())).append("\",");
+            json.append("\"size\":\"").append(escapeJson(line.getSize())).append("\",");
+            json.append("\"quantity\":").append(line.getQuantity()).append(",");
+            json.append("\"price\":").append(unitPrice).append(",");
+            json.append("\"priceAtAdd\":").append(line.getPriceAtTime()).append(",");
+            json.append("\"lineTotal\":").append(lineTotal).append(",");
+            json.append("\"stockQuantity\":").append(price != null ? price.available(line.getSize()) : 0).append(",");
+            json.append("\"available\":").append(available);
+            json.append("}");
+        }
+        json.append("],");
+        json.append("\"itemCount\":").append(itemCount).append(",");
+        json.append("\"subtotal\":").append(subtotal);
+        json.append("}}");
+        return json.toString();
+    }
+
+    private PrintWriter begin(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        return response.getWriter();
+    }
+
+    // Session user id, or null after writing a 401
+    private Long requireUser(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
+        HttpSession httpSession = request.getSession(false);
+        Object userIdObj = httpSession != null ? httpSession.getAttribute("userId") : null;
+        Long userId = null;
+        if (userIdObj instanceof Number) {
+            userId = ((Number) userIdObj).longValue();
+        } else if (userIdObj instanceof String) {
+            try {
+                userId = Long.parseLong((String) userIdObj);
+            } catch (NumberFormatException e) {
+                userId = null;
+            }
+        }
+        if (userId == null) {
+            response.setStatus(401);
+            out.print("{\"success\":false,\"message\":\"User not authenticated\"}");
+            out.flush();
+        }
+        return userId;
+    }
+
+    private String itemKey(HttpServletRequest request) throws IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            return null;
+        }
+        return URLDecoder.decode(pathInfo.substring(1), "UTF-8");
+    }
+
+    private String readBody(HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = request.getReader();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            body.append(line);
+        }
+        return body.length() > 0 ? body.toString() : "{}";
+    }
+
+    private String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
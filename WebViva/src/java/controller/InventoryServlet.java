@@ -0,0 +1,101 @@
+package controller;
+
+import service.SizeInventory;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+/**
+ * InventoryServlet - low-stock feed for the admin dashboard.
+ *
+ * GET /inventory/low-stock?since=0
+ *      Events for sizes (or unsized products) that dropped to the low-stock
+ *      threshold or sold out, newer than the given sequence. Poll with the
+ *      returned "latest" value to receive only new events.
+ */
+@WebServlet("/inventory/low-stock")
+public class InventoryServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+
+        PrintWriter out = response.getWriter();
+
+        try {
+            HttpSession httpSession = request.getSession(false);
+            if (httpSession == null || !"ADMIN".equals(httpSession.getAttribute("userRole"))) {
+                response.setStatus(403);
+                out.print("{\"success\":false,\"error\":\"Admin access required\"}");
+                return;
+            }
+
+            String sinceStr = request.getParameter("since");
+            long since = sinceStr != null && !sinceStr.isEmpty() ? Long.parseLong(sinceStr) : 0;
+
+            List<SizeInventory.LowStockEvent> events = SizeInventory.getInstance().getLowStockEvents(since);
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            long latest = since;
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"success\":true,\"data\":{");
+            json.append("\"threshold\":").append(SizeInventory.LOW_STOCK_THRESHOLD).append(",");
+            json.append("\"events\":[");
+            for (int i = 0; i < events.size(); i++) {
+                SizeInventory.LowStockEvent event = events.get(i);
+                latest = Math.max(latest, event.getSequence());
+                if (i > 0) json.append(",");
+                json.append("{\"sequence\":").append(event.getSequence()).append(",");
+                json.append("\"productId\":").append(event.getProductId()).append(",");
+                json.append("\"size\":\"").append(escapeJson(event.getSize())).append("\",");
+                json.append("\"stockQuantity\":").append(event.getStockQuantity()).append(",");
+                json.append("\"soldOut\":").append(event.getStockQuantity() == 0).append(",");
+                json.append("\"createdAt\":\"").append(format.format(event.getCreatedAt())).append("\"}");
+            }
+            json.append("],");
+            json.append("\"latest\":").append(latest);
+            json.append("}}");
+            out.print(json);
+
+        } catch (NumberFormatException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"error\":\"Invalid 'since' value\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"error\":\"Failed to load low-stock events: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
@@ -1,10 +1,29 @@
 package controller;
 
+import model.Order;
+import model.OrderItem;
+import model.OrderStatus;
+import model.OrderSummary;
+import model.User;
+import service.OrderEvents;
+import service.OrderExporter;
+import service.OrderTransitions;
+import service.SalesRollups;
+import service.SizeInventory;
+import service.UserOrderSummary;
+import service.UserOrderSummaryCache;
+import util.AsyncRequests;
 import util.HibernateUtil;
+import util.JsonParser;
+import util.SnowflakeId;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.sql.SQLException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -17,6 +36,14 @@ import org.hibernate.Query;
 /**
  * OrderServlet - Complete REST API for order management
  * Handles CRUD operations for orders and order items
+ *
+ * Order creation, status updates and the admin order list run on the
+ * AsyncRequests pool (async-supported in web.xml) so they cannot exhaust
+ * the container's request threads.
+ *
+ * GET /orders/export streams orders with their items as CSV or NDJSON.
+ * Status changes must follow model.OrderStatus. PUT /orders/{id}/status
+ * changes one order; admins can change many at once with PUT /orders/status.
  */
 public class OrderServlet extends javax.servlet.http.HttpServlet {
     private static final long serialVersionUID = 1L;
@@ -28,6 +55,16 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
     private static final String PAYHERE_RETURN_URL = "http://localhost:3000/payment-success";
     private static final String PAYHERE_CANCEL_URL = "http://localhost:3000/checkout";
 
+    // Header projection shared by the list and detail views (customer joined in, no entity hydration)
+    private static final String ORDER_SUMMARY_HQL =
+        "SELECT new model.OrderSummary(o.id, o.userId, o.orderNumber, o.status, o.totalAmount, " +
+        "o.shippingAddress, o.paymentMethod, o.paymentStatus, o.createdAt, " +
+        "u.firstName, u.lastName, u.email) " +
+        "FROM Order o LEFT JOIN o.user u";
+
+    // Max order ids per IN (...) when loading line items for a list view
+    private static final int ITEM_BATCH_SIZE = 500;
+
     @Override
     protected void doGet(javax.servlet.http.HttpServletRequest request, 
                         javax.servlet.http.HttpServletResponse response) 
@@ -39,18 +76,26 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
         
+        if ("/export".equals(request.getPathInfo())) {
+            // Streamed from this thread; the async pool would buffer the whole export in memory
+            exportOrders(request, response);
+            return;
+        }
+        
         PrintWriter out = response.getWriter();
         
         try {
             String pathInfo = request.getPathInfo();
             
             if (pathInfo == null || pathInfo.equals("/")) {
-                // Get all orders for admin
-                getAllOrders(out);
+                // Get all orders for admin (slow, so off the request thread)
+                AsyncRequests.dispatch(request, response, reply -> getAllOrders(reply.getWriter()));
             } else if (pathInfo.startsWith("/user/")) {
                 // Get orders for specific user
                 String userIdStr = pathInfo.substring(6);
-                getUserOrders(Long.valueOf(userIdStr), out);
+                String limitStr = request.getParameter("limit");
+                Integer limit = limitStr != null && !limitStr.isEmpty() ? Integer.valueOf(limitStr) : null;
+                getUserOrders(Long.valueOf(userIdStr), limit, out);
             } else if (pathInfo.matches("/\\d+")) {
                 // Get specific order by ID
                 String orderIdStr = pathInfo.substring(1);
@@ -77,8 +122,15 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         PrintWriter out = response.getWriter();
         
         try {
-            // Create new order
-            createOrder(request, out);
+            // Create new order on the async pool; answers 503 when it is saturated.
+            // The request is read here: after a timeout the container may reuse it.
+            String userIdStr = request.getParameter("userId");
+            String totalAmountStr = request.getParameter("totalAmount");
+            String shippingAddress = request.getParameter("shippingAddress");
+            String itemsJson = request.getParameter("items");
+            String paymentMethod = request.getParameter("paymentMethod");
+            AsyncRequests.dispatch(request, response, reply -> createOrder(
+                userIdStr, totalAmountStr, shippingAddress, itemsJson, paymentMethod, reply.getWriter()));
         } catch (Exception e) {
             e.printStackTrace();
             sendErrorResponse(out, "Error creating order: " + e.getMessage());
@@ -101,10 +153,23 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         try {
             String pathInfo = request.getPathInfo();
             
-            if (pathInfo != null && pathInfo.contains("/status")) {
+            if ("/status".equals(pathInfo)) {
+                // Bulk status change for admins
+                javax.servlet.http.HttpSession httpSession = request.getSession(false);
+                if (httpSession == null || !"ADMIN".equals(httpSession.getAttribute("userRole"))) {
+                    response.setStatus(javax.servlet.http.HttpServletResponse.SC_FORBIDDEN);
+                    sendErrorResponse(out, "Admin access required");
+                    return;
+                }
+                String body = readBody(request);
+                AsyncRequests.dispatch(request, response, reply -> bulkUpdateStatus(body, reply.getWriter()));
+            } else if (pathInfo != null && pathInfo.contains("/status")) {
                 // Update order status
-                String orderIdStr = pathInfo.split("/")[1];
-                updateOrderStatus(Long.valueOf(orderIdStr), request, out);
+                Long orderId = Long.valueOf(pathInfo.split("/")[1]);
+                // PUT bodies are not parsed into parameters by the container
+                String status = request.getParameter("status");
+                String newStatus = status != null ? status : readFormParameter(request, "status");
+                AsyncRequests.dispatch(request, response, reply -> updateOrderStatus(orderId, newStatus, reply.getWriter()));
             }
             
         } catch (Exception e) {
@@ -127,62 +192,21 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         org.hibernate.Session session = HibernateUtil.getSessionFactory().openSession();
         
         try {
-            // SQL query to get orders with customer information
-            String sql = "SELECT o.id, o.user_id, o.order_number, o.status, o.total_amount, " +
-                        "o.shipping_address, o.payment_method, o.created_at, " +
-                        "u.first_name, u.last_name, u.email " +
-                        "FROM orders o " +
-                        "LEFT JOIN users u ON o.user_id = u.id " +
-                        "ORDER BY o.created_at DESC";
-            
-            org.hibernate.Query query = session.createSQLQuery(sql);
+            // Projection query to get orders with customer information
+            org.hibernate.Query query = session.createQuery(ORDER_SUMMARY_HQL + " ORDER BY o.createdAt DESC");
             @SuppressWarnings("unchecked")
-            List<Object[]> results = query.list();
+            List<OrderSummary> results = query.list();
+            
+            // Load the line items for every order in batched IN queries
+            Map<Long, List<OrderItem>> itemsByOrder = loadItemsByOrder(results, session);
             
             StringBuilder jsonBuilder = new StringBuilder();
             jsonBuilder.append("{\"success\": true, \"data\": [");
             
             for (int i = 0; i < results.size(); i++) {
                 if (i > 0) jsonBuilder.append(",");
-                
-                Object[] row = results.get(i);
-                jsonBuilder.append("{");
-                
-                // Safe casting for database values
-                Long orderId = row[0] != null ? ((Number) row[0]).longValue() : null;
-                Long userId = row[1] != null ? ((Number) row[1]).longValue() : null;
-                
-                jsonBuilder.append("\"id\": ").append(orderId).append(",");
-                jsonBuilder.append("\"userId\": ").append(userId).append(",");
-                jsonBuilder.append("\"orderNumber\": \"").append(row[2] != null ? row[2] : "").append("\",");
-                jsonBuilder.append("\"status\": \"").append(row[3] != null ? row[3] : "PENDING").append("\",");
-                jsonBuilder.append("\"totalAmount\": ").append(row[4] != null ? row[4] : "0").append(",");
-                // Format shipping address as JSON string for frontend parsing
-                String shippingAddr = row[5] != null ? row[5].toString() : "";
-                if (!shippingAddr.isEmpty() && !shippingAddr.startsWith("{")) {
-                    // If it's a plain address, convert to JSON format
-                    shippingAddr = "{\"street\":\"" + escapeJson(shippingAddr) + "\",\"city\":\"\",\"state\":\"\",\"zipCode\":\"\"}";
-                }
-                jsonBuilder.append("\"shippingAddress\": \"").append(escapeJson(shippingAddr)).append("\",");
-                jsonBuilder.append("\"paymentMethod\": \"").append(row[6] != null ? row[6] : "STRIPE").append("\",");
-                jsonBuilder.append("\"createdAt\": \"").append(row[7] != null ? row[7] : "").append("\",");
-                
-                // Customer information
-                String firstName = row[8] != null ? (String) row[8] : null;
-                String lastName = row[9] != null ? (String) row[9] : null;
-                String email = row[10] != null ? (String) row[10] : null;
-                
-                if (firstName != null && lastName != null) {
-                    jsonBuilder.append("\"customerName\": \"").append(escapeJson(firstName + " " + lastName)).append("\",");
-                } else {
-                    jsonBuilder.append("\"customerName\": \"Unknown Customer\",");
-                }
-                jsonBuilder.append("\"customerEmail\": \"").append(escapeJson(email != null ? email : "No email")).append("\",");
-                
-                // Get order items as JSON string for frontend parsing
-                jsonBuilder.append("\"items\": \"").append(escapeJson(getOrderItemsJson(orderId, session))).append("\"");
-                
-                jsonBuilder.append("}");
+                OrderSummary order = results.get(i);
+                appendOrderJson(jsonBuilder, order, getOrderItemsJson(itemsByOrder.get(order.getId())), true);
             }
             
             jsonBuilder.append("]}");
@@ -196,50 +220,96 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         }
     }
 
-    private void getUserOrders(Long userId, PrintWriter out) {
+    /**
+     * GET /orders/export?format=csv|ndjson&from=yyyy-MM-dd&to=yyyy-MM-dd&status=...
+     * Orders placed from "from" through "to" (both optional, inclusive), with
+     * line items and customer, for admins.
+     */
+    private void exportOrders(javax.servlet.http.HttpServletRequest request, javax.servlet.http.HttpServletResponse response)
+            throws IOException {
+        javax.servlet.http.HttpSession httpSession = request.getSession(false);
+        if (httpSession == null || !"ADMIN".equals(httpSession.getAttribute("userRole"))) {
+            response.setStatus(javax.servlet.http.HttpServletResponse.SC_FORBIDDEN);
+            sendErrorResponse(response.getWriter(), "Admin access required");
+            return;
+        }
+        
+        java.util.Date from;
+        java.util.Date to;
+        try {
+            java.text.SimpleDateFormat dateFormat = new java.text.SimpleDateFormat("yyyy-MM-dd");
+            dateFormat.setLenient(false);
+            String fromStr = request.getParameter("from");
+            String toStr = request.getParameter("to");
+            from = fromStr != null && !fromStr.isEmpty() ? dateFormat.parse(fromStr) : new java.util.Date(0);
+            // "to" is inclusive: export up to the start of the following day
+            to = toStr != null && !toStr.isEmpty()
+                ? new java.util.Date(dateFormat.parse(toStr).getTime() + 24L * 60 * 60 * 1000)
+                : new java.util.Date(Long.MAX_VALUE / 2);
+        } catch (java.text.ParseException e) {
+            response.setStatus(javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST);
+            sendErrorResponse(response.getWriter(), "Invalid date, use yyyy-MM-dd: " + e.getMessage());
+            return;
+        }
+        String statusStr = request.getParameter("status");
+        OrderStatus status = OrderStatus.parse(statusStr);
+        if (statusStr != null && !statusStr.isEmpty() && status == null) {
+            response.setStatus(javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST);
+            sendErrorResponse(response.getWriter(), "Unknown status '" + statusStr + "'");
+            return;
+        }
+        
+        boolean csv = !"ndjson".equalsIgnoreCase(request.getParameter("format"));
+        response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+        response.setHeader("Content-Disposition", "attachment; filename=\"orders." + (csv ? "csv" : "ndjson") + "\"");
+        
+        // Not the PrintWriter: it hides write errors, and a client that went away must stop the query
+        java.io.Writer out = new java.io.BufferedWriter(
+            new java.io.OutputStreamWriter(response.getOutputStream(), java.nio.charset.StandardCharsets.UTF_8), 8192);
+        try {
+            String statusName = status != null ? status.name() : null;
+            if (csv) {
+                OrderExporter.writeCsv(out, from, to, statusName);
+            } else {
+                OrderExporter.writeNdjson(out, from, to, statusName);
+            }
+        } catch (Exception e) {
+            // Headers are already sent once streaming starts, so just log and stop
+            e.printStackTrace();
+        }
+    }
+
+    private void getUserOrders(Long userId, Integer limit, PrintWriter out) {
+        // Served from the materialized summary when it covers what was asked for
+        UserOrderSummary summary = UserOrderSummaryCache.getInstance().get(userId);
+        if (summary != null && (summary.isComplete() || (limit != null && limit <= summary.getEntries().size()))) {
+            out.print(renderUserOrders(summary, limit));
+            return;
+        }
+        
+        // Taken before the read, so a summary that may miss a concurrent change is not kept
+        long stamp = UserOrderSummaryCache.getInstance().changeStamp();
         org.hibernate.Session session = HibernateUtil.getSessionFactory().openSession();
         
         try {
-            String sql = "SELECT id, user_id, order_number, status, total_amount, " +
-                        "shipping_address, payment_method, created_at " +
-                        "FROM orders WHERE user_id = ? ORDER BY created_at DESC";
-            
-            org.hibernate.Query query = session.createSQLQuery(sql);
-            query.setParameter(0, userId);
+            org.hibernate.Query query = session.createQuery(ORDER_SUMMARY_HQL + " WHERE o.userId = :userId ORDER BY o.createdAt DESC");
+            query.setParameter("userId", userId);
+            if (limit != null) {
+                // Read one past the summary size so we know whether it is complete
+                query.setMaxResults(Math.max(limit, UserOrderSummaryCache.RECENT_ORDERS + 1));
+            }
             @SuppressWarnings("unchecked")
-            List<Object[]> results = query.list();
+            List<OrderSummary> results = query.list();
             
-            StringBuilder jsonBuilder = new StringBuilder();
-            jsonBuilder.append("{\"success\": true, \"data\": [");
+            Map<Long, List<OrderItem>> itemsByOrder = loadItemsByOrder(results, session);
             
-            for (int i = 0; i < results.size(); i++) {
-                if (i > 0) jsonBuilder.append(",");
-                
-                Object[] row = results.get(i);
-                Long orderId = row[0] != null ? ((Number) row[0]).longValue() : null;
-                
-                jsonBuilder.append("{");
-                jsonBuilder.append("\"id\": ").append(orderId).append(",");
-                jsonBuilder.append("\"userId\": ").append(row[1] != null ? ((Number) row[1]).longValue() : null).append(",");
-                jsonBuilder.append("\"orderNumber\": \"").append(row[2] != null ? row[2] : "").append("\",");
-                jsonBuilder.append("\"status\": \"").append(row[3] != null ? row[3] : "PENDING").append("\",");
-                jsonBuilder.append("\"totalAmount\": ").append(row[4] != null ? row[4] : "0").append(",");
-                
-                // Format shipping address as JSON string for frontend parsing
-                String shippingAddr = row[5] != null ? row[5].toString() : "";
-                if (!shippingAddr.isEmpty() && !shippingAddr.startsWith("{")) {
-                    // If it's a plain address, convert to JSON format
-                    shippingAddr = "{\"street\":\"" + escapeJson(shippingAddr) + "\",\"city\":\"\",\"state\":\"\",\"zipCode\":\"\"}";
-                }
-                jsonBuilder.append("\"shippingAddress\": \"").append(escapeJson(shippingAddr)).append("\",");
-                jsonBuilder.append("\"paymentMethod\": \"").append(row[6] != null ? row[6] : "STRIPE").append("\",");
-                jsonBuilder.append("\"createdAt\": \"").append(row[7] != null ? row[7] : "").append("\",");
-                jsonBuilder.append("\"items\": \"").append(escapeJson(getOrderItemsJson(orderId, session))).append("\"");
-                jsonBuilder.append("}");
+            List<UserOrderSummary.Entry> entries = new ArrayList<UserOrderSummary.Entry>(results.size());
+            for (OrderSummary order : results) {
+                entries.add(new UserOrderSummary.Entry(order, getOrderItemsJson(itemsByOrder.get(order.getId()))));
             }
             
-            jsonBuilder.append("]}");
-            out.print(jsonBuilder.toString());
+            UserOrderSummaryCache.getInstance().load(userId, entries, stamp);
+            out.print(renderUserOrders(new UserOrderSummary(userId, entries, true), limit));
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -249,61 +319,47 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         }
     }
 
+    private String renderUserOrders(UserOrderSummary summary, Integer limit) {
+        List<UserOrderSummary.Entry> entries = summary.getEntries();
+        boolean everything = limit == null || limit >= entries.size();
+        if (everything && summary.getRenderedJson() != null) {
+            return summary.getRenderedJson();
+        }
+        
+        int count = everything ? entries.size() : Math.max(limit, 0);
+        StringBuilder jsonBuilder = new StringBuilder();
+        jsonBuilder.append("{\"success\": true, \"data\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) jsonBuilder.append(",");
+            UserOrderSummary.Entry entry = entries.get(i);
+            appendOrderJson(jsonBuilder, entry.getOrder(), entry.getItemsJson(), false);
+        }
+        jsonBuilder.append("]}");
+        
+        String json = jsonBuilder.toString();
+        if (everything) {
+            summary.setRenderedJson(json);
+        }
+        return json;
+    }
+
     private void getOrderById(Long orderId, PrintWriter out) {
         org.hibernate.Session session = HibernateUtil.getSessionFactory().openSession();
         
         try {
-            String sql = "SELECT o.id, o.user_id, o.order_number, o.status, o.total_amount, " +
-                        "o.shipping_address, o.payment_method, o.created_at, " +
-                        "u.first_name, u.last_name, u.email " +
-                        "FROM orders o " +
-                        "LEFT JOIN users u ON o.user_id = u.id " +
-                        "WHERE o.id = ?";
-            
-            org.hibernate.Query query = session.createSQLQuery(sql);
-            query.setParameter(0, orderId);
-            Object[] result = (Object[]) query.uniqueResult();
+            org.hibernate.Query query = session.createQuery(ORDER_SUMMARY_HQL + " WHERE o.id = :orderId");
+            query.setParameter("orderId", orderId);
+            OrderSummary result = (OrderSummary) query.uniqueResult();
             
             if (result != null) {
-                StringBuilder jsonBuilder = new StringBuilder();
-                jsonBuilder.append("{\"success\": true, \"data\": {");
+                // Single order: walk the lazy collection so it is served from the second-level cache when warm
+                Order order = (Order) session.get(Order.class, orderId);
+                List<OrderItem> items = order != null ? order.getItems() : null;
                 
-                // Safe casting for database values
-                Long orderIdFromResult = result[0] != null ? ((Number) result[0]).longValue() : orderId;
-                Long userId = result[1] != null ? ((Number) result[1]).longValue() : null;
-                
-                jsonBuilder.append("\"id\": ").append(orderIdFromResult).append(",");
-                jsonBuilder.append("\"userId\": ").append(userId).append(",");
-                jsonBuilder.append("\"orderNumber\": \"").append(result[2] != null ? result[2] : "").append("\",");
-                jsonBuilder.append("\"status\": \"").append(result[3] != null ? result[3] : "PENDING").append("\",");
-                jsonBuilder.append("\"totalAmount\": ").append(result[4] != null ? result[4] : "0").append(",");
-                
-                // Format shipping address as JSON string for frontend parsing
-                String shippingAddr = result[5] != null ? result[5].toString() : "";
-                if (!shippingAddr.isEmpty() && !shippingAddr.startsWith("{")) {
-                    // If it's a plain address, convert to JSON format
-                    shippingAddr = "{\"street\":\"" + escapeJson(shippingAddr) + "\",\"city\":\"\",\"state\":\"\",\"zipCode\":\"\"}";
-                }
-                jsonBuilder.append("\"shippingAddress\": \"").append(escapeJson(shippingAddr)).append("\",");
-                jsonBuilder.append("\"paymentMethod\": \"").append(result[6] != null ? result[6] : "STRIPE").append("\",");
-                jsonBuilder.append("\"createdAt\": \"").append(result[7] != null ? result[7] : "").append("\",");
-                
-                // Customer information
-                String firstName = result[8] != null ? (String) result[8] : null;
-                String lastName = result[9] != null ? (String) result[9] : null;
-                String email = result[10] != null ? (String) result[10] : null;
-                
-                if (firstName != null && lastName != null) {
-                    jsonBuilder.append("\"customerName\": \"").append(escapeJson(firstName + " " + lastName)).append("\",");
-                } else {
-                    jsonBuilder.append("\"customerName\": \"Unknown Customer\",");
-                }
-                jsonBuilder.append("\"customerEmail\": \"").append(escapeJson(email != null ? email : "No email")).append("\",");
-                
-                // Get order items as JSON string for frontend parsing (consistent with other methods)
-                jsonBuilder.append("\"items\": \"").append(escapeJson(getOrderItemsJson(orderId, session))).append("\"");
-                
-                jsonBuilder.append("}}");
+                StringBuilder jsonBuilder = new StringBuilder();
+                jsonBuilder.append("{\"success\": true, \"data\": ");
+                appendOrderJson(jsonBuilder, result, getOrderItemsJson(items), true);
+                jsonBuilder.append("}");
                 
                 out.print(jsonBuilder.toString());
             } else {
@@ -318,20 +374,14 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         }
     }
 
-    private void createOrder(javax.servlet.http.HttpServletRequest request, PrintWriter out) {
+    private void createOrder(String userIdStr, String totalAmountStr, String shippingAddress,
+                             String itemsJson, String paymentMethod, PrintWriter out) {
         org.hibernate.Session session = HibernateUtil.getSessionFactory().openSession();
         org.hibernate.Transaction transaction = null;
         
         try {
             transaction = session.beginTransaction();
             
-            // Get parameters
-            String userIdStr = request.getParameter("userId");
-            String totalAmountStr = request.getParameter("totalAmount");
-            String shippingAddress = request.getParameter("shippingAddress");
-            String itemsJson = request.getParameter("items");
-            String paymentMethod = request.getParameter("paymentMethod");
-            
             if (userIdStr == null || totalAmountStr == null) {
                 sendErrorResponse(out, "Missing required parameters: userId and totalAmount are required");
                 return;
@@ -340,41 +390,34 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
             Long userId = Long.valueOf(userIdStr);
             BigDecimal totalAmount = new BigDecimal(totalAmountStr);
             
-            // Generate order number
-            String orderNumber = "ORD-" + System.currentTimeMillis();
-            
-            // Insert order
-            String insertOrderSql = "INSERT INTO orders (user_id, order_number, status, total_amount, " +
-                                  "shipping_address, payment_method, payment_status, created_at, updated_at) " +
-                                  "VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), NOW())";
-            
-            org.hibernate.Query orderQuery = session.createSQLQuery(insertOrderSql);
-            orderQuery.setParameter(0, userId);
-            orderQuery.setParameter(1, orderNumber);
-            orderQuery.setParameter(2, "PENDING");
-            orderQuery.setParameter(3, totalAmount);
-            orderQuery.setParameter(4, shippingAddress);
-            orderQuery.setParameter(5, paymentMethod != null ? paymentMethod : "STRIPE");
-            orderQuery.setParameter(6, "PAID");
-            
-            int rowsInserted = orderQuery.executeUpdate();
-            
-            if (rowsInserted > 0) {
-                // Get the inserted order ID
-                org.hibernate.Query getIdQuery = session.createSQLQuery("SELECT LAST_INSERT_ID()");
-                Object idResult = getIdQuery.uniqueResult();
-                Long orderId = null;
-                if (idResult instanceof Number) {
-                    orderId = ((Number) idResult).longValue();
-                }
-                
+            // Unique across concurrent checkouts and servers; also the PayHere order_id
+            String orderNumber = SnowflakeId.orderNumber();
+            
+            Order order = new Order(userId, orderNumber, totalAmount);
+            order.setShippingAddress(shippingAddress);
+            order.setPaymentMethod(paymentMethod != null ? paymentMethod : "STRIPE");
+            // Set to PAID, and the order CONFIRMED, by the PayHere callback (VerifyPayments)
+            order.setPaymentStatus("PENDING");
+            session.save(order);
+            
+            Long orderId = order.getId();
+            
+            if (orderId != null) {
                 // Create order items if provided
-                if (itemsJson != null && !itemsJson.isEmpty() && orderId != null) {
-                    parseAndInsertOrderItems(itemsJson, orderId, session);
+                List<OrderItem> items = new ArrayList<OrderItem>();
+                if (itemsJson != null && !itemsJson.isEmpty()) {
+                    items = parseAndInsertOrderItems(itemsJson, orderId, session);
                 }
                 
+                // Take per-size stock; throws OutOfStockException and rolls back if short
+                List<SizeInventory.StockChange> stockChanges = SizeInventory.getInstance().reserve(session, items);
+                
+                // Count the order in the sales rollups within the same transaction
+                SalesRollups.orderCreated(session, orderId, order.getStatus());
+                OrderEvents.orderCreated(session, orderId, orderNumber, userId, order.getStatus(), totalAmount);
+                
                 // Build PayHere payment request payload
-                String orderRef = "#000" + (orderId != null ? orderId : "0");
+                String orderRef = orderNumber;
                 String currency = "LKR";
                 String formattedAmount = new java.text.DecimalFormat("0.00").format(totalAmount);
                 String merchantSecretMD5 = md5(PAYHERE_MERCHANT_SECRET);
@@ -385,18 +428,25 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
                 String lastNamePH = "";
                 String emailPH = "";
                 try {
-                    org.hibernate.Query uQuery = session.createSQLQuery("SELECT first_name, last_name, email FROM users WHERE id = ?");
-                    uQuery.setParameter(0, userId);
-                    Object[] uRow = (Object[]) uQuery.uniqueResult();
-                    if (uRow != null) {
-                        firstNamePH = uRow[0] != null ? uRow[0].toString() : "";
-                        lastNamePH = uRow[1] != null ? uRow[1].toString() : "";
-                        emailPH = uRow[2] != null ? uRow[2].toString() : "";
+                    User user = (User) session.get(User.class, userId);
+                    if (user != null) {
+                        firstNamePH = user.getFirstName() != null ? user.getFirstName() : "";
+                        lastNamePH = user.getLastName() != null ? user.getLastName() : "";
+                        emailPH = user.getEmail() != null ? user.getEmail() : "";
                     }
                 } catch (Exception ignore) { }
 
                 // Commit transaction after all inserts
                 transaction.commit();
+                SizeInventory.getInstance().committed(stockChanges);
+                OrderEvents.committed();
+
+                // Keep the customer's cached order history current
+                UserOrderSummaryCache.getInstance().orderCreated(
+                    new OrderSummary(orderId, userId, orderNumber, order.getStatus(), totalAmount,
+                        order.getShippingAddress(), order.getPaymentMethod(), order.getPaymentStatus(),
+                        order.getCreatedAt(), firstNamePH, lastNamePH, emailPH),
+                    getOrderItemsJson(items));
 
                 // Return created order with PayHere info
                 StringBuilder response = new StringBuilder();
@@ -440,116 +490,215 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
         }
     }
 
-    private void updateOrderStatus(Long orderId, javax.servlet.http.HttpServletRequest request, PrintWriter out) {
-        org.hibernate.Session session = HibernateUtil.getSessionFactory().openSession();
-        org.hibernate.Transaction transaction = null;
-        
+    private void updateOrderStatus(Long orderId, String newStatus, PrintWriter out) {
         try {
-            transaction = session.beginTransaction();
-            
-            // For PUT requests, we need to manually parse the form data from the body
-            String newStatus = null;
-            
-            // Try to get parameter normally first (works for POST)
-            newStatus = request.getParameter("status");
-            
-            // If not found, read from request body (for PUT)
-            if (newStatus == null) {
-                java.io.BufferedReader reader = request.getReader();
-                StringBuilder bodyBuilder = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    bodyBuilder.append(line);
-                }
-                String body = bodyBuilder.toString();
-                
-                // Parse form-encoded data: status=CONFIRMED
-                if (body.contains("status=")) {
-                    String[] parts = body.split("&");
-                    for (String part : parts) {
-                        if (part.startsWith("status=")) {
-                            newStatus = java.net.URLDecoder.decode(part.substring(7), "UTF-8");
-                            break;
-                        }
-                    }
-                }
-            }
-            
             if (newStatus == null || newStatus.trim().isEmpty()) {
                 sendErrorResponse(out, "Status parameter is required");
                 return;
             }
             
-            String updateSql = "UPDATE orders SET status = ?, updated_at = NOW() WHERE id = ?";
-            
-            org.hibernate.Query query = session.createSQLQuery(updateSql);
-            query.setParameter(0, newStatus);
-            query.setParameter(1, orderId);
+            Map<Long, String> target = new HashMap<Long, String>();
+            target.put(orderId, newStatus);
+            OrderTransitions.Result result = OrderTransitions.apply(target);
             
-            int rowsUpdated = query.executeUpdate();
-            
-            transaction.commit();
-            
-            if (rowsUpdated > 0) {
-                StringBuilder response = new StringBuilder();
-                response.append("{\"success\": true, \"data\": {");
-                response.append("\"message\": \"Order status updated successfully\",");
-                response.append("\"orderId\": ").append(orderId).append(",");
-                response.append("\"newStatus\": \"").append(newStatus).append("\"");
-                response.append("}}");
-                out.print(response.toString());
-            } else {
-                sendErrorResponse(out, "Order not found");
+            if (!result.getRejected().isEmpty()) {
+                sendErrorResponse(out, result.getRejected().get(0).getReason());
+                return;
             }
             
+            StringBuilder response = new StringBuilder();
+            response.append("{\"success\": true, \"data\": {");
+            response.append("\"message\": \"Order status updated successfully\",");
+            response.append("\"orderId\": ").append(orderId).append(",");
+            response.append("\"newStatus\": \"").append(OrderStatus.parse(newStatus)).append("\"");
+            response.append("}}");
+            out.print(response.toString());
+            
         } catch (Exception e) {
-            if (transaction != null) transaction.rollback();
             e.printStackTrace();
             sendErrorResponse(out, "Error updating order status: " + e.getMessage());
-        } finally {
-            session.close();
         }
     }
 
-    private String getOrderItemsJson(Long orderId, org.hibernate.Session session) {
+    /**
+     * PUT /orders/status with {"status": "SHIPPED", "orderIds": [1, 2, 3]} and/or
+     * {"transitions": [{"orderId": 4, "status": "CANCELLED"}, ...]}. Valid moves
+     * are applied together; the others are listed under "rejected".
+     */
+    private void bulkUpdateStatus(String body, PrintWriter out) {
         try {
-            if (orderId == null) {
-                return "[]";
+            Map<String, Object> json = JsonParser.parseObject(body);
+            
+            // Later entries for the same order win
+            Map<Long, String> targets = new LinkedHashMap<Long, String>();
+            if (json.get("orderIds") instanceof List) {
+                Object status = json.get("status");
+                if (status == null) {
+                    sendErrorResponse(out, "status is required with orderIds");
+                    return;
+                }
+                for (Object id : (List<?>) json.get("orderIds")) {
+                    targets.put(new BigDecimal(id.toString()).longValueExact(), status.toString());
+                }
+            }
+            if (json.get("transitions") instanceof List) {
+                for (Object item : (List<?>) json.get("transitions")) {
+                    if (!(item instanceof Map) || ((Map<?, ?>) item).get("orderId") == null || ((Map<?, ?>) item).get("status") == null) {
+                        sendErrorResponse(out, "Each transition needs orderId and status");
+                        return;
+                    }
+                    Map<?, ?> transition = (Map<?, ?>) item;
+                    targets.put(new BigDecimal(transition.get("orderId").toString()).longValueExact(), transition.get("status").toString());
+                }
+            }
+            if (targets.isEmpty()) {
+                sendErrorResponse(out, "No orders given; send orderIds with status, or transitions");
+                return;
             }
             
-            String sql = "SELECT product_id, product_name, color, size, quantity, unit_price " +
-                        "FROM order_items WHERE order_id = ?";
-            org.hibernate.Query query = session.createSQLQuery(sql);
-            query.setParameter(0, orderId);
-            @SuppressWarnings("unchecked")
-            List<Object[]> items = query.list();
-            
-            StringBuilder itemsJson = new StringBuilder();
-            itemsJson.append("[");
-            
-            for (int i = 0; i < items.size(); i++) {
-                if (i > 0) itemsJson.append(",");
-                
-                Object[] item = items.get(i);
-                itemsJson.append("{");
-                itemsJson.append("\"productId\": ").append(item[0] != null ? item[0] : "null").append(",");
-                itemsJson.append("\"productName\": \"").append(escapeJson(item[1] != null ? item[1].toString() : "")).append("\",");
-                itemsJson.append("\"color\": \"").append(escapeJson(item[2] != null ? item[2].toString() : "Default")).append("\",");
-                itemsJson.append("\"size\": \"").append(escapeJson(item[3] != null ? item[3].toString() : "M")).append("\",");
-                itemsJson.append("\"quantity\": ").append(item[4] != null ? item[4] : "0").append(",");
-                itemsJson.append("\"price\": ").append(item[5] != null ? item[5] : "0");
-                itemsJson.append("}");
+            long start = System.currentTimeMillis();
+            OrderTransitions.Result result = OrderTransitions.apply(targets);
+            
+            StringBuilder response = new StringBuilder();
+            response.append("{\"success\": ").append(result.getRejected().isEmpty()).append(", \"data\": {");
+            response.append("\"requested\": ").append(targets.size()).append(",");
+            response.append("\"updated\": ").append(result.getUpdated().size()).append(",");
+            response.append("\"unchanged\": ").append(result.getUnchanged().size()).append(",");
+            response.append("\"elapsedMs\": ").append(System.currentTimeMillis() - start).append(",");
+            response.append("\"rejected\": [");
+            for (int i = 0; i < result.getRejected().size(); i++) {
+                OrderTransitions.Rejection rejection = result.getRejected().get(i);
+                if (i > 0) response.append(",");
+                response.append("{\"orderId\": ").append(rejection.getOrderId());
+                response.append(", \"status\": \"").append(escapeJson(rejection.getStatus())).append("\"");
+                response.append(", \"reason\": \"").append(escapeJson(rejection.getReason())).append("\"}");
             }
+            response.append("]}}");
+            out.print(response.toString());
             
-            itemsJson.append("]");
-            return itemsJson.toString();
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            sendErrorResponse(out, e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
+            sendErrorResponse(out, "Error updating order statuses: " + e.getMessage());
+        }
+    }
+
+    private String readBody(javax.servlet.http.HttpServletRequest request) throws IOException {
+        java.io.BufferedReader reader = request.getReader();
+        StringBuilder body = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            body.append(line);
+        }
+        return body.toString();
+    }
+
+    // Value of one field in an application/x-www-form-urlencoded request body
+    private String readFormParameter(javax.servlet.http.HttpServletRequest request, String name) throws IOException {
+        for (String part : readBody(request).split("&")) {
+            int equals = part.indexOf('=');
+            if (equals > 0 && name.equals(java.net.URLDecoder.decode(part.substring(0, equals), "UTF-8"))) {
+                return java.net.URLDecoder.decode(part.substring(equals + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private Map<Long, List<OrderItem>> loadItemsByOrder(List<OrderSummary> orders, org.hibernate.Session session) {
+        Map<Long, List<OrderItem>> itemsByOrder = new HashMap<Long, List<OrderItem>>();
+        if (orders.isEmpty()) {
+            return itemsByOrder;
+        }
+        
+        List<Long> orderIds = new ArrayList<Long>(orders.size());
+        for (OrderSummary order : orders) {
+            orderIds.add(order.getId());
+        }
+        
+        // One IN query per chunk instead of one query per order
+        for (int from = 0; from < orderIds.size(); from += ITEM_BATCH_SIZE) {
+            List<Long> chunk = orderIds.subList(from, Math.min(from + ITEM_BATCH_SIZE, orderIds.size()));
+            org.hibernate.Query query = session.createQuery(
+                "FROM OrderItem i WHERE i.orderId IN (:orderIds) ORDER BY i.orderId, i.id");
+            query.setParameterList("orderIds", chunk);
+            query.setReadOnly(true);
+            @SuppressWarnings("unchecked")
+            List<OrderItem> items = query.list();
+            
+            for (OrderItem item : items) {
+                List<OrderItem> list = itemsByOrder.get(item.getOrderId());
+                if (list == null) {
+                    list = new ArrayList<OrderItem>();
+                    itemsByOrder.put(item.getOrderId(), list);
+                }
+                list.add(item);
+            }
+        }
+        return itemsByOrder;
+    }
+
+    private void appendOrderJson(StringBuilder jsonBuilder, OrderSummary order, String itemsJson, boolean includeCustomer) {
+        jsonBuilder.append("{");
+        jsonBuilder.append("\"id\": ").append(order.getId()).append(",");
+        jsonBuilder.append("\"userId\": ").append(order.getUserId()).append(",");
+        jsonBuilder.append("\"orderNumber\": \"").append(order.getOrderNumber() != null ? order.getOrderNumber() : "").append("\",");
+        jsonBuilder.append("\"status\": \"").append(order.getStatus() != null ? order.getStatus() : "PENDING").append("\",");
+        jsonBuilder.append("\"totalAmount\": ").append(order.getTotalAmount() != null ? order.getTotalAmount() : "0").append(",");
+        
+        // Format shipping address as JSON string for frontend parsing
+        String shippingAddr = order.getShippingAddress() != null ? order.getShippingAddress() : "";
+        if (!shippingAddr.isEmpty() && !shippingAddr.startsWith("{")) {
+            // If it's a plain address, convert to JSON format
+            shippingAddr = "{\"street\":\"" + escapeJson(shippingAddr) + "\",\"city\":\"\",\"state\":\"\",\"zipCode\":\"\"}";
+        }
+        jsonBuilder.append("\"shippingAddress\": \"").append(escapeJson(shippingAddr)).append("\",");
+        jsonBuilder.append("\"paymentMethod\": \"").append(order.getPaymentMethod() != null ? order.getPaymentMethod() : "STRIPE").append("\",");
+        jsonBuilder.append("\"createdAt\": \"").append(order.getCreatedAt() != null ? order.getCreatedAt() : "").append("\",");
+        
+        if (includeCustomer) {
+            // Customer information
+            if (order.getFirstName() != null && order.getLastName() != null) {
+                jsonBuilder.append("\"customerName\": \"").append(escapeJson(order.getFirstName() + " " + order.getLastName())).append("\",");
+            } else {
+                jsonBuilder.append("\"customerName\": \"Unknown Customer\",");
+            }
+            jsonBuilder.append("\"customerEmail\": \"").append(escapeJson(order.getEmail() != null ? order.getEmail() : "No email")).append("\",");
+        }
+        
+        // Order items as JSON string for frontend parsing
+        jsonBuilder.append("\"items\": \"").append(escapeJson(itemsJson)).append("\"");
+        jsonBuilder.append("}");
+    }
+
+    private String getOrderItemsJson(List<OrderItem> items) {
+        if (items == null || items.isEmpty()) {
             return "[]";
         }
+        
+        StringBuilder itemsJson = new StringBuilder();
+        itemsJson.append("[");
+        
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) itemsJson.append(",");
+            
+            OrderItem item = items.get(i);
+            itemsJson.append("{");
+            itemsJson.append("\"productId\": ").append(item.getProductId() != null ? item.getProductId() : "null").append(",");
+            itemsJson.append("\"productName\": \"").append(escapeJson(item.getProductName() != null ? item.getProductName() : "")).append("\",");
+            itemsJson.append("\"color\": \"").append(escapeJson(item.getColor() != null ? item.getColor() : "Default")).append("\",");
+            itemsJson.append("\"size\": \"").append(escapeJson(item.getSize() != null ? item.getSize() : "M")).append("\",");
+            itemsJson.append("\"quantity\": ").append(item.getQuantity() != null ? item.getQuantity() : "0").append(",");
+            itemsJson.append("\"price\": ").append(item.getUnitPrice() != null ? item.getUnitPrice() : "0");
+            itemsJson.append("}");
+        }
+        
+        itemsJson.append("]");
+        return itemsJson.toString();
     }
 
-    private void parseAndInsertOrderItems(String itemsJson, Long orderId, org.hibernate.Session session) {
+    private List<OrderItem> parseAndInsertOrderItems(String itemsJson, Long orderId, org.hibernate.Session session) {
+        List<OrderItem> saved = new ArrayList<OrderItem>();
         try {
             // Simple JSON parsing - expects format like: [{"productId":1,"productName":"T-Shirt","quantity":2,"price":29.99}]
             String cleanJson = itemsJson.trim();
@@ -557,7 +706,7 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
                 cleanJson = cleanJson.substring(1, cleanJson.length() - 1); // Remove [ ]
             }
             
-            if (cleanJson.isEmpty()) return;
+            if (cleanJson.isEmpty()) return saved;
             
             // Split by object boundaries - more careful parsing
             String[] itemObjects = cleanJson.split("},\\s*\\{");
@@ -617,21 +766,9 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
                 }
                 
                 if (productId != null && !productName.isEmpty()) {
-                    String insertItemSql = "INSERT INTO order_items (order_id, product_id, product_name, " +
-                                         "color, size, quantity, unit_price, total_price, created_at) " +
-                                         "VALUES (?, ?, ?, ?, ?, ?, ?, ?, NOW())";
-                    
-                    org.hibernate.Query itemQuery = session.createSQLQuery(insertItemSql);
-                    itemQuery.setParameter(0, orderId);
-                    itemQuery.setParameter(1, productId);
-                    itemQuery.setParameter(2, productName);
-                    itemQuery.setParameter(3, color);
-                    itemQuery.setParameter(4, size);
-                    itemQuery.setParameter(5, quantity);
-                    itemQuery.setParameter(6, price);
-                    itemQuery.setParameter(7, price.multiply(BigDecimal.valueOf(quantity)));
-                    
-                    itemQuery.executeUpdate();
+                    OrderItem item = new OrderItem(orderId, productId, productName, color, size, quantity, price);
+                    session.save(item);
+                    saved.add(item);
                 }
             }
             
@@ -639,6 +776,7 @@ public class OrderServlet extends javax.servlet.http.HttpServlet {
             e.printStackTrace();
             System.err.println("Error parsing order items: " + e.getMessage());
         }
+        return saved;
     }
 
     private String escapeJson(String str) {
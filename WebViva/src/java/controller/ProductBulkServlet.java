@@ -0,0 +1,228 @@
+package controller;
+
+import service.ProductBulkExporter;
+import service.ProductBulkImporter;
+import service.ProductBulkUpdates;
+import util.JsonParser;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ProductBulkServlet - bulk catalog import/export for admins.
+ *
+ * POST /admin/products/import?format=csv|ndjson
+ *      Body is the file itself (text/csv or application/x-ndjson). Products are
+ *      upserted on sku with sizes and images; the response lists per-row errors.
+ * GET  /admin/products/export?format=csv|ndjson
+ *      Streams every product in the same layout the import accepts.
+ * POST /admin/products/bulk
+ *      {"action":"deactivate|activate|setFeatured|adjustPrice", "ids":[...],
+ *       "categoryId":n, "featured":true, "percent":-15}
+ *      Applies one set-based update to the selected products.
+ */
+@WebServlet({"/admin/products/import", "/admin/products/export", "/admin/products/bulk"})
+public class ProductBulkServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+
+        if (!"/admin/products/export".equals(request.getServletPath())) {
+            sendError(response, 405, "Use POST for this endpoint");
+            return;
+        }
+        if (!isAdmin(request)) {
+            sendError(response, 403, "Admin access required");
+            return;
+        }
+
+        boolean csv = !"ndjson".equalsIgnoreCase(request.getParameter("format"));
+        response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+        response.setHeader("Content-Disposition", "attachment; filename=\"products." + (csv ? "csv" : "ndjson") + "\"");
+
+        PrintWriter out = response.getWriter();
+        try {
+            if (csv) {
+                ProductBulkExporter.writeCsv(out);
+            } else {
+                ProductBulkExporter.writeNdjson(out);
+            }
+        } catch (Exception e) {
+            // Headers are already sent once streaming starts, so just log and stop
+            System.err.println("Product export failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+
+        if ("/admin/products/export".equals(request.getServletPath())) {
+            sendError(response, 405, "Use GET to export products");
+            return;
+        }
+        if (!isAdmin(request)) {
+            sendError(response, 403, "Admin access required");
+            return;
+        }
+        if ("/admin/products/bulk".equals(request.getServletPath())) {
+            handleBulkUpdate(request, response);
+            return;
+        }
+
+        String format = request.getParameter("format");
+        if (format == null) {
+            String contentType = request.getContentType();
+            format = contentType != null && contentType.contains("json") ? "ndjson" : "csv";
+        }
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding("UTF-8");
+        }
+
+        long start = System.currentTimeMillis();
+        ProductBulkImporter.Result result;
+        try {
+            ProductBulkImporter importer = new ProductBulkImporter();
+            if ("ndjson".equalsIgnoreCase(format)) {
+                result = importer.importNdjson(request.getReader());
+            } else if ("csv".equalsIgnoreCase(format)) {
+                result = importer.importCsv(request.getReader());
+            } else {
+                sendError(response, 400, "Unsupported format '" + format + "', use csv or ndjson");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(response, 400, e.getMessage());
+            return;
+        } catch (Exception e) {
+            e.printStackTrace();
+            sendError(response, 500, "Import failed: " + e.getMessage());
+            return;
+        }
+
+        response.setContentType("application/json");
+        PrintWriter out = response.getWriter();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"success\":").append(result.getFailed() == 0).append(",");
+        json.append("\"data\":{");
+        json.append("\"processed\":").append(result.getProcessed()).append(",");
+        json.append("\"inserted\":").append(result.getInserted()).append(",");
+        json.append("\"updated\":").append(result.getUpdated()).append(",");
+        json.append("\"failed\":").append(result.getFailed()).append(",");
+        json.append("\"elapsedMs\":").append(System.currentTimeMillis() - start).append(",");
+        json.append("\"errors\":[");
+        List<String> errors = result.getErrors();
+        for (int i = 0; i < errors.size(); i++) {
+            if (i > 0) json.append(",");
+            json.append("\"").append(escapeJson(errors.get(i))).append("\"");
+        }
+        json.append("]}}");
+        out.print(json);
+        out.flush();
+    }
+
+    private void handleBulkUpdate(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            StringBuilder body = new StringBuilder();
+            BufferedReader reader = request.getReader();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                body.append(line);
+            }
+            Map<String, Object> json = JsonParser.parseObject(body.toString());
+
+            String action = json.get("action") != null ? json.get("action").toString() : "";
+            List<Long> ids = null;
+            if (json.get("ids") instanceof List) {
+                ids = new ArrayList<>();
+                for (Object id : (List<?>) json.get("ids")) {
+                    ids.add(new BigDecimal(id.toString()).longValueExact());
+                }
+            }
+            Long categoryId = json.get("categoryId") != null
+                    ? new BigDecimal(json.get("categoryId").toString()).longValueExact() : null;
+
+            int updated;
+            switch (action) {
+                case "deactivate":
+                    updated = ProductBulkUpdates.setActive(ids, categoryId, false);
+                    break;
+                case "activate":
+                    updated = ProductBulkUpdates.setActive(ids, categoryId, true);
+                    break;
+                case "setFeatured":
+                    updated = ProductBulkUpdates.setFeatured(ids, categoryId, !Boolean.FALSE.equals(json.get("featured")));
+                    break;
+                case "adjustPrice":
+                    if (json.get("percent") == null) {
+                        sendError(response, 400, "percent is required for adjustPrice");
+                        return;
+                    }
+                    updated = ProductBulkUpdates.adjustPrices(ids, categoryId, new BigDecimal(json.get("percent").toString()));
+                    break;
+                default:
+                    sendError(response, 400, "Unknown action '" + action + "'");
+                    return;
+            }
+
+            response.setContentType("application/json");
+            PrintWriter out = response.getWriter();
+            out.print("{\"success\":true,\"data\":{\"action\":\"" + escapeJson(action) + "\",\"updated\":" + updated + "}}");
+            out.flush();
+
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            sendError(response, 400, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            sendError(response, 500, "Bulk update failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private boolean isAdmin(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        return session != null && "ADMIN".equals(session.getAttribute("userRole"));
+    }
+
+    private void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        PrintWriter out = response.getWriter();
+        out.print("{\"success\":false,\"error\":\"" + escapeJson(message) + "\"}");
+        out.flush();
+    }
+
+    private String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
@@ -1,6 +1,14 @@
 package controller;
 
 import model.Product;
+import service.AlsoBought;
+import service.ProductPriceCache;
+import service.CatalogResponses;
+import service.ProductViews;
+import service.ProductRatings;
+import service.SimilarProducts;
+import service.SizeInventory;
+import service.TrendingProducts;
 import util.HibernateUtil;
 import org.hibernate.Session;
 import org.hibernate.Query;
@@ -11,12 +19,17 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.BufferedReader;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Date;
+import java.util.Locale;
 
 @WebServlet({"/products", "/products/*"})
 public class ProductServlet extends HttpServlet {
@@ -40,7 +53,27 @@ public class ProductServlet extends HttpServlet {
             System.out.println("Servlet path: " + servletPath);
             System.out.println("Full URL: " + request.getRequestURL().toString());
             
-            if (pathInfo != null && pathInfo.length() > 1) {
+            if (pathInfo != null && pathInfo.matches("/\\d+/(related|similar)")) {
+                // Answered from memory, so no need to share the response
+                handleRecommendationRequest(request, response, pathInfo, out);
+            } else if ("/bestsellers".equals(pathInfo)
+                    || ((pathInfo == null || "/".equals(pathInfo)) && "trending".equals(request.getParameter("sort")))) {
+                handleRankingRequest(request, response, pathInfo != null && pathInfo.length() > 1, out);
+            } else if (!"true".equals(request.getParameter("admin"))) {
+                // Public reads: identical concurrent requests share one load and its JSON
+                CatalogResponses.Response cached = CatalogResponses.getInstance().get(
+                    CatalogResponses.key(pathInfo, request.getParameterMap()),
+                    () -> renderCatalogResponse(request, response, pathInfo));
+                response.setStatus(cached.getStatus());
+                out.print(cached.getBody());
+                if (cached.getStatus() == 200 && pathInfo != null && pathInfo.matches("/\\d{1,18}")) {
+                    // Here rather than in the handler, which cache hits never reach; only
+                    // existing products, so unknown ids cannot grow the trending counters
+                    long productId = Long.parseLong(pathInfo.substring(1));
+                    TrendingProducts.getInstance().viewed(productId);
+                    ProductViews.getInstance().record(productId);
+                }
+            } else if (pathInfo != null && pathInfo.length() > 1) {
                 // Handle single product request: /products/{id}
                 handleSingleProductRequest(request, response, pathInfo, out);
             } else {
@@ -58,6 +91,35 @@ public class ProductServlet extends HttpServlet {
         }
     }
     
+    // Run the normal handlers against a buffer so the result can be shared
+    private CatalogResponses.Response renderCatalogResponse(HttpServletRequest request, HttpServletResponse response,
+                                                           String pathInfo) throws Exception {
+        StringWriter buffer = new StringWriter();
+        PrintWriter bufferOut = new PrintWriter(buffer);
+        StatusCapture capture = new StatusCapture(response);
+        if (pathInfo != null && pathInfo.length() > 1) {
+            handleSingleProductRequest(request, capture, pathInfo, bufferOut);
+        } else {
+            handleProductListRequest(request, capture, bufferOut);
+        }
+        bufferOut.flush();
+        return new CatalogResponses.Response(capture.status, buffer.toString());
+    }
+    
+    // Keeps the status a handler sets out of the real response; the shared result carries it
+    private static class StatusCapture extends HttpServletResponseWrapper {
+        private int status = HttpServletResponse.SC_OK;
+        
+        StatusCapture(HttpServletResponse response) {
+            super(response);
+        }
+        
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+        }
+    }
+    
     private void handleSingleProductRequest(HttpServletRequest request, HttpServletResponse response, 
                                           String pathInfo, PrintWriter out) throws Exception {
         
@@ -126,8 +188,15 @@ public class ProductServlet extends HttpServlet {
                 out.print("\"isFeatured\":" + product.getIsFeatured() + ",");
                 out.print("\"featured\":" + product.getIsFeatured() + ",");
                 out.print("\"isActive\":" + product.getIsActive() + ",");
-                out.print("\"rating\":4.5,"); // Default rating
-                out.print("\"reviewCount\":42,"); // Default review count
+                ProductRatings.Summary rating = ProductRatings.getInstance().get(product.getId());
+                out.print("\"rating\":" + rating.getAverage() + ",");
+                out.print("\"reviewCount\":" + rating.getReviewCount() + ",");
+                out.print("\"ratingHistogram\":[");
+                for (int stars = 1; stars <= 5; stars++) {
+                    if (stars > 1) out.print(",");
+                    out.print(rating.getStars(stars));
+                }
+                out.print("],");
                 
                 // Add available colors array - DYNEX streetwear colors
                 out.print("\"colors\":[");
@@ -156,15 +225,15 @@ public class ProductServlet extends HttpServlet {
                 // Add available sizes array - DYNEX streetwear sizes
                 out.print("\"sizes\":[");
                 // Get sizes from database or use defaults based on category
+                SizeInventory.ProductStock stock = null;
                 try {
-                    Query sizeQuery = session.createQuery("SELECT size FROM ProductSize WHERE productId = :productId ORDER BY size");
-                    sizeQuery.setParameter("productId", product.getId());
-                    List<String> sizes = sizeQuery.list();
+                    stock = SizeInventory.getInstance().get(product.getId());
+                    List<SizeInventory.SizeLevel> sizes = stock != null ? stock.getSizes() : null;
                     
                     if (sizes != null && !sizes.isEmpty()) {
                         for (int i = 0; i < sizes.size(); i++) {
                             if (i > 0) out.print(",");
-                            out.print("\"" + escapeJson(sizes.get(i)) + "\"");
+                            out.print("\"" + escapeJson(sizes.get(i).getSize()) + "\"");
                         }
                     } else {
                         // Default sizes based on category/type
@@ -184,6 +253,7 @@ public class ProductServlet extends HttpServlet {
                     out.print("\"S\",\"M\",\"L\",\"XL\"");
                 }
                 out.print("],");
+                out.print("\"sizeStock\":" + sizeStockJson(stock) + ",");
                 
                 // Add product images array
                 out.print("\"images\":[");
@@ -218,6 +288,98 @@ public class ProductServlet extends HttpServlet {
         }
     }
     
+    // /products/{id}/related ("customers also bought") and /products/{id}/similar, with optional ?limit=n
+    private void handleRecommendationRequest(HttpServletRequest request, HttpServletResponse response,
+                                             String pathInfo, PrintWriter out) {
+        boolean similar = pathInfo.endsWith("/similar");
+        int maxResults = similar ? SimilarProducts.MAX_RESULTS : AlsoBought.MAX_RESULTS;
+        long productId;
+        int limit = 8;
+        try {
+            productId = Long.parseLong(pathInfo.substring(1, pathInfo.indexOf('/', 1)));
+            if (request.getParameter("limit") != null) {
+                limit = Math.max(1, Math.min(maxResults, Integer.parseInt(request.getParameter("limit"))));
+            }
+        } catch (NumberFormatException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"error\":\"Invalid product ID or limit\"}");
+            return;
+        }
+
+        // Ask for the full list: inactive products are dropped below
+        List<Long> ids = new ArrayList<>();
+        List<String> extras = new ArrayList<>();
+        if (similar) {
+            for (SimilarProducts.Similar item : SimilarProducts.getInstance().similar(productId, maxResults)) {
+                ids.add(item.getProductId());
+                extras.add("\"similarity\":" + String.format(Locale.ROOT, "%.4f", item.getScore()));
+            }
+        } else {
+            for (AlsoBought.Related item : AlsoBought.getInstance().related(productId, maxResults)) {
+                ids.add(item.getProductId());
+                extras.add("\"boughtTogether\":" + item.getOrders());
+            }
+        }
+        out.print("{\"success\":true,\"data\":" + productCards(ids, extras, limit) + "}");
+    }
+    
+    // /products/bestsellers and /products?sort=trending, with optional ?window=hour|day|week and ?limit=n
+    private void handleRankingRequest(HttpServletRequest request, HttpServletResponse response,
+                                      boolean bestsellers, PrintWriter out) {
+        String windowParam = request.getParameter("window");
+        TrendingProducts.Window window = windowParam == null
+            ? (bestsellers ? TrendingProducts.Window.WEEK : TrendingProducts.Window.DAY)
+            : TrendingProducts.Window.parse(windowParam);
+        int limit = 20;
+        try {
+            if (request.getParameter("limit") != null) {
+                limit = Math.max(1, Math.min(TrendingProducts.MAX_RESULTS, Integer.parseInt(request.getParameter("limit"))));
+            }
+        } catch (NumberFormatException e) {
+            window = null;
+        }
+        if (window == null) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"error\":\"window must be hour, day or week and limit a number\"}");
+            return;
+        }
+
+        // Ask for the full list: inactive products are dropped below
+        TrendingProducts rankings = TrendingProducts.getInstance();
+        List<Long> ids = new ArrayList<>();
+        List<String> extras = new ArrayList<>();
+        for (TrendingProducts.Ranked item : bestsellers
+                ? rankings.bestsellers(window, TrendingProducts.MAX_RESULTS)
+                : rankings.trending(window, TrendingProducts.MAX_RESULTS)) {
+            ids.add(item.getProductId());
+            extras.add("\"score\":" + String.format(Locale.ROOT, "%.2f", item.getScore()));
+        }
+        out.print("{\"success\":true,\"window\":\"" + window.name().toLowerCase(Locale.ROOT) + "\",\"data\":"
+            + productCards(ids, extras, limit) + "}");
+    }
+    
+    // JSON array of the first limit active products in ids, each with its extra fields
+    private String productCards(List<Long> ids, List<String> extras, int limit) {
+        Map<Long, ProductPriceCache.Price> prices = ProductPriceCache.getInstance().getAll(ids);
+
+        StringBuilder json = new StringBuilder("[");
+        int written = 0;
+        for (int i = 0; i < ids.size() && written < limit; i++) {
+            ProductPriceCache.Price price = prices.get(ids.get(i));
+            if (price == null || !price.isActive()) {
+                continue;
+            }
+            if (written++ > 0) json.append(",");
+            json.append("{\"id\":").append(price.getProductId()).append(",");
+            json.append("\"name\":\"").append(escapeJson(price.getName())).append("\",");
+            json.append("\"imageUrl\":\"").append(escapeJson(price.getImageUrl())).append("\",");
+            json.append("\"price\":").append(price.getPrice()).append(",");
+            json.append("\"discountPrice\":").append(price.getDiscountPrice() != null ? price.getDiscountPrice() : "null").append(",");
+            json.append(extras.get(i)).append("}");
+        }
+        return json.append("]").toString();
+    }
+    
     private void handleProductListRequest(HttpServletRequest request, HttpServletResponse response, 
                                         PrintWriter out) throws Exception {
             
@@ -340,6 +502,14 @@ public class ProductServlet extends HttpServlet {
                 
                 System.out.println("Found " + products.size() + " products");
                 
+                // Size stock and ratings for the whole page, served from memory
+                List<Long> productIds = new ArrayList<Long>(products.size());
+                for (Product p : products) {
+                    productIds.add(p.getId());
+                }
+                Map<Long, SizeInventory.ProductStock> stock = SizeInventory.getInstance().getAll(productIds);
+                Map<Long, ProductRatings.Summary> ratings = ProductRatings.getInstance().getAll(productIds);
+                
                 // Simple JSON response
                 out.print("[");
                 for (int i = 0; i < products.size(); i++) {
@@ -366,6 +536,9 @@ public class ProductServlet extends HttpServlet {
                     out.print("\"season\":\"" + escapeJson(p.getSeason()) + "\",");
                     out.print("\"careInstructions\":\"" + escapeJson(p.getCareInstructions()) + "\",");
                     
+                    out.print("\"sizeStock\":" + sizeStockJson(stock.get(p.getId())) + ",");
+                    out.print("\"rating\":" + ratings.get(p.getId()).getAverage() + ",");
+                    out.print("\"reviewCount\":" + ratings.get(p.getId()).getReviewCount() + ",");
                     out.print("\"isFeatured\":" + p.getIsFeatured() + ",");
                     out.print("\"isActive\":" + p.getIsActive());
                     out.print("}");
@@ -441,6 +614,8 @@ public class ProductServlet extends HttpServlet {
             
             session.save(product);
             transaction.commit();
+            CatalogResponses.getInstance().clear();
+            SimilarProducts.getInstance().productChanged(product.getId());
             
             // Return the created product
             out.print("{");
@@ -562,6 +737,10 @@ public class ProductServlet extends HttpServlet {
             
             session.update(product);
             transaction.commit();
+            ProductPriceCache.getInstance().invalidate(productId);
+            SizeInventory.getInstance().invalidate(productId);
+            CatalogResponses.getInstance().clear();
+            SimilarProducts.getInstance().productChanged(productId);
             
             out.print("{\"success\":true,\"message\":\"Product updated successfully\"}");
             
@@ -615,6 +794,9 @@ public class ProductServlet extends HttpServlet {
             // session.delete(product);
             
             transaction.commit();
+            ProductPriceCache.getInstance().invalidate(productId);
+            CatalogResponses.getInstance().clear();
+            SimilarProducts.getInstance().productChanged(productId);
             
             out.print("{\"success\":true,\"message\":\"Product deleted successfully\"}");
             
@@ -666,6 +848,24 @@ public class ProductServlet extends HttpServlet {
         }
     }
     
+    // [{"size":"M","stockQuantity":4,"additionalPrice":0.00,"inStock":true}, ...]
+    private String sizeStockJson(SizeInventory.ProductStock stock) {
+        StringBuilder json = new StringBuilder("[");
+        if (stock != null) {
+            List<SizeInventory.SizeLevel> sizes = stock.getSizes();
+            for (int i = 0; i < sizes.size(); i++) {
+                SizeInventory.SizeLevel level = sizes.get(i);
+                if (i > 0) json.append(",");
+                json.append("{\"size\":\"").append(escapeJson(level.getSize())).append("\",");
+                json.append("\"stockQuantity\":").append(level.getStockQuantity()).append(",");
+                json.append("\"additionalPrice\":").append(level.getAdditionalPrice()).append(",");
+                json.append("\"inStock\":").append(level.isInStock()).append("}");
+            }
+        }
+        json.append("]");
+        return json.toString();
+    }
+    
     private String escapeJson(String str) {
         if (str == null) return "";
         return str.replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
@@ -1,9 +1,6 @@
 package controller;
 
-import model.ProductSize;
-import util.HibernateUtil;
-import org.hibernate.Session;
-import org.hibernate.Query;
+import service.SizeInventory;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -12,6 +9,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 @WebServlet("/product-sizes/*")
@@ -39,37 +37,26 @@ public class ProductSizeServlet extends HttpServlet {
             String productIdStr = pathInfo.substring(1); // Remove leading slash
             Long productId = Long.parseLong(productIdStr);
             
-            Session session = HibernateUtil.getSessionFactory().openSession();
+            // Served from the in-memory size inventory, kept current by checkout
+            SizeInventory.ProductStock stock = SizeInventory.getInstance().get(productId);
+            List<SizeInventory.SizeLevel> sizes = stock != null ? stock.getSizes() : new ArrayList<SizeInventory.SizeLevel>();
             
-            try {
-                // Get all sizes for the product with stock > 0
-                Query query = session.createQuery(
-                    "FROM ProductSize ps WHERE ps.productId = :productId AND ps.stockQuantity > 0 " +
-                    "ORDER BY FIELD(ps.size, 'XS', 'S', 'M', 'L', 'XL', 'XXL', '3XL')"
-                );
-                query.setParameter("productId", productId);
-                
-                @SuppressWarnings("unchecked")
-                List<ProductSize> sizes = query.list();
-                
-                // Build JSON response
-                out.print("[");
-                for (int i = 0; i < sizes.size(); i++) {
-                    ProductSize size = sizes.get(i);
-                    if (i > 0) out.print(",");
-                    out.print("{");
-                    out.print("\"id\":" + size.getId() + ",");
-                    out.print("\"size\":\"" + escapeJson(size.getSize()) + "\",");
-                    out.print("\"stockQuantity\":" + size.getStockQuantity() + ",");
-                    out.print("\"additionalPrice\":" + size.getAdditionalPrice() + ",");
-                    out.print("\"inStock\":" + size.isInStock());
-                    out.print("}");
-                }
-                out.print("]");
-                
-            } finally {
-                session.close();
+            // Build JSON response (sizes with stock only)
+            out.print("[");
+            boolean first = true;
+            for (SizeInventory.SizeLevel size : sizes) {
+                if (!size.isInStock()) continue;
+                if (!first) out.print(",");
+                first = false;
+                out.print("{");
+                out.print("\"id\":" + size.getId() + ",");
+                out.print("\"size\":\"" + escapeJson(size.getSize()) + "\",");
+                out.print("\"stockQuantity\":" + size.getStockQuantity() + ",");
+                out.print("\"additionalPrice\":" + size.getAdditionalPrice() + ",");
+                out.print("\"inStock\":" + size.isInStock());
+                out.print("}");
             }
+            out.print("]");
             
         } catch (NumberFormatException e) {
             response.setStatus(400);
@@ -0,0 +1,254 @@
+package controller;
+
+import util.AdaptiveConcurrencyLimit;
+import util.TokenBucket;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RateLimitFilter - per-client rate limits and load shedding for the API.
+ *
+ * Each request is put in an endpoint class and charged to a token bucket for
+ * (class, client), where the client is the logged-in user id or else the
+ * remote address. An empty bucket answers 429 with Retry-After.
+ *
+ *   auth    /login, /signup, /update-password       10/min, burst 5
+ *   search  GET /products?search=...,                60/min, burst 20
+ *           GET /signup/availability
+ *   export  GET /orders/export,                      10/min, burst 2
+ *           GET /admin/products/export
+ *   write   any other POST/PUT/DELETE               120/min, burst 30
+ *   read    any other GET                           600/min, burst 100
+ *
+ * Override with -Ddynex.ratelimit.{class}=perMinute/burst. Catalog reads and
+ * searches also pass an adaptive concurrency limit: when their latency
+ * (mostly database time) rises above -Ddynex.shed.targetMs (250), the limit
+ * shrinks and excess browsing gets 503, so checkout and login keep working
+ * while scrapers are slowed down. Payment callbacks and CORS preflights are
+ * never limited.
+ */
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public class RateLimitFilter implements Filter {
+
+    private static final int MAX_BUCKETS = 100000;
+
+    private enum EndpointClass {
+        AUTH(10, 5), SEARCH(60, 20), EXPORT(10, 2), WRITE(120, 30), READ(600, 100);
+
+        final int defaultRate;
+        final int defaultBurst;
+
+        EndpointClass(int defaultRate, int defaultBurst) {
+            this.defaultRate = defaultRate;
+            this.defaultBurst = defaultBurst;
+        }
+
+        boolean sheddable() {
+            return this == SEARCH || this == READ;
+        }
+    }
+
+    private final Map<EndpointClass, int[]> limits = new ConcurrentHashMap<EndpointClass, int[]>();
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+    private AdaptiveConcurrencyLimit browsing;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            limits.put(endpointClass, parseLimit(endpointClass));
+        }
+        browsing = new AdaptiveConcurrencyLimit(
+            Integer.getInteger("dynex.shed.min", 8),
+            Integer.getInteger("dynex.shed.max", 200),
+            Long.getLong("dynex.shed.targetMs", 250L));
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        EndpointClass endpointClass = classify(request);
+        if (endpointClass == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        long waitNanos = bucket(endpointClass, clientKey(request)).tryAcquire();
+        if (waitNanos > 0) {
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+            reject(response, 429, retryAfter, "Too many requests, please slow down");
+            return;
+        }
+
+        if (!endpointClass.sheddable()) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        if (!browsing.tryAcquire()) {
+            reject(response, 503, 1, "Server is busy, please retry shortly");
+            return;
+        }
+        long started = System.nanoTime();
+        boolean async = false;
+        try {
+            chain.doFilter(req, res);
+            if (request.isAsyncStarted()) {
+                // Async requests finish later on another thread: keep the slot until then
+                request.getAsyncContext().addListener(new ReleaseOnCompletion(browsing, started));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                browsing.release(System.nanoTime() - started);
+            }
+        }
+    }
+
+    /**
+     * Releases the concurrency slot of an async request with its full duration
+     * once it completes, times out or fails. Only the first of these counts.
+     */
+    private static final class ReleaseOnCompletion implements AsyncListener {
+        private final AdaptiveConcurrencyLimit limit;
+        private final long started;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleaseOnCompletion(AdaptiveConcurrencyLimit limit, long started) {
+            this.limit = limit;
+            this.started = started;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limit.release(System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Restarted async: the new context needs this listener again
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        buckets.clear();
+    }
+
+    // null means the request is not limited
+    private EndpointClass classify(HttpServletRequest request) {
+        String method = request.getMethod();
+        if ("OPTIONS".equals(method)) {
+            return null;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith("/VerifyPayments")) {
+            return null;
+        }
+        // Static files (assets, pages) are not API calls
+        int lastSlash = path.lastIndexOf('/');
+        if (path.indexOf('.', lastSlash) >= 0) {
+            return null;
+        }
+        if (path.equals("/login") || path.equals("/signup") || path.equals("/update-password")) {
+            return EndpointClass.AUTH;
+        }
+        if ("GET".equals(method)) {
+            String search = request.getParameter("search");
+            if (path.startsWith("/products") && search != null && !search.isEmpty()
+                    || path.equals("/signup/availability")) {
+                return EndpointClass.SEARCH;
+            }
+            // Long downloads: not shed, and their duration would distort the browsing latency
+            if (path.equals("/orders/export") || path.equals("/admin/products/export")) {
+                return EndpointClass.EXPORT;
+            }
+            return EndpointClass.READ;
+        }
+        return EndpointClass.WRITE;
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        Object userId = session != null ? session.getAttribute("userId") : null;
+        return userId != null ? "u:" + userId : "ip:" + request.getRemoteAddr();
+    }
+
+    private TokenBucket bucket(EndpointClass endpointClass, String client) {
+        String key = endpointClass.name() + "|" + client;
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= MAX_BUCKETS) {
+            // Full buckets carry no state, so dropping them forgets nothing
+            for (Iterator<TokenBucket> it = buckets.values().iterator(); it.hasNext();) {
+                if (it.next().isIdle()) {
+                    it.remove();
+                }
+            }
+        }
+        int[] limit = limits.get(endpointClass);
+        TokenBucket created = new TokenBucket(limit[0], limit[1]);
+        TokenBucket existing = buckets.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    private int[] parseLimit(EndpointClass endpointClass) {
+        String property = "dynex.ratelimit." + endpointClass.name().toLowerCase();
+        String value = System.getProperty(property);
+        if (value != null) {
+            try {
+                String[] parts = value.split("/");
+                return new int[] { Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()) };
+            } catch (RuntimeException e) {
+                System.out.println("RateLimitFilter: ignoring bad " + property + "=" + value + " (expected perMinute/burst)");
+            }
+        }
+        return new int[] { endpointClass.defaultRate, endpointClass.defaultBurst };
+    }
+
+    private void reject(HttpServletResponse response, int status, long retryAfterSeconds, String message) throws IOException {
+        response.setStatus(status);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().print("{\"success\":false,\"error\":\"" + message + "\"}");
+    }
+}
@@ -0,0 +1,364 @@
+package controller;
+
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import service.ProductRatings;
+import util.HibernateUtil;
+import util.JsonParser;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ReviewServlet - product reviews and rating summaries.
+ *
+ * GET    /reviews?productId=1&limit=10&cursor=123
+ *        Newest reviews first with the product's rating summary. Pages are
+ *        keyset-paginated: pass the returned nextCursor to get the next page.
+ * POST   /reviews   {"productId":1,"rating":5,"reviewText":"..."}
+ *        Creates or replaces the logged-in user's review of a product.
+ * DELETE /reviews/{productId}
+ *        Removes the logged-in user's review of a product.
+ */
+@WebServlet({"/reviews", "/reviews/*"})
+public class ReviewServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 50;
+    private static final int MAX_TEXT_LENGTH = 5000;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+
+        Session session = null;
+        try {
+            String productIdStr = request.getParameter("productId");
+            if (productIdStr == null || productIdStr.isEmpty()) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"productId is required\"}");
+                return;
+            }
+            Long productId = Long.parseLong(productIdStr);
+            String limitStr = request.getParameter("limit");
+            int limit = limitStr != null && !limitStr.isEmpty() ? Integer.parseInt(limitStr) : DEFAULT_LIMIT;
+            limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+            String cursorStr = request.getParameter("cursor");
+            Long cursor = cursorStr != null && !cursorStr.isEmpty() ? Long.parseLong(cursorStr) : null;
+
+            // Review ids grow with time, so "id < cursor" walks the (product_id, id) index newest first
+            session = HibernateUtil.getSessionFactory().openSession();
+            Query query = session.createSQLQuery(
+                "SELECT r.id, r.user_id, u.first_name, u.last_name, r.rating, r.review_text, " +
+                "r.is_verified_purchase, r.created_at, r.updated_at " +
+                "FROM product_reviews r LEFT JOIN users u ON u.id = r.user_id " +
+                "WHERE r.product_id = :productId" + (cursor != null ? " AND r.id < :cursor" : "") + " " +
+                "ORDER BY r.id DESC");
+            query.setParameter("productId", productId);
+            if (cursor != null) {
+                query.setParameter("cursor", cursor);
+            }
+            // One extra row tells whether another page exists
+            query.setMaxResults(limit + 1);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.list();
+
+            boolean hasMore = rows.size() > limit;
+            if (hasMore) {
+                rows = rows.subList(0, limit);
+            }
+
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            ProductRatings.Summary summary = ProductRatings.getInstance().get(productId);
+
+            StringBuilder json = new StringBuilder();
+            json.append("{\"success\":true,\"data\":{");
+            json.append("\"productId\":").append(productId).append(",");
+            json.append("\"summary\":").append(summaryJson(summary)).append(",");
+            json.append("\"reviews\":[");
+            for (int i = 0; i < rows.size(); i++) {
+                Object[] row = rows.get(i);
+                String firstName = row[2] != null ? row[2].toString() : "";
+                String lastName = row[3] != null ? row[3].toString() : "";
+                // Show "First L." rather than the full name
+                String displayName = (firstName + (lastName.isEmpty() ? "" : " " + lastName.charAt(0) + ".")).trim();
+
+                if (i > 0) json.append(",");
+                json.append("{\"id\":").append(((Number) row[0]).longValue()).append(",");
+                json.append("\"userId\":").append(((Number) row[1]).longValue()).append(",");
+                json.append("\"userName\":\"").append(escapeJson(displayName.isEmpty() ? "Customer" : displayName)).append("\",");
+                json.append("\"rating\":").append(((Number) row[4]).intValue()).append(",");
+                json.append("\"reviewText\":\"").append(escapeJson(row[5] != null ? row[5].toString() : "")).append("\",");
+                json.append("\"verifiedPurchase\":").append(isTrue(row[6])).append(",");
+                json.append("\"createdAt\":\"").append(row[7] != null ? format.format((Date) row[7]) : "").append("\",");
+                json.append("\"updatedAt\":\"").append(row[8] != null ? format.format((Date) row[8]) : "").append("\"}");
+            }
+            json.append("],");
+            json.append("\"nextCursor\":").append(hasMore ? String.valueOf(((Number) rows.get(rows.size() - 1)[0]).longValue()) : "null");
+            json.append("}}");
+            out.print(json);
+
+        } catch (NumberFormatException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"message\":\"Invalid number in request\"}");
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to load reviews: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            if (session != null) session.close();
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+        Long userId = requireUser(request, response, out);
+        if (userId == null) return;
+
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            Map<String, Object> json = JsonParser.parseObject(readBody(request));
+            if (json.get("productId") == null || json.get("rating") == null) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"productId and rating are required\"}");
+                return;
+            }
+            Long productId = new BigDecimal(json.get("productId").toString()).longValueExact();
+            int rating = new BigDecimal(json.get("rating").toString()).intValueExact();
+            String reviewText = json.get("reviewText") != null ? json.get("reviewText").toString().trim() : "";
+            if (rating < 1 || rating > 5) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"rating must be between 1 and 5\"}");
+                return;
+            }
+            if (reviewText.length() > MAX_TEXT_LENGTH) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"reviewText is limited to " + MAX_TEXT_LENGTH + " characters\"}");
+                return;
+            }
+
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            Query productQuery = session.createSQLQuery("SELECT id FROM products WHERE id = :id AND is_active = TRUE");
+            productQuery.setParameter("id", productId);
+            if (productQuery.uniqueResult() == null) {
+                transaction.rollback();
+                response.setStatus(404);
+                out.print("{\"success\":false,\"message\":\"Product not found\"}");
+                return;
+            }
+
+            // Lock the user's existing review so the summary delta uses the rating being replaced
+            Query existingQuery = session.createSQLQuery(
+                "SELECT rating FROM product_reviews WHERE user_id = :userId AND product_id = :productId FOR UPDATE");
+            existingQuery.setParameter("userId", userId);
+            existingQuery.setParameter("productId", productId);
+            Object existing = existingQuery.uniqueResult();
+            Integer oldRating = existing != null ? ((Number) existing).intValue() : null;
+
+            Query purchaseQuery = session.createSQLQuery(
+                "SELECT COUNT(*) FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+                "WHERE o.user_id = :userId AND oi.product_id = :productId " +
+                "AND o.payment_status = 'PAID' AND o.status <> 'CANCELLED'");
+            purchaseQuery.setParameter("userId", userId);
+            purchaseQuery.setParameter("productId", productId);
+            boolean verified = ((Number) purchaseQuery.uniqueResult()).intValue() > 0;
+
+            SQLQuery write;
+            if (oldRating == null) {
+                write = session.createSQLQuery(
+                    "INSERT INTO product_reviews (product_id, user_id, rating, review_text, is_verified_purchase) " +
+                    "VALUES (:productId, :userId, :rating, :reviewText, :verified)");
+            } else {
+                write = session.createSQLQuery(
+                    "UPDATE product_reviews SET rating = :rating, review_text = :reviewText, " +
+                    "is_verified_purchase = :verified, updated_at = CURRENT_TIMESTAMP " +
+                    "WHERE user_id = :userId AND product_id = :productId");
+            }
+            write.addSynchronizedQuerySpace("product_reviews");
+            write.setParameter("productId", productId);
+            write.setParameter("userId", userId);
+            write.setParameter("rating", rating);
+            write.setParameter("reviewText", reviewText);
+            write.setParameter("verified", verified);
+            write.executeUpdate();
+
+            ProductRatings.getInstance().reviewChanged(session, productId, oldRating, rating);
+            transaction.commit();
+            ProductRatings.getInstance().invalidate(productId);
+
+            if (oldRating == null) {
+                response.setStatus(201);
+            }
+            out.print("{\"success\":true,\"data\":{\"productId\":" + productId + ",\"rating\":" + rating +
+                      ",\"verifiedPurchase\":" + verified + ",\"summary\":" +
+                      summaryJson(ProductRatings.getInstance().get(productId)) + "}}");
+
+        } catch (ConstraintViolationException e) {
+            // A concurrent first review by the same user won the unique key
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            response.setStatus(409);
+            out.print("{\"success\":false,\"message\":\"Review was changed concurrently, please retry\"}");
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            response.setStatus(400);
+            out.print("{\"success\":false,\"message\":\"" + escapeJson(e.getMessage()) + "\"}");
+        } catch (Exception e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to save review: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            if (session != null) session.close();
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = begin(response);
+        Long userId = requireUser(request, response, out);
+        if (userId == null) return;
+
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            String pathInfo = request.getPathInfo();
+            if (pathInfo == null || pathInfo.length() <= 1) {
+                response.setStatus(400);
+                out.print("{\"success\":false,\"message\":\"Product ID is required\"}");
+                return;
+            }
+            Long productId = Long.parseLong(pathInfo.substring(1));
+
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            Query existingQuery = session.createSQLQuery(
+                "SELECT rating FROM product_reviews WHERE user_id = :userId AND product_id = :productId FOR UPDATE");
+            existingQuery.setParameter("userId", userId);
+            existingQuery.setParameter("productId", productId);
+            Object existing = existingQuery.uniqueResult();
+            if (existing == null) {
+                transaction.rollback();
+                response.setStatus(404);
+                out.print("{\"success\":false,\"message\":\"Review not found\"}");
+                return;
+            }
+
+            SQLQuery delete = session.createSQLQuery(
+                "DELETE FROM product_reviews WHERE user_id = :userId AND product_id = :productId");
+            delete.addSynchronizedQuerySpace("product_reviews");
+            delete.setParameter("userId", userId);
+            delete.setParameter("productId", productId);
+            delete.executeUpdate();
+
+            ProductRatings.getInstance().reviewChanged(session, productId, ((Number) existing).intValue(), null);
+            transaction.commit();
+            ProductRatings.getInstance().invalidate(productId);
+
+            out.print("{\"success\":true,\"data\":{\"productId\":" + productId + ",\"summary\":" +
+                      summaryJson(ProductRatings.getInstance().get(productId)) + "}}");
+
+        } catch (NumberFormatException e) {
+            response.setStatus(400);
+            out.print("{\"success\":false,\"message\":\"Invalid product ID\"}");
+        } catch (Exception e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            e.printStackTrace();
+            response.setStatus(500);
+            out.print("{\"success\":false,\"message\":\"Failed to delete review: " + escapeJson(e.getMessage()) + "\"}");
+        } finally {
+            if (session != null) session.close();
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    // {"average":4.5,"count":2,"histogram":{"1":0,...,"5":1}}
+    private String summaryJson(ProductRatings.Summary summary) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"average\":").append(summary.getAverage()).append(",");
+        json.append("\"count\":").append(summary.getReviewCount()).append(",");
+        json.append("\"histogram\":{");
+        for (int stars = 1; stars <= 5; stars++) {
+            if (stars > 1) json.append(",");
+            json.append("\"").append(stars).append("\":").append(summary.getStars(stars));
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private boolean isTrue(Object value) {
+        if (value instanceof Boolean) return (Boolean) value;
+        return value instanceof Number && ((Number) value).intValue() != 0;
+    }
+
+    private PrintWriter begin(HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
+        return response.getWriter();
+    }
+
+    // Session user id, or null after writing a 401
+    private Long requireUser(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
+        HttpSession httpSession = request.getSession(false);
+        Object userIdObj = httpSession != null ? httpSession.getAttribute("userId") : null;
+        if (!(userIdObj instanceof Number)) {
+            response.setStatus(401);
+            out.print("{\"success\":false,\"message\":\"User not authenticated\"}");
+            out.flush();
+            return null;
+        }
+        return ((Number) userIdObj).longValue();
+    }
+
+    private String readBody(HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = request.getReader();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            body.append(line);
+        }
+        return body.length() > 0 ? body.toString() : "{}";
+    }
+
+    private String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
@@ -26,27 +26,92 @@ public class VerifyPayments extends HttpServlet {
         String hash = md5(merchant_id + order_id + payhere_amount + payhere_currency + merchantSecretMD5);
 
         if (md5sig != null && md5sig.equals(hash) && Integer.parseInt(status_code) == PAYHERE_SUCCESS) {
-            // Extract numeric order id if prefixed like #000123
-            String cleanOrderId = order_id != null ? order_id.replace("#000", "") : null;
+            org.hibernate.Session session = null;
+            org.hibernate.Transaction tx = null;
             try {
-                Long orderId = cleanOrderId != null ? Long.valueOf(cleanOrderId) : null;
-                if (orderId != null) {
-                    // Update DB: set payment_status=PAID and maybe status=CONFIRMED
-                    org.hibernate.Session session = util.HibernateUtil.getSessionFactory().openSession();
-                    org.hibernate.Transaction tx = session.beginTransaction();
-                    org.hibernate.Query q = session.createSQLQuery("UPDATE orders SET payment_status = 'PAID', status = 'CONFIRMED', updated_at = NOW() WHERE id = ?");
-                    q.setParameter(0, orderId);
-                    q.executeUpdate();
+                // order_id is the order number; older orders were sent as "#000" + id
+                boolean legacyReference = order_id != null && order_id.startsWith("#000");
+                String lookup = legacyReference
+                        ? "SELECT id, status, payment_status FROM orders WHERE id = ? FOR UPDATE"
+                        : "SELECT id, status, payment_status FROM orders WHERE order_number = ? FOR UPDATE";
+                Object reference = legacyReference ? Long.valueOf(order_id.substring(4)) : order_id;
+                if (reference != null) {
+                    // Update DB: set payment_status=PAID and, if the order may still move there, status=CONFIRMED
+                    session = util.HibernateUtil.getSessionFactory().openSession();
+                    tx = session.beginTransaction();
+                    org.hibernate.Query current = session.createSQLQuery(lookup);
+                    current.setParameter(0, reference);
+                    Object[] row = (Object[]) current.uniqueResult();
+                    int updated = 0;
+                    boolean confirmed = false;
+                    Long orderId = null;
+                    String oldStatus = null;
+                    PaymentUpdate change = row == null ? PaymentUpdate.NONE
+                            : paymentUpdate(row[1] != null ? row[1].toString() : null, row[2] != null ? row[2].toString() : null);
+                    if (change != PaymentUpdate.NONE) {
+                        orderId = ((Number) row[0]).longValue();
+                        oldStatus = row[1] != null ? row[1].toString() : null;
+                        confirmed = change == PaymentUpdate.CONFIRM;
+                        org.hibernate.Query q = session.createQuery(confirmed
+                                ? "UPDATE Order SET paymentStatus = 'PAID', status = 'CONFIRMED', updatedAt = :now WHERE id = :orderId"
+                                : "UPDATE Order SET paymentStatus = 'PAID', updatedAt = :now WHERE id = :orderId");
+                        q.setParameter("now", new java.util.Date());
+                        q.setParameter("orderId", orderId);
+                        updated = q.executeUpdate();
+                        if (updated > 0 && confirmed) {
+                            service.SalesRollups.statusChanged(session, orderId, oldStatus, "CONFIRMED");
+                            service.OrderEvents.paymentConfirmed(session, orderId, oldStatus);
+                        }
+                    }
                     tx.commit();
-                    session.close();
+                    if (updated > 0) {
+                        if (confirmed) {
+                            service.OrderEvents.committed();
+                        }
+                        service.UserOrderSummaryCache.getInstance().statusChanged(orderId, confirmed ? "CONFIRMED" : oldStatus, "PAID");
+                    }
                 }
             } catch (Exception e) {
-                // swallow - PayHere expects 200 OK regardless
+                if (tx != null && tx.isActive()) tx.rollback();
+                // Logged only - PayHere expects 200 OK regardless
+                System.err.println("Error in VerifyPayments for order " + order_id + ": " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                if (session != null) {
+                    session.close();
+                }
             }
         }
         response.setStatus(200);
     }
 
+    /**
+     * What a successful payment callback does to an order.
+     */
+    enum PaymentUpdate {
+        /** Set payment_status=PAID and status=CONFIRMED. */
+        CONFIRM,
+        /** Set payment_status=PAID only. */
+        MARK_PAID,
+        /** Leave the order as it is. */
+        NONE
+    }
+
+    /**
+     * The update for an order in status/paymentStatus. Decided by the status
+     * transition, read from the locked row: an order that may still move to
+     * CONFIRMED is confirmed, so a repeated callback (already CONFIRMED) does
+     * nothing. Orders past that point, or cancelled, keep their status and
+     * only record the payment if they have not already.
+     */
+    static PaymentUpdate paymentUpdate(String status, String paymentStatus) {
+        model.OrderStatus from = model.OrderStatus.parse(status);
+        if (from != null && from.canMoveTo(model.OrderStatus.CONFIRMED)) {
+            return PaymentUpdate.CONFIRM;
+        }
+        return "PAID".equals(paymentStatus) ? PaymentUpdate.NONE : PaymentUpdate.MARK_PAID;
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         // Simple health check endpoint
@@ -1,11 +1,11 @@
 package controller;
 
-import model.Wishlist;
 import model.Product;
+import service.WishlistService;
 import util.HibernateUtil;
+import util.JsonParser;
 import org.hibernate.Session;
 import org.hibernate.Query;
-import org.hibernate.Transaction;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -13,13 +13,29 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-@WebServlet("/wishlist")
+/**
+ * WishlistServlet - the logged-in user's wishlist.
+ *
+ * GET    /wishlist                          wishlist with product details, newest first
+ * GET    /wishlist/ids                      wishlisted product ids only
+ * GET    /wishlist/contains?productIds=1,2  {"1":true,"2":false} for a product grid
+ * POST   /wishlist?productId=1              adds one product (409 if already there)
+ * POST   /wishlist  {"productIds":[1,2,3]}  adds many; existing ones are skipped
+ * DELETE /wishlist?id=5                     removes one wishlist row by its id
+ * DELETE /wishlist?productIds=1,2           or {"productIds":[1,2]} removes by product
+ */
+@WebServlet({"/wishlist", "/wishlist/*"})
 public class WishlistServlet extends HttpServlet {
-    
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
@@ -27,9 +43,9 @@ public class WishlistServlet extends HttpServlet {
         response.setHeader("Access-Control-Allow-Origin", "*");
         response.setHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
-        
+
         PrintWriter out = response.getWriter();
-        
+
         try {
             // Get user ID from session
             HttpSession session = request.getSession(false);
@@ -38,31 +54,76 @@ public class WishlistServlet extends HttpServlet {
                 out.print("{\"error\":\"User not logged in\"}");
                 return;
             }
-            
+
             Long userId = (Long) session.getAttribute("userId");
-            
+            String pathInfo = request.getPathInfo();
+
+            if ("/contains".equals(pathInfo)) {
+                // Membership for a page of products, answered from the cached id set
+                List<Long> productIds = parseIds(request.getParameter("productIds"));
+                if (productIds.size() > WishlistService.MAX_BATCH) {
+                    response.setStatus(400);
+                    out.print("{\"error\":\"At most " + WishlistService.MAX_BATCH + " products per request\"}");
+                    return;
+                }
+                Map<Long, Boolean> contains = WishlistService.getInstance().contains(userId, productIds);
+                StringBuilder json = new StringBuilder("{\"success\":true,\"data\":{");
+                for (int i = 0; i < productIds.size(); i++) {
+                    if (i > 0) json.append(",");
+                    json.append("\"").append(productIds.get(i)).append("\":").append(contains.get(productIds.get(i)));
+                }
+                json.append("}}");
+                out.print(json);
+                return;
+            }
+
+            List<WishlistService.Entry> entries = WishlistService.getInstance().getEntries(userId);
+
+            if ("/ids".equals(pathInfo)) {
+                StringBuilder json = new StringBuilder("{\"success\":true,\"data\":[");
+                for (int i = 0; i < entries.size(); i++) {
+                    if (i > 0) json.append(",");
+                    json.append(entries.get(i).getProductId());
+                }
+                json.append("]}");
+                out.print(json);
+                return;
+            }
+
+            if (entries.isEmpty()) {
+                out.print("[]");
+                return;
+            }
+
             Session hibernateSession = HibernateUtil.getSessionFactory().openSession();
-            
+
             try {
-                // Get user's wishlist with product details
+                // Product details for the cached ids in one query
+                List<Long> productIds = new ArrayList<Long>(entries.size());
+                for (WishlistService.Entry entry : entries) {
+                    productIds.add(entry.getProductId());
+                }
                 Query query = hibernateSession.createQuery(
-                    "SELECT w, p FROM Wishlist w JOIN Product p ON w.productId = p.id " +
-                    "WHERE w.userId = :userId AND p.isActive = true " +
-                    "ORDER BY w.addedAt DESC"
+                    "FROM Product p WHERE p.id IN (:productIds) AND p.isActive = true"
                 );
-                query.setParameter("userId", userId);
-                
+                query.setParameterList("productIds", productIds);
+
                 @SuppressWarnings("unchecked")
-                List<Object[]> results = query.list();
-                
-                // Build JSON response
+                List<Product> products = query.list();
+                Map<Long, Product> productsById = new HashMap<Long, Product>();
+                for (Product product : products) {
+                    productsById.put(product.getId(), product);
+                }
+
+                // Build JSON response in wishlist order
                 out.print("[");
-                for (int i = 0; i < results.size(); i++) {
-                    Object[] result = results.get(i);
-                    Wishlist wishlistItem = (Wishlist) result[0];
-                    Product product = (Product) result[1];
-                    
-                    if (i > 0) out.print(",");
+                boolean first = true;
+                for (WishlistService.Entry wishlistItem : entries) {
+                    Product product = productsById.get(wishlistItem.getProductId());
+                    if (product == null) continue;
+
+                    if (!first) out.print(",");
+                    first = false;
                     out.print("{");
                     out.print("\"id\":" + wishlistItem.getId() + ",");
                     out.print("\"productId\":" + product.getId() + ",");
@@ -76,30 +137,33 @@ public class WishlistServlet extends HttpServlet {
                     out.print("}");
                 }
                 out.print("]");
-                
+
             } finally {
                 hibernateSession.close();
             }
-            
+
+        } catch (NumberFormatException e) {
+            response.setStatus(400);
+            out.print("{\"error\":\"Invalid product ID\"}");
         } catch (Exception e) {
             e.printStackTrace();
             response.setStatus(500);
-            out.print("{\"error\":\"Failed to fetch wishlist: " + e.getMessage() + "\"}");
+            out.print("{\"error\":\"Failed to fetch wishlist: " + escapeJson(e.getMessage()) + "\"}");
         } finally {
             out.flush();
             out.close();
         }
     }
-    
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
-        
+
         PrintWriter out = response.getWriter();
-        
+
         try {
             // Get user ID from session
             HttpSession session = request.getSession(false);
@@ -108,74 +172,66 @@ public class WishlistServlet extends HttpServlet {
                 out.print("{\"error\":\"User not logged in\"}");
                 return;
             }
-            
+
             Long userId = (Long) session.getAttribute("userId");
             String productIdStr = request.getParameter("productId");
-            
-            if (productIdStr == null || productIdStr.isEmpty()) {
-                response.setStatus(400);
-                out.print("{\"error\":\"Product ID is required\"}");
-                return;
-            }
-            
-            Long productId = Long.parseLong(productIdStr);
-            
-            Session hibernateSession = HibernateUtil.getSessionFactory().openSession();
-            Transaction transaction = null;
-            
-            try {
-                transaction = hibernateSession.beginTransaction();
-                
-                // Check if item already exists in wishlist
-                Query checkQuery = hibernateSession.createQuery(
-                    "FROM Wishlist WHERE userId = :userId AND productId = :productId"
-                );
-                checkQuery.setParameter("userId", userId);
-                checkQuery.setParameter("productId", productId);
-                
-                if (!checkQuery.list().isEmpty()) {
-                    response.setStatus(409);
-                    out.print("{\"error\":\"Product already in wishlist\"}");
+
+            if (productIdStr != null && !productIdStr.isEmpty()) {
+                // Single product, as before
+                Long productId = Long.parseLong(productIdStr);
+                List<Long> productIds = new ArrayList<Long>();
+                productIds.add(productId);
+
+                if (WishlistService.getInstance().add(userId, productIds) == 0) {
+                    if (WishlistService.getInstance().contains(userId, productIds).get(productId)) {
+                        response.setStatus(409);
+                        out.print("{\"error\":\"Product already in wishlist\"}");
+                    } else {
+                        response.setStatus(404);
+                        out.print("{\"error\":\"Product not found\"}");
+                    }
                     return;
                 }
-                
-                // Add to wishlist
-                Wishlist wishlistItem = new Wishlist(userId, productId);
-                hibernateSession.save(wishlistItem);
-                
-                transaction.commit();
-                
+
                 out.print("{\"success\":true,\"message\":\"Product added to wishlist\"}");
-                
-            } catch (Exception e) {
-                if (transaction != null) transaction.rollback();
-                throw e;
-            } finally {
-                hibernateSession.close();
+                return;
             }
-            
-        } catch (NumberFormatException e) {
+
+            List<Long> productIds = bodyIds(request);
+            if (productIds.isEmpty()) {
+                response.setStatus(400);
+                out.print("{\"error\":\"Product ID is required\"}");
+                return;
+            }
+
+            int added = WishlistService.getInstance().add(userId, productIds);
+            out.print("{\"success\":true,\"added\":" + added + ",\"message\":\"" + added + " product(s) added to wishlist\"}");
+
+        } catch (NumberFormatException | ArithmeticException e) {
             response.setStatus(400);
             out.print("{\"error\":\"Invalid product ID\"}");
+        } catch (IllegalArgumentException e) {
+            response.setStatus(400);
+            out.print("{\"error\":\"" + escapeJson(e.getMessage()) + "\"}");
         } catch (Exception e) {
             e.printStackTrace();
             response.setStatus(500);
-            out.print("{\"error\":\"Failed to add to wishlist: " + e.getMessage() + "\"}");
+            out.print("{\"error\":\"Failed to add to wishlist: " + escapeJson(e.getMessage()) + "\"}");
         } finally {
             out.flush();
             out.close();
         }
     }
-    
+
     @Override
     protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
-        
+
         PrintWriter out = response.getWriter();
-        
+
         try {
             // Get user ID from session
             HttpSession session = request.getSession(false);
@@ -184,63 +240,50 @@ public class WishlistServlet extends HttpServlet {
                 out.print("{\"error\":\"User not logged in\"}");
                 return;
             }
-            
+
             Long userId = (Long) session.getAttribute("userId");
             String wishlistIdStr = request.getParameter("id");
-            
-            if (wishlistIdStr == null || wishlistIdStr.isEmpty()) {
-                response.setStatus(400);
-                out.print("{\"error\":\"Wishlist item ID is required\"}");
-                return;
-            }
-            
-            Long wishlistId = Long.parseLong(wishlistIdStr);
-            
-            Session hibernateSession = HibernateUtil.getSessionFactory().openSession();
-            Transaction transaction = null;
-            
-            try {
-                transaction = hibernateSession.beginTransaction();
-                
+
+            if (wishlistIdStr != null && !wishlistIdStr.isEmpty()) {
                 // Remove from wishlist (ensure it belongs to the user)
-                Query deleteQuery = hibernateSession.createQuery(
-                    "DELETE FROM Wishlist WHERE id = :wishlistId AND userId = :userId"
-                );
-                deleteQuery.setParameter("wishlistId", wishlistId);
-                deleteQuery.setParameter("userId", userId);
-                
-                int deletedCount = deleteQuery.executeUpdate();
-                
-                if (deletedCount == 0) {
+                Long wishlistId = Long.parseLong(wishlistIdStr);
+                if (!WishlistService.getInstance().removeEntry(userId, wishlistId)) {
                     response.setStatus(404);
                     out.print("{\"error\":\"Wishlist item not found\"}");
                     return;
                 }
-                
-                transaction.commit();
-                
                 out.print("{\"success\":true,\"message\":\"Product removed from wishlist\"}");
-                
-            } catch (Exception e) {
-                if (transaction != null) transaction.rollback();
-                throw e;
-            } finally {
-                hibernateSession.close();
+                return;
             }
-            
-        } catch (NumberFormatException e) {
+
+            String productIdsParam = request.getParameter("productIds") != null
+                    ? request.getParameter("productIds") : request.getParameter("productId");
+            List<Long> productIds = productIdsParam != null ? parseIds(productIdsParam) : bodyIds(request);
+            if (productIds.isEmpty()) {
+                response.setStatus(400);
+                out.print("{\"error\":\"Wishlist item ID or product IDs are required\"}");
+                return;
+            }
+
+            int removed = WishlistService.getInstance().remove(userId, productIds);
+            out.print("{\"success\":true,\"removed\":" + removed + ",\"message\":\"" + removed + " product(s) removed from wishlist\"}");
+
+        } catch (NumberFormatException | ArithmeticException e) {
             response.setStatus(400);
             out.print("{\"error\":\"Invalid wishlist item ID\"}");
+        } catch (IllegalArgumentException e) {
+            response.setStatus(400);
+            out.print("{\"error\":\"" + escapeJson(e.getMessage()) + "\"}");
         } catch (Exception e) {
             e.printStackTrace();
             response.setStatus(500);
-            out.print("{\"error\":\"Failed to remove from wishlist: " + e.getMessage() + "\"}");
+            out.print("{\"error\":\"Failed to remove from wishlist: " + escapeJson(e.getMessage()) + "\"}");
         } finally {
             out.flush();
             out.close();
         }
     }
-    
+
     @Override
     protected void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         response.setHeader("Access-Control-Allow-Origin", "*");
@@ -248,7 +291,42 @@ public class WishlistServlet extends HttpServlet {
         response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization");
         response.setStatus(HttpServletResponse.SC_OK);
     }
-    
+
+    // "1,2,3" -> [1, 2, 3]
+    private List<Long> parseIds(String value) {
+        List<Long> ids = new ArrayList<Long>();
+        if (value == null) return ids;
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) {
+                ids.add(Long.parseLong(part.trim()));
+            }
+        }
+        return ids;
+    }
+
+    // {"productIds":[1,2,3]} from the request body
+    private List<Long> bodyIds(HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = request.getReader();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            body.append(line);
+        }
+        List<Long> ids = new ArrayList<Long>();
+        if (body.length() == 0) return ids;
+
+        Object productIds = JsonParser.parseObject(body.toString()).get("productIds");
+        if (productIds == null) return ids;
+        if (!(productIds instanceof List)) {
+            throw new IllegalArgumentException("productIds must be an array");
+        }
+        for (Object id : (List<?>) productIds) {
+            if (id == null) continue;
+            ids.add(new BigDecimal(id.toString()).longValueExact());
+        }
+        return ids;
+    }
+
     private String escapeJson(String str) {
         if (str == null) return "";
         return str.replace("\\", "\\\\")
@@ -0,0 +1,25 @@
+-- ============================================
+-- V1: indexes for the hot product and order queries
+-- ============================================
+-- Each index matches the WHERE + ORDER BY of a query the backend runs on
+-- every page view, so MySQL reads rows in order and stops at the LIMIT
+-- instead of scanning and sorting the whole table. The composite indexes
+-- lead with the foreign key column, so MySQL drops the implicit FK indexes
+-- they replace.
+-- Registered in util.IndexAdvisor, which EXPLAINs these shapes at startup.
+-- util.MigrationRunner builds each index online (ALGORITHM=INPLACE LOCK=NONE).
+
+-- Storefront product list: WHERE is_active = TRUE ORDER BY created_at DESC
+CREATE INDEX `idx_products_active_created` ON `products` (`is_active`, `created_at`);
+
+-- Category pages: WHERE is_active = TRUE AND category_id = ? ORDER BY created_at DESC
+CREATE INDEX `idx_products_category_active_created` ON `products` (`category_id`, `is_active`, `created_at`);
+
+-- Order history: WHERE user_id = ? ORDER BY created_at DESC
+CREATE INDEX `idx_orders_user_created` ON `orders` (`user_id`, `created_at`);
+
+-- Admin order list and analytics backfill: ORDER BY / range on created_at
+CREATE INDEX `idx_orders_created` ON `orders` (`created_at`);
+
+-- Line items for a page of orders: WHERE order_id IN (...) ORDER BY order_id, id
+CREATE INDEX `idx_order_items_order` ON `order_items` (`order_id`);
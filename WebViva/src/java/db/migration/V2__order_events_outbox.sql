@@ -0,0 +1,20 @@
+-- ============================================
+-- V2: transactional outbox for order lifecycle events
+-- ============================================
+-- service.OrderEvents inserts a row here in the same transaction that
+-- creates an order, changes its status or confirms its payment, so an event
+-- exists exactly when the change is committed. A relay thread claims rows
+-- (claimed_by / claimed_until is a lease, so another server takes over rows
+-- of a relay that died), hands them to the in-process event bus and deletes
+-- them once every subscriber has processed them.
+
+CREATE TABLE IF NOT EXISTS `order_events_outbox` (
+    `id` BIGINT AUTO_INCREMENT PRIMARY KEY,
+    `event_type` VARCHAR(40) NOT NULL,
+    `order_id` BIGINT NOT NULL,
+    `payload` TEXT NOT NULL,
+    `created_at` TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    `claimed_by` VARCHAR(64) NULL,
+    `claimed_until` TIMESTAMP(3) NULL,
+    KEY `idx_outbox_claimed_by` (`claimed_by`)
+);
@@ -0,0 +1,18 @@
+-- ============================================
+-- V3: precomputed "similar items" per product
+-- ============================================
+-- service.SimilarProducts scores every active product against every other
+-- one on category, gender, fit, color, material, pattern, season and price,
+-- and keeps the best few per product here, one row per neighbour in rank
+-- order. The table is what a restarted server loads instead of recomputing;
+-- it is rewritten by the daily recompute and, per product, when an admin
+-- edits a product. score is the similarity in ten-thousandths (0..10000).
+
+CREATE TABLE IF NOT EXISTS `product_similar` (
+    `product_id` BIGINT NOT NULL,
+    `position` TINYINT UNSIGNED NOT NULL,
+    `similar_id` BIGINT NOT NULL,
+    `score` SMALLINT UNSIGNED NOT NULL,
+    `computed_at` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (`product_id`, `position`)
+);
@@ -0,0 +1,14 @@
+-- ============================================
+-- V4: product detail views per minute
+-- ============================================
+-- service.ProductViews counts views of /products/{id} in memory and adds
+-- them here in batches every few seconds, one row per product and minute.
+-- view_minute is the start of the minute the views were counted in; a
+-- later flush for the same minute adds to the existing row.
+
+CREATE TABLE IF NOT EXISTS `product_view_stats` (
+    `product_id` BIGINT NOT NULL,
+    `view_minute` DATETIME NOT NULL,
+    `views` INT UNSIGNED NOT NULL,
+    PRIMARY KEY (`product_id`, `view_minute`)
+);
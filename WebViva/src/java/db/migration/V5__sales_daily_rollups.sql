@@ -0,0 +1,44 @@
+-- ============================================
+-- V5: daily sales rollups for /admin/analytics
+-- ============================================
+-- service.SalesRollups keeps these in step with orders as they are created
+-- and change status, so the analytics page reads days, not orders. They are
+-- not entities, so hbm2ddl never created them on existing databases; this
+-- brings those databases in line with dynex_database.sql. Orders placed
+-- before the tables existed are counted after an admin runs
+-- POST /admin/analytics/backfill. sales_date is the day the order was
+-- placed; revenue and units exclude cancelled orders.
+
+CREATE TABLE IF NOT EXISTS `sales_daily` (
+    `sales_date` DATE NOT NULL PRIMARY KEY,
+    `order_count` INT NOT NULL DEFAULT 0,
+    `units_sold` INT NOT NULL DEFAULT 0,
+    `revenue` DECIMAL(14,2) NOT NULL DEFAULT 0.00
+);
+
+-- Orders per day by current status
+CREATE TABLE IF NOT EXISTS `sales_daily_status` (
+    `sales_date` DATE NOT NULL,
+    `status` VARCHAR(20) NOT NULL,
+    `order_count` INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (`sales_date`, `status`)
+);
+
+-- Daily sales per category (category_id 0 = uncategorised)
+CREATE TABLE IF NOT EXISTS `sales_daily_category` (
+    `sales_date` DATE NOT NULL,
+    `category_id` BIGINT NOT NULL,
+    `units_sold` INT NOT NULL DEFAULT 0,
+    `revenue` DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (`sales_date`, `category_id`)
+);
+
+-- Daily sales per product
+CREATE TABLE IF NOT EXISTS `sales_daily_product` (
+    `sales_date` DATE NOT NULL,
+    `product_id` BIGINT NOT NULL,
+    `units_sold` INT NOT NULL DEFAULT 0,
+    `revenue` DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (`sales_date`, `product_id`),
+    KEY `idx_sales_daily_product_product` (`product_id`, `sales_date`)
+);
@@ -0,0 +1,29 @@
+-- ============================================
+-- V6: per-product rating summaries
+-- ============================================
+-- service.ProductRatings keeps one row per reviewed product in step with
+-- product_reviews on every review write, so listings never aggregate
+-- reviews. Not an entity, so hbm2ddl never created it on existing
+-- databases. The summaries are built here from the reviews already
+-- written; rerunning the build only rewrites the same totals.
+
+CREATE TABLE IF NOT EXISTS `product_rating_summary` (
+    `product_id` BIGINT NOT NULL PRIMARY KEY,
+    `review_count` INT NOT NULL DEFAULT 0,
+    `rating_sum` INT NOT NULL DEFAULT 0,
+    `stars_1` INT NOT NULL DEFAULT 0,
+    `stars_2` INT NOT NULL DEFAULT 0,
+    `stars_3` INT NOT NULL DEFAULT 0,
+    `stars_4` INT NOT NULL DEFAULT 0,
+    `stars_5` INT NOT NULL DEFAULT 0,
+    `updated_at` TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    FOREIGN KEY (`product_id`) REFERENCES `products`(`id`) ON DELETE CASCADE
+);
+
+INSERT INTO `product_rating_summary` (`product_id`, `review_count`, `rating_sum`, `stars_1`, `stars_2`, `stars_3`, `stars_4`, `stars_5`)
+SELECT `product_id`, COUNT(*), SUM(`rating`),
+       SUM(`rating` = 1), SUM(`rating` = 2), SUM(`rating` = 3), SUM(`rating` = 4), SUM(`rating` = 5)
+FROM `product_reviews` GROUP BY `product_id`
+ON DUPLICATE KEY UPDATE `review_count` = VALUES(`review_count`), `rating_sum` = VALUES(`rating_sum`),
+    `stars_1` = VALUES(`stars_1`), `stars_2` = VALUES(`stars_2`), `stars_3` = VALUES(`stars_3`),
+    `stars_4` = VALUES(`stars_4`), `stars_5` = VALUES(`stars_5`);
@@ -1,26 +1,80 @@
 package model;
 
+import javax.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import util.SnowflakeId;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
+@Entity
+@Table(name = "orders")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@BatchSize(size = 50)
 public class Order {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
+    
+    @Column(name = "user_id")
     private Long userId;
+    
+    // Read-only view of user_id so HQL can left join the customer
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", insertable = false, updatable = false)
+    private User user;
+    
+    @Column(name = "order_number")
     private String orderNumber;
+    
     private String status = "PENDING";
+    
+    @Column(name = "total_amount")
     private BigDecimal totalAmount;
+    
+    @Column(name = "shipping_amount")
     private BigDecimal shippingAmount = BigDecimal.ZERO;
+    
+    @Column(name = "tax_amount")
     private BigDecimal taxAmount = BigDecimal.ZERO;
+    
+    @Column(name = "shipping_address")
     private String shippingAddress;
+    
+    @Column(name = "billing_address")
     private String billingAddress;
+    
+    @Column(name = "payment_method")
     private String paymentMethod;
+    
+    @Column(name = "payment_status")
     private String paymentStatus = "PENDING";
+    
     private String notes;
+    
+    @Column(name = "created_at", updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt;
+    
+    @Column(name = "updated_at")
+    @Temporal(TemporalType.TIMESTAMP)
     private Date updatedAt;
     
+    // Line items are loaded lazily, in batches when several orders are touched
+    @OneToMany(mappedBy = "order", fetch = FetchType.LAZY)
+    @OrderBy("id")
+    @BatchSize(size = 50)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    private List<OrderItem> items = new ArrayList<OrderItem>();
+    
     // Customer info (for easier retrieval)
+    @Transient
     private String customerName;
+    
+    @Transient
     private String customerEmail;
     
     // Constructors
@@ -150,6 +204,18 @@ public class Order {
         this.updatedAt = updatedAt;
     }
     
+    public User getUser() {
+        return user;
+    }
+    
+    public List<OrderItem> getItems() {
+        return items;
+    }
+    
+    public void setItems(List<OrderItem> items) {
+        this.items = items;
+    }
+    
     public String getCustomerName() {
         return customerName;
     }
@@ -168,7 +234,7 @@ public class Order {
     
     // Utility methods
     public void generateOrderNumber() {
-        this.orderNumber = "ORD-" + System.currentTimeMillis();
+        this.orderNumber = SnowflakeId.orderNumber();
     }
     
     @Override
@@ -1,18 +1,45 @@
 package model;
 
+import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.math.BigDecimal;
 import java.util.Date;
 
+@Entity
+@Table(name = "order_items")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class OrderItem {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
+    
+    @Column(name = "order_id")
     private Long orderId;
+    
+    // Owning side of Order.items; the plain orderId column is what gets written
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "order_id", insertable = false, updatable = false)
+    private Order order;
+    
+    @Column(name = "product_id")
     private Long productId;
+    
+    @Column(name = "product_name")
     private String productName;
+    
     private String color;
     private String size;
     private Integer quantity;
+    
+    @Column(name = "unit_price")
     private BigDecimal unitPrice;
+    
+    @Column(name = "total_price")
     private BigDecimal totalPrice;
+    
+    @Column(name = "created_at", updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
     private Date createdAt;
     
     // Constructors
@@ -49,6 +76,10 @@ public class OrderItem {
         this.orderId = orderId;
     }
     
+    public Order getOrder() {
+        return order;
+    }
+    
     public Long getProductId() {
         return productId;
     }
@@ -0,0 +1,62 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The values of orders.status and the moves allowed between them.
+ *
+ * Orders go forward along PENDING, CONFIRMED, PROCESSING, SHIPPED, DELIVERED
+ * and may skip steps, but never go back. An order can be cancelled until it
+ * ships. DELIVERED and CANCELLED are final.
+ */
+public enum OrderStatus {
+    PENDING,
+    CONFIRMED,
+    PROCESSING,
+    SHIPPED,
+    DELIVERED,
+    CANCELLED;
+
+    public boolean isFinal() {
+        return this == DELIVERED || this == CANCELLED;
+    }
+
+    public boolean canMoveTo(OrderStatus next) {
+        if (next == this || isFinal()) {
+            return false;
+        }
+        if (next == CANCELLED) {
+            return ordinal() < SHIPPED.ordinal();
+        }
+        return next.ordinal() > ordinal();
+    }
+
+    /**
+     * Statuses an order may be in to move to target.
+     */
+    public static List<OrderStatus> sourcesOf(OrderStatus target) {
+        List<OrderStatus> sources = new ArrayList<OrderStatus>();
+        for (OrderStatus status : values()) {
+            if (status.canMoveTo(target)) {
+                sources.add(status);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * The status named by value (any case), or null if it is not one.
+     */
+    public static OrderStatus parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package model;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Read-only projection of an order header used by the order list views.
+ * Built directly by HQL "select new model.OrderSummary(...)" so list pages
+ * never hydrate full Order entities.
+ */
+public class OrderSummary {
+    private final Long id;
+    private final Long userId;
+    private final String orderNumber;
+    private final String status;
+    private final BigDecimal totalAmount;
+    private final String shippingAddress;
+    private final String paymentMethod;
+    private final String paymentStatus;
+    private final Date createdAt;
+
+    // Customer info from the joined users row (null when the user is gone)
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+
+    public OrderSummary(Long id, Long userId, String orderNumber, String status, BigDecimal totalAmount,
+                        String shippingAddress, String paymentMethod, String paymentStatus, Date createdAt,
+                        String firstName, String lastName, String email) {
+        this.id = id;
+        this.userId = userId;
+        this.orderNumber = orderNumber;
+        this.status = status;
+        this.totalAmount = totalAmount;
+        this.shippingAddress = shippingAddress;
+        this.paymentMethod = paymentMethod;
+        this.paymentStatus = paymentStatus;
+        this.createdAt = createdAt;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+    }
+
+    // Copy with a new order/payment status (null keeps the current value)
+    public OrderSummary withStatus(String newStatus, String newPaymentStatus) {
+        return new OrderSummary(id, userId, orderNumber,
+                newStatus != null ? newStatus : status, totalAmount,
+                shippingAddress, paymentMethod,
+                newPaymentStatus != null ? newPaymentStatus : paymentStatus, createdAt,
+                firstName, lastName, email);
+    }
+
+    // Getters
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getOrderNumber() {
+        return orderNumber;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public BigDecimal getTotalAmount() {
+        return totalAmount;
+    }
+
+    public String getShippingAddress() {
+        return shippingAddress;
+    }
+
+    public String getPaymentMethod() {
+        return paymentMethod;
+    }
+
+    public String getPaymentStatus() {
+        return paymentStatus;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
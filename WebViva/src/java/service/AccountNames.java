@@ -0,0 +1,146 @@
+package service;
+
+import org.hibernate.Session;
+import util.BloomFilter;
+import util.HibernateUtil;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Username and email availability for signup, answered mostly from memory.
+ *
+ * All taken usernames and emails are kept in a Bloom filter. A name the
+ * filter has never seen is free without touching the database; only a
+ * possible hit (a real duplicate, or a ~1% false positive) is confirmed with
+ * a lookup on the unique index. Names are compared lowercased, like the
+ * case-insensitive collation of the users table.
+ *
+ * The filter only learns signups made by this server, so it is rebuilt from
+ * the users table every 15 minutes in the background. It is advisory: the
+ * unique keys on users.username and users.email remain the real check.
+ */
+public class AccountNames {
+    private static final long REBUILD_MS = 15 * 60 * 1000L;
+    private static final int PAGE_SIZE = 5000;
+    private static final long MIN_CAPACITY = 100000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final AccountNames INSTANCE = new AccountNames();
+
+    private volatile BloomFilter filter;
+    // Filter being rebuilt, so signups made meanwhile are not lost in the swap
+    private volatile BloomFilter building;
+    private volatile long builtAt;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private AccountNames() {}
+
+    public static AccountNames getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isUsernameTaken(String username) {
+        return isTaken("username", username);
+    }
+
+    public boolean isEmailTaken(String email) {
+        return isTaken("email", email);
+    }
+
+    /**
+     * Record a new account so its names read as taken right away.
+     */
+    public void taken(String username, String email) {
+        for (BloomFilter target : new BloomFilter[] { filter, building }) {
+            if (target != null) {
+                target.add(key("username", username));
+                target.add(key("email", email));
+            }
+        }
+    }
+
+    private boolean isTaken(String column, String value) {
+        if (!filter().mightContain(key(column, value))) {
+            return false;
+        }
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            List<?> rows = session.createSQLQuery("SELECT 1 FROM users WHERE " + column + " = :value")
+                .setParameter("value", value)
+                .setMaxResults(1)
+                .list();
+            return !rows.isEmpty();
+        } finally {
+            session.close();
+        }
+    }
+
+    private BloomFilter filter() {
+        BloomFilter current = filter;
+        if (current == null) {
+            synchronized (this) {
+                if (filter == null) {
+                    rebuild();
+                }
+                return filter;
+            }
+        }
+        if (System.currentTimeMillis() - builtAt > REBUILD_MS && rebuilding.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebuild();
+                    } catch (RuntimeException e) {
+                        System.out.println("AccountNames: rebuild failed: " + e.getMessage());
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                }
+            }, "account-names-rebuild");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return current;
+    }
+
+    // Reads users in id order one page at a time so memory stays flat
+    private void rebuild() {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Number count = (Number) session.createSQLQuery("SELECT COUNT(*) FROM users").uniqueResult();
+            // Two names per user, with room to grow until the next rebuild
+            BloomFilter built = new BloomFilter(Math.max(MIN_CAPACITY, count.longValue() * 4), FALSE_POSITIVE_RATE);
+            building = built;
+            long after = 0;
+            while (true) {
+                List<?> rows = session.createSQLQuery(
+                        "SELECT id, username, email FROM users WHERE id > :after ORDER BY id")
+                    .setParameter("after", after)
+                    .setMaxResults(PAGE_SIZE)
+                    .list();
+                for (Object row : rows) {
+                    Object[] columns = (Object[]) row;
+                    after = ((Number) columns[0]).longValue();
+                    built.add(key("username", (String) columns[1]));
+                    built.add(key("email", (String) columns[2]));
+                }
+                if (rows.size() < PAGE_SIZE) {
+                    break;
+                }
+                session.clear();
+            }
+            filter = built;
+            builtAt = System.currentTimeMillis();
+        } finally {
+            building = null;
+            session.close();
+        }
+    }
+
+    private static String key(String column, String value) {
+        return column + ":" + value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,526 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import util.EventBus;
+import util.HibernateUtil;
+import util.JsonParser;
+import util.LongIntHashMap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * "Customers also bought": for each product, the products that appear most
+ * often in the same orders, answered from memory.
+ *
+ * The co-occurrence counts live in one sparse row per product (product id to
+ * number of shared orders) on primitive LongIntHashMaps, so 50k products with
+ * a long tail of pairs cost no boxed entries. Each row caches its top
+ * MAX_RESULTS until it next changes.
+ *
+ * At startup the matrix is built from order history in parallel: the order id
+ * range is split on a small fork/join pool, each part is read with its own
+ * connection and the partial matrices are merged. After that it follows
+ * OrderEvents: a new order adds its pairs, a cancelled order takes them back.
+ * Events are delivered at least once and each server only sees the events its
+ * own relay claims, so the matrix is also rebuilt in the background every six
+ * hours. Cancelled orders are never counted.
+ */
+public final class AlsoBought {
+
+    public static final int MAX_RESULTS = 20;
+
+    private static final long REBUILD_MS = 6 * 60 * 60 * 1000L;
+    // Bigger orders are rare and would add pairs quadratically
+    private static final int MAX_PRODUCTS_PER_ORDER = 50;
+    // Order ids read by one rebuild task
+    private static final int REBUILD_RANGE = 20000;
+    // Each rebuild task holds a pooled connection, so leave most of the pool to requests
+    private static final int REBUILD_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int EVENT_BATCH = 200;
+    private static final String CANCELLED = "CANCELLED";
+
+    private static final String HISTORY_SQL =
+        "SELECT oi.order_id, oi.product_id FROM order_items oi JOIN orders o ON o.id = oi.order_id " +
+        "WHERE oi.order_id BETWEEN ? AND ? AND o.status <> '" + CANCELLED + "' ORDER BY oi.order_id";
+
+    private static final AlsoBought INSTANCE = new AlsoBought();
+
+    /**
+     * A related product and the number of orders it shared with the product asked about.
+     */
+    public static final class Related {
+        private final long productId;
+        private final int orders;
+
+        Related(long productId, int orders) {
+            this.productId = productId;
+            this.orders = orders;
+        }
+
+        public long getProductId() { return productId; }
+        public int getOrders() { return orders; }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Matrix matrix = new Matrix();
+    // Orders applied while a rebuild runs, replayed onto the new matrix; null otherwise
+    private List<Applied> appliedDuringRebuild;
+    private volatile long builtAt;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile boolean started;
+
+    private AlsoBought() {}
+
+    public static AlsoBought getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Subscribe to order events and build the matrix in the background.
+     * Call at startup, before OrderEvents.start().
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        OrderEvents.subscribe("also-bought", EVENT_BATCH, new EventBus.Subscriber<OrderEvents.Event>() {
+            @Override
+            public void onEvents(List<OrderEvents.Event> batch) {
+                apply(batch);
+            }
+        });
+        rebuildInBackground();
+    }
+
+    /**
+     * Up to limit products most often bought together with productId, most
+     * frequent first. Empty until the first build has finished.
+     */
+    public List<Related> related(long productId, int limit) {
+        if (builtAt > 0 && System.currentTimeMillis() - builtAt > REBUILD_MS) {
+            rebuildInBackground();
+        }
+        lock.readLock().lock();
+        try {
+            Row row = matrix.find(productId);
+            if (row == null) {
+                return Collections.emptyList();
+            }
+            Top top = row.top();
+            int count = Math.min(limit, top.ids.length);
+            List<Related> result = new ArrayList<Related>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(new Related(top.ids[i], top.counts[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---- Incremental updates ----
+
+    private void apply(List<OrderEvents.Event> batch) {
+        // order id -> +1 (count it) or -1 (take it back); opposite events cancel out
+        Map<Long, Integer> signs = new LinkedHashMap<Long, Integer>();
+        for (OrderEvents.Event event : batch) {
+            int sign = 0;
+            if (OrderEvents.ORDER_CREATED.equals(event.getType())) {
+                sign = 1;
+            } else if (OrderEvents.ORDER_STATUS_CHANGED.equals(event.getType())) {
+                Map<String, Object> payload = JsonParser.parseObject(event.getPayload());
+                boolean wasCancelled = CANCELLED.equals(payload.get("from"));
+                boolean isCancelled = CANCELLED.equals(payload.get("to"));
+                sign = isCancelled == wasCancelled ? 0 : (isCancelled ? -1 : 1);
+            }
+            if (sign != 0) {
+                Integer previous = signs.get(event.getOrderId());
+                int total = (previous != null ? previous : 0) + sign;
+                if (total == 0) {
+                    signs.remove(event.getOrderId());
+                } else {
+                    signs.put(event.getOrderId(), total);
+                }
+            }
+        }
+        if (signs.isEmpty()) {
+            return;
+        }
+
+        Map<Long, long[]> products = loadProducts(signs.keySet());
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Long, Integer> entry : signs.entrySet()) {
+                long[] orderProducts = products.get(entry.getKey());
+                if (orderProducts == null) {
+                    continue;
+                }
+                matrix.addOrder(orderProducts, orderProducts.length, entry.getValue());
+                if (appliedDuringRebuild != null) {
+                    appliedDuringRebuild.add(new Applied(entry.getKey(), orderProducts, entry.getValue()));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Distinct products of each order, sorted
+    private static Map<Long, long[]> loadProducts(Collection<Long> orderIds) {
+        Map<Long, long[]> result = new LinkedHashMap<Long, long[]>();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            List<?> rows = session.createSQLQuery(
+                    "SELECT order_id, product_id FROM order_items WHERE order_id IN (:ids) ORDER BY order_id")
+                .setParameterList("ids", orderIds)
+                .list();
+            OrderProducts order = new OrderProducts();
+            long current = 0;
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                long orderId = ((Number) columns[0]).longValue();
+                if (orderId != current && order.size > 0) {
+                    result.put(current, order.distinct());
+                    order.size = 0;
+                }
+                current = orderId;
+                order.add(((Number) columns[1]).longValue());
+            }
+            if (order.size > 0) {
+                result.put(current, order.distinct());
+            }
+            return result;
+        } finally {
+            session.close();
+        }
+    }
+
+    // ---- Rebuild from history ----
+
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    System.out.println("AlsoBought: rebuild failed: " + e.getMessage());
+                } finally {
+                    rebuilding.set(false);
+                }
+            }
+        }, "also-bought-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void rebuild() {
+        long startedAt = System.currentTimeMillis();
+        long minId;
+        long maxId;
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Object[] range = (Object[]) session.createSQLQuery("SELECT MIN(id), MAX(id) FROM orders").uniqueResult();
+            minId = range[0] != null ? ((Number) range[0]).longValue() : 0;
+            maxId = range[1] != null ? ((Number) range[1]).longValue() : -1;
+        } finally {
+            session.close();
+        }
+
+        lock.writeLock().lock();
+        try {
+            appliedDuringRebuild = new ArrayList<Applied>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Matrix built;
+        try {
+            if (maxId < minId) {
+                built = new Matrix();
+            } else {
+                ForkJoinPool pool = new ForkJoinPool(REBUILD_THREADS);
+                try {
+                    built = pool.invoke(new RebuildTask(minId, maxId));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                appliedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            // Orders up to maxId were read from the database; newer ones only reached the old matrix
+            for (Applied applied : appliedDuringRebuild) {
+                if (applied.orderId > maxId) {
+                    built.addOrder(applied.products, applied.products.length, applied.sign);
+                }
+            }
+            appliedDuringRebuild = null;
+            matrix = built;
+            builtAt = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("AlsoBought: built " + built.rows.size() + " products from orders "
+            + minId + ".." + maxId + " in " + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+
+    /**
+     * Builds the matrix for orders [fromId, toId], splitting the range until
+     * it is small enough to read with one query.
+     */
+    private static final class RebuildTask extends RecursiveTask<Matrix> {
+        private static final long serialVersionUID = 1L;
+
+        private final long fromId;
+        private final long toId;
+
+        RebuildTask(long fromId, long toId) {
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+
+        @Override
+        protected Matrix compute() {
+            if (toId - fromId < REBUILD_RANGE) {
+                return read(fromId, toId);
+            }
+            long middle = fromId + (toId - fromId) / 2;
+            RebuildTask lower = new RebuildTask(fromId, middle);
+            lower.fork();
+            Matrix upper = new RebuildTask(middle + 1, toId).compute();
+            Matrix other = lower.join();
+            // Fold the smaller matrix into the larger one
+            if (other.rows.size() > upper.rows.size()) {
+                other.addAll(upper);
+                return other;
+            }
+            upper.addAll(other);
+            return upper;
+        }
+
+        private static Matrix read(final long fromId, final long toId) {
+            Session session = HibernateUtil.getSessionFactory().openSession();
+            try {
+                return session.doReturningWork(new ReturningWork<Matrix>() {
+                    @Override
+                    public Matrix execute(Connection connection) throws SQLException {
+                        Matrix part = new Matrix();
+                        OrderProducts order = new OrderProducts();
+                        long current = 0;
+                        try (PreparedStatement ps = connection.prepareStatement(HISTORY_SQL)) {
+                            ps.setLong(1, fromId);
+                            ps.setLong(2, toId);
+                            try (ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    long orderId = rs.getLong(1);
+                                    if (orderId != current) {
+                                        order.addTo(part);
+                                        current = orderId;
+                                    }
+                                    order.add(rs.getLong(2));
+                                }
+                            }
+                        }
+                        order.addTo(part);
+                        return part;
+                    }
+                });
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    // ---- Data structures ----
+
+    /**
+     * Product id -> row, with the rows in a list so a lookup is one probe
+     * into a primitive map.
+     */
+    private static final class Matrix {
+        final LongIntHashMap slots = new LongIntHashMap(1024);
+        final ArrayList<Row> rows = new ArrayList<Row>();
+
+        Row find(long productId) {
+            int slot = slots.get(productId, -1);
+            return slot >= 0 ? rows.get(slot) : null;
+        }
+
+        Row row(long productId) {
+            int slot = slots.get(productId, -1);
+            if (slot < 0) {
+                slot = rows.size();
+                rows.add(new Row(productId));
+                slots.put(productId, slot);
+            }
+            return rows.get(slot);
+        }
+
+        // products: distinct, sorted; sign +1 counts the order, -1 takes it back
+        void addOrder(long[] products, int count, int sign) {
+            count = Math.min(count, MAX_PRODUCTS_PER_ORDER);
+            for (int i = 0; i < count; i++) {
+                Row row = row(products[i]);
+                for (int j = 0; j < count; j++) {
+                    if (j != i) {
+                        row.add(products[j], sign);
+                    }
+                }
+            }
+        }
+
+        void addAll(Matrix other) {
+            for (Row theirs : other.rows) {
+                Row mine = row(theirs.productId);
+                mine.counts.addAll(theirs.counts);
+                mine.top = null;
+            }
+        }
+    }
+
+    private static final class Row {
+        final long productId;
+        final LongIntHashMap counts = new LongIntHashMap(4);
+        // Cached best MAX_RESULTS; null after a change. Written under the read lock, cleared under the write lock.
+        volatile Top top;
+
+        Row(long productId) {
+            this.productId = productId;
+        }
+
+        void add(long otherProductId, int sign) {
+            counts.addTo(otherProductId, sign);
+            top = null;
+        }
+
+        Top top() {
+            Top cached = top;
+            if (cached == null) {
+                cached = Top.of(counts);
+                top = cached;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Highest counts first, ties by lower product id so answers are stable.
+     */
+    private static final class Top {
+        final long[] ids;
+        final int[] counts;
+
+        Top(long[] ids, int[] counts) {
+            this.ids = ids;
+            this.counts = counts;
+        }
+
+        static Top of(LongIntHashMap row) {
+            long[] ids = new long[MAX_RESULTS];
+            int[] counts = new int[MAX_RESULTS];
+            int size = 0;
+            for (int slot = 0; slot < row.capacity(); slot++) {
+                long id = row.keyAt(slot);
+                int count = row.valueAt(slot);
+                // A count can dip below zero when a cancellation arrives for an order this server never counted
+                if (id == 0 || count <= 0) {
+                    continue;
+                }
+                if (size == MAX_RESULTS && !before(count, id, counts[size - 1], ids[size - 1])) {
+                    continue;
+                }
+                int at = size < MAX_RESULTS ? size++ : size - 1;
+                while (at > 0 && before(count, id, counts[at - 1], ids[at - 1])) {
+                    ids[at] = ids[at - 1];
+                    counts[at] = counts[at - 1];
+                    at--;
+                }
+                ids[at] = id;
+                counts[at] = count;
+            }
+            return new Top(Arrays.copyOf(ids, size), Arrays.copyOf(counts, size));
+        }
+
+        private static boolean before(int count, long id, int otherCount, long otherId) {
+            return count > otherCount || (count == otherCount && id < otherId);
+        }
+    }
+
+    /**
+     * Product ids of the order being read, reused from one order to the next.
+     */
+    private static final class OrderProducts {
+        long[] ids = new long[16];
+        int size;
+
+        void add(long productId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = productId;
+        }
+
+        // Sort and drop repeats (an order lists a product once per size and color)
+        int dedupe() {
+            Arrays.sort(ids, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            return size = distinct;
+        }
+
+        long[] distinct() {
+            return Arrays.copyOf(ids, dedupe());
+        }
+
+        void addTo(Matrix matrix) {
+            if (size > 0) {
+                matrix.addOrder(ids, dedupe(), 1);
+                size = 0;
+            }
+        }
+    }
+
+    private static final class Applied {
+        final long orderId;
+        final long[] products;
+        final int sign;
+
+        Applied(long orderId, long[] products, int sign) {
+            this.orderId = orderId;
+            this.products = products;
+            this.sign = sign;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A user's cart as held by CartService. Lines are keyed by
+ * "productId-color-size" (the same item key the frontend uses).
+ *
+ * Every mutation records the touched key as pending; CartService writes the
+ * pending keys out later, so many edits to one line become a single row write.
+ * All access goes through the cart's monitor.
+ */
+public class Cart {
+
+    /**
+     * One line of the cart. priceAtTime is the unit price when the line was last added to or changed.
+     */
+    public static class Line {
+        private final Long productId;
+        private final String color;
+        private final String size;
+        private int quantity;
+        private BigDecimal priceAtTime;
+
+        Line(Long productId, String color, String size, int quantity, BigDecimal priceAtTime) {
+            this.productId = productId;
+            this.color = color;
+            this.size = size;
+            this.quantity = quantity;
+            this.priceAtTime = priceAtTime;
+        }
+
+        Line copy() {
+            return new Line(productId, color, size, quantity, priceAtTime);
+        }
+
+        public String getKey() {
+            return key(productId, color, size);
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public String getColor() {
+            return color;
+        }
+
+        public String getSize() {
+            return size;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public BigDecimal getPriceAtTime() {
+            return priceAtTime;
+        }
+    }
+
+    /**
+     * Pending writes taken from a cart: lines to upsert and lines to delete.
+     */
+    static class Changes {
+        final Long userId;
+        final List<Line> upserts;
+        final List<Line> deletes;
+
+        Changes(Long userId, List<Line> upserts, List<Line> deletes) {
+            this.userId = userId;
+            this.upserts = upserts;
+            this.deletes = deletes;
+        }
+    }
+
+    private final Long userId;
+    private final Map<String, Line> lines = new LinkedHashMap<>();
+
+    // Keys changed since the last write; removed keys keep their last line so the row can be found
+    private final Set<String> pendingKeys = new HashSet<>();
+    private final Map<String, Line> pendingDeletes = new LinkedHashMap<>();
+
+    Cart(Long userId) {
+        this.userId = userId;
+    }
+
+    public static String key(Long productId, String color, String size) {
+        return productId + "-" + (color != null ? color : "") + "-" + (size != null ? size : "");
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    // Copies of the current lines, in the order they were added
+    public synchronized List<Line> getLines() {
+        List<Line> copy = new ArrayList<>(lines.size());
+        for (Line line : lines.values()) {
+            copy.add(line.copy());
+        }
+        return copy;
+    }
+
+    public synchronized Line getLine(String key) {
+        Line line = lines.get(key);
+        return line != null ? line.copy() : null;
+    }
+
+    // Line as loaded from the database; not pending
+    synchronized void loadLine(Long productId, String color, String size, int quantity, BigDecimal priceAtTime) {
+        Line line = new Line(productId, color, size, quantity, priceAtTime);
+        lines.put(line.getKey(), line);
+    }
+
+    synchronized void setQuantity(Long productId, String color, String size, int quantity, BigDecimal unitPrice) {
+        String key = key(productId, color, size);
+        if (quantity <= 0) {
+            remove(key);
+            return;
+        }
+        Line line = lines.get(key);
+        if (line == null) {
+            line = new Line(productId, color, size, quantity, unitPrice);
+            lines.put(key, line);
+        } else {
+            line.quantity = quantity;
+            line.priceAtTime = unitPrice;
+        }
+        pendingDeletes.remove(key);
+        pendingKeys.add(key);
+    }
+
+    synchronized boolean remove(String key) {
+        Line line = lines.remove(key);
+        if (line == null) {
+            return false;
+        }
+        pendingKeys.remove(key);
+        pendingDeletes.put(key, line);
+        return true;
+    }
+
+    synchronized void clear() {
+        for (String key : new ArrayList<>(lines.keySet())) {
+            remove(key);
+        }
+    }
+
+    synchronized boolean isDirty() {
+        return !pendingKeys.isEmpty() || !pendingDeletes.isEmpty();
+    }
+
+    // Take the pending writes; the cart is clean afterwards until the next edit
+    synchronized Changes takeChanges() {
+        List<Line> upserts = new ArrayList<>(pendingKeys.size());
+        for (String key : pendingKeys) {
+            upserts.add(lines.get(key).copy());
+        }
+        List<Line> deletes = new ArrayList<>(pendingDeletes.values());
+        pendingKeys.clear();
+        pendingDeletes.clear();
+        return new Changes(userId, upserts, deletes);
+    }
+
+    // Put back writes that failed, unless the line has been edited again since
+    synchronized void restoreChanges(Changes changes) {
+        for (Line line : changes.upserts) {
+            String key = line.getKey();
+            if (lines.containsKey(key) && !pendingDeletes.containsKey(key)) {
+                pendingKeys.add(key);
+            }
+        }
+        for (Line line : changes.deletes) {
+            String key = line.getKey();
+            if (!lines.containsKey(key) && !pendingDeletes.containsKey(key)) {
+                pendingDeletes.put(key, line);
+            }
+        }
+    }
+}
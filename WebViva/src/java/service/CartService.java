@@ -0,0 +1,404 @@
+package service;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.JDBCConnectionException;
+import org.hibernate.jdbc.Work;
+import util.HibernateUtil;
+import util.LruCache;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side carts kept in memory and written behind to carts/cart_items.
+ *
+ * Reads and edits only touch the in-memory cart. Edited carts are queued and
+ * a background thread writes them every FLUSH_INTERVAL_MS, batching all
+ * queued carts into one transaction, so rapid quantity changes on a line are
+ * coalesced into one row write. A queued cart stays reachable until it has
+ * been written, even if the LRU evicts it, so reads never see stale rows.
+ *
+ * When a batch fails its carts are retried one at a time, so one bad cart
+ * (say, a line for a product deleted since) cannot hold back the others. A
+ * cart that fails MAX_WRITE_ATTEMPTS flushes in a row is taken off the queue
+ * and logged; its next edit queues it again. If the database cannot be
+ * reached at all, everything waits for the next flush without counting.
+ */
+public class CartService {
+    public static final int MAX_LINE_QUANTITY = 99;
+    public static final int MAX_LINES = 100;
+
+    private static final int MAX_CARTS = 10000;
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final int FLUSH_BATCH_CARTS = 500;
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+
+    private static final CartService INSTANCE = new CartService();
+
+    private final LruCache<Long, Cart> carts = new LruCache<Long, Cart>(MAX_CARTS);
+
+    // Carts with unwritten changes, by user id
+    private final ConcurrentHashMap<Long, Cart> dirty = new ConcurrentHashMap<>();
+
+    // Failed writes in a row per user id; writer thread only
+    private final Map<Long, Integer> writeFailures = new HashMap<>();
+
+    // Serialises loading per user so two requests can't build two carts
+    private final Object[] loadLocks = new Object[64];
+
+    private final ScheduledExecutorService writer;
+
+    private CartService() {
+        for (int i = 0; i < loadLocks.length; i++) {
+            loadLocks[i] = new Object();
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cart-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static CartService getInstance() {
+        return INSTANCE;
+    }
+
+    public Cart getCart(Long userId) {
+        Cart cart = carts.get(userId);
+        if (cart != null) {
+            return cart;
+        }
+        synchronized (loadLocks[(int) (Math.abs(userId % loadLocks.length))]) {
+            cart = carts.get(userId);
+            if (cart == null) {
+                cart = dirty.get(userId);
+            }
+            if (cart == null) {
+                cart = load(userId);
+            }
+            carts.put(userId, cart);
+            return cart;
+        }
+    }
+
+    /**
+     * Add quantity units of a product variant, pricing it from the product cache.
+     */
+    public Cart addItem(Long userId, Long productId, String color, String size, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be at least 1");
+        }
+        color = color != null ? color.trim() : "";
+        size = size != null ? size.trim().toUpperCase() : "";
+        ProductPriceCache.Price price = requirePrice(productId);
+        Cart cart = getCart(userId);
+        synchronized (cart) {
+            String key = Cart.key(productId, color, size);
+            Cart.Line existing = cart.getLine(key);
+            if (existing == null && cart.getLines().size() >= MAX_LINES) {
+                throw new IllegalArgumentException("Cart cannot hold more than " + MAX_LINES + " different items");
+            }
+            int newQuantity = (existing != null ? existing.getQuantity() : 0) + quantity;
+            checkQuantity(price, size, newQuantity);
+            cart.setQuantity(productId, color, size, newQuantity, price.unitPrice(size));
+            dirty.put(userId, cart);
+        }
+        return cart;
+    }
+
+    /**
+     * Set a line's quantity at the product's current price; zero removes it.
+     * Returns false when the line doesn't exist.
+     */
+    public boolean updateItem(Long userId, String key, int quantity) {
+        Cart cart = getCart(userId);
+        Cart.Line line = cart.getLine(key);
+        if (line == null) {
+            return false;
+        }
+        BigDecimal unitPrice = line.getPriceAtTime();
+        if (quantity > 0) {
+            // Re-priced like addItem, so the line never keeps a price the product no longer has
+            ProductPriceCache.Price price = requirePrice(line.getProductId());
+            checkQuantity(price, line.getSize(), quantity);
+            unitPrice = price.unitPrice(line.getSize());
+        }
+        synchronized (cart) {
+            if (cart.getLine(key) == null) {
+                return false;
+            }
+            cart.setQuantity(line.getProductId(), line.getColor(), line.getSize(), quantity, unitPrice);
+            dirty.put(userId, cart);
+        }
+        return true;
+    }
+
+    public boolean removeItem(Long userId, String key) {
+        Cart cart = getCart(userId);
+        synchronized (cart) {
+            if (!cart.remove(key)) {
+                return false;
+            }
+            dirty.put(userId, cart);
+        }
+        return true;
+    }
+
+    public void clear(Long userId) {
+        Cart cart = getCart(userId);
+        synchronized (cart) {
+            cart.clear();
+            if (cart.isDirty()) {
+                dirty.put(userId, cart);
+            }
+        }
+    }
+
+    public int getPendingCarts() {
+        return dirty.size();
+    }
+
+    /**
+     * Stop the background writer and write everything still pending.
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    private ProductPriceCache.Price requirePrice(Long productId) {
+        ProductPriceCache.Price price = ProductPriceCache.getInstance().get(productId);
+        if (price == null || !price.isActive()) {
+            throw new IllegalArgumentException("Product " + productId + " is not available");
+        }
+        return price;
+    }
+
+    private void checkQuantity(ProductPriceCache.Price price, String size, int quantity) {
+        if (quantity > MAX_LINE_QUANTITY) {
+            throw new IllegalArgumentException("At most " + MAX_LINE_QUANTITY + " of one item per order");
+        }
+        int available = price.available(size);
+        if (quantity > available) {
+            throw new IllegalArgumentException("Only " + available + " items available in stock");
+        }
+    }
+
+    private Cart load(Long userId) {
+        Cart cart = new Cart(userId);
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Query query = session.createSQLQuery(
+                "SELECT ci.product_id, ci.color, ci.size, ci.quantity, ci.price_at_time " +
+                "FROM carts c JOIN cart_items ci ON ci.cart_id = c.id WHERE c.user_id = ? ORDER BY ci.id");
+            query.setParameter(0, userId);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.list();
+            for (Object[] row : rows) {
+                cart.loadLine(((Number) row[0]).longValue(), (String) row[1], (String) row[2],
+                        ((Number) row[3]).intValue(), new BigDecimal(row[4].toString()));
+            }
+        } finally {
+            session.close();
+        }
+        return cart;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable t) {
+            System.err.println("Cart write-behind failed: " + t.getMessage());
+            t.printStackTrace();
+        }
+    }
+
+    // Write queued carts in batches of FLUSH_BATCH_CARTS, one transaction per batch
+    void flush() {
+        List<Cart> batch = new ArrayList<>();
+        for (Cart cart : dirty.values()) {
+            batch.add(cart);
+            if (batch.size() >= FLUSH_BATCH_CARTS) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<Cart> batch) {
+        try {
+            write(batch);
+        } catch (JDBCConnectionException e) {
+            // Nothing can be written now; the carts stay queued for the next flush
+            throw e;
+        } catch (RuntimeException e) {
+            if (batch.size() > 1) {
+                System.err.println("Cart write-behind: batch of " + batch.size() + " failed, writing one by one: " + reason(e));
+            }
+            for (Cart cart : batch) {
+                try {
+                    write(Collections.singletonList(cart));
+                } catch (JDBCConnectionException unreachable) {
+                    throw unreachable;
+                } catch (RuntimeException single) {
+                    writeFailed(cart, single);
+                }
+            }
+        }
+    }
+
+    private void writeFailed(Cart cart, RuntimeException e) {
+        Long userId = cart.getUserId();
+        Integer failures = writeFailures.get(userId);
+        int attempts = failures != null ? failures + 1 : 1;
+        if (attempts < MAX_WRITE_ATTEMPTS) {
+            writeFailures.put(userId, attempts);
+            return;
+        }
+        writeFailures.remove(userId);
+        synchronized (cart) {
+            dirty.remove(userId, cart);
+        }
+        System.err.println("Cart write-behind: gave up on the cart of user " + userId
+                + " after " + attempts + " failed writes: " + reason(e));
+    }
+
+    // doWork wraps the SQLException that says what actually went wrong
+    private static String reason(RuntimeException e) {
+        return e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+    }
+
+    // Write carts in one transaction; on failure their changes are put back
+    private void write(List<Cart> batch) {
+        final List<Cart.Changes> changes = new ArrayList<>(batch.size());
+        for (Cart cart : batch) {
+            changes.add(cart.takeChanges());
+        }
+
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    writeChanges(connection, changes);
+                }
+            });
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (RuntimeException ignored) {
+                    // keep the original error
+                }
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).restoreChanges(changes.get(i));
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+
+        // Drop carts from the queue unless they were edited while being written
+        for (Cart cart : batch) {
+            synchronized (cart) {
+                if (!cart.isDirty()) {
+                    dirty.remove(cart.getUserId(), cart);
+                }
+            }
+            writeFailures.remove(cart.getUserId());
+        }
+    }
+
+    private void writeChanges(Connection connection, List<Cart.Changes> changes) throws SQLException {
+        // One carts row per user; the unique user_id makes this idempotent
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO carts (user_id) VALUES (?) ON DUPLICATE KEY UPDATE updated_at = NOW()")) {
+            for (Cart.Changes change : changes) {
+                ps.setLong(1, change.userId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        Map<Long, Long> cartIds = new HashMap<>();
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < changes.size(); i++) {
+            in.append(i > 0 ? ", ?" : "?");
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT user_id, id FROM carts WHERE user_id IN (" + in + ")")) {
+            for (int i = 0; i < changes.size(); i++) {
+                ps.setLong(i + 1, changes.get(i).userId);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    cartIds.put(rs.getLong(1), rs.getLong(2));
+                }
+            }
+        }
+
+        try (PreparedStatement upsert = connection.prepareStatement(
+                "INSERT INTO cart_items (cart_id, product_id, color, size, quantity, price_at_time) " +
+                "VALUES (?, ?, ?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE quantity = VALUES(quantity), price_at_time = VALUES(price_at_time)");
+             PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM cart_items WHERE cart_id = ? AND product_id = ? AND color = ? AND size = ?")) {
+            int upserts = 0;
+            int deletes = 0;
+            for (Cart.Changes change : changes) {
+                Long cartId = cartIds.get(change.userId);
+                for (Cart.Line line : change.upserts) {
+                    upsert.setLong(1, cartId);
+                    upsert.setLong(2, line.getProductId());
+                    upsert.setString(3, line.getColor() != null ? line.getColor() : "");
+                    upsert.setString(4, line.getSize() != null ? line.getSize() : "");
+                    upsert.setInt(5, line.getQuantity());
+                    upsert.setBigDecimal(6, line.getPriceAtTime());
+                    upsert.addBatch();
+                    upserts++;
+                }
+                for (Cart.Line line : change.deletes) {
+                    delete.setLong(1, cartId);
+                    delete.setLong(2, line.getProductId());
+                    delete.setString(3, line.getColor() != null ? line.getColor() : "");
+                    delete.setString(4, line.getSize() != null ? line.getSize() : "");
+                    delete.addBatch();
+                    deletes++;
+                }
+            }
+            if (deletes > 0) {
+                delete.executeBatch();
+            }
+            if (upserts > 0) {
+                upsert.executeBatch();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package service;
+
+import util.SingleFlight;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shared, briefly cached JSON for public catalog reads (/products, /products/{id}).
+ *
+ * When many users open the same URL at once (a campaign email landing),
+ * identical requests are coalesced: one of them runs the queries and the
+ * rest reuse its serialized response. Responses are fresh for 2 seconds and
+ * served stale for up to 30 while a single request refreshes them. Product
+ * writes call clear() so edits and price changes show up immediately.
+ *
+ * Only 200 responses are kept. A 404 or 500 goes to the requests that
+ * shared its load and no further, and a refresh that ends in one counts as
+ * a failed refresh, so the previous 200 keeps being served while stale.
+ */
+public class CatalogResponses {
+    private static final int MAX_RESPONSES = 2000;
+    private static final long FRESH_MS = 2 * 1000L;
+    private static final long STALE_MS = 30 * 1000L;
+    private static final long WAIT_MS = 15 * 1000L;
+
+    private static final CatalogResponses INSTANCE = new CatalogResponses();
+
+    /**
+     * A rendered response: HTTP status and JSON body.
+     */
+    public static class Response {
+        private final int status;
+        private final String body;
+
+        public Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    // Carries a non-200 response out of a load so SingleFlight does not store it
+    private static class NotCacheable extends Exception {
+        private static final long serialVersionUID = 1L;
+        private final Response response;
+
+        NotCacheable(Response response) {
+            super("status " + response.getStatus());
+            this.response = response;
+        }
+    }
+
+    private final SingleFlight<String, Response> responses =
+        new SingleFlight<String, Response>(MAX_RESPONSES, FRESH_MS, STALE_MS, WAIT_MS);
+
+    private CatalogResponses() {}
+
+    public static CatalogResponses getInstance() {
+        return INSTANCE;
+    }
+
+    public Response get(String key, SingleFlight.Loader<Response> loader) throws Exception {
+        try {
+            return responses.get(key, () -> {
+                Response response = loader.load();
+                if (response.getStatus() != 200) {
+                    throw new NotCacheable(response);
+                }
+                return response;
+            });
+        } catch (NotCacheable e) {
+            return e.response;
+        }
+    }
+
+    public void clear() {
+        responses.clear();
+    }
+
+    /**
+     * Cache key for a request: path plus parameters in name order, so
+     * "?a=1&b=2" and "?b=2&a=1" share an entry. Values are taken exactly as
+     * the handler sees them (encoded, so a value holding '&' cannot pass for
+     * two parameters); requests that differ only in spaces get separate entries.
+     */
+    public static String key(String pathInfo, Map<String, String[]> parameters) {
+        StringBuilder key = new StringBuilder(pathInfo != null ? pathInfo : "/");
+        char separator = '?';
+        for (Map.Entry<String, String[]> parameter : new TreeMap<String, String[]>(parameters).entrySet()) {
+            for (String value : parameter.getValue()) {
+                key.append(separator).append(encode(parameter.getKey())).append('=').append(encode(value));
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    private static String encode(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import util.EventBus;
+import util.HibernateUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Order lifecycle events, delivered off the request path.
+ *
+ * The recording methods run inside the caller's transaction, like
+ * SalesRollups: each inserts a row into order_events_outbox, so an event
+ * exists exactly when the order change it describes is committed. A relay
+ * thread claims outbox rows, publishes them on an in-process EventBus and
+ * deletes them only after every subscriber has handled them. If the server
+ * stops first, the rows stay and are delivered again (at least once), by
+ * this server after a restart or by another one once the claim lease runs
+ * out. Subscribers must therefore tolerate seeing an event twice.
+ *
+ * Register subscribers before start(). -Ddynex.events.relay=false keeps a
+ * node from relaying; -Ddynex.events.log=true logs every event.
+ */
+public final class OrderEvents {
+
+    public static final String ORDER_CREATED = "ORDER_CREATED";
+    public static final String ORDER_STATUS_CHANGED = "ORDER_STATUS_CHANGED";
+    public static final String PAYMENT_CONFIRMED = "PAYMENT_CONFIRMED";
+
+    private static final int RING_SIZE = 4096;
+    private static final int CLAIM_BATCH = 500;
+    private static final int LEASE_MINUTES = 5;
+    private static final long POLL_MS = 1000;
+
+    private static final String INSERT_SQL =
+        "INSERT INTO order_events_outbox (event_type, order_id, payload) VALUES (?, ?, ?)";
+
+    // Rows never claimed, or whose claim has lapsed (the relay holding them died)
+    private static final String CLAIM_SQL =
+        "UPDATE order_events_outbox SET claimed_by = ?, claimed_until = NOW(3) + INTERVAL " + LEASE_MINUTES + " MINUTE " +
+        "WHERE claimed_until IS NULL OR claimed_until < NOW(3) ORDER BY id LIMIT " + CLAIM_BATCH;
+
+    private static final String CLAIMED_SQL =
+        "SELECT id, event_type, order_id, payload, created_at FROM order_events_outbox " +
+        "WHERE claimed_by = ? ORDER BY id";
+
+    private static final String RENEW_SQL =
+        "UPDATE order_events_outbox SET claimed_until = NOW(3) + INTERVAL " + LEASE_MINUTES + " MINUTE " +
+        "WHERE claimed_by = ?";
+
+    private static final String RELEASE_SQL =
+        "UPDATE order_events_outbox SET claimed_by = NULL, claimed_until = NULL WHERE claimed_by = ?";
+
+    /**
+     * One outbox row. payload is a JSON object describing the change.
+     */
+    public static final class Event {
+        private final long id;
+        private final String type;
+        private final long orderId;
+        private final String payload;
+        private final Date createdAt;
+
+        Event(long id, String type, long orderId, String payload, Date createdAt) {
+            this.id = id;
+            this.type = type;
+            this.orderId = orderId;
+            this.payload = payload;
+            this.createdAt = createdAt;
+        }
+
+        public long getId() { return id; }
+        public String getType() { return type; }
+        public long getOrderId() { return orderId; }
+        public String getPayload() { return payload; }
+        public Date getCreatedAt() { return createdAt; }
+
+        @Override
+        public String toString() {
+            return type + "#" + id + " order " + orderId + " " + payload;
+        }
+    }
+
+    private static final Object WAKE = new Object();
+    private static final EventBus<Event> BUS = new EventBus<Event>("order-events", RING_SIZE);
+    private static Relay relay;
+
+    private OrderEvents() {}
+
+    // ---- Recording (inside the caller's transaction) ----
+
+    public static void orderCreated(Session session, long orderId, String orderNumber, long userId,
+                                    String status, Object totalAmount) {
+        record(session, ORDER_CREATED, orderId,
+            "{\"orderId\": " + orderId
+            + ", \"orderNumber\": \"" + escapeJson(orderNumber) + "\""
+            + ", \"userId\": " + userId
+            + ", \"status\": \"" + escapeJson(status) + "\""
+            + ", \"totalAmount\": \"" + totalAmount + "\"}");
+    }
+
+    public static void statusChanged(Session session, long orderId, String oldStatus, String newStatus) {
+        record(session, ORDER_STATUS_CHANGED, orderId, transition(orderId, oldStatus, newStatus, null));
+    }
+
+    /**
+     * One ORDER_STATUS_CHANGED event per order in orderIds, written with a
+     * single statement.
+     */
+    public static void statusChanged(Session session, Collection<Long> orderIds, String oldStatus, String newStatus) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        // transition() for order 0, split around the id so the database fills in each one
+        String json = transition(0, oldStatus, newStatus, null);
+        int idAt = json.indexOf('0');
+        // Text goes in as parameters: Hibernate reads braces in native SQL as alias placeholders
+        session.createSQLQuery(
+                "INSERT INTO order_events_outbox (event_type, order_id, payload) " +
+                "SELECT :type, o.id, CONCAT(:beforeId, o.id, :afterId) FROM orders o WHERE o.id IN (:ids)")
+            .setParameter("type", ORDER_STATUS_CHANGED)
+            .setParameter("beforeId", json.substring(0, idAt))
+            .setParameter("afterId", json.substring(idAt + 1))
+            .setParameterList("ids", orderIds)
+            .executeUpdate();
+    }
+
+    public static void paymentConfirmed(Session session, long orderId, String oldStatus) {
+        record(session, PAYMENT_CONFIRMED, orderId, transition(orderId, oldStatus, "CONFIRMED", "PAID"));
+    }
+
+    /**
+     * Call after committing a transaction that recorded events, so the relay
+     * picks them up now rather than at its next poll.
+     */
+    public static void committed() {
+        synchronized (WAKE) {
+            WAKE.notifyAll();
+        }
+    }
+
+    private static void record(Session session, String type, long orderId, String payload) {
+        session.createSQLQuery(INSERT_SQL)
+            .setParameter(0, type)
+            .setParameter(1, orderId)
+            .setParameter(2, payload)
+            .executeUpdate();
+    }
+
+    private static String transition(long orderId, String from, String to, String paymentStatus) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"orderId\": ").append(orderId);
+        json.append(", \"from\": ").append(from != null ? "\"" + escapeJson(from) + "\"" : "null");
+        json.append(", \"to\": \"").append(escapeJson(to)).append("\"");
+        if (paymentStatus != null) {
+            json.append(", \"paymentStatus\": \"").append(escapeJson(paymentStatus)).append("\"");
+        }
+        return json.append("}").toString();
+    }
+
+    // ---- Delivery ----
+
+    /**
+     * Deliver events to subscriber in batches of up to maxBatch. Register at
+     * startup, before start().
+     */
+    public static void subscribe(String name, int maxBatch, EventBus.Subscriber<Event> subscriber) {
+        BUS.subscribe(name, maxBatch, subscriber);
+    }
+
+    public static synchronized void start() {
+        if (relay != null || "false".equalsIgnoreCase(System.getProperty("dynex.events.relay"))) {
+            return;
+        }
+        if (Boolean.getBoolean("dynex.events.log")) {
+            BUS.subscribe("log", 100, new EventBus.Subscriber<Event>() {
+                @Override
+                public void onEvents(List<Event> batch) {
+                    for (Event event : batch) {
+                        System.out.println("OrderEvents: " + event);
+                    }
+                }
+            });
+        }
+        BUS.start();
+        relay = new Relay(BUS);
+        relay.thread.start();
+    }
+
+    public static synchronized void shutdown() {
+        if (relay != null) {
+            relay.stop();
+            relay = null;
+        }
+    }
+
+    /**
+     * Moves outbox rows onto the bus and deletes them once delivered.
+     */
+    private static final class Relay implements Runnable {
+        final EventBus<Event> bus;
+        final String owner;
+        final Thread thread;
+        volatile boolean running = true;
+        // Published but not yet acknowledged, in publish order: {sequence, outbox id}
+        final ArrayDeque<long[]> pending = new ArrayDeque<long[]>();
+        final Set<Long> pendingIds = new HashSet<Long>();
+
+        Relay(EventBus<Event> bus) {
+            this.bus = bus;
+            // pid@host, plus the start time so a restarted server does not inherit its old claims
+            String name = ManagementFactory.getRuntimeMXBean().getName() + "/" + System.currentTimeMillis();
+            this.owner = name.length() > 64 ? name.substring(name.length() - 64) : name;
+            this.thread = new Thread(this, "order-events-relay");
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                int claimed = 0;
+                try {
+                    claimed = relayBatch();
+                } catch (Exception e) {
+                    System.out.println("OrderEvents: relay failed: " + e.getMessage());
+                }
+                if (claimed < CLAIM_BATCH && running) {
+                    synchronized (WAKE) {
+                        try {
+                            WAKE.wait(POLL_MS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        // One round: acknowledge, renew, claim and publish. Returns the number of rows claimed.
+        private int relayBatch() {
+            Session session = HibernateUtil.getSessionFactory().openSession();
+            Transaction tx = null;
+            try {
+                tx = session.beginTransaction();
+                acknowledge(session);
+                if (!pending.isEmpty()) {
+                    // Keep rows a slow subscriber still holds from being taken over
+                    session.createSQLQuery(RENEW_SQL).setParameter(0, owner).executeUpdate();
+                }
+                int claimed = session.createSQLQuery(CLAIM_SQL).setParameter(0, owner).executeUpdate();
+                List<?> rows = claimed > 0
+                    ? session.createSQLQuery(CLAIMED_SQL).setParameter(0, owner).list()
+                    : new ArrayList<Object>();
+                tx.commit();
+
+                for (Object row : rows) {
+                    Object[] columns = (Object[]) row;
+                    long id = ((Number) columns[0]).longValue();
+                    if (pendingIds.contains(id)) {
+                        continue;
+                    }
+                    Event event = new Event(id, (String) columns[1], ((Number) columns[2]).longValue(),
+                        (String) columns[3], (Date) columns[4]);
+                    long sequence = bus.publish(event);
+                    if (sequence < 0) {
+                        break;
+                    }
+                    pending.addLast(new long[] { sequence, id });
+                    pendingIds.add(id);
+                }
+                return claimed;
+            } catch (RuntimeException e) {
+                if (tx != null && tx.isActive()) tx.rollback();
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+
+        // Delete the rows every subscriber has handled
+        private void acknowledge(Session session) {
+            long delivered = bus.minimumDelivered();
+            List<Long> done = new ArrayList<Long>();
+            while (!pending.isEmpty() && pending.peekFirst()[0] <= delivered) {
+                done.add(pending.removeFirst()[1]);
+            }
+            if (done.isEmpty()) {
+                return;
+            }
+            session.createSQLQuery("DELETE FROM order_events_outbox WHERE id IN (:ids)")
+                .setParameterList("ids", done)
+                .executeUpdate();
+            pendingIds.removeAll(done);
+        }
+
+        void stop() {
+            running = false;
+            // Stopping the bus first also frees a publish() waiting on a full ring
+            bus.shutdown(5000);
+            committed();
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Acknowledge what was delivered; hand the rest back for the next relay
+            Session session = HibernateUtil.getSessionFactory().openSession();
+            Transaction tx = null;
+            try {
+                tx = session.beginTransaction();
+                acknowledge(session);
+                session.createSQLQuery(RELEASE_SQL).setParameter(0, owner).executeUpdate();
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx != null && tx.isActive()) tx.rollback();
+                System.out.println("OrderEvents: could not release claimed events: " + e.getMessage());
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    private static String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
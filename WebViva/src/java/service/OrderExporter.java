@@ -0,0 +1,283 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import util.CsvReader;
+import util.HibernateUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams orders with their line items and customer for accounting, as CSV
+ * (one line per item) or NDJSON (one line per order, items nested).
+ *
+ * The whole export is one query read through a forward-only cursor: on
+ * MySQL the driver streams rows as they are read (fetch size
+ * Integer.MIN_VALUE) instead of loading the result, so memory stays flat
+ * whatever the date range. Output is flushed every FLUSH_ROWS rows, which the
+ * container sends as chunks. An IOException from the writer (the client went
+ * away) stops the query.
+ */
+public class OrderExporter {
+
+    public static final List<String> CSV_FIELDS = Arrays.asList(
+        "orderId", "orderNumber", "createdAt", "status", "paymentStatus", "paymentMethod",
+        "totalAmount", "shippingAmount", "taxAmount",
+        "customerId", "customerFirstName", "customerLastName", "customerEmail",
+        "itemId", "productId", "productName", "color", "size", "quantity", "unitPrice", "lineTotal");
+
+    private static final int FLUSH_ROWS = 500;
+    // Fetch size where the driver cannot stream row by row
+    private static final int FETCH_SIZE = 1000;
+    // MySQL drops a streaming client that leaves rows unread this long
+    private static final int NET_WRITE_TIMEOUT_SECONDS = 600;
+
+    private static final String EXPORT_SQL =
+        "SELECT o.id, o.order_number, o.created_at, o.status, o.payment_status, o.payment_method, " +
+        "o.total_amount, o.shipping_amount, o.tax_amount, " +
+        "o.user_id, u.first_name, u.last_name, u.email, " +
+        "oi.id, oi.product_id, oi.product_name, oi.color, oi.size, oi.quantity, oi.unit_price, oi.total_price " +
+        "FROM orders o " +
+        "LEFT JOIN users u ON u.id = o.user_id " +
+        "LEFT JOIN order_items oi ON oi.order_id = o.id " +
+        "WHERE o.created_at >= ? AND o.created_at < ?";
+
+    // Same column order as EXPORT_SQL, for the NDJSON field names
+    private static final String[] ORDER_FIELDS = {
+        "orderId", "orderNumber", "createdAt", "status", "paymentStatus", "paymentMethod",
+        "totalAmount", "shippingAmount", "taxAmount",
+        "customerId", "customerFirstName", "customerLastName", "customerEmail"
+    };
+    private static final String[] ITEM_FIELDS = {
+        "itemId", "productId", "productName", "color", "size", "quantity", "unitPrice", "lineTotal"
+    };
+
+    private final boolean csv;
+    private final Writer out;
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.ROOT);
+
+    private OrderExporter(boolean csv, Writer out) {
+        this.csv = csv;
+        this.out = out;
+    }
+
+    /**
+     * Write orders created in [from, to) as CSV. Returns the number of orders written.
+     */
+    public static int writeCsv(Writer out, Date from, Date to, String status) throws IOException {
+        return new OrderExporter(true, out).run(from, to, status);
+    }
+
+    /**
+     * Write orders created in [from, to) as NDJSON. Returns the number of orders written.
+     */
+    public static int writeNdjson(Writer out, Date from, Date to, String status) throws IOException {
+        return new OrderExporter(false, out).run(from, to, status);
+    }
+
+    private int run(final Date from, final Date to, final String status) throws IOException {
+        if (csv) {
+            out.write(String.join(",", CSV_FIELDS));
+            out.write("\n");
+        }
+
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.doReturningWork(new ReturningWork<Integer>() {
+                @Override
+                public Integer execute(Connection connection) throws SQLException {
+                    try {
+                        return stream(connection, from, to, status);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            session.close();
+        }
+    }
+
+    private int stream(Connection connection, Date from, Date to, String status) throws SQLException, IOException {
+        boolean mysql = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("mysql");
+        if (!mysql) {
+            return query(connection, false, from, to, status);
+        }
+        // The connection goes back to the pool afterwards, so put the timeout back
+        String previousTimeout;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT @@SESSION.net_write_timeout")) {
+            rs.next();
+            previousTimeout = rs.getString(1);
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET SESSION net_write_timeout = " + NET_WRITE_TIMEOUT_SECONDS);
+        }
+        try {
+            return query(connection, true, from, to, status);
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET SESSION net_write_timeout = " + Integer.parseInt(previousTimeout));
+            }
+        }
+    }
+
+    private int query(Connection connection, boolean mysql, Date from, Date to, String status) throws SQLException, IOException {
+        String sql = EXPORT_SQL + (status != null ? " AND o.status = ?" : "") + " ORDER BY o.created_at, o.id";
+        int orders;
+        try (PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(mysql ? Integer.MIN_VALUE : FETCH_SIZE);
+            ps.setTimestamp(1, new Timestamp(from.getTime()));
+            ps.setTimestamp(2, new Timestamp(to.getTime()));
+            if (status != null) {
+                ps.setString(3, status);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                try {
+                    orders = writeRows(rs);
+                } catch (IOException e) {
+                    // Closing a streaming result reads the rest of it, so stop the query on the server first
+                    if (mysql) {
+                        try {
+                            ps.cancel();
+                        } catch (SQLException ignore) { }
+                    }
+                    throw e;
+                }
+            }
+        }
+        out.flush();
+        return orders;
+    }
+
+    // Returns the number of orders written
+    private int writeRows(ResultSet rs) throws SQLException, IOException {
+        int orders = 0;
+        long currentOrder = -1;
+        boolean firstItem = true;
+        int rows = 0;
+        while (rs.next()) {
+            long orderId = rs.getLong(1);
+            boolean newOrder = orderId != currentOrder;
+            if (newOrder) {
+                orders++;
+                currentOrder = orderId;
+            }
+            if (csv) {
+                writeCsvRow(rs);
+            } else {
+                // Rows of one order arrive together, so an order is closed when the next one starts
+                if (newOrder) {
+                    if (orders > 1) {
+                        out.write("]}\n");
+                    }
+                    writeJsonOrderStart(rs);
+                    firstItem = true;
+                }
+                if (rs.getObject(ORDER_FIELDS.length + 1) != null) {
+                    if (!firstItem) out.write(',');
+                    writeJsonItem(rs);
+                    firstItem = false;
+                }
+            }
+            if (++rows % FLUSH_ROWS == 0) {
+                out.flush();
+            }
+        }
+        if (!csv && orders > 0) {
+            out.write("]}\n");
+        }
+        return orders;
+    }
+
+    private void writeCsvRow(ResultSet rs) throws SQLException, IOException {
+        StringBuilder line = new StringBuilder();
+        for (int column = 1; column <= CSV_FIELDS.size(); column++) {
+            if (column > 1) line.append(',');
+            line.append(CsvReader.escape(text(rs, column)));
+        }
+        line.append('\n');
+        out.write(line.toString());
+    }
+
+    private void writeJsonOrderStart(ResultSet rs) throws SQLException, IOException {
+        StringBuilder line = new StringBuilder("{");
+        for (int i = 0; i < ORDER_FIELDS.length; i++) {
+            if (i > 0) line.append(',');
+            appendJsonField(line, ORDER_FIELDS[i], rs, i + 1);
+        }
+        line.append(",\"items\":[");
+        out.write(line.toString());
+    }
+
+    private void writeJsonItem(ResultSet rs) throws SQLException, IOException {
+        StringBuilder item = new StringBuilder("{");
+        for (int i = 0; i < ITEM_FIELDS.length; i++) {
+            if (i > 0) item.append(',');
+            appendJsonField(item, ITEM_FIELDS[i], rs, ORDER_FIELDS.length + i + 1);
+        }
+        item.append('}');
+        out.write(item.toString());
+    }
+
+    private void appendJsonField(StringBuilder json, String name, ResultSet rs, int column) throws SQLException {
+        json.append('"').append(name).append("\":");
+        Object value = rs.getObject(column);
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number) {
+            json.append(value);
+        } else {
+            json.append('"').append(escapeJson(text(rs, column))).append('"');
+        }
+    }
+
+    // Column value as export text; timestamps as ISO local time
+    private String text(ResultSet rs, int column) throws SQLException {
+        Object value = rs.getObject(column);
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Date) {
+            return timestampFormat.format(rs.getTimestamp(column));
+        }
+        return value.toString();
+    }
+
+    private static String escapeJson(String str) {
+        if (str == null) return "";
+        StringBuilder sb = new StringBuilder(str.length() + 8);
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
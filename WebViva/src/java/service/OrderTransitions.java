@@ -0,0 +1,154 @@
+package service;
+
+import model.OrderStatus;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import util.HibernateUtil;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validated order status changes, for one order or thousands.
+ *
+ * All requested orders are locked and checked against OrderStatus in one
+ * transaction; the accepted ones are then moved with one UPDATE per target
+ * status, and the rollups and outbox events are written with one statement
+ * per (old, new) status pair. Orders that cannot make the move are reported
+ * back individually and left as they are; the rest still go through.
+ */
+public final class OrderTransitions {
+
+    public static final int MAX_ORDERS = 5000;
+
+    public static final class Rejection {
+        private final Long orderId;
+        private final String status;
+        private final String reason;
+
+        Rejection(Long orderId, String status, String reason) {
+            this.orderId = orderId;
+            this.status = status;
+            this.reason = reason;
+        }
+
+        public Long getOrderId() { return orderId; }
+        public String getStatus() { return status; }
+        public String getReason() { return reason; }
+    }
+
+    public static final class Result {
+        private final List<Long> updated = new ArrayList<Long>();
+        private final List<Long> unchanged = new ArrayList<Long>();
+        private final List<Rejection> rejected = new ArrayList<Rejection>();
+
+        /** Orders moved to their new status. */
+        public List<Long> getUpdated() { return updated; }
+        /** Orders that already had the requested status. */
+        public List<Long> getUnchanged() { return unchanged; }
+        public List<Rejection> getRejected() { return rejected; }
+    }
+
+    private OrderTransitions() {}
+
+    /**
+     * Move each order to the status mapped to it.
+     */
+    public static Result apply(Map<Long, String> targets) {
+        if (targets.size() > MAX_ORDERS) {
+            throw new IllegalArgumentException("At most " + MAX_ORDERS + " orders per request");
+        }
+        Result result = new Result();
+        if (targets.isEmpty()) {
+            return result;
+        }
+
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+
+            // Lock the rows so the checks below stay true until commit
+            Map<Long, OrderStatus> current = new HashMap<Long, OrderStatus>();
+            List<?> rows = session.createSQLQuery("SELECT id, status FROM orders WHERE id IN (:ids) FOR UPDATE")
+                .setParameterList("ids", targets.keySet())
+                .list();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                current.put(((Number) columns[0]).longValue(), OrderStatus.parse((String) columns[1]));
+            }
+
+            Map<OrderStatus, List<Long>> byTarget = new EnumMap<OrderStatus, List<Long>>(OrderStatus.class);
+            // target -> old status -> orders, for the rollups and events
+            Map<OrderStatus, Map<OrderStatus, List<Long>>> moves = new EnumMap<OrderStatus, Map<OrderStatus, List<Long>>>(OrderStatus.class);
+            for (Map.Entry<Long, String> entry : targets.entrySet()) {
+                Long orderId = entry.getKey();
+                OrderStatus target = OrderStatus.parse(entry.getValue());
+                OrderStatus from = current.get(orderId);
+                if (target == null) {
+                    result.rejected.add(new Rejection(orderId, entry.getValue(), "Unknown status '" + entry.getValue() + "'"));
+                } else if (!current.containsKey(orderId)) {
+                    result.rejected.add(new Rejection(orderId, target.name(), "Order not found"));
+                } else if (from == target) {
+                    result.unchanged.add(orderId);
+                } else if (from != null && !from.canMoveTo(target)) {
+                    result.rejected.add(new Rejection(orderId, target.name(), "Cannot change a " + from + " order to " + target));
+                } else {
+                    group(byTarget, target, orderId);
+                    Map<OrderStatus, List<Long>> fromStatuses = moves.get(target);
+                    if (fromStatuses == null) {
+                        fromStatuses = new LinkedHashMap<OrderStatus, List<Long>>();
+                        moves.put(target, fromStatuses);
+                    }
+                    group(fromStatuses, from, orderId);
+                    result.updated.add(orderId);
+                }
+            }
+
+            Date now = new Date();
+            for (Map.Entry<OrderStatus, List<Long>> entry : byTarget.entrySet()) {
+                session.createQuery("UPDATE Order SET status = :status, updatedAt = :now WHERE id IN (:ids)")
+                    .setParameter("status", entry.getKey().name())
+                    .setParameter("now", now)
+                    .setParameterList("ids", entry.getValue())
+                    .executeUpdate();
+            }
+            for (Map.Entry<OrderStatus, Map<OrderStatus, List<Long>>> entry : moves.entrySet()) {
+                String to = entry.getKey().name();
+                for (Map.Entry<OrderStatus, List<Long>> fromEntry : entry.getValue().entrySet()) {
+                    String from = fromEntry.getKey() != null ? fromEntry.getKey().name() : null;
+                    SalesRollups.statusChanged(session, fromEntry.getValue(), from, to);
+                    OrderEvents.statusChanged(session, fromEntry.getValue(), from, to);
+                }
+            }
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+
+        if (!result.updated.isEmpty()) {
+            for (Long orderId : result.updated) {
+                UserOrderSummaryCache.getInstance().statusChanged(orderId, OrderStatus.parse(targets.get(orderId)).name(), null);
+            }
+            OrderEvents.committed();
+        }
+        return result;
+    }
+
+    private static <K> void group(Map<K, List<Long>> groups, K key, Long orderId) {
+        List<Long> ids = groups.get(key);
+        if (ids == null) {
+            ids = new ArrayList<Long>();
+            groups.put(key, ids);
+        }
+        ids.add(orderId);
+    }
+}
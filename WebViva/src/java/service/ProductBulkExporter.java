@@ -0,0 +1,272 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import util.CsvReader;
+import util.HibernateUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the catalog out as CSV or NDJSON in the same layout the importer
+ * reads, so an export can be edited and loaded back.
+ *
+ * Products are read in keyset pages of PAGE_SIZE (id > last id), with the
+ * sizes and images of each page fetched in one query each, and written to
+ * the response as they are read.
+ */
+public class ProductBulkExporter {
+
+    public static final int PAGE_SIZE = 500;
+
+    private static final String PRODUCT_PAGE_SQL =
+        "SELECT id, sku, name, description, price, discount_price, stock_quantity, image_url, category_id, " +
+        "brand, material, care_instructions, color, pattern, fit_type, gender, season, is_featured, is_active " +
+        "FROM products WHERE id > ? ORDER BY id LIMIT " + PAGE_SIZE;
+
+    private final boolean csv;
+    private final Writer out;
+
+    private ProductBulkExporter(boolean csv, Writer out) {
+        this.csv = csv;
+        this.out = out;
+    }
+
+    public static int writeCsv(Writer out) throws IOException {
+        return new ProductBulkExporter(true, out).run();
+    }
+
+    public static int writeNdjson(Writer out) throws IOException {
+        return new ProductBulkExporter(false, out).run();
+    }
+
+    // Returns the number of products written
+    private int run() throws IOException {
+        if (csv) {
+            out.write(String.join(",", ProductImportRow.FIELDS));
+            out.write("\n");
+        }
+
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            long lastId = 0;
+            int total = 0;
+            while (true) {
+                final long afterId = lastId;
+                List<Map<String, Object>> page = session.doReturningWork(new ReturningWork<List<Map<String, Object>>>() {
+                    @Override
+                    public List<Map<String, Object>> execute(Connection connection) throws SQLException {
+                        return readPage(connection, afterId);
+                    }
+                });
+                if (page.isEmpty()) {
+                    break;
+                }
+                for (Map<String, Object> product : page) {
+                    if (csv) {
+                        writeCsvRow(product);
+                    } else {
+                        writeJsonRow(product);
+                    }
+                }
+                out.flush();
+                total += page.size();
+                lastId = (Long) page.get(page.size() - 1).get("id");
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+            }
+            return total;
+        } finally {
+            session.close();
+        }
+    }
+
+    private List<Map<String, Object>> readPage(Connection connection, long afterId) throws SQLException {
+        List<Map<String, Object>> page = new ArrayList<>();
+        Map<Long, Map<String, Object>> byId = new HashMap<>();
+
+        try (PreparedStatement ps = connection.prepareStatement(PRODUCT_PAGE_SQL)) {
+            ps.setLong(1, afterId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> product = new LinkedHashMap<>();
+                    long id = rs.getLong("id");
+                    product.put("id", id);
+                    product.put("sku", rs.getString("sku"));
+                    product.put("name", rs.getString("name"));
+                    product.put("description", rs.getString("description"));
+                    product.put("price", rs.getBigDecimal("price"));
+                    product.put("discountPrice", rs.getBigDecimal("discount_price"));
+                    product.put("stockQuantity", rs.getObject("stock_quantity"));
+                    product.put("categoryId", rs.getObject("category_id"));
+                    product.put("brand", rs.getString("brand"));
+                    product.put("imageUrl", rs.getString("image_url"));
+                    product.put("material", rs.getString("material"));
+                    product.put("careInstructions", rs.getString("care_instructions"));
+                    product.put("color", rs.getString("color"));
+                    product.put("pattern", rs.getString("pattern"));
+                    product.put("fitType", rs.getString("fit_type"));
+                    product.put("gender", rs.getString("gender"));
+                    product.put("season", rs.getString("season"));
+                    product.put("isFeatured", rs.getObject("is_featured") != null ? rs.getBoolean("is_featured") : null);
+                    product.put("isActive", rs.getObject("is_active") != null ? rs.getBoolean("is_active") : null);
+                    product.put("sizes", new ArrayList<Object[]>());
+                    product.put("images", new ArrayList<String[]>());
+                    page.add(product);
+                    byId.put(id, product);
+                }
+            }
+        }
+        if (page.isEmpty()) {
+            return page;
+        }
+
+        long firstId = (Long) page.get(0).get("id");
+        long lastId = (Long) page.get(page.size() - 1).get("id");
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT product_id, size, stock_quantity, additional_price FROM product_sizes " +
+                "WHERE product_id BETWEEN ? AND ? ORDER BY product_id, id")) {
+            ps.setLong(1, firstId);
+            ps.setLong(2, lastId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> product = byId.get(rs.getLong(1));
+                    if (product != null) {
+                        sizesOf(product).add(new Object[] { rs.getString(2), rs.getInt(3), rs.getBigDecimal(4) });
+                    }
+                }
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT product_id, image_url, alt_text FROM product_images " +
+                "WHERE product_id BETWEEN ? AND ? ORDER BY product_id, sort_order, id")) {
+            ps.setLong(1, firstId);
+            ps.setLong(2, lastId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> product = byId.get(rs.getLong(1));
+                    if (product != null) {
+                        imagesOf(product).add(new String[] { rs.getString(2), rs.getString(3) });
+                    }
+                }
+            }
+        }
+        return page;
+    }
+
+    private void writeCsvRow(Map<String, Object> product) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < ProductImportRow.FIELDS.size(); i++) {
+            String field = ProductImportRow.FIELDS.get(i);
+            if (i > 0) line.append(',');
+            if ("sizes".equals(field)) {
+                StringBuilder sizes = new StringBuilder();
+                for (Object[] size : sizesOf(product)) {
+                    if (sizes.length() > 0) sizes.append('|');
+                    sizes.append(size[0]).append(':').append(size[1]).append(':').append(size[2]);
+                }
+                line.append(CsvReader.escape(sizes.toString()));
+            } else if ("images".equals(field)) {
+                StringBuilder images = new StringBuilder();
+                for (String[] image : imagesOf(product)) {
+                    if (images.length() > 0) images.append('|');
+                    images.append(image[0]);
+                }
+                line.append(CsvReader.escape(images.toString()));
+            } else {
+                Object value = product.get(field);
+                line.append(CsvReader.escape(value != null ? value.toString() : ""));
+            }
+        }
+        line.append('\n');
+        out.write(line.toString());
+    }
+
+    private void writeJsonRow(Map<String, Object> product) throws IOException {
+        StringBuilder line = new StringBuilder("{");
+        for (int i = 0; i < ProductImportRow.FIELDS.size(); i++) {
+            String field = ProductImportRow.FIELDS.get(i);
+            if (i > 0) line.append(',');
+            line.append('"').append(field).append("\":");
+            if ("sizes".equals(field)) {
+                line.append('[');
+                List<Object[]> sizes = sizesOf(product);
+                for (int j = 0; j < sizes.size(); j++) {
+                    if (j > 0) line.append(',');
+                    line.append("{\"size\":\"").append(escapeJson((String) sizes.get(j)[0])).append("\",");
+                    line.append("\"stockQuantity\":").append(sizes.get(j)[1]).append(',');
+                    line.append("\"additionalPrice\":").append(sizes.get(j)[2]).append('}');
+                }
+                line.append(']');
+            } else if ("images".equals(field)) {
+                line.append('[');
+                List<String[]> images = imagesOf(product);
+                for (int j = 0; j < images.size(); j++) {
+                    if (j > 0) line.append(',');
+                    line.append("{\"url\":\"").append(escapeJson(images.get(j)[0])).append('"');
+                    if (images.get(j)[1] != null) {
+                        line.append(",\"altText\":\"").append(escapeJson(images.get(j)[1])).append('"');
+                    }
+                    line.append('}');
+                }
+                line.append(']');
+            } else {
+                Object value = product.get(field);
+                if (value == null) {
+                    line.append("null");
+                } else if (value instanceof String) {
+                    line.append('"').append(escapeJson((String) value)).append('"');
+                } else {
+                    line.append(value);
+                }
+            }
+        }
+        line.append("}\n");
+        out.write(line.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object[]> sizesOf(Map<String, Object> product) {
+        return (List<Object[]>) product.get("sizes");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String[]> imagesOf(Map<String, Object> product) {
+        return (List<String[]>) product.get("images");
+    }
+
+    private static String escapeJson(String str) {
+        if (str == null) return "";
+        StringBuilder sb = new StringBuilder(str.length() + 8);
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
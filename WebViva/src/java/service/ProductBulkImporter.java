@@ -0,0 +1,471 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.ReturningWork;
+import util.CsvReader;
+import util.HibernateUtil;
+import util.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams a CSV or NDJSON product file into the catalog.
+ *
+ * Rows are read one at a time and written in chunks of CHUNK_SIZE, each chunk
+ * in its own transaction using JDBC batches: one lookup of existing SKUs, one
+ * INSERT batch for new products, one UPDATE batch for existing ones, then the
+ * sizes and images of the chunk. Memory stays bounded by the chunk size no
+ * matter how large the file is.
+ *
+ * Rows are matched on sku. On update, fields left empty keep their stored
+ * value. Sizes are upserted per (product, size); a non-empty images field
+ * replaces the product's gallery. If a chunk fails, it is replayed row by row
+ * so one bad row only rejects itself.
+ */
+public class ProductBulkImporter {
+
+    public static final int CHUNK_SIZE = 500;
+    public static final int MAX_REPORTED_ERRORS = 200;
+
+    private static final String INSERT_PRODUCT_SQL =
+        "INSERT INTO products (sku, name, description, price, discount_price, stock_quantity, image_url, " +
+        "category_id, brand, material, care_instructions, color, pattern, fit_type, gender, season, " +
+        "is_featured, is_active, created_at, updated_at) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NOW(), NOW())";
+
+    private static final String UPDATE_PRODUCT_SQL =
+        "UPDATE products SET name = COALESCE(?, name), description = COALESCE(?, description), " +
+        "price = COALESCE(?, price), discount_price = COALESCE(?, discount_price), " +
+        "stock_quantity = COALESCE(?, stock_quantity), image_url = COALESCE(?, image_url), " +
+        "category_id = COALESCE(?, category_id), brand = COALESCE(?, brand), " +
+        "material = COALESCE(?, material), care_instructions = COALESCE(?, care_instructions), " +
+        "color = COALESCE(?, color), pattern = COALESCE(?, pattern), fit_type = COALESCE(?, fit_type), " +
+        "gender = COALESCE(?, gender), season = COALESCE(?, season), " +
+        "is_featured = COALESCE(?, is_featured), is_active = COALESCE(?, is_active), updated_at = NOW() " +
+        "WHERE id = ?";
+
+    private static final String UPSERT_SIZE_SQL =
+        "INSERT INTO product_sizes (product_id, size, stock_quantity, additional_price) VALUES (?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE stock_quantity = VALUES(stock_quantity), additional_price = VALUES(additional_price)";
+
+    private static final String INSERT_IMAGE_SQL =
+        "INSERT INTO product_images (product_id, image_url, alt_text, is_primary, sort_order, created_at) " +
+        "VALUES (?, ?, ?, ?, ?, NOW())";
+
+    /**
+     * Outcome of an import; errors are capped at MAX_REPORTED_ERRORS.
+     */
+    public static class Result {
+        private int processed;
+        private int inserted;
+        private int updated;
+        private int failed;
+        private final List<String> errors = new ArrayList<>();
+
+        void fail(int line, String sku, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("line " + line + (sku != null ? " (sku " + sku + ")" : "") + ": " + message);
+            }
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+
+        public int getUpdated() {
+            return updated;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+
+    // What one chunk transaction did, applied to the Result only after commit
+    private static class ChunkOutcome {
+        int inserted;
+        int updated;
+        final Map<ProductImportRow, String> rejected = new LinkedHashMap<>();
+    }
+
+    private final Result result = new Result();
+    private final List<ProductImportRow> chunk = new ArrayList<>();
+    private final Set<String> chunkSkus = new HashSet<>();
+
+    /**
+     * Import a CSV file whose first record is a header naming the columns
+     * (any subset of ProductImportRow.FIELDS, sku required).
+     */
+    public Result importCsv(Reader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> header = csv.readRecord();
+        if (header == null) {
+            return result;
+        }
+        for (int i = 0; i < header.size(); i++) {
+            String column = header.get(i).trim();
+            if (i == 0 && column.startsWith("\uFEFF")) {
+                column = column.substring(1);
+            }
+            if (!ProductImportRow.FIELDS.contains(column)) {
+                throw new IllegalArgumentException("Unknown column '" + column + "'");
+            }
+            header.set(i, column);
+        }
+        if (!header.contains("sku")) {
+            throw new IllegalArgumentException("Header must include a sku column");
+        }
+
+        List<String> record;
+        while ((record = csv.readRecord()) != null) {
+            int line = csv.getRecordLine();
+            Map<String, Object> fields = new HashMap<>();
+            for (int i = 0; i < header.size() && i < record.size(); i++) {
+                fields.put(header.get(i), record.get(i));
+            }
+            if (record.size() > header.size()) {
+                result.processed++;
+                result.fail(line, null, "Row has " + record.size() + " values but the header has " + header.size());
+                continue;
+            }
+            accept(line, fields);
+        }
+        flush();
+        ProductPriceCache.getInstance().clear();
+        SizeInventory.getInstance().clear();
+        CatalogResponses.getInstance().clear();
+        return result;
+    }
+
+    /**
+     * Import newline-delimited JSON, one product object per line.
+     */
+    public Result importNdjson(Reader reader) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String text;
+        int line = 0;
+        while ((text = in.readLine()) != null) {
+            line++;
+            if (text.trim().isEmpty()) {
+                continue;
+            }
+            Map<String, Object> fields;
+            try {
+                fields = JsonParser.parseObject(text);
+            } catch (IllegalArgumentException e) {
+                result.processed++;
+                result.fail(line, null, "Invalid JSON: " + e.getMessage());
+                continue;
+            }
+            accept(line, fields);
+        }
+        flush();
+        ProductPriceCache.getInstance().clear();
+        SizeInventory.getInstance().clear();
+        CatalogResponses.getInstance().clear();
+        return result;
+    }
+
+    private void accept(int line, Map<String, Object> fields) {
+        result.processed++;
+        ProductImportRow row;
+        try {
+            row = ProductImportRow.from(line, fields);
+        } catch (IllegalArgumentException e) {
+            Object sku = fields.get("sku");
+            result.fail(line, sku != null ? sku.toString() : null, e.getMessage());
+            return;
+        }
+
+        // A repeated SKU must see the earlier row's write, so close the chunk first
+        if (chunkSkus.contains(row.sku)) {
+            flush();
+        }
+        chunk.add(row);
+        chunkSkus.add(row.sku);
+        if (chunk.size() >= CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<ProductImportRow> rows = new ArrayList<>(chunk);
+        chunk.clear();
+        chunkSkus.clear();
+        writeRows(rows);
+    }
+
+    private void writeRows(final List<ProductImportRow> rows) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        ChunkOutcome outcome;
+        try {
+            tx = session.beginTransaction();
+            outcome = session.doReturningWork(new ReturningWork<ChunkOutcome>() {
+                @Override
+                public ChunkOutcome execute(Connection connection) throws SQLException {
+                    return writeChunk(connection, rows);
+                }
+            });
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (RuntimeException ignored) {
+                    // the original failure is what gets reported
+                }
+            }
+            if (rows.size() > 1) {
+                System.out.println("Bulk import chunk of " + rows.size() + " rows failed, retrying row by row: " + rootMessage(e));
+                for (ProductImportRow row : rows) {
+                    writeRows(Collections.singletonList(row));
+                }
+            } else {
+                result.fail(rows.get(0).line, rows.get(0).sku, rootMessage(e));
+            }
+            return;
+        } finally {
+            session.close();
+        }
+
+        result.inserted += outcome.inserted;
+        result.updated += outcome.updated;
+        for (Map.Entry<ProductImportRow, String> rejected : outcome.rejected.entrySet()) {
+            result.fail(rejected.getKey().line, rejected.getKey().sku, rejected.getValue());
+        }
+    }
+
+    private ChunkOutcome writeChunk(Connection connection, List<ProductImportRow> rows) throws SQLException {
+        ChunkOutcome outcome = new ChunkOutcome();
+
+        Set<String> skus = new HashSet<>();
+        for (ProductImportRow row : rows) {
+            skus.add(row.sku);
+        }
+        Map<String, Long> ids = findProductIds(connection, skus);
+
+        List<ProductImportRow> inserts = new ArrayList<>();
+        List<ProductImportRow> updates = new ArrayList<>();
+        for (ProductImportRow row : rows) {
+            if (ids.containsKey(row.sku)) {
+                updates.add(row);
+            } else if (row.name == null || row.price == null) {
+                outcome.rejected.put(row, "name and price are required for a new product");
+            } else {
+                inserts.add(row);
+            }
+        }
+
+        if (!inserts.isEmpty()) {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_PRODUCT_SQL)) {
+                for (ProductImportRow row : inserts) {
+                    int i = 1;
+                    ps.setString(i++, row.sku);
+                    ps.setString(i++, row.name);
+                    setString(ps, i++, row.description);
+                    ps.setBigDecimal(i++, row.price);
+                    ps.setBigDecimal(i++, row.discountPrice);
+                    ps.setInt(i++, row.stockQuantity != null ? row.stockQuantity : 0);
+                    setString(ps, i++, row.imageUrl);
+                    setLong(ps, i++, row.categoryId);
+                    ps.setString(i++, row.brand != null ? row.brand : "DYNEX");
+                    setString(ps, i++, row.material);
+                    setString(ps, i++, row.careInstructions);
+                    setString(ps, i++, row.color);
+                    setString(ps, i++, row.pattern);
+                    setString(ps, i++, row.fitType);
+                    ps.setString(i++, row.gender != null ? row.gender : "UNISEX");
+                    ps.setString(i++, row.season != null ? row.season : "ALL_SEASON");
+                    ps.setBoolean(i++, row.isFeatured != null && row.isFeatured);
+                    ps.setBoolean(i++, row.isActive == null || row.isActive);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            Set<String> newSkus = new HashSet<>();
+            for (ProductImportRow row : inserts) {
+                newSkus.add(row.sku);
+            }
+            ids.putAll(findProductIds(connection, newSkus));
+            outcome.inserted = inserts.size();
+        }
+
+        if (!updates.isEmpty()) {
+            try (PreparedStatement ps = connection.prepareStatement(UPDATE_PRODUCT_SQL)) {
+                for (ProductImportRow row : updates) {
+                    int i = 1;
+                    setString(ps, i++, row.name);
+                    setString(ps, i++, row.description);
+                    ps.setBigDecimal(i++, row.price);
+                    ps.setBigDecimal(i++, row.discountPrice);
+                    setInt(ps, i++, row.stockQuantity);
+                    setString(ps, i++, row.imageUrl);
+                    setLong(ps, i++, row.categoryId);
+                    setString(ps, i++, row.brand);
+                    setString(ps, i++, row.material);
+                    setString(ps, i++, row.careInstructions);
+                    setString(ps, i++, row.color);
+                    setString(ps, i++, row.pattern);
+                    setString(ps, i++, row.fitType);
+                    setString(ps, i++, row.gender);
+                    setString(ps, i++, row.season);
+                    setBoolean(ps, i++, row.isFeatured);
+                    setBoolean(ps, i++, row.isActive);
+                    ps.setLong(i, ids.get(row.sku));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            outcome.updated = updates.size();
+        }
+
+        List<ProductImportRow> written = new ArrayList<>(inserts);
+        written.addAll(updates);
+        writeSizes(connection, written, ids);
+        writeImages(connection, written, ids);
+        return outcome;
+    }
+
+    private void writeSizes(Connection connection, List<ProductImportRow> rows, Map<String, Long> ids) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(UPSERT_SIZE_SQL)) {
+            int batched = 0;
+            for (ProductImportRow row : rows) {
+                if (row.sizes == null) continue;
+                for (ProductImportRow.Size size : row.sizes) {
+                    ps.setLong(1, ids.get(row.sku));
+                    ps.setString(2, size.size);
+                    ps.setInt(3, size.stockQuantity);
+                    ps.setBigDecimal(4, size.additionalPrice);
+                    ps.addBatch();
+                    batched++;
+                }
+            }
+            if (batched > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    private void writeImages(Connection connection, List<ProductImportRow> rows, Map<String, Long> ids) throws SQLException {
+        List<Long> productIds = new ArrayList<>();
+        for (ProductImportRow row : rows) {
+            if (row.images != null) {
+                productIds.add(ids.get(row.sku));
+            }
+        }
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "DELETE FROM product_images WHERE product_id IN (" + placeholders(productIds.size()) + ")")) {
+            for (int i = 0; i < productIds.size(); i++) {
+                ps.setLong(i + 1, productIds.get(i));
+            }
+            ps.executeUpdate();
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(INSERT_IMAGE_SQL)) {
+            for (ProductImportRow row : rows) {
+                if (row.images == null) continue;
+                for (int i = 0; i < row.images.size(); i++) {
+                    ProductImportRow.Image image = row.images.get(i);
+                    ps.setLong(1, ids.get(row.sku));
+                    ps.setString(2, image.url);
+                    setString(ps, 3, image.altText);
+                    ps.setBoolean(4, i == 0);
+                    ps.setInt(5, i);
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static Map<String, Long> findProductIds(Connection connection, Collection<String> skus) throws SQLException {
+        Map<String, Long> ids = new HashMap<>();
+        if (skus.isEmpty()) {
+            return ids;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT id, sku FROM products WHERE sku IN (" + placeholders(skus.size()) + ")")) {
+            int i = 1;
+            for (String sku : skus) {
+                ps.setString(i++, sku);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.put(rs.getString(2), rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
+    private static void setString(PreparedStatement ps, int index, String value) throws SQLException {
+        if (value == null) ps.setNull(index, Types.VARCHAR);
+        else ps.setString(index, value);
+    }
+
+    private static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if (value == null) ps.setNull(index, Types.BIGINT);
+        else ps.setLong(index, value);
+    }
+
+    private static void setInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value == null) ps.setNull(index, Types.INTEGER);
+        else ps.setInt(index, value);
+    }
+
+    private static void setBoolean(PreparedStatement ps, int index, Boolean value) throws SQLException {
+        if (value == null) ps.setNull(index, Types.BOOLEAN);
+        else ps.setBoolean(index, value);
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package service;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import util.HibernateUtil;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Set-based product changes for the admin bulk endpoint.
+ *
+ * Each operation is a single HQL UPDATE over the selected products, so a
+ * change to thousands of rows is one statement and one transaction, and
+ * Hibernate evicts the product cache regions once per statement instead of
+ * once per entity. Products are selected by id list, category, or both.
+ */
+public final class ProductBulkUpdates {
+
+    public static final int MAX_IDS = 5000;
+
+    // Price changes are limited to this range of percentages
+    public static final BigDecimal MIN_PERCENT = new BigDecimal("-90");
+    public static final BigDecimal MAX_PERCENT = new BigDecimal("500");
+
+    private ProductBulkUpdates() {}
+
+    /**
+     * Soft delete or restore products (is_active flag), as ProductServlet.doDelete does for one.
+     */
+    public static int setActive(List<Long> ids, Long categoryId, boolean active) {
+        return execute("p.isActive = :value, p.updatedAt = :now", ids, categoryId, "value", active, null);
+    }
+
+    public static int setFeatured(List<Long> ids, Long categoryId, boolean featured) {
+        return execute("p.isFeatured = :value, p.updatedAt = :now", ids, categoryId, "value", featured, null);
+    }
+
+    /**
+     * Scale price (and discount price, when set) by the given percentage,
+     * rounded to cents. Only active products are repriced.
+     */
+    public static int adjustPrices(List<Long> ids, Long categoryId, BigDecimal percent) {
+        if (percent.compareTo(MIN_PERCENT) < 0 || percent.compareTo(MAX_PERCENT) > 0) {
+            throw new IllegalArgumentException("percent must be between " + MIN_PERCENT + " and " + MAX_PERCENT);
+        }
+        BigDecimal factor = BigDecimal.ONE.add(percent.movePointLeft(2));
+        return execute("p.price = round(p.price * :value, 2), " +
+                       "p.discountPrice = round(p.discountPrice * :value, 2), p.updatedAt = :now",
+                       ids, categoryId, "value", factor, "p.isActive = true");
+    }
+
+    private static int execute(String assignments, List<Long> ids, Long categoryId,
+                               String valueName, Object value, String extraCondition) {
+        if ((ids == null || ids.isEmpty()) && categoryId == null) {
+            throw new IllegalArgumentException("Select products with ids and/or categoryId");
+        }
+        if (ids != null && ids.size() > MAX_IDS) {
+            throw new IllegalArgumentException("At most " + MAX_IDS + " ids per request");
+        }
+
+        StringBuilder hql = new StringBuilder("UPDATE Product p SET ").append(assignments).append(" WHERE 1 = 1");
+        if (ids != null && !ids.isEmpty()) {
+            hql.append(" AND p.id IN (:ids)");
+        }
+        if (categoryId != null) {
+            hql.append(" AND p.categoryId = :categoryId");
+        }
+        if (extraCondition != null) {
+            hql.append(" AND ").append(extraCondition);
+        }
+
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            Query query = session.createQuery(hql.toString());
+            query.setParameter(valueName, value);
+            query.setTimestamp("now", new Date());
+            if (ids != null && !ids.isEmpty()) {
+                query.setParameterList("ids", ids);
+            }
+            if (categoryId != null) {
+                query.setParameter("categoryId", categoryId);
+            }
+            int updated = query.executeUpdate();
+            tx.commit();
+            ProductPriceCache.getInstance().clear();
+            CatalogResponses.getInstance().clear();
+            return updated;
+        } catch (RuntimeException e) {
+            if (tx != null) tx.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+}
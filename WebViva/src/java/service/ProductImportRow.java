@@ -0,0 +1,258 @@
+package service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One validated product line of a bulk import, with its sizes and images.
+ * Fields left out of the input stay null so an update keeps the stored value.
+ */
+class ProductImportRow {
+
+    // Column / field names shared by the CSV header, NDJSON keys and the export
+    static final List<String> FIELDS = Arrays.asList(
+        "sku", "name", "description", "price", "discountPrice", "stockQuantity",
+        "categoryId", "brand", "imageUrl", "material", "careInstructions", "color",
+        "pattern", "fitType", "gender", "season", "isFeatured", "isActive", "sizes", "images");
+
+    private static final List<String> GENDERS = Arrays.asList("MEN", "WOMEN", "UNISEX");
+    private static final List<String> SEASONS = Arrays.asList("SPRING", "SUMMER", "FALL", "WINTER", "ALL_SEASON");
+
+    static class Size {
+        final String size;
+        final int stockQuantity;
+        final BigDecimal additionalPrice;
+
+        Size(String size, int stockQuantity, BigDecimal additionalPrice) {
+            this.size = size;
+            this.stockQuantity = stockQuantity;
+            this.additionalPrice = additionalPrice;
+        }
+    }
+
+    static class Image {
+        final String url;
+        final String altText;
+
+        Image(String url, String altText) {
+            this.url = url;
+            this.altText = altText;
+        }
+    }
+
+    final int line;
+    String sku;
+    String name;
+    String description;
+    BigDecimal price;
+    BigDecimal discountPrice;
+    Integer stockQuantity;
+    Long categoryId;
+    String brand;
+    String imageUrl;
+    String material;
+    String careInstructions;
+    String color;
+    String pattern;
+    String fitType;
+    String gender;
+    String season;
+    Boolean isFeatured;
+    Boolean isActive;
+
+    // null = not given, leave existing sizes/images alone
+    List<Size> sizes;
+    List<Image> images;
+
+    ProductImportRow(int line) {
+        this.line = line;
+    }
+
+    /**
+     * Build a row from parsed fields. CSV values arrive as strings, NDJSON
+     * values as strings, numbers, booleans or lists. Throws
+     * IllegalArgumentException with a message fit for the error report.
+     */
+    static ProductImportRow from(int line, Map<String, Object> fields) {
+        ProductImportRow row = new ProductImportRow(line);
+        row.sku = text(fields, "sku", 100);
+        if (row.sku == null) {
+            throw new IllegalArgumentException("sku is required");
+        }
+        row.name = text(fields, "name", 255);
+        row.description = text(fields, "description", 65535);
+        row.price = decimal(fields, "price");
+        row.discountPrice = decimal(fields, "discountPrice");
+        row.stockQuantity = integer(fields, "stockQuantity");
+        Integer categoryId = integer(fields, "categoryId");
+        row.categoryId = categoryId != null ? categoryId.longValue() : null;
+        row.brand = text(fields, "brand", 100);
+        row.imageUrl = text(fields, "imageUrl", 500);
+        row.material = text(fields, "material", 255);
+        row.careInstructions = text(fields, "careInstructions", 65535);
+        row.color = text(fields, "color", 255);
+        row.pattern = text(fields, "pattern", 100);
+        row.fitType = text(fields, "fitType", 50);
+        row.gender = choice(fields, "gender", GENDERS);
+        row.season = choice(fields, "season", SEASONS);
+        row.isFeatured = bool(fields, "isFeatured");
+        row.isActive = bool(fields, "isActive");
+        row.sizes = sizes(fields.get("sizes"));
+        row.images = images(fields.get("images"));
+
+        if (row.price != null && row.price.signum() < 0) {
+            throw new IllegalArgumentException("price must not be negative");
+        }
+        if (row.discountPrice != null && row.discountPrice.signum() < 0) {
+            throw new IllegalArgumentException("discountPrice must not be negative");
+        }
+        if (row.stockQuantity != null && row.stockQuantity < 0) {
+            throw new IllegalArgumentException("stockQuantity must not be negative");
+        }
+        return row;
+    }
+
+    private static String text(Map<String, Object> fields, String key, int maxLength) {
+        Object value = fields.get(key);
+        if (value == null) return null;
+        String str = value.toString().trim();
+        if (str.isEmpty()) return null;
+        if (str.length() > maxLength) {
+            throw new IllegalArgumentException(key + " is longer than " + maxLength + " characters");
+        }
+        return str;
+    }
+
+    private static BigDecimal decimal(Map<String, Object> fields, String key) {
+        Object value = fields.get(key);
+        if (value instanceof BigDecimal) return (BigDecimal) value;
+        String str = value != null ? value.toString().trim() : "";
+        if (str.isEmpty() || "null".equals(str)) return null;
+        try {
+            return new BigDecimal(str);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + str);
+        }
+    }
+
+    private static Integer integer(Map<String, Object> fields, String key) {
+        BigDecimal value = decimal(fields, key);
+        if (value == null) return null;
+        try {
+            return value.intValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(key + " must be a whole number: " + value);
+        }
+    }
+
+    private static Boolean bool(Map<String, Object> fields, String key) {
+        Object value = fields.get(key);
+        if (value instanceof Boolean) return (Boolean) value;
+        String str = value != null ? value.toString().trim().toLowerCase() : "";
+        if (str.isEmpty()) return null;
+        if ("true".equals(str) || "1".equals(str) || "yes".equals(str)) return Boolean.TRUE;
+        if ("false".equals(str) || "0".equals(str) || "no".equals(str)) return Boolean.FALSE;
+        throw new IllegalArgumentException(key + " must be true or false: " + str);
+    }
+
+    private static String choice(Map<String, Object> fields, String key, List<String> allowed) {
+        String str = text(fields, key, 50);
+        if (str == null) return null;
+        str = str.toUpperCase();
+        if (!allowed.contains(str)) {
+            throw new IllegalArgumentException(key + " must be one of " + allowed + ": " + str);
+        }
+        return str;
+    }
+
+    // CSV: "S:10:0.00|M:5" ; NDJSON: [{"size":"S","stockQuantity":10,"additionalPrice":0}] or ["S:10"]
+    @SuppressWarnings("unchecked")
+    private static List<Size> sizes(Object value) {
+        if (value == null) return null;
+        List<Size> sizes = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<Object>) value) {
+                if (item instanceof Map) {
+                    Map<String, Object> map = (Map<String, Object>) item;
+                    Integer stock = integer(map, "stockQuantity");
+                    BigDecimal extra = decimal(map, "additionalPrice");
+                    sizes.add(size(text(map, "size", 10), stock, extra));
+                } else if (item != null) {
+                    sizes.add(parseSize(item.toString()));
+                }
+            }
+            return sizes;
+        }
+        String str = value.toString().trim();
+        if (str.isEmpty()) return null;
+        for (String part : str.split("\\|")) {
+            if (!part.trim().isEmpty()) {
+                sizes.add(parseSize(part.trim()));
+            }
+        }
+        return sizes;
+    }
+
+    private static Size parseSize(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            Integer stock = parts.length > 1 && !parts[1].trim().isEmpty() ? Integer.valueOf(parts[1].trim()) : null;
+            BigDecimal extra = parts.length > 2 && !parts[2].trim().isEmpty() ? new BigDecimal(parts[2].trim()) : null;
+            return size(parts[0].trim(), stock, extra);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad size entry '" + spec + "', expected SIZE:STOCK:EXTRA_PRICE");
+        }
+    }
+
+    private static Size size(String size, Integer stock, BigDecimal extra) {
+        if (size == null || size.isEmpty()) {
+            throw new IllegalArgumentException("size entry without a size name");
+        }
+        if (size.length() > 10) {
+            throw new IllegalArgumentException("size is longer than 10 characters: " + size);
+        }
+        if (stock != null && stock < 0) {
+            throw new IllegalArgumentException("size " + size + " has negative stock");
+        }
+        return new Size(size.toUpperCase(), stock != null ? stock : 0, extra != null ? extra : BigDecimal.ZERO);
+    }
+
+    // CSV: "url1|url2" ; NDJSON: ["url1", {"url":"url2","altText":"Back"}]
+    @SuppressWarnings("unchecked")
+    private static List<Image> images(Object value) {
+        if (value == null) return null;
+        List<Image> images = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<Object>) value) {
+                if (item instanceof Map) {
+                    Map<String, Object> map = (Map<String, Object>) item;
+                    images.add(image(text(map, "url", 500), text(map, "altText", 255)));
+                } else if (item != null) {
+                    images.add(image(item.toString().trim(), null));
+                }
+            }
+            return images;
+        }
+        String str = value.toString().trim();
+        if (str.isEmpty()) return null;
+        for (String part : str.split("\\|")) {
+            if (!part.trim().isEmpty()) {
+                images.add(image(part.trim(), null));
+            }
+        }
+        return images;
+    }
+
+    private static Image image(String url, String altText) {
+        if (url == null || url.isEmpty()) {
+            throw new IllegalArgumentException("image entry without a url");
+        }
+        if (url.length() > 500) {
+            throw new IllegalArgumentException("image url is longer than 500 characters");
+        }
+        return new Image(url, altText);
+    }
+}
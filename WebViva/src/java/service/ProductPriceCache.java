@@ -0,0 +1,160 @@
+package service;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import util.HibernateUtil;
+import util.LruCache;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Short-lived cache of the product fields the cart needs to price itself:
+ * name, image, prices and active flag.
+ *
+ * Missing or expired products are loaded together in one query per call, so
+ * pricing a cart costs one query however many lines it has.
+ * Admin writes to products call invalidate/clear so price changes show up
+ * before the TTL runs out.
+ */
+public class ProductPriceCache {
+    private static final int MAX_PRODUCTS = 20000;
+    private static final long TTL_MS = 60 * 1000L;
+
+    private static final ProductPriceCache INSTANCE = new ProductPriceCache();
+
+    /**
+     * Immutable pricing snapshot of one product. Size surcharges and stock
+     * come from SizeInventory so they always reflect the latest checkout.
+     */
+    public static class Price {
+        private final Long productId;
+        private final String name;
+        private final String imageUrl;
+        private final BigDecimal price;
+        private final BigDecimal discountPrice;
+        private final boolean active;
+        private final long loadedAt;
+
+        Price(Long productId, String name, String imageUrl, BigDecimal price, BigDecimal discountPrice,
+              boolean active, long loadedAt) {
+            this.productId = productId;
+            this.name = name;
+            this.imageUrl = imageUrl;
+            this.price = price;
+            this.discountPrice = discountPrice;
+            this.active = active;
+            this.loadedAt = loadedAt;
+        }
+
+        // Same rule as Product.hasDiscount: the discount applies only when it is lower
+        public BigDecimal unitPrice(String size) {
+            BigDecimal base = discountPrice != null && price != null && discountPrice.compareTo(price) < 0
+                    ? discountPrice : price;
+            if (base == null) {
+                base = BigDecimal.ZERO;
+            }
+            return base.add(SizeInventory.getInstance().surcharge(productId, size));
+        }
+
+        public int available(String size) {
+            return SizeInventory.getInstance().available(productId, size);
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getImageUrl() {
+            return imageUrl;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public BigDecimal getDiscountPrice() {
+            return discountPrice;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+
+    private final LruCache<Long, Price> prices = new LruCache<Long, Price>(MAX_PRODUCTS);
+
+    private ProductPriceCache() {}
+
+    public static ProductPriceCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Price get(Long productId) {
+        return getAll(Collections.singletonList(productId)).get(productId);
+    }
+
+    /**
+     * Prices for the given products; unknown ids are absent from the result.
+     */
+    public Map<Long, Price> getAll(Collection<Long> productIds) {
+        Map<Long, Price> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Long id : productIds) {
+            if (result.containsKey(id) || missing.contains(id)) continue;
+            Price cached = prices.get(id);
+            if (cached != null && now - cached.loadedAt < TTL_MS) {
+                result.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Price loaded : load(missing)) {
+                prices.put(loaded.productId, loaded);
+                result.put(loaded.productId, loaded);
+            }
+        }
+        return result;
+    }
+
+    public void invalidate(Long productId) {
+        prices.remove(productId);
+    }
+
+    public void clear() {
+        prices.clear();
+    }
+
+    private List<Price> load(List<Long> ids) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Query query = session.createQuery(
+                "SELECT p.id, p.name, p.imageUrl, p.price, p.discountPrice, p.isActive " +
+                "FROM Product p WHERE p.id IN (:ids)");
+            query.setParameterList("ids", ids);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.list();
+
+            long now = System.currentTimeMillis();
+            List<Price> loaded = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                loaded.add(new Price((Long) row[0], (String) row[1], (String) row[2], (BigDecimal) row[3],
+                        (BigDecimal) row[4], !Boolean.FALSE.equals(row[5]), now));
+            }
+            return loaded;
+        } finally {
+            session.close();
+        }
+    }
+}
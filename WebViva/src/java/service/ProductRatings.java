@@ -0,0 +1,188 @@
+package service;
+
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import util.HibernateUtil;
+import util.LruCache;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rating aggregates per product (count, sum and a 1-5 star histogram).
+ *
+ * The product_rating_summary row is adjusted by a single upsert inside the
+ * same transaction as the review write, so it always matches product_reviews.
+ * Summaries are cached and loaded for a whole page of products in one query;
+ * products without reviews are cached as empty summaries too, so product
+ * listings never query reviews per row.
+ */
+public class ProductRatings {
+    private static final int MAX_PRODUCTS = 20000;
+    private static final long TTL_MS = 10 * 60 * 1000L;
+
+    private static final ProductRatings INSTANCE = new ProductRatings();
+
+    private static final String DELTA_SQL =
+        "INSERT INTO product_rating_summary (product_id, review_count, rating_sum, stars_1, stars_2, stars_3, stars_4, stars_5) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE review_count = review_count + VALUES(review_count), " +
+        "rating_sum = rating_sum + VALUES(rating_sum), stars_1 = stars_1 + VALUES(stars_1), " +
+        "stars_2 = stars_2 + VALUES(stars_2), stars_3 = stars_3 + VALUES(stars_3), " +
+        "stars_4 = stars_4 + VALUES(stars_4), stars_5 = stars_5 + VALUES(stars_5)";
+
+    /**
+     * Immutable rating snapshot of one product.
+     */
+    public static class Summary {
+        private final Long productId;
+        private final int reviewCount;
+        private final int ratingSum;
+        private final int[] stars;
+        private final long loadedAt;
+
+        Summary(Long productId, int reviewCount, int ratingSum, int[] stars, long loadedAt) {
+            this.productId = productId;
+            this.reviewCount = reviewCount;
+            this.ratingSum = ratingSum;
+            this.stars = stars;
+            this.loadedAt = loadedAt;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public int getReviewCount() {
+            return reviewCount;
+        }
+
+        // Average rounded to one decimal, 0 when there are no reviews
+        public BigDecimal getAverage() {
+            if (reviewCount == 0) {
+                return BigDecimal.ZERO;
+            }
+            return BigDecimal.valueOf(ratingSum).divide(BigDecimal.valueOf(reviewCount), 1, RoundingMode.HALF_UP);
+        }
+
+        // Number of reviews with the given star rating (1-5)
+        public int getStars(int rating) {
+            return rating >= 1 && rating <= 5 ? stars[rating - 1] : 0;
+        }
+    }
+
+    private final LruCache<Long, Summary> summaries = new LruCache<Long, Summary>(MAX_PRODUCTS);
+
+    private ProductRatings() {}
+
+    public static ProductRatings getInstance() {
+        return INSTANCE;
+    }
+
+    public Summary get(Long productId) {
+        return getAll(Collections.singletonList(productId)).get(productId);
+    }
+
+    /**
+     * Summaries for all the given products; every id gets one, empty if it has no reviews.
+     */
+    public Map<Long, Summary> getAll(Collection<Long> productIds) {
+        Map<Long, Summary> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Long id : productIds) {
+            if (id == null || result.containsKey(id) || missing.contains(id)) continue;
+            Summary cached = summaries.get(id);
+            if (cached != null && now - cached.loadedAt < TTL_MS) {
+                result.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<Long, Summary> loaded = load(missing);
+            for (Long id : missing) {
+                Summary summary = loaded.containsKey(id) ? loaded.get(id) : new Summary(id, 0, 0, new int[5], now);
+                summaries.put(id, summary);
+                result.put(id, summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Apply a review write to the product's summary, in the caller's transaction.
+     * oldRating is null for a new review, newRating is null for a deleted one.
+     * Call invalidate(productId) once the transaction has committed.
+     */
+    public void reviewChanged(Session session, Long productId, Integer oldRating, Integer newRating) {
+        int[] stars = new int[5];
+        int count = 0;
+        int sum = 0;
+        if (oldRating != null) {
+            stars[oldRating - 1]--;
+            count--;
+            sum -= oldRating;
+        }
+        if (newRating != null) {
+            stars[newRating - 1]++;
+            count++;
+            sum += newRating;
+        }
+        if (count == 0 && sum == 0) {
+            return;
+        }
+
+        SQLQuery query = session.createSQLQuery(DELTA_SQL);
+        query.addSynchronizedQuerySpace("product_rating_summary");
+        query.setParameter(0, productId);
+        query.setParameter(1, count);
+        query.setParameter(2, sum);
+        for (int i = 0; i < 5; i++) {
+            query.setParameter(3 + i, stars[i]);
+        }
+        query.executeUpdate();
+    }
+
+    public void invalidate(Long productId) {
+        summaries.remove(productId);
+    }
+
+    public void clear() {
+        summaries.clear();
+    }
+
+    private Map<Long, Summary> load(List<Long> ids) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Query query = session.createSQLQuery(
+                "SELECT product_id, review_count, rating_sum, stars_1, stars_2, stars_3, stars_4, stars_5 " +
+                "FROM product_rating_summary WHERE product_id IN (:ids)");
+            query.setParameterList("ids", ids);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = query.list();
+
+            long now = System.currentTimeMillis();
+            Map<Long, Summary> loaded = new HashMap<>();
+            for (Object[] row : rows) {
+                Long productId = ((Number) row[0]).longValue();
+                int[] stars = new int[5];
+                for (int i = 0; i < 5; i++) {
+                    stars[i] = ((Number) row[3 + i]).intValue();
+                }
+                loaded.put(productId, new Summary(productId, ((Number) row[1]).intValue(),
+                        ((Number) row[2]).intValue(), stars, now));
+            }
+            return loaded;
+        } finally {
+            session.close();
+        }
+    }
+}
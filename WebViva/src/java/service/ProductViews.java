@@ -0,0 +1,286 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+import util.HibernateUtil;
+import util.LongIntHashMap;
+import util.MpscLongQueue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Product detail views, counted per product per minute in product_view_stats
+ * without a database write on the request path.
+ *
+ * record() puts the product id on a bounded lock-free queue and returns.
+ * When the queue is full the view is dropped and counted rather than waited
+ * for. A flusher thread drains the queue every DRAIN_MS into per-minute
+ * counts in memory (a view counts toward the minute it is drained in) and
+ * every FLUSH_MS writes them with one batched upsert, so the table gets one
+ * row write per product and minute per flush however many views there were.
+ * While the database is unavailable the counts wait for the next flush, up
+ * to MAX_PENDING product-minutes; past that the oldest minutes are dropped
+ * and counted as well. stats() reports both kinds of drop.
+ */
+public final class ProductViews {
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final long DRAIN_MS = 200;
+    private static final long FLUSH_MS = 10 * 1000L;
+    // Product-minutes held in memory while flushes fail
+    private static final int MAX_PENDING = 200000;
+    private static final int WRITE_BATCH = 1000;
+
+    private static final String UPSERT_SQL =
+        "INSERT INTO product_view_stats (product_id, view_minute, views) VALUES (?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE views = views + VALUES(views)";
+
+    private static final ProductViews INSTANCE = new ProductViews();
+
+    /**
+     * Pipeline counters since startup.
+     */
+    public static final class Stats {
+        private final long recorded;
+        private final long droppedQueueFull;
+        private final long droppedBacklog;
+        private final long written;
+        private final int queued;
+        private final int queueCapacity;
+        private final int pendingProductMinutes;
+        private final long flushes;
+        private final long failedFlushes;
+        private final long lastFlushAt;
+        private final long lastFlushMs;
+        private final String lastError;
+
+        Stats(ProductViews views) {
+            this.recorded = views.recorded.sum();
+            this.droppedQueueFull = views.droppedQueueFull.sum();
+            this.droppedBacklog = views.droppedBacklog.get();
+            this.written = views.written.get();
+            this.queued = views.queue.size();
+            this.queueCapacity = views.queue.capacity();
+            this.pendingProductMinutes = views.pendingEntries;
+            this.flushes = views.flushes.get();
+            this.failedFlushes = views.failedFlushes.get();
+            this.lastFlushAt = views.lastFlushAt;
+            this.lastFlushMs = views.lastFlushMs;
+            this.lastError = views.lastError;
+        }
+
+        /** Views accepted onto the queue. */
+        public long getRecorded() { return recorded; }
+        /** Views dropped because the queue was full. */
+        public long getDroppedQueueFull() { return droppedQueueFull; }
+        /** Views dropped because unwritten counts passed MAX_PENDING. */
+        public long getDroppedBacklog() { return droppedBacklog; }
+        /** Views written to product_view_stats. */
+        public long getWritten() { return written; }
+        public int getQueued() { return queued; }
+        public int getQueueCapacity() { return queueCapacity; }
+        public int getPendingProductMinutes() { return pendingProductMinutes; }
+        public long getFlushes() { return flushes; }
+        public long getFailedFlushes() { return failedFlushes; }
+        /** Time of the last successful flush, 0 if none. */
+        public long getLastFlushAt() { return lastFlushAt; }
+        public long getLastFlushMs() { return lastFlushMs; }
+        /** Message of the last failed flush, null if none. */
+        public String getLastError() { return lastError; }
+    }
+
+    private final MpscLongQueue queue = new MpscLongQueue(QUEUE_CAPACITY);
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder droppedQueueFull = new LongAdder();
+    private final AtomicLong droppedBacklog = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long lastFlushAt;
+    private volatile long lastFlushMs;
+    private volatile String lastError;
+
+    // Flusher thread only: minute (epoch minutes) -> product id -> views
+    private final TreeMap<Long, LongIntHashMap> pending = new TreeMap<Long, LongIntHashMap>();
+    private volatile int pendingEntries;
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    private ProductViews() {}
+
+    public static ProductViews getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Count one view of productId. Never blocks.
+     */
+    public void record(long productId) {
+        if (productId <= 0) {
+            return;
+        }
+        if (queue.offer(productId)) {
+            recorded.increment();
+        } else {
+            droppedQueueFull.increment();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(this);
+    }
+
+    public synchronized void start() {
+        if (flusher != null) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long[] buffer = new long[4096];
+                long nextFlush = System.currentTimeMillis() + FLUSH_MS;
+                while (running) {
+                    drain(buffer);
+                    if (System.currentTimeMillis() >= nextFlush) {
+                        flush();
+                        nextFlush = System.currentTimeMillis() + FLUSH_MS;
+                    }
+                    try {
+                        Thread.sleep(DRAIN_MS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                // Write what is left before the server stops
+                drain(buffer);
+                flush();
+            }
+        }, "product-views-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public synchronized void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+    }
+
+    // ---- Flusher thread ----
+
+    private void drain(long[] buffer) {
+        Long minute = System.currentTimeMillis() / 60000L;
+        LongIntHashMap counts = pending.get(minute);
+        if (counts == null) {
+            counts = new LongIntHashMap(256);
+            pending.put(minute, counts);
+        }
+        int entries = pendingEntries;
+        // At most one queue's worth per round, so a flood cannot keep the flusher from flushing
+        for (int drained = 0; drained < queue.capacity(); ) {
+            int count = queue.drain(buffer);
+            if (count == 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (counts.addTo(buffer[i], 1) == 1) {
+                    entries++;
+                }
+            }
+            drained += count;
+        }
+        // Over the limit: give up the oldest minutes, never the current one
+        while (entries > MAX_PENDING && pending.size() > 1) {
+            LongIntHashMap oldest = pending.pollFirstEntry().getValue();
+            entries -= oldest.size();
+            droppedBacklog.addAndGet(total(oldest));
+        }
+        pendingEntries = entries;
+    }
+
+    private void flush() {
+        if (pendingEntries == 0) {
+            pending.clear();
+            return;
+        }
+        long started = System.currentTimeMillis();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    try (PreparedStatement ps = connection.prepareStatement(UPSERT_SQL)) {
+                        int batched = 0;
+                        for (Map.Entry<Long, LongIntHashMap> entry : pending.entrySet()) {
+                            Timestamp minute = new Timestamp(entry.getKey() * 60000L);
+                            LongIntHashMap counts = entry.getValue();
+                            for (int slot = 0; slot < counts.capacity(); slot++) {
+                                if (counts.keyAt(slot) == 0) {
+                                    continue;
+                                }
+                                ps.setLong(1, counts.keyAt(slot));
+                                ps.setTimestamp(2, minute);
+                                ps.setInt(3, counts.valueAt(slot));
+                                ps.addBatch();
+                                if (++batched % WRITE_BATCH == 0) {
+                                    ps.executeBatch();
+                                }
+                            }
+                        }
+                        ps.executeBatch();
+                    }
+                }
+            });
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive()) tx.rollback();
+            // Counts stay pending and go out with the next flush
+            failedFlushes.incrementAndGet();
+            lastError = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            System.out.println("ProductViews: flush failed, keeping " + pendingEntries + " product-minutes: " + lastError);
+            return;
+        } finally {
+            session.close();
+        }
+        long views = 0;
+        for (LongIntHashMap counts : pending.values()) {
+            views += total(counts);
+        }
+        written.addAndGet(views);
+        pending.clear();
+        pendingEntries = 0;
+        flushes.incrementAndGet();
+        lastFlushAt = System.currentTimeMillis();
+        lastFlushMs = lastFlushAt - started;
+    }
+
+    private static long total(LongIntHashMap counts) {
+        long total = 0;
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (counts.keyAt(slot) != 0) {
+                total += counts.valueAt(slot);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,247 @@
+package service;
+
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import util.HibernateUtil;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Keeps the sales_daily* rollup tables in step with the orders table.
+ *
+ * The incremental methods run inside the caller's transaction, so a rollup
+ * row changes exactly when the order it describes does. Each one is a single
+ * INSERT ... SELECT ... ON DUPLICATE KEY UPDATE per table, driven by the
+ * order's own rows, so the request path never aggregates over history.
+ */
+public final class SalesRollups {
+
+    public static final String CANCELLED = "CANCELLED";
+
+    // Days rebuilt per backfill transaction
+    private static final int BACKFILL_CHUNK_DAYS = 31;
+
+    // ---- Incremental statements (over the orders in :ids) ----
+
+    private static final String DAILY_DELTA_SQL =
+        "INSERT INTO sales_daily (sales_date, order_count, units_sold, revenue) " +
+        "SELECT * FROM (" +
+        "  SELECT d, :orders * COUNT(*) AS c, :sign * SUM(u) AS u, :sign * SUM(r) AS r FROM (" +
+        "    SELECT DATE(o.created_at) AS d, COALESCE(SUM(oi.quantity), 0) AS u, o.total_amount AS r " +
+        "    FROM orders o LEFT JOIN order_items oi ON oi.order_id = o.id " +
+        "    WHERE o.id IN (:ids) GROUP BY o.id, o.created_at, o.total_amount" +
+        "  ) per_order GROUP BY d" +
+        ") t " +
+        "ON DUPLICATE KEY UPDATE order_count = order_count + VALUES(order_count), " +
+        "units_sold = units_sold + VALUES(units_sold), revenue = revenue + VALUES(revenue)";
+
+    private static final String STATUS_DELTA_SQL =
+        "INSERT INTO sales_daily_status (sales_date, status, order_count) " +
+        "SELECT * FROM (" +
+        "  SELECT DATE(o.created_at) AS d, CAST(:status AS CHAR(20)) AS s, :sign * COUNT(*) AS c " +
+        "  FROM orders o WHERE o.id IN (:ids) GROUP BY DATE(o.created_at)" +
+        ") t " +
+        "ON DUPLICATE KEY UPDATE order_count = order_count + VALUES(order_count)";
+
+    private static final String CATEGORY_DELTA_SQL =
+        "INSERT INTO sales_daily_category (sales_date, category_id, units_sold, revenue) " +
+        "SELECT * FROM (" +
+        "  SELECT DATE(o.created_at) AS d, COALESCE(p.category_id, 0) AS c, " +
+        "         :sign * SUM(oi.quantity) AS u, :sign * SUM(oi.total_price) AS r " +
+        "  FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+        "  LEFT JOIN products p ON p.id = oi.product_id " +
+        "  WHERE o.id IN (:ids) GROUP BY DATE(o.created_at), COALESCE(p.category_id, 0)" +
+        ") t " +
+        "ON DUPLICATE KEY UPDATE units_sold = units_sold + VALUES(units_sold), revenue = revenue + VALUES(revenue)";
+
+    private static final String PRODUCT_DELTA_SQL =
+        "INSERT INTO sales_daily_product (sales_date, product_id, units_sold, revenue) " +
+        "SELECT * FROM (" +
+        "  SELECT DATE(o.created_at) AS d, oi.product_id AS p, :sign * SUM(oi.quantity) AS u, :sign * SUM(oi.total_price) AS r " +
+        "  FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+        "  WHERE o.id IN (:ids) GROUP BY DATE(o.created_at), oi.product_id" +
+        ") t " +
+        "ON DUPLICATE KEY UPDATE units_sold = units_sold + VALUES(units_sold), revenue = revenue + VALUES(revenue)";
+
+    // ---- Backfill statements (range start inclusive, end exclusive) ----
+
+    private static final String[] ROLLUP_TABLES = {
+        "sales_daily", "sales_daily_status", "sales_daily_category", "sales_daily_product"
+    };
+
+    private static final String DAILY_BACKFILL_SQL =
+        "INSERT INTO sales_daily (sales_date, order_count, units_sold, revenue) " +
+        "SELECT DATE(o.created_at), COUNT(*), " +
+        "  SUM(CASE WHEN o.status <> 'CANCELLED' THEN " +
+        "      (SELECT COALESCE(SUM(oi.quantity), 0) FROM order_items oi WHERE oi.order_id = o.id) ELSE 0 END), " +
+        "  SUM(CASE WHEN o.status <> 'CANCELLED' THEN o.total_amount ELSE 0 END) " +
+        "FROM orders o WHERE o.created_at >= ? AND o.created_at < ? " +
+        "GROUP BY DATE(o.created_at)";
+
+    private static final String STATUS_BACKFILL_SQL =
+        "INSERT INTO sales_daily_status (sales_date, status, order_count) " +
+        "SELECT DATE(o.created_at), o.status, COUNT(*) " +
+        "FROM orders o WHERE o.created_at >= ? AND o.created_at < ? " +
+        "GROUP BY DATE(o.created_at), o.status";
+
+    private static final String CATEGORY_BACKFILL_SQL =
+        "INSERT INTO sales_daily_category (sales_date, category_id, units_sold, revenue) " +
+        "SELECT DATE(o.created_at), COALESCE(p.category_id, 0), SUM(oi.quantity), SUM(oi.total_price) " +
+        "FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+        "LEFT JOIN products p ON p.id = oi.product_id " +
+        "WHERE o.created_at >= ? AND o.created_at < ? AND o.status <> 'CANCELLED' " +
+        "GROUP BY DATE(o.created_at), COALESCE(p.category_id, 0)";
+
+    private static final String PRODUCT_BACKFILL_SQL =
+        "INSERT INTO sales_daily_product (sales_date, product_id, units_sold, revenue) " +
+        "SELECT DATE(o.created_at), oi.product_id, SUM(oi.quantity), SUM(oi.total_price) " +
+        "FROM orders o JOIN order_items oi ON oi.order_id = o.id " +
+        "WHERE o.created_at >= ? AND o.created_at < ? AND o.status <> 'CANCELLED' " +
+        "GROUP BY DATE(o.created_at), oi.product_id";
+
+    private SalesRollups() {}
+
+    /**
+     * Count a newly inserted order (items must already be saved and flushed).
+     */
+    public static void orderCreated(Session session, Long orderId, String status) {
+        session.flush();
+        List<Long> ids = Collections.singletonList(orderId);
+        applyStatus(session, ids, status, 1);
+        applyAmounts(session, ids, 1, CANCELLED.equals(status) ? 0 : 1);
+    }
+
+    /**
+     * Move an order between statuses. Cancelling takes its revenue out of the
+     * rollups; reinstating a cancelled order puts it back.
+     */
+    public static void statusChanged(Session session, Long orderId, String oldStatus, String newStatus) {
+        statusChanged(session, Collections.singletonList(orderId), oldStatus, newStatus);
+    }
+
+    /**
+     * Move a set of orders that all had oldStatus to newStatus, with one
+     * statement per rollup table however many orders there are.
+     */
+    public static void statusChanged(Session session, Collection<Long> orderIds, String oldStatus, String newStatus) {
+        if (orderIds.isEmpty() || newStatus == null || newStatus.equals(oldStatus)) {
+            return;
+        }
+        if (oldStatus != null) {
+            applyStatus(session, orderIds, oldStatus, -1);
+        }
+        applyStatus(session, orderIds, newStatus, 1);
+
+        boolean wasCancelled = CANCELLED.equals(oldStatus);
+        boolean isCancelled = CANCELLED.equals(newStatus);
+        if (!wasCancelled && isCancelled) {
+            applyAmounts(session, orderIds, 0, -1);
+        } else if (wasCancelled && !isCancelled) {
+            applyAmounts(session, orderIds, 0, 1);
+        }
+    }
+
+    /**
+     * Rebuild every rollup table for [from, to] (whole days) from the orders
+     * table, one transaction per chunk of days. Returns the number of days rebuilt.
+     */
+    public static int backfill(Date from, Date to) {
+        Date chunkStart = startOfDay(from);
+        Date end = addDays(startOfDay(to), 1);
+        int days = 0;
+
+        while (chunkStart.before(end)) {
+            Date chunkEnd = addDays(chunkStart, BACKFILL_CHUNK_DAYS);
+            if (chunkEnd.after(end)) {
+                chunkEnd = end;
+            }
+
+            Session session = HibernateUtil.getSessionFactory().openSession();
+            Transaction tx = null;
+            try {
+                tx = session.beginTransaction();
+                for (String table : ROLLUP_TABLES) {
+                    Query delete = rollupQuery(session, "DELETE FROM " + table + " WHERE sales_date >= ? AND sales_date < ?");
+                    delete.setDate(0, chunkStart);
+                    delete.setDate(1, chunkEnd);
+                    delete.executeUpdate();
+                }
+                for (String sql : new String[] { DAILY_BACKFILL_SQL, STATUS_BACKFILL_SQL, CATEGORY_BACKFILL_SQL, PRODUCT_BACKFILL_SQL }) {
+                    Query insert = rollupQuery(session, sql);
+                    insert.setTimestamp(0, chunkStart);
+                    insert.setTimestamp(1, chunkEnd);
+                    insert.executeUpdate();
+                }
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx != null) tx.rollback();
+                throw e;
+            } finally {
+                session.close();
+            }
+
+            days += (int) Math.round((chunkEnd.getTime() - chunkStart.getTime()) / (24.0 * 60 * 60 * 1000));
+            System.out.println("Sales rollups rebuilt from " + chunkStart + " to " + chunkEnd);
+            chunkStart = chunkEnd;
+        }
+        return days;
+    }
+
+    private static void applyStatus(Session session, Collection<Long> orderIds, String status, int sign) {
+        Query query = rollupQuery(session, STATUS_DELTA_SQL);
+        query.setParameter("status", status);
+        query.setParameter("sign", sign);
+        query.setParameterList("ids", orderIds);
+        query.executeUpdate();
+    }
+
+    private static void applyAmounts(Session session, Collection<Long> orderIds, int orderDelta, int sign) {
+        Query daily = rollupQuery(session, DAILY_DELTA_SQL);
+        daily.setParameter("orders", orderDelta);
+        daily.setParameter("sign", sign);
+        daily.setParameterList("ids", orderIds);
+        daily.executeUpdate();
+
+        if (sign == 0) {
+            return;
+        }
+        for (String sql : new String[] { CATEGORY_DELTA_SQL, PRODUCT_DELTA_SQL }) {
+            Query query = rollupQuery(session, sql);
+            query.setParameter("sign", sign);
+            query.setParameterList("ids", orderIds);
+            query.executeUpdate();
+        }
+    }
+
+    // Native statement that only touches rollup tables, so the second-level cache is left alone
+    private static Query rollupQuery(Session session, String sql) {
+        SQLQuery query = session.createSQLQuery(sql);
+        for (String table : ROLLUP_TABLES) {
+            query.addSynchronizedQuerySpace(table);
+        }
+        return query;
+    }
+
+    static Date startOfDay(Date date) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTime();
+    }
+
+    static Date addDays(Date date, int days) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.add(Calendar.DAY_OF_MONTH, days);
+        return cal.getTime();
+    }
+}
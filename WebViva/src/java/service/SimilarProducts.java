@@ -0,0 +1,845 @@
+package service;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+import util.HibernateUtil;
+import util.LongIntHashMap;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * "Similar items": for each active product, the MAX_RESULTS active products
+ * closest to it on its attributes.
+ *
+ * Each product becomes a small vector: category, gender, fit, pattern and
+ * season as dictionary codes, color and material (comma-separated lists) as
+ * bitsets, and the log of its selling price. Similarity is the weighted share
+ * of matching attributes, with Jaccard overlap for the lists and a linear
+ * falloff for price. The batch job scores every pair on a fork/join pool,
+ * one task per slice of products, and keeps the best per product.
+ *
+ * The lists are stored in product_similar and held in memory; a restarted
+ * server loads the table and only recomputes when it is a day old. An admin
+ * edit through ProductServlet calls productChanged, which rescores that one
+ * product against the catalog and patches the lists it enters or leaves.
+ * Bulk imports and updates are picked up by the daily recompute.
+ */
+public final class SimilarProducts {
+
+    public static final int MAX_RESULTS = 12;
+
+    private static final long RECOMPUTE_MS = 24 * 60 * 60 * 1000L;
+    // Below this a product shares too little to be shown as an alternative
+    private static final double MIN_SCORE = 0.35;
+    // Products scored by one compute task
+    private static final int COMPUTE_SLICE = 256;
+    // Products whose lists are written per transaction
+    private static final int SAVE_CHUNK = 500;
+    private static final int COMPUTE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    // Attribute weights; a product matching on all of them scores 1
+    private static final double W_CATEGORY = 4;
+    private static final double W_GENDER = 3;
+    private static final double W_FIT = 1.5;
+    private static final double W_COLOR = 1.5;
+    private static final double W_MATERIAL = 1.5;
+    private static final double W_PATTERN = 1;
+    private static final double W_SEASON = 1;
+    private static final double W_PRICE = 2;
+    private static final double W_TOTAL =
+        W_CATEGORY + W_GENDER + W_FIT + W_COLOR + W_MATERIAL + W_PATTERN + W_SEASON + W_PRICE;
+    // Most the color, material and price terms can add together
+    private static final double W_GRADED = W_COLOR + W_MATERIAL + W_PRICE;
+    // Prices three times apart or more share nothing on price
+    private static final double PRICE_SPAN = Math.log(3);
+
+    private static final String PRODUCT_COLUMNS =
+        "SELECT id, category_id, gender, fit_type, pattern, season, color, material, price, discount_price, is_active " +
+        "FROM products";
+
+    private static final String INSERT_SQL =
+        "INSERT INTO product_similar (product_id, position, similar_id, score) VALUES (?, ?, ?, ?)";
+
+    private static final SimilarProducts INSTANCE = new SimilarProducts();
+
+    public static final class Similar {
+        private final long productId;
+        private final double score;
+
+        Similar(long productId, double score) {
+            this.productId = productId;
+            this.score = score;
+        }
+
+        public long getProductId() { return productId; }
+        /** Similarity between 0 and 1. */
+        public double getScore() { return score; }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Both null until the first load; lists[i] belongs to catalog product i
+    private Catalog catalog;
+    private Neighbours[] lists;
+    // Products edited while the catalog is being loaded or recomputed, rescored afterwards
+    private Set<Long> changedDuringRecompute;
+    private volatile long computedAt;
+    private final AtomicBoolean recomputing = new AtomicBoolean();
+    private volatile boolean started;
+
+    private SimilarProducts() {}
+
+    public static SimilarProducts getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Load the stored lists in the background, recomputing them if they are
+     * missing or stale.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                if (!load() || System.currentTimeMillis() - computedAt > RECOMPUTE_MS) {
+                    recompute();
+                }
+            }
+        });
+    }
+
+    /**
+     * Up to limit products most similar to productId, best first. Empty
+     * until the lists have been loaded.
+     */
+    public List<Similar> similar(long productId, int limit) {
+        if (computedAt > 0 && System.currentTimeMillis() - computedAt > RECOMPUTE_MS) {
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    recompute();
+                }
+            });
+        }
+        lock.readLock().lock();
+        try {
+            if (catalog == null) {
+                return Collections.emptyList();
+            }
+            int index = catalog.slots.get(productId, -1);
+            Neighbours found = index >= 0 ? lists[index] : null;
+            if (found == null) {
+                return Collections.emptyList();
+            }
+            int count = Math.min(limit, found.ids.length);
+            List<Similar> result = new ArrayList<Similar>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(new Similar(found.ids[i], found.scores[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rescore one product after it was created, edited or deactivated, and
+     * update the stored lists it affects. Call after the change is committed.
+     */
+    public void productChanged(long productId) {
+        try {
+            Object[] row = loadProduct(productId);
+            List<Long> changedIds = new ArrayList<Long>();
+            List<Neighbours> changedLists = new ArrayList<Neighbours>();
+            lock.writeLock().lock();
+            try {
+                if (changedDuringRecompute != null) {
+                    changedDuringRecompute.add(productId);
+                }
+                if (catalog == null) {
+                    return;
+                }
+                for (int index : patch(row)) {
+                    changedIds.add(catalog.ids[index]);
+                    changedLists.add(lists[index]);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            save(changedIds, changedLists);
+        } catch (RuntimeException e) {
+            // The daily recompute catches up
+            System.out.println("SimilarProducts: could not update product " + productId + ": " + e.getMessage());
+        }
+    }
+
+    // ---- Incremental update (under the write lock) ----
+
+    // Applies the product's new attributes; returns the indexes whose list changed
+    private Set<Integer> patch(Object[] row) {
+        Set<Integer> changed = new LinkedHashSet<Integer>();
+        long productId = ((Number) row[0]).longValue();
+        int x = catalog.put(row);
+        if (lists.length < catalog.ids.length) {
+            lists = Arrays.copyOf(lists, catalog.ids.length);
+        }
+        lists[x] = catalog.active[x] ? catalog.neighbours(x) : Neighbours.EMPTY;
+        changed.add(x);
+
+        for (int j = 0; j < catalog.size; j++) {
+            Neighbours current = lists[j];
+            if (j == x || current == null || !catalog.active[j]) {
+                continue;
+            }
+            float score = catalog.active[x] ? (float) catalog.score(j, x) : -1;
+            Neighbours updated;
+            if (current.indexOf(productId) >= 0) {
+                Neighbours rest = current.without(productId);
+                if (!current.isFull()) {
+                    // Not full, so nothing else scored high enough to take the place
+                    updated = score >= MIN_SCORE ? rest.with(productId, score) : rest;
+                } else if (rest.ids.length > 0 && Neighbours.before(score, productId, rest.lowestScore(), rest.lowestId())) {
+                    updated = rest.with(productId, score);
+                } else {
+                    // It dropped to last place or out: some other product may now belong there
+                    updated = catalog.neighbours(j);
+                }
+            } else if (score >= MIN_SCORE && (!current.isFull()
+                    || Neighbours.before(score, productId, current.lowestScore(), current.lowestId()))) {
+                updated = current.with(productId, score);
+            } else {
+                continue;
+            }
+            lists[j] = updated;
+            changed.add(j);
+        }
+        return changed;
+    }
+
+    // ---- Batch recompute ----
+
+    private void runInBackground(final Runnable task) {
+        if (!recomputing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("SimilarProducts: " + e.getMessage());
+                } finally {
+                    recomputing.set(false);
+                }
+            }
+        }, "similar-products");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Load catalog and stored lists; false if there is nothing stored
+    private boolean load() {
+        trackChanges(true);
+        try {
+            return loadStored();
+        } finally {
+            replay(trackChanges(false));
+        }
+    }
+
+    private boolean loadStored() {
+        Catalog loaded = loadCatalog();
+        Neighbours[] stored = new Neighbours[loaded.ids.length];
+        long oldest = Long.MAX_VALUE;
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            List<?> rows = session.createSQLQuery(
+                    "SELECT product_id, similar_id, score, computed_at FROM product_similar ORDER BY product_id, position")
+                .list();
+            if (rows.isEmpty()) {
+                return false;
+            }
+            long currentId = 0;
+            List<long[]> current = new ArrayList<long[]>();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                long productId = ((Number) columns[0]).longValue();
+                if (productId != currentId) {
+                    store(loaded, stored, currentId, current);
+                    currentId = productId;
+                    current.clear();
+                }
+                current.add(new long[] { ((Number) columns[1]).longValue(), ((Number) columns[2]).longValue() });
+                oldest = Math.min(oldest, ((Date) columns[3]).getTime());
+            }
+            store(loaded, stored, currentId, current);
+        } finally {
+            session.close();
+        }
+        // Products created since the last recompute get their own list now
+        for (int i = 0; i < loaded.size; i++) {
+            if (stored[i] == null) {
+                stored[i] = loaded.active[i] ? loaded.neighbours(i) : Neighbours.EMPTY;
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            catalog = loaded;
+            lists = stored;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        computedAt = oldest;
+        System.out.println("SimilarProducts: loaded lists for " + loaded.size + " products");
+        return true;
+    }
+
+    private static void store(Catalog catalog, Neighbours[] stored, long productId, List<long[]> rows) {
+        int index = productId != 0 ? catalog.slots.get(productId, -1) : -1;
+        if (index < 0) {
+            return;
+        }
+        long[] ids = new long[rows.size()];
+        float[] scores = new float[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = rows.get(i)[0];
+            scores[i] = rows.get(i)[1] / 10000f;
+        }
+        stored[index] = new Neighbours(ids, scores);
+    }
+
+    private void recompute() {
+        long startedAt = System.currentTimeMillis();
+        trackChanges(true);
+        Set<Long> changed;
+        Catalog built;
+        Neighbours[] computed;
+        try {
+            built = loadCatalog();
+            computed = new Neighbours[built.ids.length];
+            // Grouped here, before the tasks share the catalog
+            built.group();
+            ForkJoinPool pool = new ForkJoinPool(COMPUTE_THREADS);
+            try {
+                pool.invoke(new ComputeTask(built, computed, 0, built.size));
+            } finally {
+                pool.shutdown();
+            }
+        } finally {
+            changed = trackChanges(false);
+        }
+        long elapsed = System.currentTimeMillis() - startedAt;
+
+        List<Long> ids = new ArrayList<Long>(built.size);
+        List<Neighbours> all = new ArrayList<Neighbours>(built.size);
+        for (int i = 0; i < built.size; i++) {
+            if (built.active[i]) {
+                ids.add(built.ids[i]);
+                all.add(computed[i]);
+            }
+        }
+        for (int from = 0; from < ids.size(); from += SAVE_CHUNK) {
+            int to = Math.min(ids.size(), from + SAVE_CHUNK);
+            save(ids.subList(from, to), all.subList(from, to));
+        }
+        deleteInactive();
+
+        lock.writeLock().lock();
+        try {
+            catalog = built;
+            lists = computed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        computedAt = System.currentTimeMillis();
+        replay(changed);
+        System.out.println("SimilarProducts: scored " + built.size + " products in " + elapsed
+            + " ms, saved in " + (System.currentTimeMillis() - startedAt - elapsed) + " ms");
+    }
+
+    // Start (true) or stop recording edits; stopping returns the products edited meanwhile
+    private Set<Long> trackChanges(boolean start) {
+        lock.writeLock().lock();
+        try {
+            Set<Long> changed = changedDuringRecompute;
+            changedDuringRecompute = start ? new LinkedHashSet<Long>() : null;
+            return changed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Edits made while the catalog was being read may be missing from it
+    private void replay(Set<Long> changed) {
+        for (Long productId : changed) {
+            productChanged(productId);
+        }
+    }
+
+    /**
+     * Scores products [from, to) against the whole catalog, splitting the
+     * range until a slice is small.
+     */
+    private static final class ComputeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Catalog catalog;
+        private final Neighbours[] lists;
+        private final int from;
+        private final int to;
+
+        ComputeTask(Catalog catalog, Neighbours[] lists, int from, int to) {
+            this.catalog = catalog;
+            this.lists = lists;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= COMPUTE_SLICE) {
+                for (int i = from; i < to; i++) {
+                    lists[i] = catalog.active[i] ? catalog.neighbours(i) : Neighbours.EMPTY;
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ComputeTask(catalog, lists, from, middle), new ComputeTask(catalog, lists, middle, to));
+        }
+    }
+
+    // ---- Database ----
+
+    private static Catalog loadCatalog() {
+        Catalog loaded = new Catalog();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            List<?> rows = session.createSQLQuery(PRODUCT_COLUMNS + " WHERE is_active = TRUE ORDER BY id").list();
+            for (Object row : rows) {
+                loaded.put((Object[]) row);
+            }
+        } finally {
+            session.close();
+        }
+        return loaded;
+    }
+
+    private static Object[] loadProduct(long productId) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Object row = session.createSQLQuery(PRODUCT_COLUMNS + " WHERE id = :id")
+                .setParameter("id", productId)
+                .uniqueResult();
+            if (row == null) {
+                // Gone altogether: treat as inactive
+                return new Object[] { productId, null, null, null, null, null, null, null, null, null, Boolean.FALSE };
+            }
+            return (Object[]) row;
+        } finally {
+            session.close();
+        }
+    }
+
+    // Replace the stored lists of these products
+    private static void save(final List<Long> productIds, final List<Neighbours> neighbours) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            session.createSQLQuery("DELETE FROM product_similar WHERE product_id IN (:ids)")
+                .setParameterList("ids", productIds)
+                .executeUpdate();
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    try (PreparedStatement ps = connection.prepareStatement(INSERT_SQL)) {
+                        for (int i = 0; i < productIds.size(); i++) {
+                            Neighbours list = neighbours.get(i);
+                            for (int position = 0; position < list.ids.length; position++) {
+                                ps.setLong(1, productIds.get(i));
+                                ps.setInt(2, position);
+                                ps.setLong(3, list.ids[position]);
+                                ps.setInt(4, Math.round(list.scores[position] * 10000));
+                                ps.addBatch();
+                            }
+                        }
+                        ps.executeBatch();
+                    }
+                }
+            });
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static void deleteInactive() {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            session.createSQLQuery(
+                    "DELETE FROM product_similar WHERE product_id NOT IN (SELECT id FROM products WHERE is_active = TRUE)")
+                .executeUpdate();
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    // ---- Vectors ----
+
+    /**
+     * The product vectors, one array per attribute so a scan over the
+     * catalog reads primitives only. Products are also indexed by category,
+     * since the best matches almost always share one.
+     */
+    private static final class Catalog {
+        final LongIntHashMap slots = new LongIntHashMap(1024);
+        int size;
+        long[] ids = new long[1024];
+        boolean[] active = new boolean[1024];
+        // Category codes from categoryCodes, 0 for none
+        int[] categories = new int[1024];
+        int[] genders = new int[1024];
+        int[] fits = new int[1024];
+        int[] patterns = new int[1024];
+        int[] seasons = new int[1024];
+        long[] colors = new long[1024];
+        long[] materials = new long[1024];
+        // NaN when the product has no price
+        double[] logPrices = new double[1024];
+
+        // Value -> code (from 1) for the single-valued attributes, bit number for the lists
+        final Map<String, Integer> codes = new HashMap<String, Integer>();
+        final Map<String, Integer> colorBits = new HashMap<String, Integer>();
+        final Map<String, Integer> materialBits = new HashMap<String, Integer>();
+        final LongIntHashMap categoryCodes = new LongIntHashMap();
+
+        // Product indexes ordered by category; category c holds order[blockStart[c]] up to order[blockEnd[c]]
+        int[] order;
+        int[] blockStart;
+        int[] blockEnd;
+        boolean grouped;
+
+        // Row from PRODUCT_COLUMNS; returns the product's index
+        int put(Object[] row) {
+            long productId = ((Number) row[0]).longValue();
+            int i = slots.get(productId, -1);
+            if (i < 0) {
+                if (size == ids.length) {
+                    grow();
+                }
+                i = size++;
+                slots.put(productId, i);
+            }
+            ids[i] = productId;
+            active[i] = row[10] == null || Boolean.TRUE.equals(row[10])
+                || (row[10] instanceof Number && ((Number) row[10]).intValue() != 0);
+            categories[i] = row[1] != null ? categoryCode(((Number) row[1]).longValue()) : 0;
+            genders[i] = code("gender", row[2]);
+            fits[i] = code("fit", row[3]);
+            patterns[i] = code("pattern", row[4]);
+            seasons[i] = code("season", row[5]);
+            colors[i] = bits(colorBits, row[6]);
+            materials[i] = bits(materialBits, row[7]);
+            BigDecimal price = (BigDecimal) row[8];
+            BigDecimal discount = (BigDecimal) row[9];
+            // Same rule as Product.hasDiscount: the discount applies only when it is lower
+            BigDecimal selling = discount != null && price != null && discount.compareTo(price) < 0 ? discount : price;
+            logPrices[i] = selling != null && selling.signum() > 0 ? Math.log(selling.doubleValue()) : Double.NaN;
+            grouped = false;
+            return i;
+        }
+
+        // Counting sort of the product indexes by category code
+        void group() {
+            int codeCount = categoryCodes.size() + 1;
+            blockStart = new int[codeCount];
+            blockEnd = new int[codeCount];
+            for (int i = 0; i < size; i++) {
+                blockEnd[categories[i]]++;
+            }
+            int start = 0;
+            for (int c = 0; c < codeCount; c++) {
+                blockStart[c] = start;
+                start += blockEnd[c];
+                blockEnd[c] = blockStart[c];
+            }
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[blockEnd[categories[i]]++] = i;
+            }
+            grouped = true;
+        }
+
+        double score(int a, int b) {
+            return graded(a, b, matched(a, b)) / W_TOTAL;
+        }
+
+        // Weight of the single-valued attributes a and b share
+        private double matched(int a, int b) {
+            double score = 0;
+            if (categories[a] != 0 && categories[a] == categories[b]) score += W_CATEGORY;
+            if (genders[a] != 0 && genders[a] == genders[b]) score += W_GENDER;
+            if (fits[a] != 0 && fits[a] == fits[b]) score += W_FIT;
+            if (patterns[a] != 0 && patterns[a] == patterns[b]) score += W_PATTERN;
+            if (seasons[a] != 0 && seasons[a] == seasons[b]) score += W_SEASON;
+            return score;
+        }
+
+        // Adds the color, material and price terms to the matched weight
+        private double graded(int a, int b, double score) {
+            score += W_COLOR * overlap(colors[a], colors[b]);
+            score += W_MATERIAL * overlap(materials[a], materials[b]);
+            double priceGap = Math.abs(logPrices[a] - logPrices[b]);
+            // NaN (a price missing) fails the comparison and adds nothing
+            if (priceGap < PRICE_SPAN) score += W_PRICE * (1 - priceGap / PRICE_SPAN);
+            return score;
+        }
+
+        // The best MAX_RESULTS active products for product i
+        Neighbours neighbours(int i) {
+            if (!grouped) {
+                group();
+            }
+            Best best = new Best();
+            int category = categories[i];
+            int from = category != 0 ? blockStart[category] : 0;
+            int to = category != 0 ? blockEnd[category] : 0;
+            scan(i, from, to, best);
+            // Other categories score at most W_TOTAL - W_CATEGORY, usually too little once the list is full
+            if (best.needed <= W_TOTAL - W_CATEGORY) {
+                scan(i, 0, from, best);
+                scan(i, to, size, best);
+            }
+            return best.toNeighbours();
+        }
+
+        // Score i against the products order[from] up to order[to]
+        private void scan(int i, int from, int to, Best best) {
+            for (int k = from; k < to; k++) {
+                int j = order[k];
+                if (j == i || !active[j]) {
+                    continue;
+                }
+                // Most pairs fail on the cheap exact matches alone
+                double matched = matched(i, j);
+                if (matched + W_GRADED >= best.needed) {
+                    best.offer(ids[j], (float) (graded(i, j, matched) / W_TOTAL));
+                }
+            }
+        }
+
+        private int code(String attribute, Object value) {
+            String key = normalize(value);
+            if (key == null) {
+                return 0;
+            }
+            key = attribute + ":" + key;
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = codes.size() + 1;
+                codes.put(key, code);
+            }
+            return code;
+        }
+
+        // Past 64 distinct values two values share a bit, which only ever raises an overlap slightly
+        private static long bits(Map<String, Integer> dictionary, Object value) {
+            String list = normalize(value);
+            if (list == null) {
+                return 0;
+            }
+            long bits = 0;
+            for (String part : list.split(",")) {
+                String key = part.trim();
+                if (key.isEmpty()) {
+                    continue;
+                }
+                Integer bit = dictionary.get(key);
+                if (bit == null) {
+                    bit = dictionary.size() % 64;
+                    dictionary.put(key, bit);
+                }
+                bits |= 1L << bit;
+            }
+            return bits;
+        }
+
+        private static String normalize(Object value) {
+            if (value == null) {
+                return null;
+            }
+            String text = value.toString().trim().toLowerCase(Locale.ROOT);
+            return text.isEmpty() ? null : text;
+        }
+
+        // Jaccard: shared values over all values
+        private static double overlap(long a, long b) {
+            long union = a | b;
+            return union == 0 ? 0 : (double) Long.bitCount(a & b) / Long.bitCount(union);
+        }
+
+        private int categoryCode(long categoryId) {
+            int code = categoryCodes.get(categoryId, 0);
+            if (code == 0) {
+                code = categoryCodes.size() + 1;
+                categoryCodes.put(categoryId, code);
+            }
+            return code;
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            active = Arrays.copyOf(active, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            genders = Arrays.copyOf(genders, capacity);
+            fits = Arrays.copyOf(fits, capacity);
+            patterns = Arrays.copyOf(patterns, capacity);
+            seasons = Arrays.copyOf(seasons, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            materials = Arrays.copyOf(materials, capacity);
+            logPrices = Arrays.copyOf(logPrices, capacity);
+        }
+    }
+
+    /**
+     * Top MAX_RESULTS collected during a scan.
+     */
+    private static final class Best {
+        final long[] ids = new long[MAX_RESULTS];
+        // Ranked as stored, in float, so patched lists order the same way
+        final float[] scores = new float[MAX_RESULTS];
+        int found;
+        // Weight a candidate needs to make the list, less a margin for float rounding
+        double needed = MIN_SCORE * W_TOTAL - 1e-4;
+
+        void offer(long id, float score) {
+            if (score < MIN_SCORE || (found == MAX_RESULTS
+                    && !Neighbours.before(score, id, scores[found - 1], ids[found - 1]))) {
+                return;
+            }
+            int at = found < MAX_RESULTS ? found++ : found - 1;
+            while (at > 0 && Neighbours.before(score, id, scores[at - 1], ids[at - 1])) {
+                ids[at] = ids[at - 1];
+                scores[at] = scores[at - 1];
+                at--;
+            }
+            ids[at] = id;
+            scores[at] = score;
+            if (found == MAX_RESULTS) {
+                needed = scores[found - 1] * W_TOTAL - 1e-4;
+            }
+        }
+
+        Neighbours toNeighbours() {
+            return new Neighbours(Arrays.copyOf(ids, found), Arrays.copyOf(scores, found));
+        }
+    }
+
+    /**
+     * One product's list, best first, ties by lower product id. Immutable.
+     */
+    private static final class Neighbours {
+        static final Neighbours EMPTY = new Neighbours(new long[0], new float[0]);
+
+        final long[] ids;
+        final float[] scores;
+
+        Neighbours(long[] ids, float[] scores) {
+            this.ids = ids;
+            this.scores = scores;
+        }
+
+        boolean isFull() {
+            return ids.length == MAX_RESULTS;
+        }
+
+        float lowestScore() {
+            return scores[scores.length - 1];
+        }
+
+        long lowestId() {
+            return ids[ids.length - 1];
+        }
+
+        int indexOf(long productId) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == productId) return i;
+            }
+            return -1;
+        }
+
+        Neighbours without(long productId) {
+            int at = indexOf(productId);
+            if (at < 0) {
+                return this;
+            }
+            long[] newIds = new long[ids.length - 1];
+            float[] newScores = new float[ids.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(scores, 0, newScores, 0, at);
+            System.arraycopy(ids, at + 1, newIds, at, ids.length - at - 1);
+            System.arraycopy(scores, at + 1, newScores, at, ids.length - at - 1);
+            return new Neighbours(newIds, newScores);
+        }
+
+        // Insert in order, dropping the last entry when full
+        Neighbours with(long productId, float score) {
+            int at = 0;
+            while (at < ids.length && !before(score, productId, scores[at], ids[at])) {
+                at++;
+            }
+            int length = Math.min(MAX_RESULTS, ids.length + 1);
+            if (at >= length) {
+                return this;
+            }
+            long[] newIds = new long[length];
+            float[] newScores = new float[length];
+            System.arraycopy(ids, 0, newIds, 0, at);
+            System.arraycopy(scores, 0, newScores, 0, at);
+            newIds[at] = productId;
+            newScores[at] = score;
+            System.arraycopy(ids, at, newIds, at + 1, length - at - 1);
+            System.arraycopy(scores, at, newScores, at + 1, length - at - 1);
+            return new Neighbours(newIds, newScores);
+        }
+
+        static boolean before(float score, long id, float otherScore, long otherId) {
+            return score > otherScore || (score == otherScore && id < otherId);
+        }
+    }
+}
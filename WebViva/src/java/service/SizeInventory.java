@@ -0,0 +1,426 @@
+package service;
+
+import model.OrderItem;
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import util.HibernateUtil;
+import util.LruCache;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-level stock for products, served from memory.
+ *
+ * Availability for any set of products is loaded in two queries (product
+ * totals, then all their size rows) and cached. Checkout takes stock with
+ * guarded single-row UPDATEs inside the order transaction, so two orders can
+ * never sell the same last unit; once the order commits, the cache is set
+ * to the exact new levels and low-stock events are recorded for the admin feed.
+ * Products without size rows fall back to products.stock_quantity.
+ */
+public class SizeInventory {
+    public static final int LOW_STOCK_THRESHOLD = 5;
+
+    private static final int MAX_PRODUCTS = 20000;
+    private static final long TTL_MS = 5 * 60 * 1000L;
+    private static final int MAX_EVENTS = 500;
+
+    // Display order for letter sizes; anything else sorts after, by name
+    private static final List<String> SIZE_ORDER = Arrays.asList("XXS", "XS", "S", "M", "L", "XL", "XXL", "3XL", "4XL");
+
+    private static final SizeInventory INSTANCE = new SizeInventory();
+
+    /**
+     * Stock of one size of a product.
+     */
+    public static class SizeLevel {
+        private final Long id;
+        private final String size;
+        private final int stockQuantity;
+        private final BigDecimal additionalPrice;
+
+        SizeLevel(Long id, String size, int stockQuantity, BigDecimal additionalPrice) {
+            this.id = id;
+            this.size = size;
+            this.stockQuantity = stockQuantity;
+            this.additionalPrice = additionalPrice;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getSize() {
+            return size;
+        }
+
+        public int getStockQuantity() {
+            return stockQuantity;
+        }
+
+        public BigDecimal getAdditionalPrice() {
+            return additionalPrice;
+        }
+
+        public boolean isInStock() {
+            return stockQuantity > 0;
+        }
+    }
+
+    /**
+     * Immutable stock snapshot of one product: its total and its sizes in display order.
+     */
+    public static class ProductStock {
+        private final Long productId;
+        private final int productStock;
+        private final List<SizeLevel> sizes;
+        private final long loadedAt;
+
+        ProductStock(Long productId, int productStock, List<SizeLevel> sizes, long loadedAt) {
+            this.productId = productId;
+            this.productStock = productStock;
+            this.sizes = Collections.unmodifiableList(sizes);
+            this.loadedAt = loadedAt;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public List<SizeLevel> getSizes() {
+            return sizes;
+        }
+
+        public SizeLevel getSize(String size) {
+            for (SizeLevel level : sizes) {
+                if (level.size.equalsIgnoreCase(size)) {
+                    return level;
+                }
+            }
+            return null;
+        }
+
+        // Units that can be sold; without size rows the product total applies
+        public int available(String size) {
+            if (sizes.isEmpty()) {
+                return productStock;
+            }
+            if (size == null || size.isEmpty()) {
+                return 0;
+            }
+            SizeLevel level = getSize(size);
+            return level != null ? level.stockQuantity : 0;
+        }
+
+        ProductStock withLevel(String size, int stock, int productTotal) {
+            List<SizeLevel> updated = new ArrayList<>(sizes.size());
+            for (SizeLevel level : sizes) {
+                updated.add(level.size.equalsIgnoreCase(size)
+                        ? new SizeLevel(level.id, level.size, stock, level.additionalPrice) : level);
+            }
+            return new ProductStock(productId, productTotal, updated, loadedAt);
+        }
+    }
+
+    /**
+     * A low-stock notice. Sequence numbers increase so clients can poll with ?since=.
+     */
+    public static class LowStockEvent {
+        private final long sequence;
+        private final Long productId;
+        private final String size;
+        private final int stockQuantity;
+        private final Date createdAt;
+
+        LowStockEvent(long sequence, Long productId, String size, int stockQuantity) {
+            this.sequence = sequence;
+            this.productId = productId;
+            this.size = size;
+            this.stockQuantity = stockQuantity;
+            this.createdAt = new Date();
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public String getSize() {
+            return size;
+        }
+
+        public int getStockQuantity() {
+            return stockQuantity;
+        }
+
+        public Date getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    /**
+     * Stock taken for one product/size by an order, with the levels left afterwards.
+     */
+    public static class StockChange {
+        final Long productId;
+        final String size;
+        final int quantity;
+        int remaining;
+        int productRemaining;
+
+        StockChange(Long productId, String size, int quantity) {
+            this.productId = productId;
+            this.size = size;
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * Thrown when an order asks for more than is in stock; the caller rolls back.
+     */
+    public static class OutOfStockException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OutOfStockException(String message) {
+            super(message);
+        }
+    }
+
+    private final LruCache<Long, ProductStock> stock = new LruCache<Long, ProductStock>(MAX_PRODUCTS);
+    private final ArrayDeque<LowStockEvent> events = new ArrayDeque<>();
+    private final AtomicLong eventSequence = new AtomicLong();
+
+    private SizeInventory() {}
+
+    public static SizeInventory getInstance() {
+        return INSTANCE;
+    }
+
+    public ProductStock get(Long productId) {
+        return getAll(Collections.singletonList(productId)).get(productId);
+    }
+
+    /**
+     * Stock for all the given products, loading any missing ones together.
+     */
+    public Map<Long, ProductStock> getAll(Collection<Long> productIds) {
+        Map<Long, ProductStock> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Long id : productIds) {
+            if (id == null || result.containsKey(id) || missing.contains(id)) continue;
+            ProductStock cached = stock.get(id);
+            if (cached != null && now - cached.loadedAt < TTL_MS) {
+                result.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (ProductStock loaded : load(missing)) {
+                stock.put(loaded.productId, loaded);
+                result.put(loaded.productId, loaded);
+            }
+        }
+        return result;
+    }
+
+    public int available(Long productId, String size) {
+        ProductStock productStock = get(productId);
+        return productStock != null ? productStock.available(size) : 0;
+    }
+
+    public BigDecimal surcharge(Long productId, String size) {
+        ProductStock productStock = get(productId);
+        SizeLevel level = productStock != null && size != null ? productStock.getSize(size) : null;
+        return level != null && level.additionalPrice != null ? level.additionalPrice : BigDecimal.ZERO;
+    }
+
+    public void invalidate(Long productId) {
+        stock.remove(productId);
+    }
+
+    public void clear() {
+        stock.clear();
+    }
+
+    /**
+     * Take stock for an order's items inside the caller's transaction.
+     * Rows are updated in (product, size) order so concurrent checkouts
+     * lock them in the same order. Throws OutOfStockException if any line
+     * can't be filled; call committed() with the result after commit.
+     */
+    public List<StockChange> reserve(Session session, List<OrderItem> items) {
+        Map<String, StockChange> byKey = new TreeMap<>();
+        for (OrderItem item : items) {
+            if (item.getProductId() == null || item.getQuantity() == null || item.getQuantity() <= 0) continue;
+            String size = item.getSize() != null ? item.getSize().trim().toUpperCase() : "";
+            String key = String.format("%020d|%s", item.getProductId(), size);
+            StockChange existing = byKey.get(key);
+            int quantity = item.getQuantity() + (existing != null ? existing.quantity : 0);
+            byKey.put(key, new StockChange(item.getProductId(), size, quantity));
+        }
+
+        List<StockChange> changes = new ArrayList<>(byKey.values());
+        for (StockChange change : changes) {
+            SQLQuery takeSize = inventoryQuery(session,
+                "UPDATE product_sizes SET stock_quantity = stock_quantity - ? " +
+                "WHERE product_id = ? AND size = ? AND stock_quantity >= ?");
+            takeSize.setParameter(0, change.quantity);
+            takeSize.setParameter(1, change.productId);
+            takeSize.setParameter(2, change.size);
+            takeSize.setParameter(3, change.quantity);
+
+            if (takeSize.executeUpdate() == 1) {
+                Query level = session.createSQLQuery(
+                    "SELECT stock_quantity FROM product_sizes WHERE product_id = ? AND size = ?");
+                level.setParameter(0, change.productId);
+                level.setParameter(1, change.size);
+                change.remaining = ((Number) level.uniqueResult()).intValue();
+
+                // Keep the product total in step with its sizes
+                SQLQuery takeTotal = inventoryQuery(session,
+                    "UPDATE products SET stock_quantity = GREATEST(stock_quantity - ?, 0) WHERE id = ?");
+                takeTotal.setParameter(0, change.quantity);
+                takeTotal.setParameter(1, change.productId);
+                takeTotal.executeUpdate();
+            } else {
+                Query sizeRows = session.createSQLQuery(
+                    "SELECT COUNT(*) FROM product_sizes WHERE product_id = ?");
+                sizeRows.setParameter(0, change.productId);
+                if (((Number) sizeRows.uniqueResult()).intValue() > 0) {
+                    throw new OutOfStockException("Not enough stock for product " + change.productId
+                            + (change.size.isEmpty() ? "" : " in size " + change.size));
+                }
+
+                SQLQuery takeTotal = inventoryQuery(session,
+                    "UPDATE products SET stock_quantity = stock_quantity - ? WHERE id = ? AND stock_quantity >= ?");
+                takeTotal.setParameter(0, change.quantity);
+                takeTotal.setParameter(1, change.productId);
+                takeTotal.setParameter(2, change.quantity);
+                if (takeTotal.executeUpdate() != 1) {
+                    throw new OutOfStockException("Not enough stock for product " + change.productId);
+                }
+                change.remaining = -1;
+            }
+
+            Query total = session.createSQLQuery("SELECT stock_quantity FROM products WHERE id = ?");
+            total.setParameter(0, change.productId);
+            Object productRemaining = total.uniqueResult();
+            change.productRemaining = productRemaining != null ? ((Number) productRemaining).intValue() : 0;
+            if (change.remaining < 0) {
+                change.remaining = change.productRemaining;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Publish the levels left by a committed reserve() to the cache and the low-stock feed.
+     */
+    public void committed(List<StockChange> changes) {
+        for (final StockChange change : changes) {
+            stock.updateIfPresent(change.productId, current -> current.getSizes().isEmpty()
+                    ? new ProductStock(current.productId, change.productRemaining, new ArrayList<SizeLevel>(), current.loadedAt)
+                    : current.withLevel(change.size, change.remaining, change.productRemaining));
+
+            int before = change.remaining + change.quantity;
+            if (change.remaining <= LOW_STOCK_THRESHOLD && before > LOW_STOCK_THRESHOLD
+                    || change.remaining == 0 && before > 0) {
+                recordLowStock(change.productId, change.size, change.remaining);
+            }
+        }
+    }
+
+    /**
+     * Low-stock events with a sequence number greater than since, oldest first.
+     */
+    public List<LowStockEvent> getLowStockEvents(long since) {
+        synchronized (events) {
+            List<LowStockEvent> result = new ArrayList<>();
+            for (LowStockEvent event : events) {
+                if (event.sequence > since) {
+                    result.add(event);
+                }
+            }
+            return result;
+        }
+    }
+
+    private void recordLowStock(Long productId, String size, int remaining) {
+        synchronized (events) {
+            events.addLast(new LowStockEvent(eventSequence.incrementAndGet(), productId, size, remaining));
+            while (events.size() > MAX_EVENTS) {
+                events.removeFirst();
+            }
+        }
+        System.out.println("Low stock: product " + productId + (size.isEmpty() ? "" : " size " + size) + " has " + remaining + " left");
+    }
+
+    // Native update that only touches stock tables, so other cache regions are left alone
+    private static SQLQuery inventoryQuery(Session session, String sql) {
+        SQLQuery query = session.createSQLQuery(sql);
+        query.addSynchronizedQuerySpace("product_sizes");
+        query.addSynchronizedQuerySpace("products");
+        return query;
+    }
+
+    private List<ProductStock> load(List<Long> ids) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            Query totals = session.createSQLQuery("SELECT id, stock_quantity FROM products WHERE id IN (:ids)");
+            totals.setParameterList("ids", ids);
+            @SuppressWarnings("unchecked")
+            List<Object[]> totalRows = totals.list();
+
+            Query sizes = session.createSQLQuery(
+                "SELECT product_id, id, size, stock_quantity, additional_price FROM product_sizes WHERE product_id IN (:ids)");
+            sizes.setParameterList("ids", ids);
+            @SuppressWarnings("unchecked")
+            List<Object[]> sizeRows = sizes.list();
+
+            Map<Long, List<SizeLevel>> levels = new HashMap<>();
+            for (Object[] row : sizeRows) {
+                Long productId = ((Number) row[0]).longValue();
+                levels.computeIfAbsent(productId, k -> new ArrayList<SizeLevel>()).add(new SizeLevel(
+                        ((Number) row[1]).longValue(), (String) row[2],
+                        row[3] != null ? ((Number) row[3]).intValue() : 0,
+                        row[4] != null ? new BigDecimal(row[4].toString()) : BigDecimal.ZERO));
+            }
+
+            long now = System.currentTimeMillis();
+            List<ProductStock> loaded = new ArrayList<>(totalRows.size());
+            for (Object[] row : totalRows) {
+                Long productId = ((Number) row[0]).longValue();
+                List<SizeLevel> productSizes = levels.containsKey(productId) ? levels.get(productId) : new ArrayList<SizeLevel>();
+                productSizes.sort((a, b) -> {
+                    int ia = SIZE_ORDER.indexOf(a.size.toUpperCase());
+                    int ib = SIZE_ORDER.indexOf(b.size.toUpperCase());
+                    if (ia >= 0 && ib >= 0) return ia - ib;
+                    if (ia >= 0) return -1;
+                    if (ib >= 0) return 1;
+                    return a.size.compareTo(b.size);
+                });
+                loaded.add(new ProductStock(productId, row[1] != null ? ((Number) row[1]).intValue() : 0, productSizes, now));
+            }
+            return loaded;
+        } finally {
+            session.close();
+        }
+    }
+}
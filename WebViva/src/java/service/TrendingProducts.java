@@ -0,0 +1,422 @@
+package service;
+
+import org.hibernate.Session;
+import util.EventBus;
+import util.HibernateUtil;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Trending and best-selling products over the last hour, day and week,
+ * ranked from in-memory counters.
+ *
+ * Every product page view and every unit sold is added to the product's
+ * counters, one per window, each decaying exponentially with the window's
+ * length as time constant, which behaves like a sliding window without
+ * keeping buckets. Decay is applied on read ("forward decay"): an event at
+ * time t adds e^((t - landmark) / window), so recording is a single
+ * DoubleAdder.add (striped cells, no locks) and old events never have to be
+ * visited. Every few days the counters are moved to a new landmark so the
+ * weights stay in range.
+ *
+ * A background thread recomputes the top MAX_RESULTS of each ranking every
+ * minute with a bounded min-heap; requests only read the last result. Sales
+ * come from ORDER_CREATED events plus, at startup, the last week of the
+ * sales_daily_product rollup, so nothing ever aggregates order_items. Views
+ * are not persisted and start from zero on restart, and each server counts
+ * its own views and the events its own relay claims, so rankings on
+ * different servers agree in shape rather than in exact numbers.
+ */
+public final class TrendingProducts {
+
+    public static final int MAX_RESULTS = 100;
+
+    public enum Window {
+        HOUR(60 * 60 * 1000L), DAY(24 * 60 * 60 * 1000L), WEEK(7 * 24 * 60 * 60 * 1000L);
+
+        private final double lengthMs;
+
+        Window(long lengthMs) {
+            this.lengthMs = lengthMs;
+        }
+
+        /** hour, day or week (any case); null for anything else. */
+        public static Window parse(String name) {
+            for (Window window : values()) {
+                if (window.name().equalsIgnoreCase(name)) {
+                    return window;
+                }
+            }
+            return null;
+        }
+    }
+
+    // One unit sold counts as this many views towards trending
+    private static final double SALE_WEIGHT = 10;
+    private static final long REFRESH_MS = 60 * 1000L;
+    // Moves the landmark before the hour window's weights pass e^100
+    private static final long RESCALE_MS = 100 * 60 * 60 * 1000L;
+    // Counters whose week value decayed below this are dropped at a rescale
+    private static final double FORGET_BELOW = 0.01;
+    private static final int SEED_DAYS = 7;
+    private static final int EVENT_BATCH = 200;
+
+    private static final Window[] WINDOWS = Window.values();
+    private static final TrendingProducts INSTANCE = new TrendingProducts();
+
+    public static final class Ranked {
+        private final long productId;
+        private final double score;
+
+        Ranked(long productId, double score) {
+            this.productId = productId;
+            this.score = score;
+        }
+
+        public long getProductId() { return productId; }
+        /** Decayed views plus weighted sales for trending, decayed units sold for best-sellers. */
+        public double getScore() { return score; }
+    }
+
+    // One DoubleAdder per window, indexed by Window.ordinal()
+    private static final class Counters {
+        final DoubleAdder[] views = adders();
+        final DoubleAdder[] sales = adders();
+
+        private static DoubleAdder[] adders() {
+            DoubleAdder[] adders = new DoubleAdder[WINDOWS.length];
+            for (int w = 0; w < adders.length; w++) {
+                adders[w] = new DoubleAdder();
+            }
+            return adders;
+        }
+    }
+
+    // Counters relative to one landmark; replaced as a whole at a rescale
+    private static final class Generation {
+        final long landmark;
+        final ConcurrentHashMap<Long, Counters> counters = new ConcurrentHashMap<Long, Counters>();
+
+        Generation(long landmark) {
+            this.landmark = landmark;
+        }
+    }
+
+    // Best first, scores as of the last refresh
+    private static final class Ranking {
+        static final Ranking EMPTY = new Ranking(new long[0], new double[0]);
+
+        final long[] ids;
+        final double[] scores;
+
+        Ranking(long[] ids, double[] scores) {
+            this.ids = ids;
+            this.scores = scores;
+        }
+    }
+
+    private volatile Generation generation = new Generation(System.currentTimeMillis());
+    private volatile Ranking[] trending = emptyRankings();
+    private volatile Ranking[] bestsellers = emptyRankings();
+    private volatile boolean started;
+
+    private TrendingProducts() {}
+
+    public static TrendingProducts getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Subscribe to order events, load recent sales and start the refresh
+     * thread. Call at startup, before OrderEvents.start().
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        OrderEvents.subscribe("trending", EVENT_BATCH, new EventBus.Subscriber<OrderEvents.Event>() {
+            @Override
+            public void onEvents(List<OrderEvents.Event> batch) {
+                recordSales(batch);
+            }
+        });
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    seed();
+                } catch (RuntimeException e) {
+                    System.out.println("TrendingProducts: could not load recent sales: " + e.getMessage());
+                }
+                while (true) {
+                    try {
+                        refresh();
+                    } catch (RuntimeException e) {
+                        System.out.println("TrendingProducts: refresh failed: " + e.getMessage());
+                    }
+                    try {
+                        Thread.sleep(REFRESH_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "trending-products");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void viewed(long productId) {
+        add(productId, false, 1, System.currentTimeMillis());
+    }
+
+    public List<Ranked> trending(Window window, int limit) {
+        return top(trending[window.ordinal()], limit);
+    }
+
+    public List<Ranked> bestsellers(Window window, int limit) {
+        return top(bestsellers[window.ordinal()], limit);
+    }
+
+    private static List<Ranked> top(Ranking ranking, int limit) {
+        int count = Math.min(limit, ranking.ids.length);
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        List<Ranked> result = new ArrayList<Ranked>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Ranked(ranking.ids[i], ranking.scores[i]));
+        }
+        return result;
+    }
+
+    // ---- Recording ----
+
+    private void add(long productId, boolean sale, double amount, long at) {
+        Generation current = generation;
+        Counters counters = current.counters.get(productId);
+        if (counters == null) {
+            counters = current.counters.computeIfAbsent(productId, id -> new Counters());
+        }
+        DoubleAdder[] adders = sale ? counters.sales : counters.views;
+        for (Window window : WINDOWS) {
+            adders[window.ordinal()].add(amount * Math.exp((at - current.landmark) / window.lengthMs));
+        }
+    }
+
+    private void recordSales(List<OrderEvents.Event> batch) {
+        Map<Long, Long> createdAt = new HashMap<Long, Long>();
+        for (OrderEvents.Event event : batch) {
+            if (OrderEvents.ORDER_CREATED.equals(event.getType())) {
+                createdAt.put(event.getOrderId(), event.getCreatedAt().getTime());
+            }
+        }
+        if (createdAt.isEmpty()) {
+            return;
+        }
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            List<?> rows = session.createSQLQuery(
+                    "SELECT order_id, product_id, quantity FROM order_items WHERE order_id IN (:ids)")
+                .setParameterList("ids", createdAt.keySet())
+                .list();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                long orderId = ((Number) columns[0]).longValue();
+                add(((Number) columns[1]).longValue(), true, ((Number) columns[2]).intValue(), createdAt.get(orderId));
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    // Units sold over the last SEED_DAYS days, from the daily rollup; each day's units are placed at its middle
+    private void seed() {
+        Calendar since = Calendar.getInstance();
+        since.set(Calendar.HOUR_OF_DAY, 0);
+        since.set(Calendar.MINUTE, 0);
+        since.set(Calendar.SECOND, 0);
+        since.set(Calendar.MILLISECOND, 0);
+        since.add(Calendar.DAY_OF_MONTH, -(SEED_DAYS - 1));
+        long now = System.currentTimeMillis();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            List<?> rows = session.createSQLQuery(
+                    "SELECT sales_date, product_id, units_sold FROM sales_daily_product WHERE sales_date >= :since")
+                .setParameter("since", since.getTime())
+                .list();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                int units = ((Number) columns[2]).intValue();
+                if (units <= 0) {
+                    continue;
+                }
+                long day = ((Date) columns[0]).getTime();
+                // Today is only partly over
+                long at = Math.min(day + 12 * 60 * 60 * 1000L, day + (now - day) / 2);
+                add(((Number) columns[1]).longValue(), true, units, at);
+            }
+            System.out.println("TrendingProducts: loaded " + rows.size() + " daily product sales");
+        } finally {
+            session.close();
+        }
+    }
+
+    // ---- Materialized rankings ----
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        if (now - generation.landmark > RESCALE_MS) {
+            rescale(now);
+        }
+        Generation current = generation;
+        double[] decay = new double[WINDOWS.length];
+        TopHeap[] trendingHeaps = new TopHeap[WINDOWS.length];
+        TopHeap[] bestsellerHeaps = new TopHeap[WINDOWS.length];
+        for (int w = 0; w < WINDOWS.length; w++) {
+            decay[w] = Math.exp(-(now - current.landmark) / WINDOWS[w].lengthMs);
+            trendingHeaps[w] = new TopHeap(MAX_RESULTS);
+            bestsellerHeaps[w] = new TopHeap(MAX_RESULTS);
+        }
+        for (Map.Entry<Long, Counters> entry : current.counters.entrySet()) {
+            long productId = entry.getKey();
+            Counters counters = entry.getValue();
+            for (int w = 0; w < WINDOWS.length; w++) {
+                double sold = counters.sales[w].sum() * decay[w];
+                double views = counters.views[w].sum() * decay[w];
+                trendingHeaps[w].offer(productId, views + SALE_WEIGHT * sold);
+                bestsellerHeaps[w].offer(productId, sold);
+            }
+        }
+        Ranking[] newTrending = new Ranking[WINDOWS.length];
+        Ranking[] newBestsellers = new Ranking[WINDOWS.length];
+        for (int w = 0; w < WINDOWS.length; w++) {
+            newTrending[w] = trendingHeaps[w].toRanking();
+            newBestsellers[w] = bestsellerHeaps[w].toRanking();
+        }
+        trending = newTrending;
+        bestsellers = newBestsellers;
+    }
+
+    // Re-express every counter relative to now; adds racing with the swap may be lost
+    private void rescale(long now) {
+        Generation old = generation;
+        Generation next = new Generation(now);
+        double[] factor = new double[WINDOWS.length];
+        for (int w = 0; w < WINDOWS.length; w++) {
+            factor[w] = Math.exp(-(now - old.landmark) / WINDOWS[w].lengthMs);
+        }
+        int week = Window.WEEK.ordinal();
+        for (Map.Entry<Long, Counters> entry : old.counters.entrySet()) {
+            Counters counters = entry.getValue();
+            if ((counters.views[week].sum() + counters.sales[week].sum()) * factor[week] < FORGET_BELOW) {
+                continue;
+            }
+            Counters moved = new Counters();
+            for (int w = 0; w < WINDOWS.length; w++) {
+                moved.views[w].add(counters.views[w].sum() * factor[w]);
+                moved.sales[w].add(counters.sales[w].sum() * factor[w]);
+            }
+            next.counters.put(entry.getKey(), moved);
+        }
+        generation = next;
+        System.out.println("TrendingProducts: rescaled " + next.counters.size() + " of " + old.counters.size() + " counters");
+    }
+
+    /**
+     * Keeps the capacity highest scores seen: a min-heap on primitive arrays,
+     * so a product that does not beat the current minimum costs one compare.
+     */
+    private static final class TopHeap {
+        final long[] ids;
+        final double[] scores;
+        int size;
+
+        TopHeap(int capacity) {
+            ids = new long[capacity];
+            scores = new double[capacity];
+        }
+
+        void offer(long id, double score) {
+            if (score <= 0) {
+                return;
+            }
+            if (size < ids.length) {
+                int at = size++;
+                // Sift up
+                while (at > 0 && lower(score, id, (at - 1) >>> 1)) {
+                    int parent = (at - 1) >>> 1;
+                    ids[at] = ids[parent];
+                    scores[at] = scores[parent];
+                    at = parent;
+                }
+                ids[at] = id;
+                scores[at] = score;
+            } else if (!lower(score, id, 0)) {
+                siftDown(id, score, size);
+            }
+        }
+
+        // Place (id, score) from the root, over the first n entries
+        private void siftDown(long id, double score, int n) {
+            int at = 0;
+            while (true) {
+                int child = 2 * at + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && lowerThan(scores[child + 1], ids[child + 1], scores[child], ids[child])) {
+                    child++;
+                }
+                if (!lowerThan(scores[child], ids[child], score, id)) {
+                    break;
+                }
+                ids[at] = ids[child];
+                scores[at] = scores[child];
+                at = child;
+            }
+            ids[at] = id;
+            scores[at] = score;
+        }
+
+        // Whether (score, id) ranks below the entry at slot
+        private boolean lower(double score, long id, int slot) {
+            return lowerThan(score, id, scores[slot], ids[slot]);
+        }
+
+        // Lower score ranks lower; on a tie the higher id does, so results are stable
+        private static boolean lowerThan(double score, long id, double otherScore, long otherId) {
+            return score < otherScore || (score == otherScore && id > otherId);
+        }
+
+        // Drain the heap, lowest first, into a best-first ranking
+        Ranking toRanking() {
+            long[] rankedIds = new long[size];
+            double[] rankedScores = new double[size];
+            for (int n = size; n > 0; n--) {
+                rankedIds[n - 1] = ids[0];
+                rankedScores[n - 1] = scores[0];
+                siftDown(ids[n - 1], scores[n - 1], n - 1);
+            }
+            size = 0;
+            return new Ranking(rankedIds, rankedScores);
+        }
+    }
+
+    private static Ranking[] emptyRankings() {
+        Ranking[] rankings = new Ranking[WINDOWS.length];
+        for (int w = 0; w < rankings.length; w++) {
+            rankings[w] = Ranking.EMPTY;
+        }
+        return rankings;
+    }
+}
@@ -0,0 +1,103 @@
+package service;
+
+import model.OrderSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of a user's most recent orders, newest first.
+ * Each entry keeps its items already serialized so serving the account
+ * page is pure string concatenation. Every change produces a new snapshot.
+ */
+public final class UserOrderSummary {
+
+    public static final class Entry {
+        private final OrderSummary order;
+        private final String itemsJson;
+
+        public Entry(OrderSummary order, String itemsJson) {
+            this.order = order;
+            this.itemsJson = itemsJson;
+        }
+
+        public OrderSummary getOrder() {
+            return order;
+        }
+
+        public String getItemsJson() {
+            return itemsJson;
+        }
+    }
+
+    private final Long userId;
+    private final List<Entry> entries;
+    // True when entries hold every order the user has, not just the newest ones
+    private final boolean complete;
+    // When the entries were read from the database; kept by the with* copies
+    private final long loadedAt;
+    // Rendered response body, filled in lazily by the first reader
+    private volatile String renderedJson;
+
+    public UserOrderSummary(Long userId, List<Entry> entries, boolean complete) {
+        this(userId, entries, complete, System.currentTimeMillis());
+    }
+
+    private UserOrderSummary(Long userId, List<Entry> entries, boolean complete, long loadedAt) {
+        this.userId = userId;
+        this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+        this.complete = complete;
+        this.loadedAt = loadedAt;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public String getRenderedJson() {
+        return renderedJson;
+    }
+
+    public void setRenderedJson(String renderedJson) {
+        this.renderedJson = renderedJson;
+    }
+
+    // New snapshot with the order added at the front, trimmed to maxEntries
+    UserOrderSummary withNewOrder(Entry entry, int maxEntries) {
+        List<Entry> updated = new ArrayList<Entry>(entries.size() + 1);
+        updated.add(entry);
+        updated.addAll(entries);
+        boolean stillComplete = complete;
+        while (updated.size() > maxEntries) {
+            updated.remove(updated.size() - 1);
+            stillComplete = false;
+        }
+        return new UserOrderSummary(userId, updated, stillComplete, loadedAt);
+    }
+
+    // New snapshot with one order's status replaced, or this one if the order is not listed
+    UserOrderSummary withStatus(Long orderId, String status, String paymentStatus) {
+        List<Entry> updated = new ArrayList<Entry>(entries);
+        for (int i = 0; i < updated.size(); i++) {
+            Entry entry = updated.get(i);
+            if (entry.getOrder().getId().equals(orderId)) {
+                updated.set(i, new Entry(entry.getOrder().withStatus(status, paymentStatus), entry.getItemsJson()));
+                return new UserOrderSummary(userId, updated, complete, loadedAt);
+            }
+        }
+        return this;
+    }
+}
@@ -0,0 +1,144 @@
+package service;
+
+import model.OrderSummary;
+import util.LruCache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory, incrementally maintained order history per user.
+ *
+ * Summaries are built on the first read of a user's order page and then kept
+ * current by OrderServlet (new orders, status changes) and VerifyPayments
+ * (payment confirmation) instead of being rebuilt from the database.
+ * The least recently viewed users are evicted once MAX_USERS is reached.
+ *
+ * A load whose database read overlapped an order change is not stored,
+ * since the read may predate the change: callers take changeStamp() before
+ * reading and pass it to load(). Summaries are also reloaded after
+ * MAX_AGE_MS, which bounds how long changes made on other nodes go unseen.
+ */
+public class UserOrderSummaryCache {
+    // Orders kept per user
+    public static final int RECENT_ORDERS = 20;
+    // Users kept in memory
+    private static final int MAX_USERS = 5000;
+    private static final long MAX_AGE_MS = 2 * 60 * 1000L;
+
+    private static final UserOrderSummaryCache INSTANCE = new UserOrderSummaryCache();
+
+    // orderId -> userId for every order currently held in a summary
+    private final ConcurrentHashMap<Long, Long> orderOwners = new ConcurrentHashMap<Long, Long>();
+
+    private final LruCache<Long, UserOrderSummary> summaries = new LruCache<Long, UserOrderSummary>(MAX_USERS) {
+        @Override
+        protected void onEvict(Long userId, UserOrderSummary summary) {
+            forgetOrders(summary);
+        }
+    };
+
+    // Bumped by every order change this node applies
+    private final AtomicLong changes = new AtomicLong();
+
+    private UserOrderSummaryCache() {}
+
+    public static UserOrderSummaryCache getInstance() {
+        return INSTANCE;
+    }
+
+    public UserOrderSummary get(Long userId) {
+        UserOrderSummary summary = summaries.get(userId);
+        if (summary != null && System.currentTimeMillis() - summary.getLoadedAt() > MAX_AGE_MS) {
+            invalidate(userId);
+            return null;
+        }
+        return summary;
+    }
+
+    /**
+     * Take before reading a user's orders from the database, for load().
+     */
+    public long changeStamp() {
+        return changes.get();
+    }
+
+    public void put(UserOrderSummary summary) {
+        UserOrderSummary previous = summaries.get(summary.getUserId());
+        if (previous != null) {
+            forgetOrders(previous);
+        }
+        rememberOrders(summary);
+        summaries.put(summary.getUserId(), summary);
+    }
+
+    // Build and store a summary from rows ordered newest first (at most RECENT_ORDERS + 1 rows are looked at),
+    // unless an order changed since stamp was taken
+    public UserOrderSummary load(Long userId, List<UserOrderSummary.Entry> newestFirst, long stamp) {
+        boolean complete = newestFirst.size() <= RECENT_ORDERS;
+        List<UserOrderSummary.Entry> recent = complete ? newestFirst : newestFirst.subList(0, RECENT_ORDERS);
+        UserOrderSummary summary = new UserOrderSummary(userId, recent, complete);
+        synchronized (changes) {
+            if (changes.get() == stamp) {
+                put(summary);
+            }
+        }
+        return summary;
+    }
+
+    public void orderCreated(OrderSummary order, String itemsJson) {
+        changed();
+        final UserOrderSummary.Entry entry = new UserOrderSummary.Entry(order, itemsJson);
+        UserOrderSummary updated = summaries.updateIfPresent(order.getUserId(), current -> {
+            UserOrderSummary next = current.withNewOrder(entry, RECENT_ORDERS);
+            if (current.getEntries().size() == RECENT_ORDERS) {
+                // The oldest entry fell off the end
+                orderOwners.remove(current.getEntries().get(RECENT_ORDERS - 1).getOrder().getId());
+            }
+            return next;
+        });
+        if (updated != null) {
+            orderOwners.put(order.getId(), order.getUserId());
+        }
+        // Users with no summary yet are loaded on their next page view
+    }
+
+    public void statusChanged(Long orderId, String status, String paymentStatus) {
+        changed();
+        Long userId = orderOwners.get(orderId);
+        if (userId == null) {
+            return;
+        }
+        summaries.updateIfPresent(userId, current -> current.withStatus(orderId, status, paymentStatus));
+    }
+
+    public void invalidate(Long userId) {
+        UserOrderSummary removed = summaries.remove(userId);
+        if (removed != null) {
+            forgetOrders(removed);
+        }
+    }
+
+    public int size() {
+        return summaries.size();
+    }
+
+    private void changed() {
+        synchronized (changes) {
+            changes.incrementAndGet();
+        }
+    }
+
+    private void rememberOrders(UserOrderSummary summary) {
+        for (UserOrderSummary.Entry entry : summary.getEntries()) {
+            orderOwners.put(entry.getOrder().getId(), summary.getUserId());
+        }
+    }
+
+    private void forgetOrders(UserOrderSummary summary) {
+        for (UserOrderSummary.Entry entry : summary.getEntries()) {
+            orderOwners.remove(entry.getOrder().getId());
+        }
+    }
+}
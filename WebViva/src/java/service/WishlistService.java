@@ -0,0 +1,248 @@
+package service;
+
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import util.HibernateUtil;
+import util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wishlist writes and a per-user cache of wishlisted product ids.
+ *
+ * Each user's wishlist is read from the database once and then answered from
+ * memory, so the product grid can ask "which of these are wishlisted?" for a
+ * whole page without a query. Adds and removes take any number of products
+ * in one statement: adds are an INSERT IGNORE ... SELECT against the
+ * unique_user_product_wishlist key, removes a single DELETE ... IN.
+ */
+public class WishlistService {
+    // Products accepted per add/remove call
+    public static final int MAX_BATCH = 200;
+
+    private static final int MAX_USERS = 10000;
+    private static final long TTL_MS = 5 * 60 * 1000L;
+
+    private static final WishlistService INSTANCE = new WishlistService();
+
+    /**
+     * One wishlist row.
+     */
+    public static class Entry {
+        private final Long id;
+        private final Long productId;
+        private final Date addedAt;
+
+        Entry(Long id, Long productId, Date addedAt) {
+            this.id = id;
+            this.productId = productId;
+            this.addedAt = addedAt;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public Date getAddedAt() {
+            return addedAt;
+        }
+    }
+
+    // Immutable snapshot of a user's wishlist, newest first
+    private static class UserWishlist {
+        final List<Entry> entries;
+        final Map<Long, Entry> byProduct;
+        final long loadedAt;
+
+        UserWishlist(List<Entry> entries, long loadedAt) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.byProduct = new HashMap<>();
+            for (Entry entry : entries) {
+                byProduct.put(entry.productId, entry);
+            }
+            this.loadedAt = loadedAt;
+        }
+
+        UserWishlist without(Collection<Long> productIds) {
+            List<Entry> kept = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                if (!productIds.contains(entry.productId)) {
+                    kept.add(entry);
+                }
+            }
+            return new UserWishlist(kept, loadedAt);
+        }
+    }
+
+    private final LruCache<Long, UserWishlist> wishlists = new LruCache<Long, UserWishlist>(MAX_USERS);
+
+    private WishlistService() {}
+
+    public static WishlistService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The user's wishlist rows, newest first.
+     */
+    public List<Entry> getEntries(Long userId) {
+        return wishlist(userId).entries;
+    }
+
+    /**
+     * Which of the given products the user has wishlisted.
+     */
+    public Map<Long, Boolean> contains(Long userId, Collection<Long> productIds) {
+        UserWishlist wishlist = wishlist(userId);
+        Map<Long, Boolean> result = new HashMap<>();
+        for (Long productId : productIds) {
+            result.put(productId, wishlist.byProduct.containsKey(productId));
+        }
+        return result;
+    }
+
+    /**
+     * Add products to the wishlist, skipping unknown or inactive products and
+     * ones already present. Returns the number of rows actually added.
+     */
+    public int add(Long userId, Collection<Long> productIds) {
+        final List<Long> ids = checkBatch(productIds);
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+
+            // Unknown and inactive products are filtered by the SELECT, duplicates by the unique key
+            SQLQuery insert = session.createSQLQuery(
+                "INSERT IGNORE INTO wishlist (user_id, product_id, added_at) " +
+                "SELECT :userId, p.id, :now FROM products p WHERE p.id IN (:ids) AND p.is_active = TRUE");
+            insert.addSynchronizedQuerySpace("wishlist");
+            insert.setParameter("userId", userId);
+            insert.setTimestamp("now", new Date());
+            insert.setParameterList("ids", ids);
+            int added = insert.executeUpdate();
+            transaction.commit();
+
+            if (added > 0) {
+                // New rows need their ids and timestamps, so reload rather than patch the cached copy
+                wishlists.put(userId, load(session, userId));
+            }
+            return added;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Remove products from the wishlist. Returns the number of rows removed.
+     */
+    public int remove(Long userId, Collection<Long> productIds) {
+        final List<Long> ids = checkBatch(productIds);
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+            SQLQuery delete = session.createSQLQuery("DELETE FROM wishlist WHERE user_id = :userId AND product_id IN (:ids)");
+            delete.addSynchronizedQuerySpace("wishlist");
+            delete.setParameter("userId", userId);
+            delete.setParameterList("ids", ids);
+            int removed = delete.executeUpdate();
+            transaction.commit();
+
+            wishlists.updateIfPresent(userId, current -> current.without(ids));
+            return removed;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Remove one wishlist row by its id. Returns false if the user has no such row.
+     */
+    public boolean removeEntry(Long userId, Long wishlistId) {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+            SQLQuery delete = session.createSQLQuery("DELETE FROM wishlist WHERE id = :wishlistId AND user_id = :userId");
+            delete.addSynchronizedQuerySpace("wishlist");
+            delete.setParameter("wishlistId", wishlistId);
+            delete.setParameter("userId", userId);
+            int removed = delete.executeUpdate();
+            transaction.commit();
+
+            if (removed > 0) {
+                invalidate(userId);
+            }
+            return removed > 0;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) transaction.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    public void invalidate(Long userId) {
+        wishlists.remove(userId);
+    }
+
+    private List<Long> checkBatch(Collection<Long> productIds) {
+        if (productIds == null || productIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one product ID is required");
+        }
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(productIds));
+        if (ids.size() > MAX_BATCH) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH + " products per request");
+        }
+        return ids;
+    }
+
+    private UserWishlist wishlist(Long userId) {
+        UserWishlist cached = wishlists.get(userId);
+        if (cached != null && System.currentTimeMillis() - cached.loadedAt < TTL_MS) {
+            return cached;
+        }
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            UserWishlist loaded = load(session, userId);
+            wishlists.put(userId, loaded);
+            return loaded;
+        } finally {
+            session.close();
+        }
+    }
+
+    private UserWishlist load(Session session, Long userId) {
+        Query query = session.createSQLQuery(
+            "SELECT id, product_id, added_at FROM wishlist WHERE user_id = :userId ORDER BY added_at DESC, id DESC");
+        query.setParameter("userId", userId);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.list();
+
+        List<Entry> entries = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            entries.add(new Entry(((Number) row[0]).longValue(), ((Number) row[1]).longValue(), (Date) row[2]));
+        }
+        return new UserWishlist(entries, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,79 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that adapts to observed latency (AIMD).
+ *
+ * Every finished request feeds its latency into a moving average. While the
+ * average stays under the target the limit grows by about one for every
+ * limit requests; once it rises above (the database is slowing down) the
+ * limit is cut by 10%, at most once per decrease interval.
+ * Requests beyond the current limit are refused instead of queueing behind
+ * the slow ones, which keeps latency bounded for the requests that do run.
+ */
+public class AdaptiveConcurrencyLimit {
+    private static final double SMOOTHING = 0.1;
+    private static final double DECREASE = 0.9;
+    private static final long DECREASE_INTERVAL_NANOS = 100 * 1000000L;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private volatile double averageLatencyNanos;
+    private volatile long lastDecrease = System.nanoTime();
+
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit, long targetLatencyMs) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatencyMs * 1000000L;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Try to start a request. Every true result must be followed by release().
+     */
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > (int) limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finish a request that took latencyNanos.
+     */
+    public void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        // Races between threads only blur the average slightly, which is fine here
+        double average = averageLatencyNanos == 0 ? latencyNanos
+                : averageLatencyNanos + SMOOTHING * (latencyNanos - averageLatencyNanos);
+        averageLatencyNanos = average;
+        double current = limit;
+        if (average > targetLatencyNanos) {
+            long now = System.nanoTime();
+            if (now - lastDecrease > DECREASE_INTERVAL_NANOS) {
+                lastDecrease = now;
+                limit = Math.max(minLimit, current * DECREASE);
+            }
+        } else {
+            limit = Math.min(maxLimit, current + 1.0 / Math.max(1.0, current));
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAverageLatencyMs() {
+        return (long) (averageLatencyNanos / 1000000L);
+    }
+}
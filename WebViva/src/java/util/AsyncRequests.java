@@ -0,0 +1,217 @@
+package util;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs slow servlet work on a small bounded pool instead of a container
+ * request thread, using Servlet 3 async processing.
+ *
+ * The container thread returns as soon as the work is queued, so slow order
+ * traffic cannot tie up the threads that serve catalog browsing. When the
+ * queue is full, or a request has waited in it too long, the client gets a
+ * 503 with Retry-After straight away instead of piling up more work.
+ *
+ * Handlers write their status and body to a Reply that is copied to the
+ * response when they finish, so a request that hits the hard timeout gets a
+ * clean 503 rather than a half-written body. After a timeout the container
+ * may recycle the request and response for another client while the handler
+ * is still running, so handlers must not touch either: read what they need
+ * from the request before dispatch. Size the pool with -Ddynex.async.threads
+ * and -Ddynex.async.queue.
+ */
+public final class AsyncRequests {
+    private static final int THREADS = Integer.getInteger("dynex.async.threads", 16);
+    private static final int QUEUE_CAPACITY = Integer.getInteger("dynex.async.queue", 200);
+
+    // Work still queued after this long is answered with 503 instead of being run
+    private static final long MAX_QUEUE_WAIT_MS = 10 * 1000L;
+    // Hard limit for a request from dispatch to response
+    private static final long TIMEOUT_MS = 60 * 1000L;
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    /**
+     * Work for one request. Must not use the request or response; everything
+     * it sends goes through reply.
+     */
+    public interface Handler {
+        void handle(Reply reply) throws Exception;
+    }
+
+    /**
+     * Status and body of a handler's response, sent when it finishes unless
+     * the request has been answered already.
+     */
+    public static final class Reply {
+        private final StringWriter body = new StringWriter();
+        private final PrintWriter out = new PrintWriter(body);
+        private int status = HttpServletResponse.SC_OK;
+
+        public PrintWriter getWriter() {
+            return out;
+        }
+
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        static Reply error(Exception e) {
+            Reply reply = new Reply();
+            reply.setStatus(500);
+            reply.out.write("{\"success\": false, \"error\": \"" + escapeJson(e.getMessage()) + "\"}");
+            return reply;
+        }
+    }
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+        THREADS, THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+        new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "async-request-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+
+    private AsyncRequests() {}
+
+    /**
+     * Run handler for this request on the async pool. Falls back to running it
+     * inline when the servlet or a filter in front of it is not async-capable.
+     */
+    public static void dispatch(HttpServletRequest request, final HttpServletResponse response, final Handler handler)
+            throws IOException {
+        if (!request.isAsyncSupported()) {
+            Reply reply = handle(handler);
+            response.setStatus(reply.status);
+            response.getWriter().write(reply.body.toString());
+            return;
+        }
+
+        final AsyncContext context = request.startAsync();
+        context.setTimeout(TIMEOUT_MS);
+        final AtomicBoolean finished = new AtomicBoolean();
+        final long queuedAt = System.currentTimeMillis();
+
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                // The handler may still complete its work; its response is discarded
+                if (finished.compareAndSet(false, true)) {
+                    busy(response, "Request timed out, check its result before retrying");
+                    context.complete();
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                finished.set(true);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        try {
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.currentTimeMillis() - queuedAt > MAX_QUEUE_WAIT_MS) {
+                        finish(context, finished, response, null);
+                        return;
+                    }
+                    finish(context, finished, response, handle(handler));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finish(context, finished, response, null);
+        }
+    }
+
+    public static int getQueueSize() {
+        return EXECUTOR.getQueue().size();
+    }
+
+    public static int getActiveCount() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    public static void shutdown() {
+        EXECUTOR.shutdown();
+    }
+
+    private static Reply handle(Handler handler) {
+        Reply reply = new Reply();
+        try {
+            handler.handle(reply);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Reply.error(e);
+        }
+        reply.out.flush();
+        return reply;
+    }
+
+    // Send the handler's reply, or a 503 when it is null; only the first caller touches the response
+    private static void finish(AsyncContext context, AtomicBoolean finished, HttpServletResponse response, Reply reply) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (reply == null) {
+                busy(response, "Server is busy, please retry shortly");
+            } else {
+                response.setStatus(reply.status);
+                response.getWriter().write(reply.body.toString());
+            }
+        } catch (IOException e) {
+            System.out.println("AsyncRequests: could not write response: " + e.getMessage());
+        } finally {
+            context.complete();
+        }
+    }
+
+    private static void busy(HttpServletResponse response, String message) throws IOException {
+        response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        respond(response, 503, "{\"success\": false, \"error\": \"" + escapeJson(message) + "\"}");
+    }
+
+    private static void respond(HttpServletResponse response, int status, String body) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(body);
+    }
+
+    private static String escapeJson(String str) {
+        if (str == null) return "";
+        return str.replace("\\", "\\\\")
+                  .replace("\"", "\\\"")
+                  .replace("\n", "\\n")
+                  .replace("\r", "\\r")
+                  .replace("\t", "\\t");
+    }
+}
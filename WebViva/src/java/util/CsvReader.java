@@ -0,0 +1,121 @@
+package util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming RFC 4180 CSV reader. Reads one record at a time from the
+ * underlying reader, so memory use is bounded by the largest record.
+ * Quoted fields may contain commas, doubled quotes and line breaks.
+ */
+public class CsvReader {
+    private final Reader reader;
+    private int lineNumber = 1;
+    private int recordLine = 1;
+    private int pushedBack = -2;
+
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Next record, or null at end of input. Blank lines are skipped.
+     */
+    public List<String> readRecord() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        boolean sawAny = false;
+        recordLine = lineNumber;
+
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (inQuotes) {
+                    throw new IOException("Unterminated quoted field starting on line " + recordLine);
+                }
+                if (!sawAny) {
+                    return null;
+                }
+                fields.add(field.toString());
+                return fields;
+            }
+
+            if (inQuotes) {
+                if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        inQuotes = false;
+                        unread(next);
+                    }
+                } else {
+                    if (c == '\n') lineNumber++;
+                    field.append((char) c);
+                }
+                continue;
+            }
+
+            if (c == '\r') {
+                int next = read();
+                if (next != '\n') unread(next);
+                c = '\n';
+            }
+
+            if (c == '\n') {
+                lineNumber++;
+                if (!sawAny) {
+                    recordLine = lineNumber;
+                    continue;
+                }
+                fields.add(field.toString());
+                return fields;
+            }
+
+            sawAny = true;
+            if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && field.length() == 0) {
+                inQuotes = true;
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Line on which the last returned record started.
+     */
+    public int getRecordLine() {
+        return recordLine;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+
+    /**
+     * Quote a value for output when it contains a separator, quote or line break.
+     */
+    public static String escape(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,199 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process event bus on a fixed ring buffer, without locks.
+ *
+ * One thread publishes; every subscriber has its own thread and its own read
+ * position, so a slow subscriber never holds up the others, only the
+ * publisher once it is a whole ring behind. Subscribers receive events in
+ * publish order, in batches of everything available (up to their batch
+ * size). A batch whose handler throws is retried with backoff until it
+ * succeeds or the bus shuts down; events are never skipped.
+ *
+ * minimumDelivered() is the highest sequence every subscriber has handled,
+ * which lets the publisher acknowledge the source of an event only after all
+ * of them have it.
+ */
+public final class EventBus<E> {
+
+    /**
+     * Receives events in order. A batch that throws is delivered again, so
+     * handling must be idempotent.
+     */
+    public interface Subscriber<E> {
+        void onEvents(List<E> batch) throws Exception;
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FIRST_RETRY_MS = 100;
+    private static final long MAX_RETRY_MS = 30 * 1000L;
+
+    private final String name;
+    private final int mask;
+    private final AtomicReferenceArray<E> ring;
+    // Sequence of the last event published; readers may read up to here
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<Consumer> consumers = new ArrayList<Consumer>();
+    private volatile boolean running;
+
+    /**
+     * @param capacity ring size, rounded up to a power of two
+     */
+    public EventBus(String name, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.name = name;
+        this.mask = size - 1;
+        this.ring = new AtomicReferenceArray<E>(size);
+    }
+
+    /**
+     * Add a subscriber. Only before start().
+     */
+    public synchronized void subscribe(String subscriberName, int maxBatch, Subscriber<E> subscriber) {
+        if (running) {
+            throw new IllegalStateException("EventBus " + name + " is already started");
+        }
+        consumers.add(new Consumer(subscriberName, Math.max(1, maxBatch), subscriber));
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Consumer consumer : consumers) {
+            Thread thread = new Thread(consumer, name + "-" + consumer.name);
+            thread.setDaemon(true);
+            consumer.thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Publish one event and return its sequence, or -1 if the bus was shut
+     * down while waiting for room. Blocks while the slowest subscriber is a
+     * full ring behind. Only one thread may publish.
+     */
+    public long publish(E event) {
+        long sequence = cursor.get() + 1;
+        // The slot is free once every subscriber is past the event a ring ago
+        while (sequence - minimumDelivered() > ring.length()) {
+            if (!running) {
+                return -1;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        ring.lazySet((int) sequence & mask, event);
+        cursor.set(sequence);
+        for (Consumer consumer : consumers) {
+            if (consumer.waiting) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Highest sequence that every subscriber has handled; -1 before the first.
+     * With no subscribers, everything published counts as delivered.
+     */
+    public long minimumDelivered() {
+        long minimum = cursor.get();
+        for (Consumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.delivered.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * Stop the subscriber threads, letting each finish the batch it is
+     * handling. Events not yet delivered are dropped from the ring; the
+     * publisher still holds their sources, since they were never acknowledged.
+     */
+    public void shutdown(long waitMs) {
+        running = false;
+        long deadline = System.currentTimeMillis() + waitMs;
+        for (Consumer consumer : consumers) {
+            if (consumer.thread == null) {
+                continue;
+            }
+            LockSupport.unpark(consumer.thread);
+            try {
+                consumer.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class Consumer implements Runnable {
+        final String name;
+        final int maxBatch;
+        final Subscriber<E> subscriber;
+        final AtomicLong delivered = new AtomicLong(-1);
+        volatile boolean waiting;
+        volatile Thread thread;
+
+        Consumer(String name, int maxBatch, Subscriber<E> subscriber) {
+            this.name = name;
+            this.maxBatch = maxBatch;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long next = delivered.get() + 1;
+                long available = cursor.get();
+                if (available < next) {
+                    waiting = true;
+                    // Re-check after announcing, so a publish in between is not missed
+                    if (cursor.get() < next && running) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                long last = Math.min(available, next + maxBatch - 1);
+                List<E> batch = new ArrayList<E>((int) (last - next + 1));
+                for (long sequence = next; sequence <= last; sequence++) {
+                    batch.add(ring.get((int) sequence & mask));
+                }
+                if (deliver(Collections.unmodifiableList(batch))) {
+                    delivered.set(last);
+                }
+            }
+        }
+
+        // False only if the bus shut down before the batch went through
+        private boolean deliver(List<E> batch) {
+            long backoff = FIRST_RETRY_MS;
+            while (true) {
+                try {
+                    subscriber.onEvents(batch);
+                    return true;
+                } catch (Exception e) {
+                    System.out.println("EventBus " + EventBus.this.name + ": subscriber " + name
+                        + " failed on " + batch.size() + " events, retrying in " + backoff + " ms: " + e.getMessage());
+                }
+                long wakeAt = System.currentTimeMillis() + backoff;
+                while (running && System.currentTimeMillis() < wakeAt) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(wakeAt - System.currentTimeMillis()));
+                }
+                if (!running) {
+                    return false;
+                }
+                backoff = Math.min(backoff * 2, MAX_RETRY_MS);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package util;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs EXPLAIN on the backend's hot query shapes and logs any that scan a
+ * whole table or sort rows that an index should already deliver in order.
+ *
+ * Meant for development databases: AppLifecycleListener runs it at startup
+ * when the connection points at localhost, so a dropped index or a
+ * new query that misses every index shows up in the log before it reaches
+ * production. A full scan with no usable index is a warning; a full scan the
+ * optimizer chose despite an index (common on small local tables) is info.
+ */
+public final class IndexAdvisor {
+
+    /**
+     * A query shape to check, with literal sample values in place of parameters.
+     */
+    public static class HotQuery {
+        private final String name;
+        private final String sql;
+        private final boolean indexOrdered;
+
+        public HotQuery(String name, String sql, boolean indexOrdered) {
+            this.name = name;
+            this.sql = sql;
+            this.indexOrdered = indexOrdered;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        // True when an index is expected to supply the ORDER BY, so a filesort is a regression
+        public boolean isIndexOrdered() {
+            return indexOrdered;
+        }
+    }
+
+    private static final List<HotQuery> QUERIES = new ArrayList<HotQuery>();
+
+    static {
+        register(new HotQuery("product list",
+            "SELECT * FROM products WHERE is_active = TRUE ORDER BY created_at DESC LIMIT 20", true));
+        register(new HotQuery("product list by category",
+            "SELECT * FROM products WHERE is_active = TRUE AND category_id = 1 ORDER BY created_at DESC LIMIT 20", true));
+        register(new HotQuery("product by sku",
+            "SELECT id FROM products WHERE sku = 'SKU-1'", false));
+        register(new HotQuery("product sizes",
+            "SELECT * FROM product_sizes WHERE product_id IN (1, 2, 3)", false));
+        register(new HotQuery("user order history",
+            "SELECT * FROM orders WHERE user_id = 1 ORDER BY created_at DESC LIMIT 21", true));
+        register(new HotQuery("admin order list",
+            "SELECT * FROM orders ORDER BY created_at DESC LIMIT 50", true));
+        register(new HotQuery("order items for orders",
+            "SELECT * FROM order_items WHERE order_id IN (1, 2, 3) ORDER BY order_id, id", true));
+        register(new HotQuery("orders in date range",
+            "SELECT id FROM orders WHERE created_at >= '2024-01-01' AND created_at < '2024-02-01'", false));
+        register(new HotQuery("product reviews page",
+            "SELECT * FROM product_reviews WHERE product_id = 1 ORDER BY id DESC LIMIT 11", true));
+        register(new HotQuery("user wishlist",
+            "SELECT id, product_id, added_at FROM wishlist WHERE user_id = 1", false));
+        register(new HotQuery("user cart",
+            "SELECT ci.* FROM carts c JOIN cart_items ci ON ci.cart_id = c.id WHERE c.user_id = 1", false));
+    }
+
+    private IndexAdvisor() {}
+
+    /**
+     * Add a query shape to the startup check.
+     */
+    public static synchronized void register(HotQuery query) {
+        QUERIES.add(query);
+    }
+
+    public static synchronized List<HotQuery> getQueries() {
+        return Collections.unmodifiableList(new ArrayList<HotQuery>(QUERIES));
+    }
+
+    /**
+     * EXPLAIN every registered query and log problems. Returns the number of warnings.
+     */
+    public static int run() {
+        final List<HotQuery> queries = getQueries();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.doReturningWork(new ReturningWork<Integer>() {
+                @Override
+                public Integer execute(Connection connection) throws SQLException {
+                    int warnings = 0;
+                    for (HotQuery query : queries) {
+                        warnings += explain(connection, query);
+                    }
+                    System.out.println("IndexAdvisor: checked " + queries.size() + " queries, " + warnings + " warning(s)");
+                    return warnings;
+                }
+            });
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Whether the configured database is a local one (the advisor's default target).
+     */
+    public static boolean isLocalDatabase() {
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            String url = session.doReturningWork(new ReturningWork<String>() {
+                @Override
+                public String execute(Connection connection) throws SQLException {
+                    return connection.getMetaData().getURL();
+                }
+            });
+            return url != null && url.startsWith("jdbc:mysql:")
+                    && (url.contains("//localhost") || url.contains("//127.0.0.1"));
+        } finally {
+            session.close();
+        }
+    }
+
+    private static int explain(Connection connection, HotQuery query) {
+        int warnings = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("EXPLAIN " + query.getSql())) {
+            while (rs.next()) {
+                String table = rs.getString("table");
+                String type = rs.getString("type");
+                String possibleKeys = rs.getString("possible_keys");
+                String key = rs.getString("key");
+                long rows = rs.getLong("rows");
+                String extra = rs.getString("Extra");
+
+                if ("ALL".equals(type)) {
+                    if (possibleKeys == null) {
+                        warnings++;
+                        System.out.println("IndexAdvisor WARNING: " + query.getName() + " scans all of " + table
+                                + " (~" + rows + " rows) with no usable index: " + query.getSql());
+                    } else {
+                        System.out.println("IndexAdvisor: " + query.getName() + " scans " + table + " (~" + rows
+                                + " rows) although " + possibleKeys + " could be used; expected on small tables");
+                    }
+                }
+                if (query.isIndexOrdered() && extra != null && extra.contains("Using filesort")) {
+                    warnings++;
+                    System.out.println("IndexAdvisor WARNING: " + query.getName() + " sorts " + table
+                            + " rows instead of reading them in index order (key: " + key + "): " + query.getSql());
+                }
+            }
+        } catch (SQLException e) {
+            warnings++;
+            System.out.println("IndexAdvisor WARNING: could not EXPLAIN " + query.getName() + ": " + e.getMessage());
+        }
+        return warnings;
+    }
+}
@@ -0,0 +1,171 @@
+package util;
+
+/**
+ * Map from long to int on two primitive arrays, for large sparse counters
+ * where boxed HashMap entries would cost several times the memory.
+ *
+ * Open addressing with linear probing; removal shifts the following entries
+ * back, so there are no tombstones and a counter that drops to zero frees
+ * its slot. Keys must not be 0 (0 marks an empty slot). Not thread-safe.
+ */
+public final class LongIntHashMap {
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int resizeAt;
+
+    public LongIntHashMap() {
+        this(8);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(Math.max(4, Integer.highestOneBit((int) (Math.max(2, expectedSize) / LOAD_FACTOR) - 1) << 1));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(long key, int defaultValue) {
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    public void put(long key, int value) {
+        int slot = find(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+        } else {
+            insert(slot, key, value);
+        }
+    }
+
+    /**
+     * Add delta to the value of key (absent counts as 0) and return the new
+     * value. A result of 0 removes the key.
+     */
+    public int addTo(long key, int delta) {
+        int slot = find(key);
+        if (keys[slot] != key) {
+            if (delta != 0) {
+                insert(slot, key, delta);
+            }
+            return delta;
+        }
+        int value = values[slot] + delta;
+        if (value == 0) {
+            removeSlot(slot);
+        } else {
+            values[slot] = value;
+        }
+        return value;
+    }
+
+    public void remove(long key) {
+        int slot = find(key);
+        if (keys[slot] == key) {
+            removeSlot(slot);
+        }
+    }
+
+    /**
+     * Add every value of other to this map.
+     */
+    public void addAll(LongIntHashMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != 0) {
+                addTo(other.keys[i], other.values[i]);
+            }
+        }
+    }
+
+    // Iteration without allocation: for (i < capacity()) if (keyAt(i) != 0) use keyAt(i), valueAt(i)
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    // Slot holding key, or the empty slot where it would go
+    private int find(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("LongIntHashMap keys must not be 0");
+        }
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insert(int slot, long key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(keys.length << 1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int target = find(oldKeys[i]);
+                    keys[target] = oldKeys[i];
+                    values[target] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    // Backward-shift deletion: move later entries of the probe run into the gap
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != 0) {
+            int home = mix(keys[next]) & mask;
+            // The entry can fill the gap unless its home lies cyclically in (gap, next]
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        size--;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                if (text.length() > 1) text.append(", ");
+                text.append(keys[i]).append('=').append(values[i]);
+            }
+        }
+        return text.append('}').toString();
+    }
+
+}
@@ -0,0 +1,95 @@
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Small thread-safe LRU map with a fixed entry limit.
+ * Least recently used entries are evicted once the limit is reached;
+ * subclasses can override onEvict to clean up secondary indexes.
+ */
+public class LruCache<K, V> {
+    private final int maxEntries;
+    private final LinkedHashMap<K, V> map;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        // accessOrder = true so get() moves an entry to the tail
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxEntries) {
+                    evictions++;
+                    onEvict(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        map.put(key, value);
+    }
+
+    // Atomically replace an existing entry; a null result removes it. Absent keys are left alone.
+    public synchronized V updateIfPresent(K key, UnaryOperator<V> updater) {
+        V current = map.get(key);
+        if (current == null) {
+            return null;
+        }
+        V updated = updater.apply(current);
+        if (updated == null) {
+            map.remove(key);
+        } else {
+            map.put(key, updated);
+        }
+        return updated;
+    }
+
+    public synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Called with the cache lock held, just before an entry is dropped
+    protected void onEvict(K key, V value) {
+    }
+}
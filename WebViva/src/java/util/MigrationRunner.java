@@ -0,0 +1,374 @@
+package util;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.ReturningWork;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the versioned scripts in db/migration at startup, in order.
+ *
+ * Scripts are listed in db/migration/index.txt and named V{n}__{description}.sql.
+ * Applied versions are recorded in schema_migrations with a SHA-256 checksum;
+ * a script that changed after it was applied stops the deployment rather
+ * than leaving nodes on different schemas. When several nodes start at once,
+ * a row in schema_migrations_lock lets one of them migrate while the others
+ * wait, then re-read what was applied. The holder refreshes the lock every
+ * LOCK_HEARTBEAT_MS, so a lock left by a node that died goes stale within
+ * minutes and a waiting node takes it over. The common case (nothing
+ * pending) is one small SELECT and takes no lock.
+ *
+ * CREATE INDEX statements are run with ALGORITHM=INPLACE LOCK=NONE, so MySQL
+ * builds the index without blocking writes (or fails instead of locking), and
+ * are skipped if the index already exists, so a half-applied script can
+ * simply be retried. The baseline schema still comes from dynex_database.sql.
+ */
+public final class MigrationRunner {
+    private static final String LOCATION = "db/migration/";
+    private static final String INDEX = LOCATION + "index.txt";
+
+    private static final Pattern NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+        "(?is)CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+`?(\\w+)`?\\s+ON\\s+`?(\\w+)`?.*");
+
+    // A lock not refreshed for this long is assumed to belong to a node that died mid-migration
+    private static final int LOCK_STALE_MINUTES = 2;
+    private static final long LOCK_HEARTBEAT_MS = 30 * 1000L;
+    // Longer than LOCK_STALE_MINUTES, so a waiting node outlasts a dead holder's lock
+    private static final long LOCK_WAIT_MS = 10 * 60 * 1000L;
+    private static final long LOCK_POLL_MS = 2000L;
+
+    /**
+     * One migration script.
+     */
+    public static class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+        private final String checksum;
+
+        Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = sha256(script);
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        // Statements end with ';' at the end of a line; "--" comment lines are dropped
+        List<String> statements() {
+            List<String> statements = new ArrayList<String>();
+            StringBuilder current = new StringBuilder();
+            for (String line : script.split("\n")) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("--")) continue;
+                current.append(line).append('\n');
+                if (trimmed.endsWith(";")) {
+                    String statement = current.toString().trim();
+                    statements.add(statement.substring(0, statement.length() - 1).trim());
+                    current.setLength(0);
+                }
+            }
+            if (current.toString().trim().length() > 0) {
+                statements.add(current.toString().trim());
+            }
+            return statements;
+        }
+    }
+
+    private MigrationRunner() {}
+
+    /**
+     * Apply all pending migrations. Returns the number applied.
+     */
+    public static int migrate() {
+        final List<Migration> migrations = load();
+        final String owner = ownerName();
+        Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            return session.doReturningWork(new ReturningWork<Integer>() {
+                @Override
+                public Integer execute(Connection connection) throws SQLException {
+                    boolean autoCommit = connection.getAutoCommit();
+                    // MySQL commits DDL implicitly, so run every statement on its own
+                    connection.setAutoCommit(true);
+                    try {
+                        return migrate(connection, migrations, owner);
+                    } finally {
+                        connection.setAutoCommit(autoCommit);
+                    }
+                }
+            });
+        } finally {
+            session.close();
+        }
+    }
+
+    private static int migrate(Connection connection, List<Migration> migrations, String owner) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                "version INT NOT NULL PRIMARY KEY, description VARCHAR(200) NOT NULL, " +
+                "checksum CHAR(64) NOT NULL, applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "execution_ms BIGINT NOT NULL DEFAULT 0)");
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_migrations_lock (" +
+                "id TINYINT NOT NULL PRIMARY KEY, locked_by VARCHAR(200) NULL, locked_at TIMESTAMP NULL)");
+            statement.execute("INSERT IGNORE INTO schema_migrations_lock (id) VALUES (1)");
+        }
+
+        if (pending(migrations, applied(connection)).isEmpty()) {
+            System.out.println("MigrationRunner: schema is up to date (" + migrations.size() + " migrations)");
+            return 0;
+        }
+
+        acquireLock(connection, owner);
+        Thread heartbeat = startHeartbeat(owner);
+        try {
+            // Another node may have migrated while we waited for the lock
+            List<Migration> pending = pending(migrations, applied(connection));
+            for (Migration migration : pending) {
+                apply(connection, migration);
+            }
+            return pending.size();
+        } finally {
+            heartbeat.interrupt();
+            releaseLock(connection, owner);
+        }
+    }
+
+    private static void apply(Connection connection, Migration migration) throws SQLException {
+        System.out.println("MigrationRunner: applying V" + migration.version + "__" + migration.description);
+        long started = System.currentTimeMillis();
+        for (String sql : migration.statements()) {
+            Matcher createIndex = CREATE_INDEX.matcher(sql);
+            if (createIndex.matches()) {
+                if (indexExists(connection, createIndex.group(2), createIndex.group(1))) {
+                    System.out.println("MigrationRunner: index " + createIndex.group(1) + " already exists, skipped");
+                    continue;
+                }
+                if (!sql.toUpperCase().contains("ALGORITHM")) {
+                    sql = sql + " ALGORITHM=INPLACE LOCK=NONE";
+                }
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                throw new SQLException("Migration V" + migration.version + " failed at: " + sql + " (" + e.getMessage() + ")", e);
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO schema_migrations (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)")) {
+            ps.setInt(1, migration.version);
+            ps.setString(2, migration.description);
+            ps.setString(3, migration.checksum);
+            ps.setLong(4, System.currentTimeMillis() - started);
+            ps.executeUpdate();
+        }
+        System.out.println("MigrationRunner: applied V" + migration.version + " in " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    // Pending migrations in order; fails if an applied script has since been edited
+    private static List<Migration> pending(List<Migration> migrations, Map<Integer, String> applied) {
+        List<Migration> pending = new ArrayList<Migration>();
+        for (Migration migration : migrations) {
+            String checksum = applied.get(migration.version);
+            if (checksum == null) {
+                pending.add(migration);
+            } else if (!checksum.equals(migration.checksum)) {
+                throw new IllegalStateException("Migration V" + migration.version + "__" + migration.description
+                        + " was changed after it was applied; add a new migration instead");
+            }
+        }
+        return pending;
+    }
+
+    private static Map<Integer, String> applied(Connection connection) throws SQLException {
+        Map<Integer, String> applied = new HashMap<Integer, String>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) {
+                applied.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return applied;
+    }
+
+    private static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT COUNT(*) FROM information_schema.statistics " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?")) {
+            ps.setString(1, table);
+            ps.setString(2, index);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private static void acquireLock(Connection connection, String owner) throws SQLException {
+        long deadline = System.currentTimeMillis() + LOCK_WAIT_MS;
+        while (true) {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "UPDATE schema_migrations_lock SET locked_by = ?, locked_at = CURRENT_TIMESTAMP " +
+                    "WHERE id = 1 AND (locked_by IS NULL OR locked_at < CURRENT_TIMESTAMP - INTERVAL " +
+                    LOCK_STALE_MINUTES + " MINUTE)")) {
+                ps.setString(1, owner);
+                if (ps.executeUpdate() == 1) {
+                    return;
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Timed out waiting for the schema migration lock");
+            }
+            System.out.println("MigrationRunner: another node is migrating, waiting");
+            try {
+                Thread.sleep(LOCK_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the schema migration lock");
+            }
+        }
+    }
+
+    // Refreshes locked_at from its own connection while the migration runs on the main one
+    private static Thread startHeartbeat(final String owner) {
+        Thread heartbeat = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(LOCK_HEARTBEAT_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    Session session = HibernateUtil.getSessionFactory().openSession();
+                    Transaction tx = null;
+                    try {
+                        tx = session.beginTransaction();
+                        session.createSQLQuery(
+                                "UPDATE schema_migrations_lock SET locked_at = CURRENT_TIMESTAMP WHERE id = 1 AND locked_by = ?")
+                            .setParameter(0, owner)
+                            .executeUpdate();
+                        tx.commit();
+                    } catch (RuntimeException e) {
+                        if (tx != null && tx.isActive()) tx.rollback();
+                        System.out.println("MigrationRunner: could not refresh the migration lock: " + e.getMessage());
+                    } finally {
+                        session.close();
+                    }
+                }
+            }
+        }, "migration-lock-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        return heartbeat;
+    }
+
+    private static void releaseLock(Connection connection, String owner) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "UPDATE schema_migrations_lock SET locked_by = NULL, locked_at = NULL WHERE id = 1 AND locked_by = ?")) {
+            ps.setString(1, owner);
+            ps.executeUpdate();
+        }
+    }
+
+    private static List<Migration> load() {
+        List<Migration> migrations = new ArrayList<Migration>();
+        int lastVersion = 0;
+        for (String name : readLines(INDEX)) {
+            Matcher matcher = NAME.matcher(name);
+            if (!matcher.matches()) {
+                throw new IllegalStateException("Bad migration name in " + INDEX + ": " + name);
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            if (version <= lastVersion) {
+                throw new IllegalStateException("Migrations must be listed in increasing version order: " + name);
+            }
+            lastVersion = version;
+
+            StringBuilder script = new StringBuilder();
+            for (String line : readLines(LOCATION + name)) {
+                script.append(line).append('\n');
+            }
+            migrations.add(new Migration(version, matcher.group(2), script.toString()));
+        }
+        return migrations;
+    }
+
+    // Lines of a classpath resource, without line terminators; blank lines and "#" comments dropped for the index
+    private static List<String> readLines(String resource) {
+        InputStream in = MigrationRunner.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalStateException("Missing classpath resource " + resource);
+        }
+        boolean isIndex = resource.equals(INDEX);
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isIndex) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                }
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + resource, e);
+        }
+        return lines;
+    }
+
+    private static String ownerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "unknown";
+        }
+        return host + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
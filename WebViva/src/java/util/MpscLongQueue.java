@@ -0,0 +1,87 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded queue of long values for many producer threads and one consumer,
+ * without locks: offer never blocks and simply fails when the queue is full.
+ *
+ * Each slot carries a sequence number (the bounded-queue scheme of Dmitry
+ * Vyukov): a producer claims the next slot with one CAS on the tail, writes
+ * the value and then publishes it by advancing the slot's sequence; the
+ * consumer reads a slot only once its sequence says it is filled, and hands
+ * it back to producers a lap later.
+ */
+public final class MpscLongQueue {
+    private final int mask;
+    private final long[] values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Written by the consumer thread only; volatile so size() can be read elsewhere
+    private volatile long head;
+
+    public MpscLongQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.values = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Add value unless the queue is full. Safe from any thread.
+     */
+    public boolean offer(long value) {
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    values[slot] = value;
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // The consumer has not freed this slot yet: full
+                return false;
+            }
+            // Another producer took the slot; try the next one
+        }
+    }
+
+    /**
+     * Move up to into.length values into into and return how many. Consumer
+     * thread only.
+     */
+    public int drain(long[] into) {
+        long position = head;
+        int count = 0;
+        while (count < into.length) {
+            int slot = (int) position & mask;
+            if (sequences.get(slot) != position + 1) {
+                break;
+            }
+            into[count++] = values[slot];
+            sequences.lazySet(slot, position + values.length);
+            position++;
+        }
+        head = position;
+        return count;
+    }
+
+    /**
+     * Approximate number of queued values.
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(values.length, size));
+    }
+}
@@ -0,0 +1,106 @@
+package util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cache that lets concurrent callers asking for the same key share one load.
+ *
+ * A value younger than freshMs is returned as is. Once it is older, the first
+ * caller reloads it while everyone else keeps getting the old value until it
+ * is staleMs old (stale-while-revalidate); after that, callers wait for the
+ * load already in flight instead of starting their own. If a reload fails
+ * and a stale value exists, the stale value is served.
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Loads the value for a key.
+     */
+    public interface Loader<V> {
+        V load() throws Exception;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long loadedAt;
+
+        Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final long freshMs;
+    private final long staleMs;
+    private final long waitMs;
+    private final LruCache<K, Entry<V>> values;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    /**
+     * @param waitMs how long a caller waits for someone else's load before giving up
+     */
+    public SingleFlight(int maxEntries, long freshMs, long staleMs, long waitMs) {
+        this.values = new LruCache<K, Entry<V>>(maxEntries);
+        this.freshMs = freshMs;
+        this.staleMs = staleMs;
+        this.waitMs = waitMs;
+    }
+
+    public V get(K key, Loader<V> loader) throws Exception {
+        Entry<V> cached = values.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.loadedAt < freshMs) {
+            return cached.value;
+        }
+        boolean usable = cached != null && now - cached.loadedAt < staleMs;
+
+        CompletableFuture<V> mine = new CompletableFuture<V>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return usable ? cached.value : await(running);
+        }
+
+        try {
+            V value = loader.load();
+            values.put(key, new Entry<V>(value, System.currentTimeMillis()));
+            mine.complete(value);
+            return value;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            if (usable) {
+                System.out.println("SingleFlight: reload of " + key + " failed, serving stale value: " + e.getMessage());
+                return cached.value;
+            }
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public void invalidate(K key) {
+        values.remove(key);
+    }
+
+    public void clear() {
+        values.clear();
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    private V await(CompletableFuture<V> running) throws Exception {
+        try {
+            return running.get(waitMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out waiting for a shared load");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package util;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit ids, unique across servers without coordination.
+ *
+ * Layout (Snowflake): 41 bits of milliseconds since 2024-01-01, 10 bits of
+ * node id, 12 bits of sequence. The millisecond and sequence live together
+ * in one AtomicLong, so next() is a single CAS: it takes the current time,
+ * or one past the last id if that is larger. Up to 4096 ids per millisecond
+ * per node; beyond that (or if the clock steps back) ids borrow from the
+ * following milliseconds instead of repeating.
+ *
+ * The node id comes from -Ddynex.nodeId (0-1023) and must differ between
+ * servers sharing a database; without it one is derived from the host name,
+ * which is fine for a single server.
+ */
+public final class SnowflakeId {
+    public static final long EPOCH_MS = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // Base 36 digits of the largest positive long, so all order numbers have the same length
+    private static final int ORDER_NUMBER_DIGITS = Long.toString(Long.MAX_VALUE, 36).length();
+
+    private static final SnowflakeId INSTANCE = new SnowflakeId(configuredNode());
+
+    private final long node;
+    // (milliseconds since EPOCH_MS << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeId(long node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("node id must be 0-" + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+    }
+
+    public static SnowflakeId getInstance() {
+        return INSTANCE;
+    }
+
+    public long next() {
+        long now = (System.currentTimeMillis() - EPOCH_MS) << SEQUENCE_BITS;
+        while (true) {
+            long previous = last.get();
+            long current = Math.max(now, previous + 1);
+            if (last.compareAndSet(previous, current)) {
+                return (current >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                        | node << SEQUENCE_BITS
+                        | current & SEQUENCE_MASK;
+            }
+        }
+    }
+
+    /**
+     * A new order number, e.g. "ORD-0000A1B2C3D4E". Fixed width, so numbers
+     * sort by creation time as strings too. Also used as the PayHere order_id.
+     */
+    public static String orderNumber() {
+        String digits = Long.toString(INSTANCE.next(), 36).toUpperCase();
+        StringBuilder number = new StringBuilder("ORD-");
+        for (int i = digits.length(); i < ORDER_NUMBER_DIGITS; i++) {
+            number.append('0');
+        }
+        return number.append(digits).toString();
+    }
+
+    /**
+     * Creation time of an id, in epoch milliseconds.
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MS;
+    }
+
+    private static long configuredNode() {
+        String configured = System.getProperty("dynex.nodeId");
+        if (configured != null) {
+            return Long.parseLong(configured.trim());
+        }
+        try {
+            long derived = (InetAddress.getLocalHost().getHostName().hashCode() & 0x7fffffffL) % (MAX_NODE + 1);
+            System.out.println("SnowflakeId: no -Ddynex.nodeId, using " + derived + " from the host name");
+            return derived;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
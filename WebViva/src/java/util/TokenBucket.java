@@ -0,0 +1,53 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket holding its whole state in one AtomicLong.
+ *
+ * Implemented as the generic cell rate algorithm: instead of a token count
+ * and a refill time, the bucket stores the time at which it will next be
+ * full ("theoretical arrival time"). Taking a token pushes that time forward
+ * by one refill interval; the request is refused when it would move more
+ * than burst intervals past now. This behaves exactly like a bucket of
+ * burst tokens refilled at ratePerMinute, with a single CAS per request.
+ */
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+    public TokenBucket(int ratePerMinute, int burst) {
+        if (ratePerMinute <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / ratePerMinute;
+        this.burstNanos = intervalNanos * burst;
+    }
+
+    /**
+     * Take one token. Returns 0 if granted, otherwise the nanoseconds until one is available.
+     */
+    public long tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long base = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+            long next = base + intervalNanos;
+            long ahead = next - now;
+            if (ahead > burstNanos) {
+                return ahead - burstNanos;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // True when the bucket has refilled completely and can be dropped
+    public boolean isIdle() {
+        long current = fullAt.get();
+        return current == Long.MIN_VALUE || current - System.nanoTime() < 0;
+    }
+}
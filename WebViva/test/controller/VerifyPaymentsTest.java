@@ -0,0 +1,38 @@
+package controller;
+
+import controller.VerifyPayments.PaymentUpdate;
+import model.Order;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class VerifyPaymentsTest {
+
+    @Test
+    public void firstCallbackConfirmsNewOrder() {
+        // As OrderServlet.createOrder leaves it
+        Order order = new Order(1L, "ORD-1", new BigDecimal("10.00"));
+        assertEquals(PaymentUpdate.CONFIRM, VerifyPayments.paymentUpdate(order.getStatus(), order.getPaymentStatus()));
+    }
+
+    @Test
+    public void repeatedCallbackDoesNothing() {
+        assertEquals(PaymentUpdate.NONE, VerifyPayments.paymentUpdate("CONFIRMED", "PAID"));
+    }
+
+    @Test
+    public void laterOrdersKeepTheirStatus() {
+        assertEquals(PaymentUpdate.MARK_PAID, VerifyPayments.paymentUpdate("SHIPPED", "PENDING"));
+        assertEquals(PaymentUpdate.MARK_PAID, VerifyPayments.paymentUpdate("CANCELLED", "PENDING"));
+        assertEquals(PaymentUpdate.NONE, VerifyPayments.paymentUpdate("DELIVERED", "PAID"));
+        assertEquals(PaymentUpdate.NONE, VerifyPayments.paymentUpdate("CANCELLED", "PAID"));
+    }
+
+    @Test
+    public void orderMarkedPaidBeforeCallbackIsStillConfirmed() {
+        // Orders created before payment_status started at PENDING
+        assertEquals(PaymentUpdate.CONFIRM, VerifyPayments.paymentUpdate("PENDING", "PAID"));
+    }
+}
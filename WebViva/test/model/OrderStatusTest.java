@@ -0,0 +1,60 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OrderStatusTest {
+
+    @Test
+    public void movesForwardAndMaySkipSteps() {
+        assertTrue(OrderStatus.PENDING.canMoveTo(OrderStatus.CONFIRMED));
+        assertTrue(OrderStatus.PENDING.canMoveTo(OrderStatus.SHIPPED));
+        assertTrue(OrderStatus.CONFIRMED.canMoveTo(OrderStatus.PROCESSING));
+        assertTrue(OrderStatus.SHIPPED.canMoveTo(OrderStatus.DELIVERED));
+    }
+
+    @Test
+    public void neverMovesBackOrStays() {
+        assertFalse(OrderStatus.CONFIRMED.canMoveTo(OrderStatus.PENDING));
+        assertFalse(OrderStatus.SHIPPED.canMoveTo(OrderStatus.PROCESSING));
+        for (OrderStatus status : OrderStatus.values()) {
+            assertFalse(status.canMoveTo(status));
+        }
+    }
+
+    @Test
+    public void cancellableUntilShipped() {
+        assertTrue(OrderStatus.PENDING.canMoveTo(OrderStatus.CANCELLED));
+        assertTrue(OrderStatus.CONFIRMED.canMoveTo(OrderStatus.CANCELLED));
+        assertTrue(OrderStatus.PROCESSING.canMoveTo(OrderStatus.CANCELLED));
+        assertFalse(OrderStatus.SHIPPED.canMoveTo(OrderStatus.CANCELLED));
+    }
+
+    @Test
+    public void finalStatusesGoNowhere() {
+        for (OrderStatus next : OrderStatus.values()) {
+            assertFalse(OrderStatus.DELIVERED.canMoveTo(next));
+            assertFalse(OrderStatus.CANCELLED.canMoveTo(next));
+        }
+    }
+
+    @Test
+    public void sourcesOfConfirmed() {
+        assertEquals(Arrays.asList(OrderStatus.PENDING), OrderStatus.sourcesOf(OrderStatus.CONFIRMED));
+        assertEquals(Arrays.asList(OrderStatus.PENDING, OrderStatus.CONFIRMED, OrderStatus.PROCESSING),
+                OrderStatus.sourcesOf(OrderStatus.CANCELLED));
+    }
+
+    @Test
+    public void parseIgnoresCaseAndSpaces() {
+        assertEquals(OrderStatus.SHIPPED, OrderStatus.parse(" shipped "));
+        assertNull(OrderStatus.parse("LOST"));
+        assertNull(OrderStatus.parse(null));
+    }
+}
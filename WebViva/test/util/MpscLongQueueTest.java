@@ -0,0 +1,101 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MpscLongQueueTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new MpscLongQueue(5).capacity());
+        assertEquals(8, new MpscLongQueue(8).capacity());
+        assertEquals(2, new MpscLongQueue(1).capacity());
+    }
+
+    @Test
+    public void refusesWhenFull() {
+        MpscLongQueue queue = new MpscLongQueue(4);
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(5));
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void drainsInOrderAcrossWraparound() {
+        MpscLongQueue queue = new MpscLongQueue(4);
+        long[] buffer = new long[3];
+        long next = 1;
+        long expected = 1;
+        // Many laps around the 4 slots, with partial drains
+        for (int round = 0; round < 100; round++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            int count = queue.drain(buffer);
+            assertTrue(count > 0);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected++, buffer[i]);
+            }
+        }
+        int count;
+        while ((count = queue.drain(buffer)) > 0) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected++, buffer[i]);
+            }
+        }
+        assertEquals(next, expected);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void drainOfEmptyQueueReturnsZero() {
+        assertEquals(0, new MpscLongQueue(4).drain(new long[4]));
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        final MpscLongQueue queue = new MpscLongQueue(1024);
+        final int producers = 4;
+        final int perProducer = 50000;
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final long base = (long) p * perProducer;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= perProducer; i++) {
+                        while (!queue.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        long[] buffer = new long[256];
+        long[] lastSeen = new long[producers];
+        long received = 0;
+        long sum = 0;
+        while (received < (long) producers * perProducer) {
+            int count = queue.drain(buffer);
+            for (int i = 0; i < count; i++) {
+                int producer = (int) ((buffer[i] - 1) / perProducer);
+                // Each producer's values arrive in the order it offered them
+                assertTrue(buffer[i] > lastSeen[producer]);
+                lastSeen[producer] = buffer[i];
+                sum += buffer[i];
+            }
+            received += count;
+        }
+        done.await();
+        long n = (long) producers * perProducer;
+        assertEquals(n * (n + 1) / 2, sum);
+    }
+}
@@ -0,0 +1,97 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnowflakeIdTest {
+
+    @Test
+    public void idsIncreaseWithinOneNode() {
+        SnowflakeId ids = new SnowflakeId(1);
+        long previous = ids.next();
+        // Far more than 4096 per millisecond, so the sequence overflows into later milliseconds
+        for (int i = 0; i < 100000; i++) {
+            long id = ids.next();
+            assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        final SnowflakeId ids = new SnowflakeId(7);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        long[] taken = new long[20000];
+                        for (int i = 0; i < taken.length; i++) {
+                            taken[i] = ids.next();
+                        }
+                        return taken;
+                    }
+                }));
+            }
+            Set<Long> seen = new HashSet<Long>();
+            for (Future<long[]> result : results) {
+                for (long id : result.get()) {
+                    assertTrue("duplicate " + id, seen.add(id));
+                }
+            }
+            assertEquals(8 * 20000, seen.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void nodesNeverCollide() {
+        SnowflakeId a = new SnowflakeId(0);
+        SnowflakeId b = new SnowflakeId(1023);
+        Set<Long> seen = new HashSet<Long>();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(seen.add(a.next()));
+            assertTrue(seen.add(b.next()));
+        }
+    }
+
+    @Test
+    public void timestampIsCreationTime() {
+        long before = System.currentTimeMillis();
+        long id = new SnowflakeId(3).next();
+        long after = System.currentTimeMillis();
+        long timestamp = SnowflakeId.timestampOf(id);
+        assertTrue(timestamp >= before && timestamp <= after);
+    }
+
+    @Test
+    public void orderNumbersHaveFixedWidthAndSortByTime() {
+        String previous = SnowflakeId.orderNumber();
+        for (int i = 0; i < 1000; i++) {
+            String number = SnowflakeId.orderNumber();
+            assertEquals(previous.length(), number.length());
+            assertTrue(number.startsWith("ORD-"));
+            assertTrue(number.compareTo(previous) > 0);
+            previous = number;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNodeOutOfRange() {
+        new SnowflakeId(1024);
+    }
+}
@@ -0,0 +1,52 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void grantsBurstThenRefuses() {
+        TokenBucket bucket = new TokenBucket(60, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("token " + i, 0, bucket.tryAcquire());
+        }
+        long wait = bucket.tryAcquire();
+        assertTrue("wait " + wait, wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void refillsAtRate() throws InterruptedException {
+        // One token per millisecond
+        TokenBucket bucket = new TokenBucket(60000, 1);
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+        Thread.sleep(5);
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    @Test
+    public void idleOnlyWhenFull() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(60000, 10);
+        assertTrue(bucket.isIdle());
+        bucket.tryAcquire();
+        assertFalse(bucket.isIdle());
+        Thread.sleep(5);
+        assertTrue(bucket.isIdle());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroBurst() {
+        new TokenBucket(60, 0);
+    }
+}
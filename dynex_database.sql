@@ -1,6 +1,9 @@
 -- ============================================
 -- DYNEX Clothing Brand Database Schema (FIXED)
 -- ============================================
+-- Schema changes after this baseline (indexes etc.) are versioned scripts in
+-- WebViva/src/java/db/migration, applied in order at startup by
+-- util.MigrationRunner and recorded in schema_migrations.
 
 -- Create Database
 CREATE DATABASE IF NOT EXISTS `dynex_clothing`;
@@ -109,6 +112,21 @@ CREATE TABLE IF NOT EXISTS `product_reviews` (
     UNIQUE KEY `unique_user_product_review` (`user_id`, `product_id`)
 );
 
+-- Per-product rating aggregates, kept in step with product_reviews by the
+-- backend on every review write so listings never aggregate reviews.
+CREATE TABLE IF NOT EXISTS `product_rating_summary` (
+    `product_id` BIGINT NOT NULL PRIMARY KEY,
+    `review_count` INT NOT NULL DEFAULT 0,
+    `rating_sum` INT NOT NULL DEFAULT 0,
+    `stars_1` INT NOT NULL DEFAULT 0,
+    `stars_2` INT NOT NULL DEFAULT 0,
+    `stars_3` INT NOT NULL DEFAULT 0,
+    `stars_4` INT NOT NULL DEFAULT 0,
+    `stars_5` INT NOT NULL DEFAULT 0,
+    `updated_at` TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    FOREIGN KEY (`product_id`) REFERENCES `products`(`id`) ON DELETE CASCADE
+);
+
 -- ============================================
 -- SHOPPING CART TABLES (NEW STRUCTURE)
 -- ============================================
@@ -191,6 +209,49 @@ CREATE TABLE IF NOT EXISTS `wishlist` (
     UNIQUE KEY `unique_user_product_wishlist` (`user_id`, `product_id`)
 );
 
+-- ============================================
+-- SALES ANALYTICS ROLLUP TABLES
+-- ============================================
+-- Maintained incrementally by the backend when orders are created or change
+-- status; rebuilt for a date range with POST /admin/analytics/backfill.
+-- sales_date is the day the order was placed. Revenue and units exclude
+-- cancelled orders; order_count counts every order placed that day.
+
+-- Daily totals
+CREATE TABLE IF NOT EXISTS `sales_daily` (
+    `sales_date` DATE NOT NULL PRIMARY KEY,
+    `order_count` INT NOT NULL DEFAULT 0,
+    `units_sold` INT NOT NULL DEFAULT 0,
+    `revenue` DECIMAL(14,2) NOT NULL DEFAULT 0.00
+);
+
+-- Orders per day by current status
+CREATE TABLE IF NOT EXISTS `sales_daily_status` (
+    `sales_date` DATE NOT NULL,
+    `status` VARCHAR(20) NOT NULL,
+    `order_count` INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (`sales_date`, `status`)
+);
+
+-- Daily sales per category (category_id 0 = uncategorised)
+CREATE TABLE IF NOT EXISTS `sales_daily_category` (
+    `sales_date` DATE NOT NULL,
+    `category_id` BIGINT NOT NULL,
+    `units_sold` INT NOT NULL DEFAULT 0,
+    `revenue` DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (`sales_date`, `category_id`)
+);
+
+-- Daily sales per product
+CREATE TABLE IF NOT EXISTS `sales_daily_product` (
+    `sales_date` DATE NOT NULL,
+    `product_id` BIGINT NOT NULL,
+    `units_sold` INT NOT NULL DEFAULT 0,
+    `revenue` DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+    PRIMARY KEY (`sales_date`, `product_id`),
+    KEY `idx_sales_daily_product_product` (`product_id`, `sales_date`)
+);
+
 -- ============================================
 -- DYNEX CLOTHING SAMPLE DATA
 -- ============================================
@@ -287,6 +348,15 @@ INSERT IGNORE INTO `product_reviews` (`product_id`, `user_id`, `rating`, `review
 (6, 2, 4, 'These jeans are amazing! The fit is perfect and they are so comfortable. Great quality denim.'),
 (8, 4, 5, 'Beautiful dress! Perfect for date nights and special occasions. The fit is flattering and the quality is excellent.');
 
+-- Build rating summaries from the sample reviews
+INSERT INTO `product_rating_summary` (`product_id`, `review_count`, `rating_sum`, `stars_1`, `stars_2`, `stars_3`, `stars_4`, `stars_5`)
+SELECT `product_id`, COUNT(*), SUM(`rating`),
+       SUM(`rating` = 1), SUM(`rating` = 2), SUM(`rating` = 3), SUM(`rating` = 4), SUM(`rating` = 5)
+FROM `product_reviews` GROUP BY `product_id`
+ON DUPLICATE KEY UPDATE `review_count` = VALUES(`review_count`), `rating_sum` = VALUES(`rating_sum`),
+    `stars_1` = VALUES(`stars_1`), `stars_2` = VALUES(`stars_2`), `stars_3` = VALUES(`stars_3`),
+    `stars_4` = VALUES(`stars_4`), `stars_5` = VALUES(`stars_5`);
+
 -- ============================================
 -- USEFUL QUERIES FOR CART OPERATIONS
 -- ============================================